@@ -19,6 +19,7 @@
  */
 package com.github.maven_nar;
 
+import java.io.File;
 import java.util.Collections;
 import java.util.List;
 
@@ -89,6 +90,61 @@ public abstract class AbstractCompileMojo extends AbstractDependencyMojo {
   @Parameter
   private int maxCores = 0;
 
+  /**
+   * Maximum number of sources compiled by one compiler process, for
+   * compilers that accept several sources at once (gcc, clang). 1 compiles
+   * each source with its own process.
+   */
+  @Parameter(property = "nar.compileBatchSize", defaultValue = "1")
+  private int compileBatchSize;
+
+  /**
+   * Compare sources and objects by content when their time stamp changed, so
+   * that touched but unchanged files do not cause a rebuild.
+   */
+  @Parameter(property = "nar.contentHash", defaultValue = "false")
+  private boolean contentHash;
+
+  /**
+   * Take the dependencies of each source from the compiler while compiling
+   * it (-MMD for gcc, /showIncludes for msvc) instead of parsing the sources.
+   */
+  @Parameter(property = "nar.compilerDependencies", defaultValue = "false")
+  private boolean compilerDependencies;
+
+  /**
+   * Keep the resolutions of include names between builds, so that unchanged
+   * include directories do not have to be searched again.
+   */
+  @Parameter(property = "nar.persistentIncludeCache", defaultValue = "false")
+  private boolean persistentIncludeCache;
+
+  /**
+   * Directory of an object cache, which may be shared by several projects
+   * and builds. Compiled objects are stored there and compiles of the same
+   * sources with the same compiler and options restore them instead of
+   * running the compiler. Objects are not cached if not set.
+   */
+  @Parameter(property = "nar.objectCache")
+  private File objectCache;
+
+  /**
+   * Size in megabytes the object cache is trimmed to, least recently used
+   * objects first.
+   */
+  @Parameter(property = "nar.objectCacheSize", defaultValue = "5120")
+  private long objectCacheSize;
+
+  /**
+   * Directory shared by several machines, for example on a network share,
+   * behind the object cache. Objects and executables or static libraries
+   * missing from the object cache are fetched from it and the ones built are
+   * published to it. Without objectCache, the object cache is kept in the
+   * object directory.
+   */
+  @Parameter(property = "nar.sharedBuildCache")
+  private File sharedBuildCache;
+
   /**
    * Fail on compilation/linking error.
    */
@@ -153,6 +209,10 @@ public abstract class AbstractCompileMojo extends AbstractDependencyMojo {
     return this.c;
   }
 
+  protected final int getCompileBatchSize() {
+    return this.compileBatchSize;
+  }
+
   protected final Cpp getCpp() {
     if (this.cpp == null && !this.onlySpecifiedCompilers) {
       setCpp(new Cpp());
@@ -197,6 +257,14 @@ public abstract class AbstractCompileMojo extends AbstractDependencyMojo {
     return this.message;
   }
 
+  protected final File getObjectCache() {
+    return this.objectCache;
+  }
+
+  protected final long getObjectCacheSize() {
+    return this.objectCacheSize;
+  }
+
   protected final String getOutput(final AOL aol, final String type) throws MojoExecutionException {
     return getNarInfo().getOutput(aol, getOutput(!Library.EXECUTABLE.equals(type)));
   }
@@ -212,6 +280,10 @@ public abstract class AbstractCompileMojo extends AbstractDependencyMojo {
     return getNarInfo().getProperty(aol, "runtime", this.runtime);
   }
 
+  protected final File getSharedBuildCache() {
+    return this.sharedBuildCache;
+  }
+
   protected final List getTests() {
     if (this.tests == null) {
       this.tests = Collections.EMPTY_LIST;
@@ -253,8 +325,19 @@ public abstract class AbstractCompileMojo extends AbstractDependencyMojo {
     resource.setAbstractCompileMojo(this);
   }
 
+  protected final boolean useCompilerDependencies() {
+    return this.compilerDependencies;
+  }
+
+  protected final boolean useContentHash() {
+    return this.contentHash;
+  }
+
   protected final boolean useLibtool(final AOL aol) throws MojoExecutionException {
     return getNarInfo().getProperty(aol, "libtool", this.libtool);
   }
 
+  protected final boolean usePersistentIncludeCache() {
+    return this.persistentIncludeCache;
+  }
 }
@@ -20,25 +20,22 @@
 package com.github.maven_nar;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.jar.JarFile;
-import java.util.zip.ZipException;
-import java.util.zip.ZipInputStream;
-import org.apache.commons.io.IOUtils;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.repository.ArtifactRepository;
-import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
-import org.apache.maven.artifact.resolver.ArtifactResolutionException;
 import org.apache.maven.artifact.resolver.ArtifactResolver;
 import org.apache.maven.artifact.versioning.InvalidVersionSpecificationException;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Component;
@@ -109,6 +106,27 @@ public abstract class AbstractDependencyMojo extends AbstractNarMojo {
   @Component(role = org.codehaus.plexus.archiver.manager.ArchiverManager.class)
   protected ArchiverManager archiverManager;
 
+  /**
+   * Number of NAR dependencies to unpack in parallel, 0 for one per
+   * processor.
+   */
+  @Parameter(property = "nar.unpackThreads", defaultValue = "0")
+  private int unpackThreads;
+
+  /**
+   * Number of attached NARs to resolve in parallel.
+   */
+  @Parameter(property = "nar.downloadThreads", defaultValue = "5")
+  private int downloadThreads;
+
+  /**
+   * The current build session instance.
+   */
+  @Component
+  protected MavenSession session;
+
+  private NarInfoCache narInfoCache;
+
   public final void downloadAttachedNars(final List<AttachedNarArtifact> dependencies)
       throws MojoExecutionException, MojoFailureException {
     getLog().debug("Download for NarDependencies {");
@@ -117,19 +135,8 @@ public abstract class AbstractDependencyMojo extends AbstractNarMojo {
     }
     getLog().debug("}");
 
-    for (final AttachedNarArtifact attachedNarArtifact : dependencies) {
-      final Artifact dependency = attachedNarArtifact;
-      try {
-        getLog().debug("Resolving " + dependency);
-        this.artifactResolver.resolve(dependency, this.remoteArtifactRepositories, getLocalRepository());
-      } catch (final ArtifactNotFoundException e) {
-        final String message = "nar not found " + dependency.getId();
-        throw new MojoExecutionException(message, e);
-      } catch (final ArtifactResolutionException e) {
-        final String message = "nar cannot resolve " + dependency.getId();
-        throw new MojoExecutionException(message, e);
-      }
-    }
+    AttachedNarResolver.getInstance(this.session).resolve(dependencies, this.artifactResolver,
+        this.remoteArtifactRepositories, getLocalRepository(), this.downloadThreads, getLog());
   }
 
   public final List<AttachedNarArtifact> getAllAttachedNarArtifacts(final List<NarArtifact> narArtifacts,
@@ -338,51 +345,23 @@ public abstract class AbstractDependencyMojo extends AbstractNarMojo {
     dependency.isSnapshot();
 
     if (dependency.getFile().isDirectory()) {
-      getLog().debug("Dependency is not packaged: " + dependency.getFile());
-
-      return new NarInfo(dependency.getGroupId(), dependency.getArtifactId(), dependency.getBaseVersion(), getLog(),
-          dependency.getFile());
+      return getNarInfoCache().getNarInfo(dependency, dependency.getFile(), getLog());
     }
 
     final File file = new File(getLocalRepository().getBasedir(), getLocalRepository().pathOf(dependency));
-    if (!file.exists()) {
-      getLog().debug("Dependency nar file does not exist: " + file);
-      return null;
-    }
-
-    ZipInputStream zipStream = null;
-    try {
-      zipStream = new ZipInputStream(new FileInputStream(file));
-      if (zipStream.getNextEntry() == null) {
-        getLog().debug("Skipping unreadable artifact: " + file);
-        return null;
-      }
-    } catch (IOException e) {
-      throw new MojoExecutionException("Error while testing for zip file " + file, e);
-    } finally {
-      IOUtils.closeQuietly(zipStream);
-    }
+    return getNarInfoCache().getNarInfo(dependency, file, getLog());
+  }
 
-    JarFile jar = null;
-    try {
-      jar = new JarFile(file);
-      final NarInfo info = new NarInfo(dependency.getGroupId(), dependency.getArtifactId(),
-          dependency.getBaseVersion(), getLog());
-      if (!info.exists(jar)) {
-        getLog().debug("Dependency nar file does not contain this artifact: " + file);
-        return null;
-      }
-      info.read(jar);
-      return info;
-    } catch (final IOException e) {
-      throw new MojoExecutionException("Error while reading " + file, e);
-    } finally {
-      IOUtils.closeQuietly(jar);
+  protected final NarInfoCache getNarInfoCache() {
+    if (this.narInfoCache == null) {
+      this.narInfoCache = NarInfoCache.getInstance(this.session);
     }
+    return this.narInfoCache;
   }
 
   protected final NarManager getNarManager() throws MojoFailureException, MojoExecutionException {
-    return new NarManager(getLog(), getLocalRepository(), getMavenProject(), getArchitecture(), getOS(), getLinker());
+    return new NarManager(getLog(), getLocalRepository(), getMavenProject(), getArchitecture(), getOS(), getLinker(),
+        getNarInfoCache());
   }
 
   protected final List/* <ArtifactRepository> */getRemoteRepositories() {
@@ -395,23 +374,71 @@ public abstract class AbstractDependencyMojo extends AbstractNarMojo {
 
     getLog().info(String.format("Unpacking %1$d dependencies to %2$s", dependencies.size(), unpackDir));
 
-    for (final Object element : dependencies) {
-      final AttachedNarArtifact dependency = (AttachedNarArtifact) element;
-      final File file = getNarManager().getNarFile(dependency); // dependency.getNarFile();
+    // TODO: each dependency may have it's own (earlier) version of layout -
+    // if it is unknown then we should report an error to update the nar
+    // package
+    // NarLayout layout = AbstractNarLayout.getLayout( "NarLayout21"/* TODO:
+    // dependency.getLayout() */, getLog() );
+    // we should then target the layout to match the layout for this nar which
+    // is the workspace we are in.
+    final NarLayout layout = getLayout();
+    // TODO: the dependency may be specified against a different linker
+    // (version)?
+    // AOL aol = dependency.getClassifier(); Trim
+    final String os = getOS();
+    final String linkerName = getLinker().getName();
+    final AOL aol = getAOL();
+    final NarManager narManager = getNarManager();
+    final List<File> files = new ArrayList<File>(dependencies.size());
+    for (final AttachedNarArtifact dependency : dependencies) {
+      final File file = narManager.getNarFile(dependency); // dependency.getNarFile();
       getLog().debug(String.format("Unpack %1$s (%2$s) to %3$s", dependency, file, unpackDir));
+      files.add(file);
+    }
 
-      // TODO: each dependency may have it's own (earlier) version of layout -
-      // if it is unknown then we should report an error to update the nar
-      // package
-      // NarLayout layout = AbstractNarLayout.getLayout( "NarLayout21"/* TODO:
-      // dependency.getLayout() */, getLog() );
-      // we should then target the layout to match the layout for this nar which
-      // is the workspace we are in.
-      final NarLayout layout = getLayout();
-      // TODO: the dependency may be specified against a different linker
-      // (version)?
-      // AOL aol = dependency.getClassifier(); Trim
-      layout.unpackNar(unpackDir, this.archiverManager, file, getOS(), getLinker().getName(), getAOL());
+    //
+    // the layout locks the directory it unpacks to,
+    // so NARs and modules unpacking in parallel do not collide
+    //
+    int noOfThreads = this.unpackThreads > 0 ? this.unpackThreads : Runtime.getRuntime().availableProcessors();
+    noOfThreads = Math.min(noOfThreads, files.size());
+    if (noOfThreads <= 1) {
+      for (final File file : files) {
+        layout.unpackNar(unpackDir, this.archiverManager, file, os, linkerName, aol);
+      }
+      return;
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(noOfThreads);
+    try {
+      final List<Future<Void>> unpacks = new ArrayList<Future<Void>>(files.size());
+      for (final File file : files) {
+        unpacks.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws MojoExecutionException, MojoFailureException {
+            layout.unpackNar(unpackDir, AbstractDependencyMojo.this.archiverManager, file, os, linkerName, aol);
+            return null;
+          }
+        }));
+      }
+      for (final Future<Void> unpack : unpacks) {
+        unpack.get();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while unpacking to " + unpackDir, e);
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof MojoExecutionException) {
+        throw (MojoExecutionException) e.getCause();
+      }
+      if (e.getCause() instanceof MojoFailureException) {
+        throw (MojoFailureException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new MojoExecutionException("Error unpacking to " + unpackDir, e.getCause());
+    } finally {
+      executor.shutdownNow();
     }
   }
 
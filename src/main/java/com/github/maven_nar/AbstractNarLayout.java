@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -74,6 +75,26 @@ public abstract class AbstractNarLayout implements NarLayout, NarConstants {
     }
   }
 
+  /** locks of the directories NARs are unpacked to, keyed by path */
+  private static final ConcurrentHashMap<String, Object> UNPACK_LOCKS = new ConcurrentHashMap<String, Object>();
+
+  /**
+   * Gets the lock to hold while unpacking into a directory, shared by all
+   * modules of a reactor build, so that NARs unpacked in parallel do not
+   * collide.
+   */
+  protected static Object getUnpackLock(final File dir) {
+    String path;
+    try {
+      path = dir.getCanonicalPath();
+    } catch (final IOException e) {
+      path = dir.getAbsolutePath();
+    }
+    final Object lock = new Object();
+    final Object existing = UNPACK_LOCKS.putIfAbsent(path, lock);
+    return existing != null ? existing : lock;
+  }
+
   private final Log log;
 
   protected AbstractNarLayout(final Log log) {
@@ -0,0 +1,201 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
+import org.apache.maven.artifact.resolver.ArtifactResolutionException;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.sonatype.aether.SessionData;
+
+/**
+ * Resolves attached NARs on a few threads, so that the round trips to remote
+ * repositories overlap.
+ *
+ * <p>
+ * An instance is shared by the modules of a build session. Every attached
+ * NAR is resolved once per session and local repository; modules asking for
+ * a NAR another module is resolving wait for that resolution instead of
+ * starting their own.
+ * </p>
+ */
+public final class AttachedNarResolver {
+  /**
+   * Number of concurrent resolutions by default, as many as Maven downloads
+   * in parallel.
+   */
+  public static final int DEFAULT_THREADS = 5;
+
+  private static final String SESSION_KEY = AttachedNarResolver.class.getName();
+
+  /**
+   * Gets the resolver of a build session.
+   *
+   * @param session
+   *          the session, may be null, in which case a resolver of its own is
+   *          returned
+   */
+  public static AttachedNarResolver getInstance(final MavenSession session) {
+    if (session == null || session.getRepositorySession() == null) {
+      return new AttachedNarResolver();
+    }
+    final SessionData data = session.getRepositorySession().getData();
+    synchronized (data) {
+      final Object resolver = data.get(SESSION_KEY);
+      if (resolver instanceof AttachedNarResolver) {
+        return (AttachedNarResolver) resolver;
+      }
+      final AttachedNarResolver newResolver = new AttachedNarResolver();
+      if (resolver == null) {
+        data.set(SESSION_KEY, newResolver);
+      }
+      return newResolver;
+    }
+  }
+
+  /** resolutions started during this session keyed by repository and id */
+  private final ConcurrentHashMap<String, FutureTask<File>> resolutions =
+      new ConcurrentHashMap<String, FutureTask<File>>();
+
+  /**
+   * Resolves attached NARs, at most threads at a time, and sets their files.
+   */
+  public void resolve(final List<? extends Artifact> dependencies, final ArtifactResolver resolver,
+      final List remoteRepositories, final ArtifactRepository localRepository, final int threads, final Log log)
+      throws MojoExecutionException {
+    final List<FutureTask<File>> pending = new ArrayList<FutureTask<File>>(dependencies.size());
+    final List<FutureTask<File>> started = new ArrayList<FutureTask<File>>();
+    for (final Artifact dependency : dependencies) {
+      final String key = localRepository.getBasedir() + ":" + dependency.getId();
+      FutureTask<File> resolution = this.resolutions.get(key);
+      if (resolution == null) {
+        final FutureTask<File> newResolution = new FutureTask<File>(new Callable<File>() {
+          @Override
+          public File call() throws MojoExecutionException {
+            return resolve(dependency, resolver, remoteRepositories, localRepository, log);
+          }
+        });
+        resolution = this.resolutions.putIfAbsent(key, newResolution);
+        if (resolution == null) {
+          resolution = newResolution;
+          started.add(newResolution);
+        }
+      }
+      pending.add(resolution);
+    }
+
+    final long start = System.currentTimeMillis();
+    final ExecutorService executor = started.size() > 1 ? Executors.newFixedThreadPool(Math.min(
+        Math.max(threads, 1), started.size())) : null;
+    try {
+      for (final FutureTask<File> resolution : started) {
+        if (executor != null) {
+          executor.execute(resolution);
+        } else {
+          resolution.run();
+        }
+      }
+      for (int i = 0; i < dependencies.size(); i++) {
+        final Artifact dependency = dependencies.get(i);
+        final File file = get(dependency, resolver, remoteRepositories, localRepository, pending.get(i), log);
+        if (dependency.getFile() == null) {
+          dependency.setFile(file);
+        }
+        dependency.setResolved(true);
+      }
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+      //
+      // resolutions this module leaves behind after an error
+      // would keep other modules waiting
+      //
+      for (final FutureTask<File> resolution : started) {
+        resolution.cancel(false);
+      }
+    }
+    if (!started.isEmpty()) {
+      log.info(String.format("Resolved %1$d attached NARs in %2$d ms", started.size(), System.currentTimeMillis()
+          - start));
+    }
+  }
+
+  private File get(final Artifact dependency, final ArtifactResolver resolver, final List remoteRepositories,
+      final ArtifactRepository localRepository, final FutureTask<File> resolution, final Log log)
+      throws MojoExecutionException {
+    try {
+      return resolution.get();
+    } catch (final CancellationException e) {
+      //
+      // abandoned by the module that started it
+      //
+      this.resolutions.remove(localRepository.getBasedir() + ":" + dependency.getId(), resolution);
+      return resolve(dependency, resolver, remoteRepositories, localRepository, log);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while resolving " + dependency.getId(), e);
+    } catch (final ExecutionException e) {
+      //
+      // the next module asking for it tries again
+      //
+      this.resolutions.remove(localRepository.getBasedir() + ":" + dependency.getId(), resolution);
+      if (e.getCause() instanceof MojoExecutionException) {
+        throw (MojoExecutionException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new MojoExecutionException("nar cannot resolve " + dependency.getId(), e.getCause());
+    }
+  }
+
+  private File resolve(final Artifact dependency, final ArtifactResolver resolver, final List remoteRepositories,
+      final ArtifactRepository localRepository, final Log log) throws MojoExecutionException {
+    final long start = System.currentTimeMillis();
+    try {
+      log.debug("Resolving " + dependency);
+      resolver.resolve(dependency, remoteRepositories, localRepository);
+    } catch (final ArtifactNotFoundException e) {
+      final String message = "nar not found " + dependency.getId();
+      throw new MojoExecutionException(message, e);
+    } catch (final ArtifactResolutionException e) {
+      final String message = "nar cannot resolve " + dependency.getId();
+      throw new MojoExecutionException(message, e);
+    }
+    log.debug(String.format("Resolved %1$s in %2$d ms", dependency.getId(), System.currentTimeMillis() - start));
+    return dependency.getFile();
+  }
+}
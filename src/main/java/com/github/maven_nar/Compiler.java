@@ -38,6 +38,7 @@ import com.github.maven_nar.cpptasks.CUtil;
 import com.github.maven_nar.cpptasks.CompilerDef;
 import com.github.maven_nar.cpptasks.CompilerEnum;
 import com.github.maven_nar.cpptasks.OptimizationEnum;
+import com.github.maven_nar.cpptasks.PrecompileDef;
 import com.github.maven_nar.cpptasks.types.CompilerArgument;
 import com.github.maven_nar.cpptasks.types.ConditionalFileSet;
 import com.github.maven_nar.cpptasks.types.DefineArgument;
@@ -232,10 +233,38 @@ public abstract class Compiler {
   private boolean clearDefaultOptions;
 
   /**
-   * Comma separated list of filenames to compile in order
+   * Comma separated list of filenames to compile in order. Each one is
+   * compiled after the ones before it, the sources not in the list are
+   * compiled in parallel after all of them.
    */
   @Parameter
   private String compileOrder;
+
+  /**
+   * Number of C and C++ sources combined into one generated unity source,
+   * which includes them and is compiled in their place. Sources that are
+   * compiled in order or with a precompiled header are not combined. 0
+   * compiles each source on its own.
+   */
+  @Parameter(defaultValue = "0")
+  private int unitySize;
+
+  /**
+   * Precompiles the headers that at least precompileThreshold percent of the
+   * sources include directly and forces the precompiled header into every
+   * source. Modules with the same flags and headers reuse it through the
+   * object cache. Only supported by compilers that can force an include,
+   * like msvc.
+   */
+  @Parameter(defaultValue = "false")
+  private boolean precompileAuto;
+
+  /**
+   * Percentage of the sources that must include a header for precompileAuto
+   * to precompile it.
+   */
+  @Parameter(defaultValue = "50")
+  private int precompileThreshold;
   private AbstractCompileMojo mojo;
 
   protected Compiler() {
@@ -268,6 +297,11 @@ public abstract class Compiler {
    */
   public final CompilerDef getCompiler(final String type, final String output)
       throws MojoFailureException, MojoExecutionException {
+    return getCompiler(type, output, true);
+  }
+
+  private CompilerDef getCompiler(final String type, final String output, final boolean excludeTests)
+      throws MojoFailureException, MojoExecutionException {
     final String name = getName();
     if (name == null) {
       return null;
@@ -322,6 +356,12 @@ public abstract class Compiler {
     }
 
     compilerDef.setClearDefaultOptions(this.clearDefaultOptions);
+    compilerDef.setUnitySize(this.unitySize);
+    if (this.precompileAuto) {
+      final PrecompileDef precompile = compilerDef.createPrecompile();
+      precompile.setAuto(true);
+      precompile.setThreshold(this.precompileThreshold);
+    }
     if (!this.clearDefaultOptions) {
       final String optionsProperty = NarProperties.getInstance(this.mojo.getMavenProject()).getProperty(
           getPrefix() + "options");
@@ -442,10 +482,12 @@ public abstract class Compiler {
     final Set<String> excludeSet = getExcludes(type);
 
     // now add all but the current test to the excludes
-    for (final Iterator i = this.mojo.getTests().iterator(); i.hasNext();) {
-      final Test test = (Test) i.next();
-      if (!test.getName().equals(output)) {
-        excludeSet.add("**/" + test.getName() + ".*");
+    if (excludeTests) {
+      for (final Iterator i = this.mojo.getTests().iterator(); i.hasNext();) {
+        final Test test = (Test) i.next();
+        if (!test.getName().equals(output)) {
+          excludeSet.add("**/" + test.getName() + ".*");
+        }
       }
     }
 
@@ -614,7 +656,18 @@ public abstract class Compiler {
    */
   public final CompilerDef getTestCompiler(final String type, final String output)
       throws MojoFailureException, MojoExecutionException {
-    final CompilerDef compiler = getCompiler(type, output);
+    return addTestOptions(getCompiler(type, output, true));
+  }
+
+  /**
+   * @return The standard Compiler configuration with 'testOptions' added to the
+   *         argument list, compiling the sources of all tests.
+   */
+  public final CompilerDef getTestCompiler(final String type) throws MojoFailureException, MojoExecutionException {
+    return addTestOptions(getCompiler(type, null, false));
+  }
+
+  private CompilerDef addTestOptions(final CompilerDef compiler) {
     if (compiler != null && this.testOptions != null) {
       for (final String string : this.testOptions) {
         final CompilerArgument arg = new CompilerArgument();
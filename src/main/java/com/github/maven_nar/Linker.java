@@ -40,6 +40,8 @@ import com.github.maven_nar.cpptasks.CCTask;
 import com.github.maven_nar.cpptasks.CUtil;
 import com.github.maven_nar.cpptasks.LinkerDef;
 import com.github.maven_nar.cpptasks.LinkerEnum;
+import com.github.maven_nar.cpptasks.compiler.CaptureStreamHandler;
+import com.github.maven_nar.cpptasks.compiler.ToolchainProbes;
 import com.github.maven_nar.cpptasks.types.LibrarySet;
 import com.github.maven_nar.cpptasks.types.LibraryTypeEnum;
 import com.github.maven_nar.cpptasks.types.LinkerArgument;
@@ -462,6 +464,31 @@ public class Linker {
     return linker;
   }
 
+  /**
+   * Runs a version probe of the linker through {@link ToolchainProbes}, so
+   * that it runs once per toolchain rather than once per module.
+   */
+  private void probe(final String command, final String arg, final TextStream out, final TextStream err)
+      throws MojoExecutionException {
+    final CaptureStreamHandler result = ToolchainProbes.execute(new String[] {
+        command, arg
+    });
+    if (result.getExitValue() != 0) {
+      if (this.log != null && result.getStderr() != null) {
+        for (final String line : result.getStderr()) {
+          this.log.error(line);
+        }
+      }
+      throw new MojoExecutionException("Failed: " + command + " " + arg + ", exit code: " + result.getExitValue());
+    }
+    for (final String line : result.getStdout()) {
+      out.println(line);
+    }
+    for (final String line : result.getStderr()) {
+      err.println(line);
+    }
+  }
+
   public final String getVersion() throws MojoFailureException, MojoExecutionException {
     return getVersion(new NarCompileMojo());
   }
@@ -480,12 +507,9 @@ public class Linker {
 
     final TextStream out = new StringTextStream();
     final TextStream err = new StringTextStream();
-    final TextStream dbg = new StringTextStream();
 
     if (this.name.equals("g++") || this.name.equals("gcc")) {
-      NarUtil.runCommand(linkerPrefix+"gcc", new String[] {
-        "--version"
-      }, null, null, out, err, dbg, this.log);
+      probe(linkerPrefix + "gcc", "--version", out, err);
       final Pattern p = Pattern.compile("\\d+\\.\\d+\\.\\d+");
       final Matcher m = p.matcher(out.toString());
       if (m.find()) {
@@ -494,45 +518,35 @@ public class Linker {
     } else if (this.name.equals("msvc")) {
       version = mojo.getMsvc().getVersion();
     } else if (this.name.equals("icc") || this.name.equals("icpc")) {
-      NarUtil.runCommand("icc", new String[] {
-          "--version"
-      }, null, null, out, err, dbg, this.log);
+      probe("icc", "--version", out, err);
       final Pattern p = Pattern.compile("\\d+\\.\\d+");
       final Matcher m = p.matcher(out.toString());
       if (m.find()) {
         version = m.group(0);
       }
     } else if (this.name.equals("icl")) {
-      NarUtil.runCommand("icl", new String[] {
-          "/QV"
-      }, null, null, out, err, dbg, this.log);
+      probe("icl", "/QV", out, err);
       final Pattern p = Pattern.compile("\\d+\\.\\d+");
       final Matcher m = p.matcher(err.toString());
       if (m.find()) {
         version = m.group(0);
       }
     } else if (this.name.equals("CC")) {
-      NarUtil.runCommand("CC", new String[] {
-          "-V"
-      }, null, null, out, err, dbg, this.log);
+      probe("CC", "-V", out, err);
       final Pattern p = Pattern.compile("\\d+\\.d+");
       final Matcher m = p.matcher(err.toString());
       if (m.find()) {
         version = m.group(0);
       }
     } else if (this.name.equals("xlC")) {
-      NarUtil.runCommand("/usr/vacpp/bin/xlC", new String[] {
-          "-qversion"
-      }, null, null, out, err, dbg, this.log);
+      probe("/usr/vacpp/bin/xlC", "-qversion", out, err);
       final Pattern p = Pattern.compile("\\d+\\.\\d+");
       final Matcher m = p.matcher(out.toString());
       if (m.find()) {
         version = m.group(0);
       }
     } else if (name.equals("clang") || name.equals("clang++")) {
-      NarUtil.runCommand("clang", new String[] {
-          "--version"
-      }, null, null, out, err, dbg, log);
+      probe("clang", "--version", out, err);
       final Pattern p = Pattern.compile("\\d+\\.\\d+\\.\\d+");
       final Matcher m = p.matcher(out.toString());
       if (m.find()) {
@@ -540,9 +554,7 @@ public class Linker {
       }
     } else {
       if (!this.prefix.isEmpty()) {
-        NarUtil.runCommand(linkerPrefix+this.name, new String[] {
-          "--version"
-        }, null, null, out, err, dbg, this.log);
+        probe(linkerPrefix + this.name, "--version", out, err);
         final Pattern p = Pattern.compile("\\d+\\.\\d+\\.\\d+");
         final Matcher m = p.matcher(out.toString());
         if (m.find()) {
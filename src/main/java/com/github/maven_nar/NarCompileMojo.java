@@ -23,16 +23,24 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.apache.maven.artifact.Artifact;
-import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
@@ -71,10 +79,18 @@ public class NarCompileMojo extends AbstractCompileMojo {
   protected boolean embedManifest = true;
 
   /**
-   * The current build session instance.
+   * Compile the sources once for the libraries with the same compile
+   * configuration, like a static and a shared library, and link them from the
+   * same objects. Static libraries and executables sharing their objects with
+   * a shared library are built from position independent code. A library
+   * whose compilers get other arguments for the shared library than for its
+   * own type, beyond position independent code, does not share, nor do
+   * libraries with other dependencies or subsystems. Libraries which cannot
+   * share their objects build concurrently. If false the libraries build one
+   * after another, each compiling the sources again.
    */
-  @Component
-  protected MavenSession session;
+  @Parameter(property = "nar.shareObjects", defaultValue = "false")
+  private boolean shareObjects;
 
   private void copyInclude(final Compiler c) throws IOException, MojoExecutionException, MojoFailureException {
     if (c == null) {
@@ -86,8 +102,185 @@ public class NarCompileMojo extends AbstractCompileMojo {
             getMavenProject().getVersion()));
   }
 
-  private void createLibrary(final Project antProject, final Library library)
+  /**
+   * Builds the libraries. Libraries with the same compile configuration are
+   * grouped, the first library of a group compiles the sources and the others
+   * link its objects. Groups build concurrently, together running at most
+   * maxCores compilers.
+   */
+  private void buildLibraries(final Project antProject, final List<Library> libraries)
+      throws MojoExecutionException, MojoFailureException {
+    final File objDir = new File(new File(getTargetDirectory(), "obj"), getAOL().toString());
+    if (!this.shareObjects) {
+      for (final Library library : libraries) {
+        buildLibrary(library, createLibrary(antProject, library, objDir, null));
+      }
+      return;
+    }
+
+    final List<List<Library>> groups = splitGroups(antProject, groupLibraries(libraries), objDir);
+    final List<List<CCTask>> builds = new ArrayList<List<CCTask>>(groups.size());
+    final Set<String> groupDirs = new HashSet<String>();
+    for (final List<Library> group : groups) {
+      //
+      // every group compiles into an object directory of its own
+      //
+      File groupObjDir = objDir;
+      if (groups.size() > 1) {
+        String groupDir = group.get(0).getType();
+        if (!groupDirs.add(groupDir)) {
+          groupDir += "-" + groups.indexOf(group);
+        }
+        groupObjDir = new File(objDir, groupDir);
+      }
+      OutputTypeEnum compileType = null;
+      if (group.size() > 1) {
+        compileType = new OutputTypeEnum();
+        compileType.setValue(group.get(0).getType());
+        getLog().info("Compiling once for " + group.size() + " libraries: " + group);
+      }
+      final List<CCTask> tasks = new ArrayList<CCTask>(group.size());
+      for (final Library library : group) {
+        tasks.add(createLibrary(antProject, library, groupObjDir, compileType));
+      }
+      builds.add(tasks);
+    }
+
+    if (builds.size() == 1) {
+      buildGroup(groups.get(0), builds.get(0));
+      return;
+    }
+    final int maxCores = getMaxCores(getAOL());
+    final Semaphore budget = new Semaphore(maxCores > 0 ? maxCores : Runtime.getRuntime().availableProcessors());
+    final ExecutorService executor = Executors.newFixedThreadPool(builds.size());
+    try {
+      final List<Future<Void>> results = new ArrayList<Future<Void>>(builds.size());
+      for (int i = 0; i < builds.size(); i++) {
+        final List<Library> group = groups.get(i);
+        final List<CCTask> tasks = builds.get(i);
+        for (final CCTask task : tasks) {
+          task.setCoreBudget(budget);
+        }
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws MojoExecutionException, MojoFailureException {
+            buildGroup(group, tasks);
+            return null;
+          }
+        }));
+      }
+      for (final Future<Void> result : results) {
+        result.get();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while building libraries", e);
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof MojoExecutionException) {
+        throw (MojoExecutionException) e.getCause();
+      }
+      if (e.getCause() instanceof MojoFailureException) {
+        throw (MojoFailureException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new MojoExecutionException("NAR: Compile failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Builds the libraries of a group one after another, the first compiles.
+   */
+  private void buildGroup(final List<Library> group, final List<CCTask> tasks)
       throws MojoExecutionException, MojoFailureException {
+    for (int i = 0; i < group.size(); i++) {
+      buildLibrary(group.get(i), tasks.get(i));
+    }
+  }
+
+  /**
+   * Groups the libraries which compile the sources with the same subsystem
+   * and dependency include paths. A group with a shared library, a jni or a
+   * plugin module starts with it, so that the group compiles position
+   * independent code.
+   */
+  private List<List<Library>> groupLibraries(final List<Library> libraries)
+      throws MojoExecutionException, MojoFailureException {
+    final Map<String, List<Library>> groups = new LinkedHashMap<String, List<Library>>();
+    for (final Library library : libraries) {
+      final StringBuilder key = new StringBuilder(String.valueOf(library.getSubSystem()));
+      for (final NarArtifact narDependency : getNarArtifacts()) {
+        if (!getBinding(library, narDependency).equals(Library.JNI)) {
+          key.append(File.pathSeparator).append(narDependency.getId());
+        }
+      }
+      List<Library> group = groups.get(key.toString());
+      if (group == null) {
+        group = new ArrayList<Library>();
+        groups.put(key.toString(), group);
+      }
+      final String type = library.getType();
+      if (type.equals(Library.SHARED) || type.equals(Library.JNI) || type.equals(Library.PLUGIN)) {
+        final String first = group.isEmpty() ? null : group.get(0).getType();
+        if (!Library.SHARED.equals(first) && !Library.JNI.equals(first) && !Library.PLUGIN.equals(first)) {
+          group.add(0, library);
+          continue;
+        }
+      }
+      group.add(library);
+    }
+    return new ArrayList<List<Library>>(groups.values());
+  }
+
+  /**
+   * Moves the libraries whose compilers get other arguments for the output
+   * type of their group than for their own type into groups of their own.
+   */
+  private List<List<Library>> splitGroups(final Project antProject, final List<List<Library>> groups,
+      final File objDir) throws MojoExecutionException, MojoFailureException {
+    final List<List<Library>> result = new ArrayList<List<Library>>(groups.size());
+    final List<List<Library>> split = new ArrayList<List<Library>>();
+    for (final List<Library> group : groups) {
+      final Library first = group.get(0);
+      final OutputTypeEnum compileType = new OutputTypeEnum();
+      compileType.setValue(first.getType());
+      final List<Library> sharing = new ArrayList<Library>(group.size());
+      sharing.add(first);
+      for (final Library library : group.subList(1, group.size())) {
+        final boolean compatible;
+        try {
+          compatible = library.getType().equals(first.getType())
+              || createLibrary(antProject, library, objDir, compileType).isCompileOuttypeCompatible();
+        } catch (final BuildException e) {
+          throw new MojoExecutionException("NAR: Compile failed", e);
+        }
+        if (compatible) {
+          sharing.add(library);
+        } else {
+          getLog().info("Not sharing objects of " + library + " with " + first + ", they compile differently");
+          split.add(Collections.singletonList(library));
+        }
+      }
+      result.add(sharing);
+    }
+    result.addAll(split);
+    return result;
+  }
+
+  /**
+   * Configures the task building a library.
+   *
+   * @param objDir
+   *          object directory
+   * @param compileType
+   *          output type the sources are compiled for, null for the type of
+   *          the library
+   */
+  private CCTask createLibrary(final Project antProject, final Library library, final File objDir,
+      final OutputTypeEnum compileType) throws MojoExecutionException, MojoFailureException {
     getLog().debug("Creating Library " + library);
     // configure task
     final CCTask task = new CCTask();
@@ -103,12 +296,20 @@ public class NarCompileMojo extends AbstractCompileMojo {
 
     // set max cores
     task.setMaxCores(getMaxCores(getAOL()));
+    task.setCompileBatchSize(getCompileBatchSize());
+    task.setContentHash(useContentHash());
+    task.setCompilerDependencies(useCompilerDependencies());
+    task.setPersistentIncludeCache(usePersistentIncludeCache());
+    task.setObjectCache(getObjectCache());
+    task.setObjectCacheSize(getObjectCacheSize());
+    task.setSharedBuildCache(getSharedBuildCache());
 
     // outtype
     final OutputTypeEnum outTypeEnum = new OutputTypeEnum();
     final String type = library.getType();
     outTypeEnum.setValue(type);
     task.setOuttype(outTypeEnum);
+    task.setCompileOuttype(compileType);
 
     // stdc++
     task.setLinkCPP(library.linkCPP());
@@ -135,8 +336,6 @@ public class NarCompileMojo extends AbstractCompileMojo {
     task.setOutfile(outFile);
 
     // object directory
-    File objDir = new File(getTargetDirectory(), "obj");
-    objDir = new File(objDir, getAOL().toString());
     objDir.mkdirs();
     task.setObjdir(objDir);
 
@@ -337,6 +536,15 @@ public class NarCompileMojo extends AbstractCompileMojo {
 
     // Add JVM to linker
     getJava().addRuntime(task, getJavaHome(getAOL()), getOS(), getAOL().getKey() + ".java.");
+    return task;
+  }
+
+  /**
+   * Runs the task building a library and finishes the library.
+   */
+  private void buildLibrary(final Library library, final CCTask task)
+      throws MojoExecutionException, MojoFailureException {
+    final File outFile = task.getOutfile();
 
     // execute
     try {
@@ -448,9 +656,7 @@ public class NarCompileMojo extends AbstractCompileMojo {
     noOfSources += getSourcesFor(getFortran()).size();
     if (noOfSources > 0) {
       getLog().info("Compiling " + noOfSources + " native files");
-      for (final Library library : getLibraries()) {
-        createLibrary(getAntProject(), library);
-      }
+      buildLibraries(getAntProject(), getLibraries());
     } else {
       getLog().info("Nothing to compile");
     }
@@ -72,6 +72,18 @@ public class NarInfo {
     }
   }
 
+  /**
+   * Creates a copy of a NarInfo that logs to another log.
+   */
+  NarInfo(final NarInfo narInfo, final Log log) {
+    this.groupId = narInfo.groupId;
+    this.artifactId = narInfo.artifactId;
+    this.version = narInfo.version;
+    this.log = log;
+    this.info = new Properties();
+    this.info.putAll(narInfo.info);
+  }
+
   public final void addNar(final AOL aol, final String type, final String nar) {
     String nars = getProperty(aol, NarConstants.NAR + "." + type);
     nars = nars == null ? nar : nars + ", " + nar;
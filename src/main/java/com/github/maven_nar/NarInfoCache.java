@@ -0,0 +1,173 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.jar.JarFile;
+import java.util.zip.ZipException;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.sonatype.aether.SessionData;
+
+/**
+ * NarInfo of NAR files, read once per build session and shared by all mojos
+ * and modules of the reactor, also when they build in parallel.
+ *
+ * <p>
+ * Entries are keyed by the coordinates of the artifact and the size and
+ * modification time of its file, so that a NAR installed again during the
+ * build is read again. NARs which are not packaged yet, reactor modules
+ * resolved to their output directory, are read every time. Every caller
+ * gets a copy of its own, which logs to the log of the caller.
+ * </p>
+ */
+public final class NarInfoCache {
+  private static final String SESSION_KEY = NarInfoCache.class.getName();
+
+  /**
+   * Gets the cache of a build session.
+   *
+   * @param session
+   *          the session, may be null, in which case a cache of its own is
+   *          returned
+   */
+  public static NarInfoCache getInstance(final MavenSession session) {
+    if (session == null || session.getRepositorySession() == null) {
+      return new NarInfoCache();
+    }
+    final SessionData data = session.getRepositorySession().getData();
+    synchronized (data) {
+      final Object cache = data.get(SESSION_KEY);
+      //
+      // a different version of the plugin in the same session
+      // has a cache of its own class
+      //
+      if (cache instanceof NarInfoCache) {
+        return (NarInfoCache) cache;
+      }
+      final NarInfoCache newCache = new NarInfoCache();
+      if (cache == null) {
+        data.set(SESSION_KEY, newCache);
+      }
+      return newCache;
+    }
+  }
+
+  /** NarInfo read during this session keyed by coordinates, size and time */
+  private final ConcurrentHashMap<String, FutureTask<NarInfo>> narInfos =
+      new ConcurrentHashMap<String, FutureTask<NarInfo>>();
+
+  /**
+   * Gets the NarInfo of a dependency.
+   *
+   * @param file
+   *          the file of the dependency
+   * @param log
+   *          the log of the caller, which the returned NarInfo logs to
+   * @return null if the file does not exist, is not readable or contains no
+   *         NarInfo for the dependency
+   */
+  public NarInfo getNarInfo(final Artifact dependency, final File file, final Log log)
+      throws MojoExecutionException {
+    if (file.isDirectory()) {
+      log.debug("Dependency is not packaged: " + file);
+
+      return new NarInfo(dependency.getGroupId(), dependency.getArtifactId(), dependency.getBaseVersion(), log, file);
+    }
+    if (!file.exists()) {
+      log.debug("Dependency nar file does not exist: " + file);
+      return null;
+    }
+
+    final String key = dependency.getGroupId() + ":" + dependency.getArtifactId() + ":" + dependency.getBaseVersion()
+        + ":" + file.getPath() + ":" + file.length() + ":" + file.lastModified();
+    FutureTask<NarInfo> narInfo = this.narInfos.get(key);
+    if (narInfo == null) {
+      final FutureTask<NarInfo> newNarInfo = new FutureTask<NarInfo>(new Callable<NarInfo>() {
+        @Override
+        public NarInfo call() throws MojoExecutionException {
+          return read(dependency, file, log);
+        }
+      });
+      narInfo = this.narInfos.putIfAbsent(key, newNarInfo);
+      if (narInfo == null) {
+        narInfo = newNarInfo;
+        newNarInfo.run();
+      }
+    }
+    try {
+      final NarInfo cached = narInfo.get();
+      return cached != null ? new NarInfo(cached, log) : null;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while reading " + file, e);
+    } catch (final ExecutionException e) {
+      this.narInfos.remove(key, narInfo);
+      if (e.getCause() instanceof MojoExecutionException) {
+        throw (MojoExecutionException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new MojoExecutionException("Error while reading " + file, e.getCause());
+    }
+  }
+
+  /**
+   * Reads the NarInfo of a NAR file, opening it once.
+   */
+  private NarInfo read(final Artifact dependency, final File file, final Log log) throws MojoExecutionException {
+    JarFile jar = null;
+    try {
+      try {
+        jar = new JarFile(file);
+      } catch (final ZipException e) {
+        log.debug("Skipping unreadable artifact: " + file);
+        return null;
+      }
+      final NarInfo info = new NarInfo(dependency.getGroupId(), dependency.getArtifactId(),
+          dependency.getBaseVersion(), log);
+      if (!info.exists(jar)) {
+        log.debug("Dependency nar file does not contain this artifact: " + file);
+        return null;
+      }
+      info.read(jar);
+      return info;
+    } catch (final IOException e) {
+      throw new MojoExecutionException("Error while reading " + file, e);
+    } finally {
+      if (jar != null) {
+        try {
+          jar.close();
+        } catch (final IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+}
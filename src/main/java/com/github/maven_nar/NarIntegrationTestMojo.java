@@ -40,7 +40,6 @@ import org.apache.maven.artifact.resolver.filter.ExcludesArtifactFilter;
 import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
 import org.apache.maven.artifact.versioning.InvalidVersionSpecificationException;
 import org.apache.maven.artifact.versioning.VersionRange;
-import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Component;
@@ -526,12 +525,6 @@ public class NarIntegrationTestMojo extends AbstractDependencyMojo {
   @Parameter(property = "enableAssertions", defaultValue = "true")
   private boolean enableAssertions;
 
-  /**
-   * The current build session instance.
-   */
-  @Component
-  private MavenSession session;
-
   private void addArtifact(final SurefireBooter surefireBooter, final Artifact surefireArtifact)
       throws ArtifactNotFoundException, ArtifactResolutionException {
     final ArtifactResolutionResult result = resolveArtifact(null, surefireArtifact);
@@ -207,23 +207,25 @@ public class NarLayout20 extends AbstractNarLayout {
     final File flagFile = new File(unpackDir, FileUtils.basename(file.getPath(), "." + NarConstants.NAR_EXTENSION)
         + ".flag");
 
-    boolean process = false;
-    if (!unpackDir.exists()) {
-      unpackDir.mkdirs();
-      process = true;
-    } else if (!flagFile.exists()) {
-      process = true;
-    } else if (file.lastModified() > flagFile.lastModified()) {
-      process = true;
-    }
+    synchronized (getUnpackLock(unpackDir)) {
+      boolean process = false;
+      if (!unpackDir.exists()) {
+        unpackDir.mkdirs();
+        process = true;
+      } else if (!flagFile.exists()) {
+        process = true;
+      } else if (file.lastModified() > flagFile.lastModified()) {
+        process = true;
+      }
 
-    if (process) {
-      try {
-        unpackNarAndProcess(archiverManager, file, unpackDir, os, linkerName, defaultAOL);
-        FileUtils.fileDelete(flagFile.getPath());
-        FileUtils.fileWrite(flagFile.getPath(), "");
-      } catch (final IOException e) {
-        throw new MojoFailureException("Cannot create flag file: " + flagFile.getPath(), e);
+      if (process) {
+        try {
+          unpackNarAndProcess(archiverManager, file, unpackDir, os, linkerName, defaultAOL);
+          FileUtils.fileDelete(flagFile.getPath());
+          FileUtils.fileWrite(flagFile.getPath(), "");
+        } catch (final IOException e) {
+          throw new MojoFailureException("Cannot create flag file: " + flagFile.getPath(), e);
+        }
       }
     }
   }
@@ -231,25 +231,27 @@ public class NarLayout21 extends AbstractNarLayout {
       throws MojoExecutionException, MojoFailureException {
     final File dir = getNarUnpackDirectory(unpackDirectory, file);
 
-    boolean process = false;
-
-    if (!unpackDirectory.exists()) {
-      unpackDirectory.mkdirs();
-      process = true;
-    } else if (!dir.exists()) {
-      process = true;
-    } else if (file.lastModified() > dir.lastModified()) {
-      try {
-        FileUtils.deleteDirectory(dir);
-      } catch (final IOException e) {
-        throw new MojoExecutionException("Could not delete directory: " + dir, e);
-      }
+    synchronized (getUnpackLock(dir)) {
+      boolean process = false;
+
+      if (!unpackDirectory.exists()) {
+        unpackDirectory.mkdirs();
+        process = true;
+      } else if (!dir.exists()) {
+        process = true;
+      } else if (file.lastModified() > dir.lastModified()) {
+        try {
+          FileUtils.deleteDirectory(dir);
+        } catch (final IOException e) {
+          throw new MojoExecutionException("Could not delete directory: " + dir, e);
+        }
 
-      process = true;
-    }
+        process = true;
+      }
 
-    if (process) {
-      unpackNarAndProcess(archiverManager, file, dir, os, linkerName, defaultAOL);
+      if (process) {
+        unpackNarAndProcess(archiverManager, file, dir, os, linkerName, defaultAOL);
+      }
     }
   }
 }
@@ -20,16 +20,12 @@
 package com.github.maven_nar;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.jar.JarFile;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.repository.ArtifactRepository;
-import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
-import org.apache.maven.artifact.resolver.ArtifactResolutionException;
 import org.apache.maven.artifact.resolver.ArtifactResolver;
 import org.apache.maven.artifact.versioning.InvalidVersionSpecificationException;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -57,14 +53,23 @@ public class NarManager {
       NarConstants.NAR_NO_ARCH, Library.STATIC, Library.SHARED, Library.JNI, Library.PLUGIN
   };
 
+  private final NarInfoCache narInfoCache;
+
   public NarManager(final Log log, final ArtifactRepository repository, final MavenProject project,
       final String architecture, final String os, final Linker linker)
       throws MojoFailureException, MojoExecutionException {
+    this(log, repository, project, architecture, os, linker, new NarInfoCache());
+  }
+
+  public NarManager(final Log log, final ArtifactRepository repository, final MavenProject project,
+      final String architecture, final String os, final Linker linker, final NarInfoCache narInfoCache)
+      throws MojoFailureException, MojoExecutionException {
     this.log = log;
     this.repository = repository;
     this.project = project;
     this.defaultAOL = NarUtil.getAOL(project, architecture, os, linker, null, log);
     this.linkerName = NarUtil.getLinkerName(project, architecture, os, linker, log);
+    this.narInfoCache = narInfoCache;
   }
 
   public final void downloadAttachedNars(final List/* <NarArtifacts> */narArtifacts, final List remoteRepositories,
@@ -79,19 +84,8 @@ public class NarManager {
     }
     this.log.debug("}");
 
-    for (final Iterator i = dependencies.iterator(); i.hasNext();) {
-      final Artifact dependency = (Artifact) i.next();
-      try {
-        this.log.debug("Resolving " + dependency);
-        resolver.resolve(dependency, remoteRepositories, this.repository);
-      } catch (final ArtifactNotFoundException e) {
-        final String message = "nar not found " + dependency.getId();
-        throw new MojoExecutionException(message, e);
-      } catch (final ArtifactResolutionException e) {
-        final String message = "nar cannot resolve " + dependency.getId();
-        throw new MojoExecutionException(message, e);
-      }
-    }
+    new AttachedNarResolver().resolve(dependencies, resolver, remoteRepositories, this.repository,
+        AttachedNarResolver.DEFAULT_THREADS, this.log);
   }
 
   private List/* <AttachedNarArtifact> */getAttachedNarDependencies(final Artifact dependency, final AOL archOsLinker,
@@ -252,31 +246,7 @@ public class NarManager {
     dependency.isSnapshot();
 
     final File file = new File(this.repository.getBasedir(), this.repository.pathOf(dependency));
-    if (!file.exists()) {
-      return null;
-    }
-
-    JarFile jar = null;
-    try {
-      jar = new JarFile(file);
-      final NarInfo info = new NarInfo(dependency.getGroupId(), dependency.getArtifactId(),
-          dependency.getBaseVersion(), this.log);
-      if (!info.exists(jar)) {
-        return null;
-      }
-      info.read(jar);
-      return info;
-    } catch (final IOException e) {
-      throw new MojoExecutionException("Error while reading " + file, e);
-    } finally {
-      if (jar != null) {
-        try {
-          jar.close();
-        } catch (final IOException e) {
-          // ignore
-        }
-      }
-    }
+    return this.narInfoCache.getNarInfo(dependency, file, this.log);
   }
 
   public final void unpackAttachedNars(final List/* <NarArtifacts> */narArtifacts,
@@ -20,9 +20,20 @@
 package com.github.maven_nar;
 
 import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -42,6 +53,8 @@ import com.github.maven_nar.cpptasks.LinkerDef;
 import com.github.maven_nar.cpptasks.OutputTypeEnum;
 import com.github.maven_nar.cpptasks.RuntimeType;
 import com.github.maven_nar.cpptasks.SubsystemEnum;
+import com.github.maven_nar.cpptasks.TargetHistoryTable;
+import com.github.maven_nar.cpptasks.types.ConditionalFileSet;
 import com.github.maven_nar.cpptasks.types.LibrarySet;
 import com.github.maven_nar.cpptasks.types.LibraryTypeEnum;
 import com.github.maven_nar.cpptasks.types.LinkerArgument;
@@ -49,6 +62,12 @@ import com.github.maven_nar.cpptasks.types.SystemLibrarySet;
 
 /**
  * Compiles native test source files.
+ *
+ * <p>
+ * The sources of all tests are compiled in one pass, after which the tests
+ * are linked concurrently, at most maxCores at a time. Each test links the
+ * objects of the pass except the ones of the other tests.
+ * </p>
  * 
  * @author Mark Donszelmann
  */
@@ -61,11 +80,11 @@ public class NarTestCompileMojo extends AbstractCompileMojo {
   @Parameter(property = "skipNar")
   protected boolean skipNar;
 
-  private void createTest(final Project antProject, final Test test)
+  /**
+   * Creates a task with the settings shared by the compile and link tasks.
+   */
+  private CCTask createTask(final Project antProject, final String outType, final File objDir)
       throws MojoExecutionException, MojoFailureException {
-    final String type = "test";
-
-    // configure task
     final CCTask task = new CCTask();
     task.setProject(antProject);
 
@@ -76,27 +95,22 @@ public class NarTestCompileMojo extends AbstractCompileMojo {
 
     // outtype
     final OutputTypeEnum outTypeEnum = new OutputTypeEnum();
-    outTypeEnum.setValue(test.getType());
+    outTypeEnum.setValue(outType);
     task.setOuttype(outTypeEnum);
 
-    // outDir
-    File outDir = new File(getTestTargetDirectory(), "bin");
-    outDir = new File(outDir, getAOL().toString());
-    outDir.mkdirs();
-
-    // outFile
-    final File outFile = new File(outDir, test.getName());
-    getLog().debug("NAR - output: '" + outFile + "'");
-    task.setOutfile(outFile);
-
     // object directory
-    File objDir = new File(getTestTargetDirectory(), "obj");
-    objDir = new File(objDir, getAOL().toString());
-    objDir.mkdirs();
     task.setObjdir(objDir);
 
     // failOnError, libtool
     task.setFailonerror(failOnError(getAOL()));
+    task.setMaxCores(getMaxCores(getAOL()));
+    task.setCompileBatchSize(getCompileBatchSize());
+    task.setContentHash(useContentHash());
+    task.setCompilerDependencies(useCompilerDependencies());
+    task.setPersistentIncludeCache(usePersistentIncludeCache());
+    task.setObjectCache(getObjectCache());
+    task.setObjectCacheSize(getObjectCacheSize());
+    task.setSharedBuildCache(getSharedBuildCache());
     task.setLibtool(useLibtool(getAOL()));
 
     // runtime
@@ -104,11 +118,30 @@ public class NarTestCompileMojo extends AbstractCompileMojo {
     runtimeType.setValue(getRuntime(getAOL()));
     task.setRuntime(runtimeType);
 
+    getMsvc().configureCCTask(task);
+    return task;
+  }
+
+  /**
+   * Compiles the sources of all tests of an output type in one pass. Unity
+   * builds are off, so that the main of one test does not end up in the
+   * objects the other tests link.
+   *
+   * @return the objects to link keyed by source
+   */
+  private Map<File, File> compileTests(final Project antProject, final String outType, final File objDir,
+      final TargetHistoryTable objHistory, final List depLibs) throws MojoExecutionException, MojoFailureException {
+    final String type = "test";
+
+    final CCTask task = createTask(antProject, outType, objDir);
+    task.setObjectHistory(objHistory);
+
     // add C++ compiler
     final Cpp cpp = getCpp();
     if (cpp != null) {
-      final CompilerDef cppCompiler = getCpp().getTestCompiler(type, test.getName());
+      final CompilerDef cppCompiler = getCpp().getTestCompiler(type);
       if (cppCompiler != null) {
+        cppCompiler.setUnitySize(0);
         task.addConfiguredCompiler(cppCompiler);
       }
     }
@@ -116,8 +149,9 @@ public class NarTestCompileMojo extends AbstractCompileMojo {
     // add C compiler
     final C c = getC();
     if (c != null) {
-      final CompilerDef cCompiler = c.getTestCompiler(type, test.getName());
+      final CompilerDef cCompiler = c.getTestCompiler(type);
       if (cCompiler != null) {
+        cCompiler.setUnitySize(0);
         task.addConfiguredCompiler(cCompiler);
       }
     }
@@ -125,8 +159,9 @@ public class NarTestCompileMojo extends AbstractCompileMojo {
     // add Fortran compiler
     final Fortran fortran = getFortran();
     if (fortran != null) {
-      final CompilerDef fortranCompiler = getFortran().getTestCompiler(type, test.getName());
+      final CompilerDef fortranCompiler = getFortran().getTestCompiler(type);
       if (fortranCompiler != null) {
+        fortranCompiler.setUnitySize(0);
         task.addConfiguredCompiler(fortranCompiler);
       }
     }
@@ -134,10 +169,6 @@ public class NarTestCompileMojo extends AbstractCompileMojo {
     // add java include paths
     getJava().addIncludePaths(task, type);
 
-    getMsvc().configureCCTask(task);
-
-    List depLibs = getNarArtifacts();
-    
     // add dependency include paths
     for (final Iterator i = depLibs.iterator(); i.hasNext();) {
       final Artifact artifact = (Artifact) i.next();
@@ -161,13 +192,56 @@ public class NarTestCompileMojo extends AbstractCompileMojo {
       task.createIncludePath().setPath(jniIncludeDir.getPath());
     }
 
+    // add include of this package
+    final File includeDir = getLayout().getIncludeDirectory(getTargetDirectory(), getMavenProject().getArtifactId(),
+        getMavenProject().getVersion());
+    if (includeDir.exists()) {
+      task.createIncludePath().setLocation(includeDir);
+    }
+
+    // add linker, to pick the objects it consumes, no output so no link
+    task.addConfiguredLinker(getLinker().getTestLinker(this, task, getOS(), getAOL().getKey() + ".linker.", type));
+
+    // execute
+    try {
+      task.execute();
+    } catch (final BuildException e) {
+      throw new MojoExecutionException("NAR: Test-Compile failed", e);
+    }
+    return task.getObjectFiles();
+  }
+
+  /**
+   * Creates the task linking the objects of a test with its libraries.
+   */
+  private CCTask createTestLink(final Project antProject, final Test test, final File objDir, final File outDir,
+      final List<String> objects, final TargetHistoryTable objHistory, final TargetHistoryTable linkHistory,
+      final List depLibs) throws MojoExecutionException, MojoFailureException {
+    final String type = "test";
+
+    // configure task
+    final CCTask task = createTask(antProject, test.getType(), objDir);
+    task.setObjectHistory(objHistory);
+    task.setLinkHistory(linkHistory);
+
+    // outFile
+    final File outFile = new File(outDir, test.getName());
+    getLog().debug("NAR - output: '" + outFile + "'");
+    task.setOutfile(outFile);
+
     // add linker
     final LinkerDef linkerDefinition = getLinker().getTestLinker(this, task, getOS(), getAOL().getKey() + ".linker.",
         type);
     task.addConfiguredLinker(linkerDefinition);
 
-    final File includeDir = getLayout().getIncludeDirectory(getTargetDirectory(), getMavenProject().getArtifactId(),
-        getMavenProject().getVersion());
+    // add objects of the shared compile pass
+    final ConditionalFileSet objectSet = new ConditionalFileSet();
+    objectSet.setProject(antProject);
+    objectSet.setDir(objDir);
+    for (final String object : objects) {
+      objectSet.createInclude().setName(object);
+    }
+    linkerDefinition.addFileset(objectSet);
 
     String linkType = test.getLink( getLibraries() );
     final File libDir = getLayout().getLibDirectory(getTargetDirectory(), getMavenProject().getArtifactId(),
@@ -192,11 +266,6 @@ public class NarTestCompileMojo extends AbstractCompileMojo {
      */
     // FIXME what about copying the other shared libs?
 
-    // add include of this package
-    if (includeDir.exists()) {
-      task.createIncludePath().setLocation(includeDir);
-    }
-
     // add library of this package
     if (libDir.exists()) {
       final LibrarySet libSet = new LibrarySet();
@@ -230,35 +299,6 @@ public class NarTestCompileMojo extends AbstractCompileMojo {
     }
 
     // add dependency libraries
-    final List depLibOrder = getDependencyLibOrder();
-
-    // reorder the libraries that come from the nar dependencies
-    // to comply with the order specified by the user
-    if (depLibOrder != null && !depLibOrder.isEmpty()) {
-
-      final List tmp = new LinkedList();
-
-      for (final Iterator i = depLibOrder.iterator(); i.hasNext();) {
-
-        final String depToOrderName = (String) i.next();
-
-        for (final Iterator j = depLibs.iterator(); j.hasNext();) {
-
-          final NarArtifact dep = (NarArtifact) j.next();
-          final String depName = dep.getGroupId() + ":" + dep.getArtifactId();
-
-          if (depName.equals(depToOrderName)) {
-
-            tmp.add(dep);
-            j.remove();
-          }
-        }
-      }
-
-      tmp.addAll(depLibs);
-      depLibs = tmp;
-    }
-
     for (final Iterator i = depLibs.iterator(); i.hasNext();) {
       final NarArtifact dependency = (NarArtifact) i.next();
 
@@ -330,12 +370,130 @@ public class NarTestCompileMojo extends AbstractCompileMojo {
 
     // Add JVM to linker
     getJava().addRuntime(task, getJavaHome(getAOL()), getOS(), getAOL().getKey() + ".java.");
+    return task;
+  }
 
-    // execute
+  /**
+   * Gets the NAR dependencies, reordered to comply with the order specified
+   * by the user.
+   */
+  private List getOrderedNarArtifacts() throws MojoExecutionException {
+    List depLibs = getNarArtifacts();
+    final List depLibOrder = getDependencyLibOrder();
+
+    // reorder the libraries that come from the nar dependencies
+    // to comply with the order specified by the user
+    if (depLibOrder != null && !depLibOrder.isEmpty()) {
+
+      final List tmp = new LinkedList();
+
+      for (final Iterator i = depLibOrder.iterator(); i.hasNext();) {
+
+        final String depToOrderName = (String) i.next();
+
+        for (final Iterator j = depLibs.iterator(); j.hasNext();) {
+
+          final NarArtifact dep = (NarArtifact) j.next();
+          final String depName = dep.getGroupId() + ":" + dep.getArtifactId();
+
+          if (depName.equals(depToOrderName)) {
+
+            tmp.add(dep);
+            j.remove();
+          }
+        }
+      }
+
+      tmp.addAll(depLibs);
+      depLibs = tmp;
+    }
+    return depLibs;
+  }
+
+  /**
+   * Gets the tests owning each object, the tests whose name is the base name
+   * of one of its sources.
+   */
+  private Map<File, Set<String>> getObjectOwners(final Map<File, File> objects, final List<String> testNames) {
+    final Map<File, Set<String>> owners = new LinkedHashMap<File, Set<String>>();
+    for (final Map.Entry<File, File> object : objects.entrySet()) {
+      Set<String> objectOwners = owners.get(object.getValue());
+      if (objectOwners == null) {
+        objectOwners = new HashSet<String>();
+        owners.put(object.getValue(), objectOwners);
+      }
+      final String source = object.getKey().getName();
+      for (final String name : testNames) {
+        if (source.startsWith(name + ".")) {
+          objectOwners.add(name);
+        }
+      }
+    }
+    return owners;
+  }
+
+  /**
+   * Gets the objects a test links, all objects except the ones of the other
+   * tests, relative to the object directory.
+   */
+  private List<String> getTestObjects(final String testName, final Map<File, Set<String>> owners,
+      final File objDir) {
+    final URI objURI = objDir.toURI();
+    final List<String> testObjects = new ArrayList<String>();
+    for (final Map.Entry<File, Set<String>> object : owners.entrySet()) {
+      final Set<String> objectOwners = object.getValue();
+      if (objectOwners.isEmpty() || objectOwners.size() == 1 && objectOwners.contains(testName)) {
+        testObjects.add(objURI.relativize(object.getKey().toURI()).getPath());
+      }
+    }
+    return testObjects;
+  }
+
+  /**
+   * Links the tests, at most maxCores at a time.
+   */
+  private void linkTests(final List<CCTask> links) throws MojoExecutionException, MojoFailureException {
+    final int maxCores = getMaxCores(getAOL());
+    int noOfThreads = maxCores > 0 ? maxCores : Runtime.getRuntime().availableProcessors();
+    noOfThreads = Math.min(noOfThreads, links.size());
+    if (noOfThreads <= 1) {
+      for (final CCTask link : links) {
+        try {
+          link.execute();
+        } catch (final BuildException e) {
+          throw new MojoExecutionException("NAR: Test-Compile failed", e);
+        }
+      }
+      return;
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(noOfThreads);
     try {
-      task.execute();
-    } catch (final BuildException e) {
-      throw new MojoExecutionException("NAR: Test-Compile failed", e);
+      final List<Future<Void>> results = new ArrayList<Future<Void>>(links.size());
+      for (final CCTask link : links) {
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            link.execute();
+            return null;
+          }
+        }));
+      }
+      for (final Future<Void> result : results) {
+        result.get();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while linking tests", e);
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof BuildException) {
+        throw new MojoExecutionException("NAR: Test-Compile failed", e.getCause());
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new MojoExecutionException("NAR: Test-Compile failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
     }
   }
 
@@ -365,9 +523,60 @@ public class NarTestCompileMojo extends AbstractCompileMojo {
       // make sure destination is there
       getTestTargetDirectory().mkdirs();
 
-      for (final Iterator i = getTests().iterator(); i.hasNext();) {
-        createTest(getAntProject(), (Test) i.next());
+      final List tests = getTests();
+      if (tests.isEmpty()) {
+        return;
+      }
+
+      // outDir
+      File outDir = new File(getTestTargetDirectory(), "bin");
+      outDir = new File(outDir, getAOL().toString());
+      outDir.mkdirs();
+
+      // object directory
+      File objDir = new File(getTestTargetDirectory(), "obj");
+      objDir = new File(objDir, getAOL().toString());
+      objDir.mkdirs();
+
+      final Project antProject = getAntProject();
+      final List depLibs = getOrderedNarArtifacts();
+
+      // group the tests by output type, which determines how they compile
+      final List<String> testNames = new ArrayList<String>();
+      final Map<String, List<Test>> testsByType = new LinkedHashMap<String, List<Test>>();
+      for (final Iterator i = tests.iterator(); i.hasNext();) {
+        final Test test = (Test) i.next();
+        testNames.add(test.getName());
+        List<Test> typeTests = testsByType.get(test.getType());
+        if (typeTests == null) {
+          typeTests = new ArrayList<Test>();
+          testsByType.put(test.getType(), typeTests);
+        }
+        typeTests.add(test);
+      }
+
+      // the tasks share the histories instead of loading and writing them
+      // once per test
+      final TargetHistoryTable objHistory;
+      final TargetHistoryTable linkHistory;
+      try {
+        objHistory = new TargetHistoryTable(null, objDir);
+        linkHistory = new TargetHistoryTable(null, outDir);
+      } catch (final BuildException e) {
+        throw new MojoExecutionException("NAR: Test-Compile failed", e);
+      }
+
+      // compile the sources of all tests once, then link each test
+      final List<CCTask> links = new ArrayList<CCTask>(tests.size());
+      for (final Map.Entry<String, List<Test>> entry : testsByType.entrySet()) {
+        final Map<File, Set<String>> owners = getObjectOwners(
+            compileTests(antProject, entry.getKey(), objDir, objHistory, depLibs), testNames);
+        for (final Test test : entry.getValue()) {
+          links.add(createTestLink(antProject, test, objDir, outDir, getTestObjects(test.getName(), owners, objDir),
+              objHistory, linkHistory, depLibs));
+        }
       }
+      linkTests(links);
     }
   }
 
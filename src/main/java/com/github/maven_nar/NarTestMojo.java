@@ -58,6 +58,43 @@ public class NarTestMojo extends AbstractCompileMojo {
   @Parameter(defaultValue = "${basedir}/src/test/resources", required = true)
   private File testResourceDirectory;
 
+  /**
+   * Number of tests and executables run at the same time, 0 for one per
+   * processor. Tests run at the same time share their working directory.
+   */
+  @Parameter(property = "nar.test.forkCount", defaultValue = "1")
+  private int forkCount;
+
+  /**
+   * Seconds a test or executable may run before it is killed, 0 for no limit.
+   * Tests may set a timeout of their own.
+   */
+  @Parameter(property = "nar.test.timeout", defaultValue = "0")
+  private int testTimeout;
+
+  /**
+   * Index of the shard of the tests and executables to run, from 0 to
+   * shardCount - 1. The shards take turns in the order of the configuration,
+   * so that several nodes can each run one shard.
+   */
+  @Parameter(property = "nar.test.shardIndex", defaultValue = "0")
+  private int shardIndex;
+
+  /**
+   * Number of shards the tests and executables are split into.
+   */
+  @Parameter(property = "nar.test.shardCount", defaultValue = "1")
+  private int shardCount;
+
+  /**
+   * Directory the surefire-compatible reports and the output of the tests are
+   * written to.
+   */
+  @Parameter(defaultValue = "${project.build.directory}/surefire-reports")
+  private File reportsDirectory;
+
+  private boolean testResourcesCopied;
+
   private String[] generateEnvironment() throws MojoExecutionException, MojoFailureException {
     final List env = new ArrayList();
 
@@ -138,54 +175,86 @@ public class NarTestMojo extends AbstractCompileMojo {
       getLog().info("Tests are skipped");
     } else {
 
-      // run all tests
+      // tests and executables to run, in a deterministic order for sharding
+      final List<Executable> runnables = new ArrayList<Executable>();
       for (final Iterator i = getTests().iterator(); i.hasNext();) {
-        runTest((Test) i.next());
+        final Test test = (Test) i.next();
+        if (test.shouldRun()) {
+          runnables.add(test);
+        }
       }
-
       for (final Object element : getLibraries()) {
-        runExecutable((Library) element);
+        final Library library = (Library) element;
+        if (library.getType().equals(Library.EXECUTABLE) && library.shouldRun()) {
+          runnables.add(library);
+        }
+      }
+      final List<Executable> shard = NarTestRunner.shard(runnables, this.shardIndex, this.shardCount);
+      if (this.shardCount > 1) {
+        getLog().info("Running shard " + this.shardIndex + " of " + this.shardCount + ": " + shard.size() + " of "
+            + runnables.size() + " tests");
       }
-    }
-  }
 
-  private void runExecutable(final Library library) throws MojoExecutionException, MojoFailureException {
-    if (library.getType().equals(Library.EXECUTABLE) && library.shouldRun()) {
-      final MavenProject project = getMavenProject();
-      // FIXME NAR-90, we could make sure we get the final name from layout
-      final String extension = getOS().equals(OS.WINDOWS) ? ".exe" : "";
-      final File executable = new File(getLayout().getBinDirectory(getTargetDirectory(),
-          getMavenProject().getArtifactId(), getMavenProject().getVersion(), getAOL().toString()),
-          project.getArtifactId() + extension);
-      if (!executable.exists()) {
-        getLog().warn("Skipping non-existing executable " + executable);
+      final List<NarTestRunner.Execution> executions = new ArrayList<NarTestRunner.Execution>();
+      for (final Executable runnable : shard) {
+        final NarTestRunner.Execution execution = runnable instanceof Test ? createTest((Test) runnable)
+            : createExecutable((Library) runnable);
+        if (execution != null) {
+          executions.add(execution);
+        }
+      }
+      if (executions.isEmpty()) {
         return;
       }
-      getLog().info("Running executable " + executable);
-      final List args = library.getArgs();
-      final int result = NarUtil.runCommand(executable.getPath(), (String[]) args.toArray(new String[args.size()]),
-          null, generateEnvironment(), getLog());
-      if (result != 0) {
-        throw new MojoFailureException("Test " + executable + " failed with exit code: " + result + " 0x"
-            + Integer.toHexString(result));
+
+      // the environment is the same for all of them
+      final NarTestRunner runner = new NarTestRunner(generateEnvironment(), this.reportsDirectory, getLog());
+      final long start = System.currentTimeMillis();
+      runner.run(executions, this.forkCount);
+
+      final List<String> failures = new ArrayList<String>();
+      for (final NarTestRunner.Execution execution : executions) {
+        if (execution.getFailure() != null) {
+          failures.add(execution.getFailure());
+        }
+      }
+      getLog().info(String.format("Tests run: %1$d, Failures: %2$d, Time elapsed: %3$d ms", executions.size(),
+          failures.size(), System.currentTimeMillis() - start));
+      if (!failures.isEmpty()) {
+        throw new MojoFailureException(StringUtils.join(failures.iterator(), "\n"));
       }
     }
   }
 
-  private void runTest(final Test test) throws MojoExecutionException, MojoFailureException {
-    // run if requested
-    if (test.shouldRun()) {
-      // NOTE should we use layout here ?
-      final String name = test.getName() + (getOS().equals(OS.WINDOWS) ? ".exe" : "");
-      File path = new File(getTestTargetDirectory(), "bin");
-      path = new File(path, getAOL().toString());
-      path = new File(path, name);
-      if (!path.exists()) {
-        getLog().warn("Skipping non-existing test " + path);
-        return;
-      }
+  private NarTestRunner.Execution createExecutable(final Library library) throws MojoExecutionException,
+      MojoFailureException {
+    final MavenProject project = getMavenProject();
+    // FIXME NAR-90, we could make sure we get the final name from layout
+    final String extension = getOS().equals(OS.WINDOWS) ? ".exe" : "";
+    final File executable = new File(getLayout().getBinDirectory(getTargetDirectory(),
+        getMavenProject().getArtifactId(), getMavenProject().getVersion(), getAOL().toString()),
+        project.getArtifactId() + extension);
+    if (!executable.exists()) {
+      getLog().warn("Skipping non-existing executable " + executable);
+      return null;
+    }
+    return new NarTestRunner.Execution(project.getArtifactId() + "." + project.getArtifactId(),
+        executable.getName(), executable, library.getArgs(), null, this.testTimeout);
+  }
+
+  private NarTestRunner.Execution createTest(final Test test) throws MojoExecutionException, MojoFailureException {
+    // NOTE should we use layout here ?
+    final String name = test.getName() + (getOS().equals(OS.WINDOWS) ? ".exe" : "");
+    File path = new File(getTestTargetDirectory(), "bin");
+    path = new File(path, getAOL().toString());
+    path = new File(path, name);
+    if (!path.exists()) {
+      getLog().warn("Skipping non-existing test " + path);
+      return null;
+    }
 
-      final File workingDir = new File(getTestTargetDirectory(), "test-reports");
+    final File workingDir = new File(getTestTargetDirectory(), "test-reports");
+    if (!this.testResourcesCopied) {
       workingDir.mkdirs();
 
       // Copy test resources
@@ -199,16 +268,10 @@ public class NarTestMojo extends AbstractCompileMojo {
       } catch (final IOException e) {
         throw new MojoExecutionException("NAR: Could not copy test resources", e);
       }
-
-      getLog().info("Running test " + name + " in " + workingDir);
-
-      final List args = test.getArgs();
-      final int result = NarUtil.runCommand(path.toString(), (String[]) args.toArray(new String[args.size()]),
-          workingDir, generateEnvironment(), getLog());
-      if (result != 0) {
-        throw new MojoFailureException("Test " + name + " failed with exit code: " + result + " 0x"
-            + Integer.toHexString(result));
-      }
+      this.testResourcesCopied = true;
     }
+
+    return new NarTestRunner.Execution(getMavenProject().getArtifactId() + "." + test.getName(), name, path,
+        test.getArgs(), workingDir, test.getTimeout() > 0 ? test.getTimeout() : this.testTimeout);
   }
 }
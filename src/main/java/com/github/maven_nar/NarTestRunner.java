@@ -0,0 +1,448 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.StringUtils;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.codehaus.plexus.util.cli.Commandline;
+import org.codehaus.plexus.util.xml.PrettyPrintXMLWriter;
+
+import com.github.maven_nar.cpptasks.compiler.OutputPump;
+
+/**
+ * Runs native tests and executables, several at a time and each within a time
+ * limit, and writes a surefire-compatible report for each of them.
+ *
+ * <p>
+ * The complete output of each test goes to
+ * reportsDirectory/suiteName-output.txt. Tests run one at a time log their
+ * output as it comes, tests run concurrently log the last lines of their
+ * output when they fail.
+ * </p>
+ */
+public final class NarTestRunner {
+  /**
+   * A test to run, and how it ended once it ran.
+   */
+  public static final class Execution {
+    private final String suiteName;
+
+    private final String name;
+
+    private final File executable;
+
+    private final String[] args;
+
+    private final File workingDirectory;
+
+    private final int timeout;
+
+    private final OutputPump.Tail out = new OutputPump.Tail(REPORT_LINES);
+
+    private final OutputPump.Tail err = new OutputPump.Tail(REPORT_LINES);
+
+    private int exitValue = -1;
+
+    private boolean timedOut;
+
+    private String error;
+
+    private long time;
+
+    /**
+     * @param suiteName
+     *          name of the test in the report, unique within the reports
+     *          directory
+     * @param timeout
+     *          seconds the test may run, 0 for no limit
+     */
+    public Execution(final String suiteName, final String name, final File executable, final List args,
+        final File workingDirectory, final int timeout) {
+      this.suiteName = suiteName;
+      this.name = name;
+      this.executable = executable;
+      this.args = (String[]) args.toArray(new String[args.size()]);
+      this.workingDirectory = workingDirectory;
+      this.timeout = timeout;
+    }
+
+    public int getExitValue() {
+      return this.exitValue;
+    }
+
+    /**
+     * Gets why the test failed.
+     *
+     * @return null if the test passed
+     */
+    public String getFailure() {
+      if (this.error != null) {
+        return "Test " + this.name + " could not be run: " + this.error;
+      }
+      if (this.timedOut) {
+        return "Test " + this.name + " timed out after " + this.timeout + " s";
+      }
+      if (this.exitValue != 0) {
+        return "Test " + this.name + " failed with exit code: " + this.exitValue + " 0x"
+            + Integer.toHexString(this.exitValue);
+      }
+      return null;
+    }
+
+    public String getName() {
+      return this.name;
+    }
+
+    public String getSuiteName() {
+      return this.suiteName;
+    }
+
+    /**
+     * Gets the milliseconds the test ran.
+     */
+    public long getTime() {
+      return this.time;
+    }
+
+    public boolean isTimedOut() {
+      return this.timedOut;
+    }
+  }
+
+  /**
+   * Passes the lines of an output to the output file, the tail of the
+   * execution and, if logging, the log.
+   */
+  private static final class OutputHandler implements OutputPump.LineHandler {
+    private final PrintWriter file;
+
+    private final OutputPump.Tail tail;
+
+    private final TextStream log;
+
+    private OutputHandler(final PrintWriter file, final OutputPump.Tail tail, final TextStream log) {
+      this.file = file;
+      this.tail = tail;
+      this.log = log;
+    }
+
+    @Override
+    public void line(final String line) {
+      synchronized (this.file) {
+        this.file.println(line);
+      }
+      this.tail.line(line);
+      if (this.log != null) {
+        this.log.println(line);
+      }
+    }
+  }
+
+  /**
+   * Lines of each output of a test kept for the log and the report.
+   */
+  private static final int REPORT_LINES = 100;
+
+  private static final ScheduledExecutorService WATCHDOG = Executors
+      .newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+          final Thread thread = new Thread(runnable, "Test watchdog");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  /**
+   * Selects the tests of a shard. The shards take turns in the order of the
+   * tests, so all nodes of a build agree on the shards and each shard gets
+   * about the same number of tests.
+   *
+   * @param shardIndex
+   *          index of the shard, from 0 to shardCount - 1
+   */
+  public static <T> List<T> shard(final List<T> tests, final int shardIndex, final int shardCount)
+      throws MojoFailureException {
+    if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+      throw new MojoFailureException("NAR: Shard index " + shardIndex + " is not within the " + shardCount
+          + " shards");
+    }
+    final List<T> shard = new ArrayList<T>();
+    for (int i = shardIndex; i < tests.size(); i += shardCount) {
+      shard.add(tests.get(i));
+    }
+    return shard;
+  }
+
+  /**
+   * Replaces the characters XML 1.0 does not allow.
+   */
+  private static String toXmlText(final String text) {
+    final StringBuilder sb = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      sb.append(c < 0x20 && c != '\t' && c != '\n' && c != '\r' || c == 0xfffe || c == 0xffff ? '?' : c);
+    }
+    return sb.toString();
+  }
+
+  private final String[] env;
+
+  private final File reportsDirectory;
+
+  private final Log log;
+
+  /**
+   * @param env
+   *          environment of the tests, may be null
+   */
+  public NarTestRunner(final String[] env, final File reportsDirectory, final Log log) {
+    this.env = env;
+    this.reportsDirectory = reportsDirectory;
+    this.log = log;
+  }
+
+  /**
+   * Runs tests, forkCount at a time, and writes their reports.
+   *
+   * @param forkCount
+   *          number of tests run at the same time, 0 for one per processor
+   */
+  public void run(final List<Execution> executions, final int forkCount) throws MojoExecutionException,
+      MojoFailureException {
+    this.reportsDirectory.mkdirs();
+    int noOfThreads = forkCount > 0 ? forkCount : Runtime.getRuntime().availableProcessors();
+    noOfThreads = Math.min(noOfThreads, executions.size());
+    if (noOfThreads <= 1) {
+      for (final Execution execution : executions) {
+        run(execution, true);
+      }
+      return;
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(noOfThreads);
+    try {
+      final List<Future<Void>> runs = new ArrayList<Future<Void>>(executions.size());
+      for (final Execution execution : executions) {
+        runs.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws MojoExecutionException, MojoFailureException {
+            run(execution, false);
+            return null;
+          }
+        }));
+      }
+      for (final Future<Void> run : runs) {
+        run.get();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while running tests", e);
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof MojoExecutionException) {
+        throw (MojoExecutionException) e.getCause();
+      }
+      if (e.getCause() instanceof MojoFailureException) {
+        throw (MojoFailureException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new MojoExecutionException("Error running tests", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void run(final Execution execution, final boolean live) throws MojoExecutionException,
+      MojoFailureException {
+    if (execution.workingDirectory != null) {
+      this.log.info("Running test " + execution.name + " in " + execution.workingDirectory);
+    } else {
+      this.log.info("Running test " + execution.name);
+    }
+
+    final Commandline cmdLine = new Commandline();
+    NarUtil.configureCommandline(cmdLine, execution.executable.getPath(), execution.args,
+        execution.workingDirectory, this.env, new TextStream() {
+          @Override
+          public void println(final String text) {
+            NarTestRunner.this.log.debug(text);
+          }
+        });
+
+    final File outputFile = new File(this.reportsDirectory, execution.suiteName + "-output.txt");
+    final PrintWriter output;
+    try {
+      output = new PrintWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8"));
+    } catch (final IOException e) {
+      throw new MojoExecutionException("Cannot write " + outputFile, e);
+    }
+    final long start = System.currentTimeMillis();
+    try {
+      final Process process;
+      try {
+        process = cmdLine.execute();
+      } catch (final CommandLineException e) {
+        execution.error = e.getMessage();
+        return;
+      }
+      final Future<?> errorPump = OutputPump.start(process.getErrorStream(), new OutputHandler(output,
+          execution.err, live ? new TextStream() {
+            @Override
+            public void println(final String text) {
+              NarTestRunner.this.log.error(text);
+            }
+          } : null));
+      final Future<?> outputPump = OutputPump.start(process.getInputStream(), new OutputHandler(output,
+          execution.out, live ? new TextStream() {
+            @Override
+            public void println(final String text) {
+              NarTestRunner.this.log.info(text);
+            }
+          } : null));
+
+      final ScheduledFuture<?> watchdog = execution.timeout > 0 ? WATCHDOG.schedule(new Runnable() {
+        @Override
+        public void run() {
+          process.destroy();
+        }
+      }, execution.timeout, TimeUnit.SECONDS) : null;
+      try {
+        process.waitFor();
+      } catch (final InterruptedException e) {
+        process.destroy();
+        Thread.currentThread().interrupt();
+        throw new MojoExecutionException("Interrupted while running " + execution.name, e);
+      } finally {
+        //
+        // a watchdog which can no longer be cancelled has killed the test
+        //
+        execution.timedOut = watchdog != null && !watchdog.cancel(false);
+      }
+      execution.exitValue = process.exitValue();
+      OutputPump.await(errorPump, OutputPump.DRAIN_TIMEOUT);
+      OutputPump.await(outputPump, OutputPump.DRAIN_TIMEOUT);
+    } finally {
+      execution.time = System.currentTimeMillis() - start;
+      output.close();
+      report(execution, live);
+    }
+  }
+
+  private void report(final Execution execution, final boolean live) throws MojoExecutionException {
+    final String failure = execution.getFailure();
+    if (failure == null) {
+      this.log.info(String.format(Locale.ENGLISH, "Test %1$s passed in %2$.3f s", execution.name,
+          execution.time / 1000.0));
+    } else {
+      synchronized (this.log) {
+        this.log.error(failure);
+        if (!live) {
+          reportTail(execution.err, "standard error");
+          reportTail(execution.out, "standard output");
+        }
+      }
+    }
+    writeReport(execution, failure);
+  }
+
+  private void reportTail(final OutputPump.Tail tail, final String name) {
+    final long dropped = tail.getDropped();
+    if (dropped > 0) {
+      this.log.warn("... " + dropped + " earlier lines of " + name + " not shown");
+    }
+    for (final String line : tail.getLines()) {
+      this.log.warn(line);
+    }
+  }
+
+  /**
+   * Writes the report of a test as reportsDirectory/TEST-suiteName.xml.
+   */
+  private void writeReport(final Execution execution, final String failure) throws MojoExecutionException {
+    final File reportFile = new File(this.reportsDirectory, "TEST-" + execution.suiteName + ".xml");
+    final String time = String.format(Locale.ENGLISH, "%.3f", execution.time / 1000.0);
+    final boolean error = execution.error != null || execution.timedOut;
+    Writer writer = null;
+    try {
+      writer = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+      final PrettyPrintXMLWriter xml = new PrettyPrintXMLWriter(writer, "UTF-8", null);
+      xml.startElement("testsuite");
+      xml.addAttribute("name", execution.suiteName);
+      xml.addAttribute("time", time);
+      xml.addAttribute("tests", "1");
+      xml.addAttribute("failures", failure != null && !error ? "1" : "0");
+      xml.addAttribute("errors", error ? "1" : "0");
+      xml.addAttribute("skipped", "0");
+      xml.startElement("testcase");
+      xml.addAttribute("name", execution.name);
+      xml.addAttribute("classname", execution.suiteName);
+      xml.addAttribute("time", time);
+      if (failure != null) {
+        xml.startElement(error ? "error" : "failure");
+        xml.addAttribute("message", toXmlText(failure));
+        xml.addAttribute("type", execution.timedOut ? "timeout" : error ? "launch" : "exit code");
+        xml.endElement();
+        xml.startElement("system-out");
+        xml.writeText(toXmlText(StringUtils.join(execution.out.getLines(), "\n")));
+        xml.endElement();
+        xml.startElement("system-err");
+        xml.writeText(toXmlText(StringUtils.join(execution.err.getLines(), "\n")));
+        xml.endElement();
+      }
+      xml.endElement();
+      xml.endElement();
+      writer.close();
+      writer = null;
+    } catch (final IOException e) {
+      throw new MojoExecutionException("Cannot write " + reportFile, e);
+    } finally {
+      if (writer != null) {
+        try {
+          writer.close();
+        } catch (final IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+}
@@ -19,11 +19,8 @@
  */
 package com.github.maven_nar;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Collection;
@@ -32,6 +29,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import org.apache.bcel.classfile.ClassParser;
@@ -43,39 +41,47 @@ import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.cli.Commandline;
 
+import com.github.maven_nar.cpptasks.compiler.OutputPump;
+
 /**
  * @author Mark Donszelmann
  */
 public final class NarUtil {
-  private static final class StreamGobbler extends Thread {
-    private final InputStream is;
-
+  /**
+   * Passes the lines of an output to a text stream and keeps the last ones
+   * for the error report.
+   */
+  private static final class TextStreamHandler implements OutputPump.LineHandler {
     private final TextStream ts;
 
-    private StreamGobbler(final InputStream is, final TextStream ts) {
-      this.is = is;
+    private final OutputPump.Tail tail = new OutputPump.Tail(REPORT_LINES);
+
+    private TextStreamHandler(final TextStream ts) {
       this.ts = ts;
     }
 
     @Override
-    public void run() {
-      try {
-        final BufferedReader reader = new BufferedReader(new InputStreamReader(this.is));
-        String line = null;
-        while ((line = reader.readLine()) != null) {
-          this.ts.println(line);
-        }
-        reader.close();
-      } catch (final IOException e) {
-        // e.printStackTrace()
-        final StackTraceElement[] stackTrace = e.getStackTrace();
-        for (final StackTraceElement element : stackTrace) {
-          this.ts.println(element.toString());
-        }
+    public void line(final String line) {
+      this.ts.println(line);
+      this.tail.line(line);
+    }
+
+    private void report(final String name, final Log log) {
+      final long dropped = this.tail.getDropped();
+      if (dropped > 0) {
+        reportLine("... " + dropped + " earlier lines of " + name + " not shown", log);
+      }
+      for (final String line : this.tail.getLines()) {
+        reportLine(line, log);
       }
     }
   }
 
+  /**
+   * Lines of each output of a failed command shown in the error report.
+   */
+  private static final int REPORT_LINES = 100;
+
   public static final String DEFAULT_EXCLUDES = "**/*~,**/#*#,**/.#*,**/%*%,**/._*,"
       + "**/CVS,**/CVS/**,**/.cvsignore," + "**/SCCS,**/SCCS/**,**/vssver.scc," + "**/.svn,**/.svn/**,**/.DS_Store";
 
@@ -517,52 +523,23 @@ public final class NarUtil {
 
     try {
       dbg.println("RunCommand: " + cmd);
-      cmdLine.setExecutable(cmd);
-      if (args != null) {
-        for (final String arg : args) {
-          dbg.println("  '" + arg + "'");
-        }
-        cmdLine.addArguments(args);
-      }
-      if (workingDirectory != null) {
-        dbg.println("in: " + workingDirectory.getPath());
-        cmdLine.setWorkingDirectory(workingDirectory);
-      }
-
-      if (env != null) {
-        dbg.println("with Env:");
-        for (final String element : env) {
-          final String[] nameValue = element.split("=", 2);
-          if (nameValue.length < 2) {
-            throw new MojoFailureException("   Misformed env: '" + element + "'");
-          }
-          dbg.println("   '" + nameValue[0] + "=" + nameValue[1] + "'");
-          cmdLine.addEnvironment(nameValue[0], nameValue[1]);
-        }
-      }
+      configureCommandline(cmdLine, cmd, args, workingDirectory, env, dbg);
 
       final Process process = cmdLine.execute();
-      final StreamGobbler errorGobbler = new StreamGobbler(process.getErrorStream(), err);
-      final StreamGobbler outputGobbler = new StreamGobbler(process.getInputStream(), out);
+      final TextStreamHandler errorHandler = new TextStreamHandler(err);
+      final TextStreamHandler outputHandler = new TextStreamHandler(out);
+      final Future<?> errorPump = OutputPump.start(process.getErrorStream(), errorHandler);
+      final Future<?> outputPump = OutputPump.start(process.getInputStream(), outputHandler);
 
-      errorGobbler.start();
-      outputGobbler.start();
       process.waitFor();
       final int exitValue = process.exitValue();
       dbg.println("ExitValue: " + exitValue);
-      final int timeout = 5000;
-      errorGobbler.join(timeout);
-      outputGobbler.join(timeout);
+      OutputPump.await(errorPump, OutputPump.DRAIN_TIMEOUT);
+      OutputPump.await(outputPump, OutputPump.DRAIN_TIMEOUT);
       if (exitValue != 0 ^ expectFailure) {
-        if (log == null) {
-          System.err.println(err.toString());
-          System.err.println(out.toString());
-          System.err.println(dbg.toString());
-        } else {
-          log.warn(err.toString());
-          log.warn(out.toString());
-          log.warn(dbg.toString());
-        }
+        reportLine("Failed: " + cmdLine, log);
+        errorHandler.report("standard error", log);
+        outputHandler.report("standard output", log);
         throw new MojoExecutionException("exit code: " + exitValue);
       }
       return exitValue;
@@ -573,6 +550,45 @@ public final class NarUtil {
     }
   }
 
+  /**
+   * Sets the executable, arguments, working directory and environment of a
+   * command line.
+   */
+  static void configureCommandline(final Commandline cmdLine, final String cmd, final String[] args,
+      final File workingDirectory, final String[] env, final TextStream dbg) throws MojoFailureException {
+    cmdLine.setExecutable(cmd);
+    if (args != null) {
+      for (final String arg : args) {
+        dbg.println("  '" + arg + "'");
+      }
+      cmdLine.addArguments(args);
+    }
+    if (workingDirectory != null) {
+      dbg.println("in: " + workingDirectory.getPath());
+      cmdLine.setWorkingDirectory(workingDirectory);
+    }
+
+    if (env != null) {
+      dbg.println("with Env:");
+      for (final String element : env) {
+        final String[] nameValue = element.split("=", 2);
+        if (nameValue.length < 2) {
+          throw new MojoFailureException("   Misformed env: '" + element + "'");
+        }
+        dbg.println("   '" + nameValue[0] + "=" + nameValue[1] + "'");
+        cmdLine.addEnvironment(nameValue[0], nameValue[1]);
+      }
+    }
+  }
+
+  private static void reportLine(final String line, final Log log) {
+    if (log == null) {
+      System.err.println(line);
+    } else {
+      log.warn(line);
+    }
+  }
+
   static void runInstallNameTool(final File[] files, final Log log) throws MojoExecutionException, MojoFailureException {
     final Set libs = findInstallNameToolCandidates(files, log);
 
@@ -67,6 +67,13 @@ public class Test implements Executable {
   @Parameter
   private List/* <String> */args = new ArrayList();
 
+  /**
+   * Seconds this test may run before it is killed. Defaults to 0, the timeout
+   * of the nar-test goal. This option is only used if run=true.
+   */
+  @Parameter
+  private int timeout = 0;
+
   /**
    * List of artifact:binding  for type of dependency to link against when there is a choice.
    */
@@ -112,6 +119,10 @@ public class Test implements Executable {
     return this.name;
   }
 
+  public final int getTimeout() {
+    return this.timeout;
+  }
+
   public String getType() {
     return this.type;
   }
@@ -0,0 +1,336 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary, append-only store of records.
+ *
+ * <p>
+ * The file starts with a magic number and a version, followed by a sequence
+ * of records. A string record defines the next interned string (typically a
+ * path or a configuration identifier), an entry record holds one entry whose
+ * strings are referred to by index. Entries appended later supersede earlier
+ * ones with the same key, so a commit only needs to append what changed. A
+ * truncated trailing record, e.g. from an interrupted build, is ignored and
+ * overwritten by the next append.
+ * </p>
+ *
+ * @param <T>
+ *          type of the stored entries
+ */
+public abstract class AbstractBinaryStore<T> {
+  private static final int HEADER_LENGTH = 8;
+  private static final byte STRING_RECORD = 1;
+  private static final byte ENTRY_RECORD = 2;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Maps the store into memory. Windows does not allow a mapped file to be
+   * replaced or truncated until the mapping is garbage collected, so there
+   * the content is read into the heap instead.
+   */
+  private static ByteBuffer read(final FileChannel channel) throws IOException {
+    if (File.separatorChar != '\\') {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    final ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+    while (buf.hasRemaining()) {
+      if (channel.read(buf) < 0) {
+        break;
+      }
+    }
+    buf.flip();
+    return buf;
+  }
+
+  private static void writeFully(final FileChannel channel, final ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      channel.write(buf);
+    }
+  }
+
+  private final File file;
+  private final int magic;
+  private final int version;
+  /** interned strings in the order they were defined in the file */
+  private final List<String> strings = new ArrayList<String>();
+  private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+  /** number of entry records in the file, live or superseded */
+  private int entryCount;
+  /** length of the file up to the end of the last complete record */
+  private long validLength;
+
+  protected AbstractBinaryStore(final File file, final int magic, final int version) {
+    if (file == null) {
+      throw new NullPointerException("file");
+    }
+    this.file = file;
+    this.magic = magic;
+    this.version = version;
+  }
+
+  /**
+   * Appends the given entries to the end of the store, creating it if
+   * necessary.
+   */
+  public void append(final Collection<T> entries) throws IOException {
+    if (this.validLength < HEADER_LENGTH || !this.file.exists()) {
+      rewrite(entries);
+      return;
+    }
+    final byte[] bytes = encode(entries, false);
+    final RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+    try {
+      final FileChannel channel = raf.getChannel();
+      //
+      // drop any partial record left by an interrupted commit
+      //
+      channel.truncate(this.validLength);
+      channel.position(this.validLength);
+      writeFully(channel, ByteBuffer.wrap(bytes));
+      channel.force(false);
+      this.validLength = channel.position();
+    } catch (final IOException ex) {
+      //
+      // interned strings may not have made it to disk,
+      // so the next commit has to start over
+      //
+      this.validLength = 0;
+      throw ex;
+    } finally {
+      raf.close();
+    }
+    this.entryCount += entries.size();
+  }
+
+  private byte[] encode(final Collection<T> entries, final boolean header) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    if (header) {
+      out.writeInt(this.magic);
+      out.writeInt(this.version);
+    }
+    final ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+    final DataOutputStream body = new DataOutputStream(bodyBytes);
+    for (final T entry : entries) {
+      //
+      // strings first referenced by this entry are written
+      // to out ahead of the entry itself
+      //
+      bodyBytes.reset();
+      writeEntry(out, body, entry);
+      body.flush();
+      out.writeByte(ENTRY_RECORD);
+      bodyBytes.writeTo(out);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  public boolean exists() {
+    return this.file.exists();
+  }
+
+  /**
+   * Returns the number of entry records in the store including those that
+   * have been superseded by later entries.
+   */
+  public int getEntryCount() {
+    return this.entryCount;
+  }
+
+  public File getFile() {
+    return this.file;
+  }
+
+  /**
+   * Returns the index of a string, writing a string record to out if the
+   * string has not been written to the store before.
+   */
+  protected int intern(final DataOutputStream out, final String value) throws IOException {
+    final Integer id = this.stringIds.get(value);
+    if (id != null) {
+      return id.intValue();
+    }
+    final byte[] encoded = value.getBytes(UTF8);
+    out.writeByte(STRING_RECORD);
+    out.writeInt(encoded.length);
+    out.write(encoded);
+    final int newId = this.strings.size();
+    this.strings.add(value);
+    this.stringIds.put(value, newId);
+    return newId;
+  }
+
+  /**
+   * Reads all entries in the order they were written.
+   *
+   * @throws IOException
+   *           if the file can not be read or is not a store of this type
+   */
+  public List<T> load() throws IOException {
+    this.strings.clear();
+    this.stringIds.clear();
+    this.entryCount = 0;
+    this.validLength = 0;
+    final List<T> entries = new ArrayList<T>();
+    final RandomAccessFile raf = new RandomAccessFile(this.file, "r");
+    try {
+      final ByteBuffer buf = read(raf.getChannel());
+      if (buf.remaining() < HEADER_LENGTH || buf.getInt() != this.magic) {
+        throw new IOException(this.file + " is not a valid store");
+      }
+      final int fileVersion = buf.getInt();
+      if (fileVersion != this.version) {
+        throw new IOException(this.file + " has unsupported version " + fileVersion);
+      }
+      this.validLength = buf.position();
+      try {
+        while (buf.hasRemaining()) {
+          final byte type = buf.get();
+          if (type == STRING_RECORD) {
+            final int length = buf.getInt();
+            if (length < 0 || length > buf.remaining()) {
+              break;
+            }
+            final byte[] encoded = new byte[length];
+            buf.get(encoded);
+            final String value = new String(encoded, UTF8);
+            this.stringIds.put(value, this.strings.size());
+            this.strings.add(value);
+          } else if (type == ENTRY_RECORD) {
+            entries.add(readEntry(buf));
+            this.entryCount++;
+          } else {
+            break;
+          }
+          this.validLength = buf.position();
+        }
+      } catch (final BufferUnderflowException ex) {
+        //
+        // truncated trailing record, keep what was complete
+        //
+      } catch (final IndexOutOfBoundsException ex) {
+        //
+        // record refers to a string that was never written
+        //
+      }
+    } finally {
+      raf.close();
+    }
+    return entries;
+  }
+
+  /**
+   * Reads the body of an entry record.
+   */
+  protected abstract T readEntry(ByteBuffer buf);
+
+  /**
+   * Reads a count followed by that many string indexes.
+   */
+  protected String[] readStrings(final ByteBuffer buf) {
+    final int count = buf.getInt();
+    if (count < 0 || count > buf.remaining() / 4) {
+      throw new BufferUnderflowException();
+    }
+    final String[] values = new String[count];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = string(buf.getInt());
+    }
+    return values;
+  }
+
+  /**
+   * Replaces the store with one that holds only the given entries. The new
+   * content is written to a temporary file first, so an interrupted rewrite
+   * leaves the previous store intact.
+   */
+  public void rewrite(final Collection<T> entries) throws IOException {
+    //
+    // the interned strings no longer match the file on disk,
+    // so if this rewrite fails the next commit has to start over
+    //
+    this.validLength = 0;
+    this.strings.clear();
+    this.stringIds.clear();
+    final byte[] bytes = encode(entries, true);
+    final File temp = File.createTempFile(this.file.getName(), ".tmp", this.file.getParentFile());
+    try {
+      final RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+      try {
+        writeFully(raf.getChannel(), ByteBuffer.wrap(bytes));
+        raf.getChannel().force(false);
+      } finally {
+        raf.close();
+      }
+      Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      temp.delete();
+    }
+    this.entryCount = entries.size();
+    this.validLength = bytes.length;
+  }
+
+  /**
+   * Returns the string with the given index.
+   *
+   * @throws IndexOutOfBoundsException
+   *           if no such string has been read
+   */
+  protected String string(final int id) {
+    return this.strings.get(id);
+  }
+
+  /**
+   * Writes the body of an entry record to body. Strings have to be passed
+   * through {@link #intern(DataOutputStream, String)} with out as stream.
+   */
+  protected abstract void writeEntry(DataOutputStream out, DataOutputStream body, T entry) throws IOException;
+
+  /**
+   * Writes a count followed by the indexes of the given strings.
+   */
+  protected void writeStrings(final DataOutputStream out, final DataOutputStream body, final String[] values)
+      throws IOException {
+    body.writeInt(values.length);
+    for (final String value : values) {
+      body.writeInt(intern(out, value));
+    }
+  }
+}
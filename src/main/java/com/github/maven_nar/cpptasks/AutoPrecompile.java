@@ -0,0 +1,316 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import com.github.maven_nar.cpptasks.compiler.CompilerConfiguration;
+
+/**
+ * Precompiled header synthesized from the headers that most sources of a
+ * compiler include first, for a precompile element in auto mode.
+ *
+ * <p>
+ * The selected headers go into a generated header in objDir/pch, which is
+ * precompiled with a generated prototype and forced into the sources that
+ * start by including exactly these headers. Forcing it into any other
+ * source would change what that source sees, so those compile without the
+ * precompiled header. The files are named after the configuration identifier, so modules with the
+ * same flags use the same names and, through the object cache, can reuse
+ * each other's precompiled header.
+ * </p>
+ */
+final class AutoPrecompile {
+  private static final Pattern INCLUDE = Pattern.compile("#\\s*include\\s*[<\"]([^>\"]+)[>\"]");
+
+  /**
+   * Creates the precompiled header for the sources of a configuration.
+   *
+   * @param exceptFiles
+   *          sources not to compile with the precompiled header
+   * @return null if no header is included widely enough or the compiler
+   *         can not force a precompiled header
+   */
+  static AutoPrecompile create(final CCTask task, final CompilerConfiguration config, final List<File> sources,
+      final String[] exceptFiles, final int threshold, final File objDir) {
+    //
+    // one precompiled header serves one language,
+    // sources with other extensions compile without it
+    //
+    final Map<String, List<File>> sourcesByExtension = new LinkedHashMap<String, List<File>>();
+    final Set<String> excepted = new HashSet<String>(Arrays.asList(exceptFiles));
+    for (final File source : sources) {
+      if (!excepted.contains(source.getPath())) {
+        final String extension = FilenameUtils.getExtension(source.getName());
+        List<File> sameExtension = sourcesByExtension.get(extension);
+        if (sameExtension == null) {
+          sameExtension = new ArrayList<File>();
+          sourcesByExtension.put(extension, sameExtension);
+        }
+        sameExtension.add(source);
+      }
+    }
+    String extension = null;
+    for (final Map.Entry<String, List<File>> entry : sourcesByExtension.entrySet()) {
+      if (extension == null || entry.getValue().size() > sourcesByExtension.get(extension).size()) {
+        extension = entry.getKey();
+      }
+    }
+    if (extension == null) {
+      return null;
+    }
+    final List<String> allExceptFiles = new ArrayList<String>(Arrays.asList(exceptFiles));
+    for (final Map.Entry<String, List<File>> entry : sourcesByExtension.entrySet()) {
+      if (!entry.getKey().equals(extension)) {
+        for (final File source : entry.getValue()) {
+          allExceptFiles.add(source.getPath());
+        }
+      }
+    }
+    final List<File> precompiledSources = sourcesByExtension.get(extension);
+    Collections.sort(precompiledSources);
+    final DependencyTable dependencyTable = task.getDependencyTable();
+    final List<List<File>> includes = new ArrayList<List<File>>(precompiledSources.size());
+    for (final File source : precompiledSources) {
+      includes.add(getLeadingIncludes(source, dependencyTable.getDirectIncludeFiles(task, config, source)));
+    }
+    final List<File> headers = selectHeaders(includes, threshold);
+    if (headers.isEmpty()) {
+      task.log("No header is included first by " + threshold + "% of the sources, not precompiling headers.",
+          Project.MSG_VERBOSE);
+      return null;
+    }
+    //
+    // sources that do not start with the selected headers
+    // must not see them before their own code
+    //
+    int usingSources = 0;
+    for (int i = 0; i < precompiledSources.size(); i++) {
+      final List<File> sourceIncludes = includes.get(i);
+      if (sourceIncludes.size() >= headers.size() && sourceIncludes.subList(0, headers.size()).equals(headers)) {
+        usingSources++;
+      } else {
+        allExceptFiles.add(precompiledSources.get(i).getPath());
+      }
+    }
+    final File pchDir = new File(objDir, "pch");
+    final String pchDirPath;
+    try {
+      pchDirPath = CUtil.getCanonicalPath(pchDir);
+    } catch (final IOException ex) {
+      throw new BuildException("Error resolving " + pchDir + ": " + ex.getMessage(), ex);
+    }
+    pchDir.mkdirs();
+    final String name = "pch-" + Integer.toHexString(config.getIdentifier().hashCode());
+    final File header = new File(pchDirPath, name + ".h");
+    final File prototype = new File(pchDirPath, name + "." + extension);
+    final File pch = new File(pchDirPath, name + ".pch");
+    final List<String> headerIncludes = new ArrayList<String>(headers.size());
+    for (final File file : headers) {
+      headerIncludes.add(CUtil.getRelativePath(pchDirPath, file));
+    }
+    final CompilerConfiguration[] configs = config.createForcedPrecompileConfigurations(header, pch,
+        allExceptFiles.toArray(new String[allExceptFiles.size()]));
+    if (configs == null || configs.length != 2) {
+      task.log("Compiler can not force a precompiled header, not precompiling headers.", Project.MSG_VERBOSE);
+      return null;
+    }
+    CCTask.writeGeneratedSource(header, "precompiled header", headerIncludes);
+    CCTask.writeGeneratedSource(prototype, "precompiled header prototype", Collections.singletonList(header.getName()));
+    task.log("Precompiling " + headers.size() + " headers included first by " + usingSources + " of "
+        + precompiledSources.size() + " sources.", Project.MSG_VERBOSE);
+    return new AutoPrecompile(configs[0], configs[1], headers, prototype, pch);
+  }
+
+  /**
+   * Gets the headers a source includes before any other directive or code,
+   * in the order it includes them. The list ends at the first include that
+   * is not among the resolved direct includes of the source.
+   *
+   * @param includes
+   *          files the source includes directly
+   */
+  static List<File> getLeadingIncludes(final File source, final List<File> includes) {
+    final List<File> leading = new ArrayList<File>();
+    final List<String> lines;
+    try {
+      // ISO-8859-1 reads any byte, directives are ASCII
+      lines = FileUtils.readLines(source, "ISO-8859-1");
+    } catch (final IOException ex) {
+      return leading;
+    }
+    boolean inComment = false;
+    for (final String line : lines) {
+      final StringBuilder code = new StringBuilder();
+      int i = 0;
+      while (i < line.length()) {
+        if (inComment) {
+          final int end = line.indexOf("*/", i);
+          inComment = end < 0;
+          i = inComment ? line.length() : end + 2;
+        } else if (line.startsWith("/*", i)) {
+          inComment = true;
+          i += 2;
+        } else if (line.startsWith("//", i)) {
+          break;
+        } else {
+          code.append(line.charAt(i++));
+        }
+      }
+      final String directive = code.toString().trim();
+      if (directive.length() == 0) {
+        continue;
+      }
+      final Matcher matcher = INCLUDE.matcher(directive);
+      if (!matcher.matches()) {
+        break;
+      }
+      final File include = findInclude(matcher.group(1), includes);
+      if (include == null) {
+        break;
+      }
+      leading.add(include);
+    }
+    return leading;
+  }
+
+  private static File findInclude(final String name, final List<File> includes) {
+    final String relativePath = name.replace('\\', '/');
+    for (final File include : includes) {
+      final String path = include.getPath().replace('\\', '/');
+      if (path.equals(relativePath) || path.endsWith("/" + relativePath)) {
+        return include;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Selects the longest list of headers that at least threshold percent of
+   * the sources start by including, in that order.
+   *
+   * @param includes
+   *          files each source includes first, in order
+   */
+  static List<File> selectHeaders(final List<List<File>> includes, final int threshold) {
+    List<List<File>> matching = new ArrayList<List<File>>(includes.size());
+    for (final List<File> sourceIncludes : includes) {
+      matching.add(new ArrayList<File>(new LinkedHashSet<File>(sourceIncludes)));
+    }
+    final List<File> headers = new ArrayList<File>();
+    while (true) {
+      //
+      // extend the prefix by the most common next header
+      // of the sources that share it so far
+      //
+      final int position = headers.size();
+      final Map<File, Integer> counts = new LinkedHashMap<File, Integer>();
+      File next = null;
+      for (final List<File> sourceIncludes : matching) {
+        if (sourceIncludes.size() > position) {
+          final File include = sourceIncludes.get(position);
+          final Integer count = counts.get(include);
+          counts.put(include, count == null ? 1 : count + 1);
+          if (next == null || counts.get(include) > counts.get(next)) {
+            next = include;
+          }
+        }
+      }
+      if (next == null || counts.get(next) * 100L < (long) threshold * includes.size()) {
+        return headers;
+      }
+      headers.add(next);
+      final List<List<File>> nextMatching = new ArrayList<List<File>>(counts.get(next));
+      for (final List<File> sourceIncludes : matching) {
+        if (sourceIncludes.size() > position && sourceIncludes.get(position).equals(next)) {
+          nextMatching.add(sourceIncludes);
+        }
+      }
+      matching = nextMatching;
+    }
+  }
+
+  private final CompilerConfiguration generatingConfig;
+  private final List<File> headers;
+  private final File pch;
+  private final File prototype;
+  private final CompilerConfiguration usingConfig;
+
+  AutoPrecompile(final CompilerConfiguration generatingConfig, final CompilerConfiguration usingConfig,
+      final List<File> headers, final File prototype, final File pch) {
+    this.generatingConfig = generatingConfig;
+    this.usingConfig = usingConfig;
+    this.headers = headers;
+    this.prototype = prototype;
+    this.pch = pch;
+  }
+
+  /**
+   * Gets the files the precompiled header is built from, the selected
+   * headers and what they include, for its key in the object cache. Paths
+   * of the generated files are left out, they differ between modules.
+   */
+  List<File> getCacheInputs(final CCTask task) {
+    final SortedSet<File> closure = new TreeSet<File>();
+    final DependencyTable dependencyTable = task.getDependencyTable();
+    for (final File header : this.headers) {
+      closure.addAll(dependencyTable.getIncludeFiles(task, this.generatingConfig, header));
+    }
+    closure.removeAll(this.headers);
+    final List<File> inputs = new ArrayList<File>(this.headers);
+    inputs.addAll(closure);
+    return inputs;
+  }
+
+  CompilerConfiguration getGeneratingConfig() {
+    return this.generatingConfig;
+  }
+
+  File getPch() {
+    return this.pch;
+  }
+
+  File getPrototype() {
+    return this.prototype;
+  }
+
+  CompilerConfiguration getUsingConfig() {
+    return this.usingConfig;
+  }
+}
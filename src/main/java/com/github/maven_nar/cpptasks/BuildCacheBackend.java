@@ -0,0 +1,58 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Shared store of build outputs behind the local {@link ObjectCache}, for
+ * example a directory on a network share or a cache server used by several
+ * machines.
+ *
+ * <p>
+ * Entries are files addressed by the keys of the object cache and never
+ * change once published. Implementations are called from several threads at
+ * once.
+ * </p>
+ */
+public interface BuildCacheBackend {
+  /**
+   * Looks up several keys with one request.
+   *
+   * @return the keys that have an entry
+   */
+  Set<String> contains(Collection<String> keys) throws IOException;
+
+  /**
+   * Copies the entry of a key to a file.
+   *
+   * @return false if there is no entry for the key
+   */
+  boolean fetch(String key, File file) throws IOException;
+
+  /**
+   * Publishes a file under a key. Does nothing if the key has an entry
+   * already.
+   */
+  void publish(String key, File file) throws IOException;
+}
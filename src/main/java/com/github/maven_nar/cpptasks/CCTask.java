@@ -22,24 +22,49 @@ package com.github.maven_nar.cpptasks;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.types.Environment;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
+import com.github.maven_nar.cpptasks.compiler.CommandLineCompilerConfiguration;
 import com.github.maven_nar.cpptasks.compiler.CompilerConfiguration;
 import com.github.maven_nar.cpptasks.compiler.LinkType;
 import com.github.maven_nar.cpptasks.compiler.Linker;
@@ -74,22 +99,47 @@ public class CCTask extends Task {
   // BEGINFREEHEP
   class Core extends Thread {
     private final CCTask task;
-    private final CompilerConfiguration config;
     private final File objDir;
-    private final List<String> sourceFiles;
+    private final Queue<TargetInfo[]> targets;
     private final boolean relentless;
     private final CCTaskProgressMonitor monitor;
+    private final AtomicBoolean cancelled;
+    private final BlockingQueue<Core> completed;
     private Exception compileException;
+    private int compiledFiles;
+    private long busyNanos;
+    private long elapsedNanos;
 
-    Core(final CCTask task, final int coreNo, final CompilerConfiguration config, final File objDir,
-        final List<String> set, final boolean relentless, final CCTaskProgressMonitor monitor) {
+    /**
+     * Creates a core which takes batches of targets from a queue shared with
+     * the other cores until the queue is drained, so that no core sits idle
+     * while files remain to be compiled. The targets of a batch share their
+     * configuration. The core adds itself to the completed queue when it
+     * stops, so that its owner is notified without polling.
+     */
+    Core(final CCTask task, final int coreNo, final File objDir, final Queue<TargetInfo[]> queue,
+        final boolean relentless, final CCTaskProgressMonitor monitor, final AtomicBoolean cancelled,
+        final BlockingQueue<Core> completed) {
       super("Core " + coreNo);
       this.task = task;
-      this.config = config;
       this.objDir = objDir;
-      this.sourceFiles = set;
+      this.targets = queue;
       this.relentless = relentless;
       this.monitor = monitor;
+      this.cancelled = cancelled;
+      this.completed = completed;
+    }
+
+    public long getBusyNanos() {
+      return this.busyNanos;
+    }
+
+    public int getCompiledFiles() {
+      return this.compiledFiles;
+    }
+
+    public long getElapsedNanos() {
+      return this.elapsedNanos;
     }
 
     public Exception getException() {
@@ -99,15 +149,86 @@ public class CCTask extends Task {
     @Override
     public void run() {
       super.run();
+      CUtil.setCanonicalPathCache(this.task.canonicalPaths);
+      final long start = System.nanoTime();
       try {
-        String[] sources = new String[this.sourceFiles.size()];
-        sources = this.sourceFiles.toArray(sources);
+        TargetInfo[] batch;
+        while (!this.cancelled.get() && (batch = this.targets.poll()) != null) {
+          final CompilerConfiguration config = (CompilerConfiguration) batch[0].getConfiguration();
+          //
+          // wait for a core of the budget shared with other tasks
+          //
+          final Semaphore budget = this.task.getCoreBudget();
+          if (budget != null) {
+            try {
+              budget.acquire();
+            } catch (final InterruptedException ex) {
+              Thread.currentThread().interrupt();
+              break;
+            }
+          }
+          try {
+            compile(config, batch);
+          } finally {
+            if (budget != null) {
+              budget.release();
+            }
+          }
+        }
+      } finally {
+        this.elapsedNanos = System.nanoTime() - start;
+        this.completed.add(this);
+      }
+    }
 
-        this.config.compile(this.task, this.objDir, sources, this.relentless, this.monitor);
+    private void compile(final CompilerConfiguration config, final TargetInfo[] batch) {
+      final long compileStart = System.nanoTime();
+      try {
+        //
+        // restore what the object cache has, compile the rest
+        //
+        final List<TargetInfo> compiled = new ArrayList<TargetInfo>(batch.length);
+        final List<String> keys = new ArrayList<String>(batch.length);
+        for (final TargetInfo target : batch) {
+          final String key = this.task.getObjectCacheKey(target);
+          if (key != null && this.task.restoreObject(key, target, this.monitor)) {
+            continue;
+          }
+          compiled.add(target);
+          keys.add(key);
+        }
+        if (compiled.isEmpty()) {
+          return;
+        }
+        final String[] sources = new String[compiled.size()];
+        for (int i = 0; i < sources.length; i++) {
+          sources[i] = compiled.get(i).getSources()[0].toString();
+          //
+          // an object restored earlier may be a link into the cache,
+          // also if this build does not use the cache
+          //
+          breakLink(compiled.get(i).getOutput());
+        }
+        config.compile(this.task, this.objDir, sources, this.relentless, this.monitor);
+        this.compiledFiles += sources.length;
+        //
+        // only store objects of a batch that compiled,
+        // those of a failed or interrupted batch may be partial
+        //
+        for (int i = 0; i < sources.length; i++) {
+          if (keys.get(i) != null) {
+            this.task.storeObject(keys.get(i), compiled.get(i));
+          }
+        }
       } catch (final Exception ex) {
         if (this.compileException == null) {
           this.compileException = ex;
         }
+        if (!this.relentless) {
+          this.cancelled.set(true);
+        }
+      } finally {
+        this.busyNanos += System.nanoTime() - compileStart;
       }
     }
   }
@@ -115,7 +236,7 @@ public class CCTask extends Task {
   // BEGINFREEHEP
   class Progress extends Thread {
 
-    private boolean stop = false;
+    private final CountDownLatch stop = new CountDownLatch(1);
     private final File objDir;
     private final int rebuildCount;
 
@@ -125,7 +246,7 @@ public class CCTask extends Task {
     }
 
     public void exit() {
-      this.stop = true;
+      this.stop.countDown();
     }
 
     @Override
@@ -142,15 +263,12 @@ public class CCTask extends Task {
             return file.lastModified() > this.startTime && !file.getName().endsWith(".xml");
           }
         };
-        while (!this.stop) {
+        do {
           System.err.print("\r" + this.objDir.listFiles(updatedFiles).length + " / " + this.rebuildCount
               + " files compiled...");
           System.err.print("\r");
           System.err.flush();
-          if (!this.stop) {
-            Thread.sleep(5000);
-          }
-        }
+        } while (!this.stop.await(5, TimeUnit.SECONDS));
       } catch (final InterruptedException e) {
       }
       System.err.print("\r                                                                    ");
@@ -209,6 +327,32 @@ public class CCTask extends Task {
 
   private static final ProcessorConfiguration[] EMPTY_CONFIG_ARRAY = new ProcessorConfiguration[0];
 
+  /** Number of keys the build cache backend is asked for at once. */
+  private static final int PREFETCH_BATCH = 64;
+
+  /** Switches of the compilers for position independent code. */
+  private static final Set<String> POSITION_INDEPENDENT_ARGS = new HashSet<String>(Arrays.asList("-fPIC", "-fpic",
+      "-KPIC", "-Kpic", "+Z", "+z"));
+
+  /** Extensions of the sources that are combined into unity sources. */
+  private static final Set<String> UNITY_EXTENSIONS = new HashSet<String>(Arrays.asList("c", "cc", "cpp", "cxx",
+      "c++"));
+
+  /**
+   * Returns the position of the source of an object file in the compile
+   * order, or -1 if the source is not in the order.
+   */
+  private static int getOrderPosition(final Map<String, Integer> positions, final String objectName) {
+    if (positions.isEmpty()) {
+      return -1;
+    }
+    // Trimming the path, the trailing file extension and the hash
+    // to allow for order comparison
+    final String name = FilenameUtils.removeExtension(FilenameUtils.getBaseName(objectName));
+    final Integer position = positions.get(name);
+    return position != null ? position : -1;
+  }
+
   /**
    * Builds a Hashtable to targets needing to be rebuilt keyed by compiler
    * configuration
@@ -236,7 +380,51 @@ public class CCTask extends Task {
 
   // FREEHEP
   private int maxCores = 0;
-  private boolean ordered = false;
+  /** Maximum number of sources compiled by one compiler process. */
+  private int compileBatchSize = 1;
+  /** Positions of the sources to compile in order, keyed by base name. */
+  private Map<String, Integer> orderPositions = Collections.emptyMap();
+  /** Unity sizes of the configurations whose sources may be combined. */
+  private final Map<ProcessorConfiguration, Integer> unitySizes = new HashMap<ProcessorConfiguration, Integer>();
+  /** Configurations that build or use a precompiled header. */
+  private final Set<ProcessorConfiguration> precompileConfigs = new HashSet<ProcessorConfiguration>();
+  /** Synthesized precompiled headers keyed by generating configuration. */
+  private final Map<ProcessorConfiguration, AutoPrecompile> autoPrecompiles =
+      new HashMap<ProcessorConfiguration, AutoPrecompile>();
+  /** Directory of the object cache, null if objects are not cached. */
+  private File objectCacheDir;
+  /** Size in bytes the object cache is trimmed to. */
+  private long objectCacheSize = 5120L * 1024 * 1024;
+  /** Shared store behind the object cache, null if there is none. */
+  private BuildCacheBackend buildCacheBackend;
+  /** Object cache of this build. */
+  private ObjectCache objectCache;
+  /** Object cache keys of this build keyed by output. */
+  private final Map<File, String> objectCacheKeys = new ConcurrentHashMap<File, String>();
+  /** Computes the keys of the targets to compile ahead of the cores. */
+  private Thread objectCachePrefetcher;
+  /** Canonical paths of the current execution, used on all its threads. */
+  private volatile CanonicalPathCache canonicalPaths;
+  /** History of the object directory, loaded by execute if null. */
+  private TargetHistoryTable objectHistory;
+  /** History of the output directory, loaded by execute if null. */
+  private TargetHistoryTable linkHistory;
+  /** Output type the sources are compiled for, the outtype if null. */
+  private OutputTypeEnum compileOuttype;
+  /** Cores shared with tasks running concurrently, unlimited if null. */
+  private Semaphore coreBudget;
+  /** Objects of the last execution the linker consumes keyed by source. */
+  private final Map<File, File> objectsBySource = new LinkedHashMap<File, File>();
+  /** Compare touched sources by content before rebuilding. */
+  private boolean contentHash;
+  /** Keep include resolutions in the object directory between builds. */
+  private boolean persistentIncludeCache;
+  /** Include resolutions of this build, created on first use. */
+  private IncludeCache includeCache;
+  /** Let compilers report the dependencies of each compiled source. */
+  private boolean compilerDependencies;
+  /** Dependencies of this build, loaded on first use. */
+  private DependencyTable dependencyTable;
   /** The compiler definitions. */
   private final Vector<CompilerDef> _compilers = new Vector<CompilerDef>();
   /** The output file type. */
@@ -497,6 +685,149 @@ public class CCTask extends Task {
     this.linkerDef.addSyslibset(libset);
   }
 
+  /**
+   * Replaces the C and C++ targets of configurations with a unity size by
+   * targets for generated unity sources in the unity subdirectory of the
+   * object directory. The sources of each configuration and extension are
+   * spread over a power of two of unity sources by the hash of their path.
+   * The number of unity sources is part of their names and only grows, so
+   * adding or removing a source only changes the unity source it falls
+   * into, unless adding it doubles the number, which moves every source once.
+   * A unity source is only rewritten when its members change, which leaves
+   * the others up to date. Ordered sources and sources that end up alone are
+   * compiled on their own.
+   */
+  private void addUnityTargets(final Map<String, TargetInfo> targets, final VersionInfo versionInfo) {
+    if (this.unitySizes.isEmpty()) {
+      return;
+    }
+    final File unityDir = new File(this._objDir, "unity");
+    //
+    // group the eligible targets by configuration and extension
+    //
+    final Map<ProcessorConfiguration, Map<String, List<String>>> groups =
+        new LinkedHashMap<ProcessorConfiguration, Map<String, List<String>>>();
+    for (final Map.Entry<String, TargetInfo> entry : targets.entrySet()) {
+      final TargetInfo target = entry.getValue();
+      final ProcessorConfiguration config = target.getConfiguration();
+      if (!this.unitySizes.containsKey(config) || target.getSources().length != 1
+          || getOrderPosition(this.orderPositions, entry.getKey()) >= 0) {
+        continue;
+      }
+      final String extension = FilenameUtils.getExtension(target.getSources()[0].getName());
+      if (!UNITY_EXTENSIONS.contains(extension.toLowerCase(Locale.ENGLISH))) {
+        continue;
+      }
+      Map<String, List<String>> byExtension = groups.get(config);
+      if (byExtension == null) {
+        byExtension = new TreeMap<String, List<String>>();
+        groups.put(config, byExtension);
+      }
+      List<String> names = byExtension.get(extension);
+      if (names == null) {
+        names = new ArrayList<String>();
+        byExtension.put(extension, names);
+      }
+      names.add(entry.getKey());
+    }
+    final String unityPath;
+    try {
+      unityPath = CUtil.getCanonicalPath(unityDir);
+    } catch (final IOException ex) {
+      throw new BuildException(ex);
+    }
+    final Set<String> unityNames = new HashSet<String>();
+    int members = 0;
+    for (final Map.Entry<ProcessorConfiguration, Map<String, List<String>>> group : groups.entrySet()) {
+      final ProcessorConfiguration config = group.getKey();
+      final int unitySize = this.unitySizes.get(config);
+      final String prefix = "unity-" + Integer.toHexString(config.getIdentifier().hashCode()) + "-";
+      for (final Map.Entry<String, List<String>> byExtension : group.getValue().entrySet()) {
+        final List<String> names = byExtension.getValue();
+        int bucketCount = getUnityCount(unityDir, prefix, byExtension.getKey());
+        while (bucketCount * unitySize < names.size()) {
+          bucketCount <<= 1;
+        }
+        //
+        // includes are relative to the unity source, sorted so the content
+        // does not depend on the order the sources were found in
+        //
+        final List<TreeMap<String, String>> buckets = new ArrayList<TreeMap<String, String>>(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+          buckets.add(new TreeMap<String, String>());
+        }
+        for (final String name : names) {
+          final String include = CUtil.getRelativePath(unityPath, targets.get(name).getSources()[0]).replace('\\', '/');
+          int hash = include.hashCode();
+          hash ^= hash >>> 16;
+          buckets.get(hash & bucketCount - 1).put(include, name);
+        }
+        for (int i = 0; i < bucketCount; i++) {
+          final TreeMap<String, String> bucket = buckets.get(i);
+          if (bucket.size() < 2) {
+            continue;
+          }
+          final File unitySource = new File(unityDir, prefix + bucketCount + "-" + i + "." + byExtension.getKey());
+          writeGeneratedSource(unitySource, "unity source", bucket.keySet());
+          unityNames.add(unitySource.getName());
+          for (final String name : bucket.values()) {
+            targets.remove(name);
+          }
+          members += bucket.size();
+          final String outputName = config.getOutputFileNames(unitySource.getPath(), versionInfo)[0];
+          targets.put(outputName, new TargetInfo(config, new File[] {
+            unitySource
+          }, null, new File(this._objDir, outputName), config.getRebuild()));
+        }
+      }
+    }
+    //
+    // remove unity sources that are no longer generated
+    //
+    final File[] existing = unityDir.listFiles();
+    if (existing != null) {
+      for (final File file : existing) {
+        if (file.getName().startsWith("unity-") && !unityNames.contains(file.getName())) {
+          file.delete();
+        }
+      }
+    }
+    if (members > 0) {
+      log("Combined " + members + " files into " + unityNames.size() + " unity files.");
+    }
+  }
+
+  /**
+   * Gets the number of unity sources the previous build spread the sources
+   * of a configuration and extension over, from the names of the unity
+   * sources it generated.
+   *
+   * @return 1 if there are none
+   */
+  private static int getUnityCount(final File unityDir, final String prefix, final String extension) {
+    int count = 1;
+    final File[] existing = unityDir.listFiles();
+    if (existing == null) {
+      return count;
+    }
+    final String suffix = "." + extension;
+    for (final File file : existing) {
+      final String name = file.getName();
+      if (name.startsWith(prefix) && name.endsWith(suffix)) {
+        final String[] parts = name.substring(prefix.length(), name.length() - suffix.length()).split("-");
+        try {
+          final int previous = Integer.parseInt(parts[0]);
+          if (parts.length == 2 && previous > count && Integer.bitCount(previous) == 1) {
+            count = previous;
+          }
+        } catch (final NumberFormatException ex) {
+          // not a unity source of this build
+        }
+      }
+    }
+    return count;
+  }
+
   /**
    * Checks all targets that are not forced to be rebuilt or are missing
    * object files to be checked for modified include files
@@ -522,23 +853,12 @@ public class CCTask extends Task {
     //
     if (potentialTargets > 0) {
       log("Starting dependency analysis for " + Integer.toString(potentialTargets) + " files.");
-      final DependencyTable dependencyTable = new DependencyTable(this._objDir);
-      try {
-        dependencyTable.load();
-      } catch (final Exception ex) {
-        log("Problem reading dependencies.xml: " + ex.toString());
-      }
-      targetEnum = targets.values().iterator();
-      while (targetEnum.hasNext()) {
-        final TargetInfo target = targetEnum.next();
-        if (!target.getRebuild()) {
-          if (dependencyTable.needsRebuild(this, target, this.dependencyDepth)) {
-            target.mustRebuild();
-          }
-        }
-      }
+      final DependencyTable dependencyTable = getDependencyTable();
+      checkForChangedIncludeFiles(dependencyTable, targets, potentialTargets);
       dependencyTable.commit(this);
+      getIncludeCache().commit(this);
     }
+    markPrecompileUsersForRebuild(this.autoPrecompiles, targets);
     //
     // count files being rebuilt now
     //
@@ -558,6 +878,74 @@ public class CCTask extends Task {
     return currentTargets;
   }
 
+  /**
+   * Marks the targets compiled with a synthesized precompiled header for
+   * rebuild if the precompiled header is rebuilt. They do not include the
+   * header themselves, so the dependency analysis does not catch this.
+   */
+  static void markPrecompileUsersForRebuild(final Map<ProcessorConfiguration, AutoPrecompile> autoPrecompiles,
+      final Map<String, TargetInfo> targets) {
+    final Set<ProcessorConfiguration> usingConfigs = new HashSet<ProcessorConfiguration>();
+    for (final TargetInfo target : targets.values()) {
+      final AutoPrecompile autoPrecompile = autoPrecompiles.get(target.getConfiguration());
+      if (autoPrecompile != null && target.getRebuild()) {
+        usingConfigs.add(autoPrecompile.getUsingConfig());
+      }
+    }
+    if (usingConfigs.isEmpty()) {
+      return;
+    }
+    for (final TargetInfo target : targets.values()) {
+      if (usingConfigs.contains(target.getConfiguration())) {
+        target.mustRebuild();
+      }
+    }
+  }
+
+  /**
+   * Runs the dependency analysis of the given targets on a bounded pool of
+   * threads. The dependency table makes sure that every file is parsed only
+   * once, so the outcome is the same as that of a serial scan.
+   */
+  private void checkForChangedIncludeFiles(final DependencyTable dependencyTable,
+      final Map<String, TargetInfo> targets, final int potentialTargets) {
+    int noOfThreads = Runtime.getRuntime().availableProcessors();
+    if (this.maxCores > 0) {
+      noOfThreads = Math.min(this.maxCores, noOfThreads);
+    }
+    noOfThreads = Math.min(noOfThreads, potentialTargets);
+    final ExecutorService executor = Executors.newFixedThreadPool(noOfThreads);
+    try {
+      final Map<TargetInfo, Future<Boolean>> checks = new LinkedHashMap<TargetInfo, Future<Boolean>>();
+      for (final TargetInfo target : targets.values()) {
+        if (!target.getRebuild()) {
+          checks.put(target, executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+              CUtil.setCanonicalPathCache(CCTask.this.canonicalPaths);
+              return dependencyTable.needsRebuild(CCTask.this, target, CCTask.this.dependencyDepth);
+            }
+          }));
+        }
+      }
+      for (final Map.Entry<TargetInfo, Future<Boolean>> check : checks.entrySet()) {
+        if (check.getValue().get()) {
+          check.getKey().mustRebuild();
+        }
+      }
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new BuildException(ex);
+    } catch (final ExecutionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw new BuildException(ex.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   protected LinkerConfiguration collectExplicitObjectFiles(final Vector<File> objectFiles,
       final Vector<File> sysObjectFiles, final VersionInfo versionInfo) {
     //
@@ -687,6 +1075,49 @@ public class CCTask extends Task {
    */
   @Override
   public void execute() throws BuildException {
+    final CanonicalPathCache canonicalPaths = new CanonicalPathCache();
+    this.canonicalPaths = canonicalPaths;
+    final CanonicalPathCache previous = CUtil.setCanonicalPathCache(canonicalPaths);
+    try {
+      compileAndLink();
+    } finally {
+      if (this.objectCache != null) {
+        closeObjectCache();
+      }
+      log("Canonical paths: " + canonicalPaths.getHits() + " of " + canonicalPaths.getLookups()
+          + " lookups answered from " + canonicalPaths.size() + " cached paths, saving about "
+          + canonicalPaths.getSavedCalls() + " file system calls");
+      CUtil.setCanonicalPathCache(previous);
+    }
+  }
+
+  /**
+   * Waits for the objects of this build to be published to the build cache
+   * backend, trims the object cache and logs its statistics.
+   */
+  private void closeObjectCache() {
+    final ObjectCache cache = this.objectCache;
+    this.objectCache = null;
+    if (this.objectCachePrefetcher != null) {
+      this.objectCachePrefetcher.interrupt();
+      try {
+        this.objectCachePrefetcher.join();
+      } catch (final InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      this.objectCachePrefetcher = null;
+    }
+    cache.close();
+    final int removed = cache.trim();
+    log("Object cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses, " + cache.getStores()
+        + " stored, " + removed + " removed");
+    if (this.buildCacheBackend != null) {
+      log("Build cache: " + cache.getBackendFetches() + " fetched, " + cache.getBackendErrors() + " errors");
+    }
+    this.objectCacheKeys.clear();
+  }
+
+  private void compileAndLink() throws BuildException {
     //
     // if link type allowed objdir to be defaulted
     // provide it from outfile
@@ -704,7 +1135,15 @@ public class CCTask extends Task {
     if (!this._objDir.exists()) {
       throw new BuildException("Object directory does not exist");
     }
-    final TargetHistoryTable objHistory = new TargetHistoryTable(this, this._objDir);
+    final TargetHistoryTable objHistory = this.objectHistory != null ? this.objectHistory : new TargetHistoryTable(
+        this, this._objDir);
+    objHistory.setContentHash(this.contentHash);
+    if (this.objectCacheDir != null) {
+      this.objectCache = new ObjectCache(this.objectCacheDir, this.objectCacheSize, this.buildCacheBackend);
+    } else if (this.buildCacheBackend != null) {
+      this.objectCache = new ObjectCache(new File(this._objDir, "objects"), this.objectCacheSize,
+          this.buildCacheBackend);
+    }
 
     //
     // get the first active version info
@@ -734,6 +1173,19 @@ public class CCTask extends Task {
     // that we know how to compile (keyed by output file name)
     //
     final Map<String, TargetInfo> targets = getTargets(linkerConfig, objectFiles, versionInfo, this._outfile);
+    addUnityTargets(targets, versionInfo);
+    //
+    // remember the objects the linker consumes,
+    // so that callers can link them into several outputs
+    //
+    this.objectsBySource.clear();
+    for (final TargetInfo target : targets.values()) {
+      if (linkerConfig.bid(target.getOutput().toString()) > 0) {
+        for (final File source : target.getSources()) {
+          this.objectsBySource.put(source, target.getOutput());
+        }
+      }
+    }
     TargetInfo linkTarget = null;
     //
     // if output file is not specified,
@@ -808,6 +1260,10 @@ public class CCTask extends Task {
         }
       }
 
+      if (this.objectCache != null) {
+        prefetchObjects(targets);
+      }
+
       // BEGINFREEHEP
       final Progress progress = new Progress(getObjdir(), rebuildCount);
       progress.start();
@@ -832,7 +1288,10 @@ public class CCTask extends Task {
       try {
         objHistory.commit();
       } catch (final IOException ex) {
-        this.log("Error writing history.xml: " + ex.toString());
+        this.log("Error writing history: " + ex.toString());
+      }
+      if (this.compilerDependencies || this.objectCache != null) {
+        getDependencyTable().commit(this);
       }
       //
       // if we threw a compile exception and
@@ -871,6 +1330,7 @@ public class CCTask extends Task {
       // get the history for the link target (may be the same
       // as the object history)
       final TargetHistoryTable linkHistory = getLinkHistory(objHistory);
+      linkHistory.setContentHash(this.contentHash);
       //
       // see if it needs to be rebuilt
       //
@@ -881,18 +1341,27 @@ public class CCTask extends Task {
       final File output = linkTarget.getOutput();
       if (linkTarget.getRebuild()) {
         final LinkerConfiguration linkConfig = (LinkerConfiguration) linkTarget.getConfiguration();
-        // BEGINFREEHEP
-        log("Linking...");
-        log("Starting link {" + linkConfig.getIdentifier() + "}");
-        // ENDFREEHEP
-        if (this.failOnError) {
-          linkConfig.link(this, linkTarget);
+        final String linkKey = getLinkCacheKey(linkTarget);
+        if (linkKey != null && restoreOutput(linkKey, output)) {
+          log("Restored " + output.getName() + " from the object cache");
         } else {
-          try {
+          breakLink(output);
+          // BEGINFREEHEP
+          log("Linking...");
+          log("Starting link {" + linkConfig.getIdentifier() + "}");
+          // ENDFREEHEP
+          if (this.failOnError) {
             linkConfig.link(this, linkTarget);
-          } catch (final BuildException ex) {
-            log(ex.getMessage(), Project.MSG_ERR);
-            return;
+          } else {
+            try {
+              linkConfig.link(this, linkTarget);
+            } catch (final BuildException ex) {
+              log(ex.getMessage(), Project.MSG_ERR);
+              return;
+            }
+          }
+          if (linkKey != null) {
+            storeOutput(linkKey, output);
           }
         }
         if (this.outputFileProperty != null) {
@@ -902,7 +1371,7 @@ public class CCTask extends Task {
         try {
           linkHistory.commit();
         } catch (final IOException ex) {
-          log("Error writing link history.xml: " + ex.toString());
+          log("Error writing link history: " + ex.toString());
         }
       } else {
         if (this.outputFileProperty != null) {
@@ -912,134 +1381,347 @@ public class CCTask extends Task {
     }
   }
 
-  private BuildException runTargetPool(final CCTaskProgressMonitor monitor, BuildException compileException,
-      final ArrayList<Vector<TargetInfo>> targetVectors) {
-    int index;
-    for (final Vector<TargetInfo> targetsForConfig : targetVectors) {
-      //
-      // get the configuration from the first entry
-      //
-      final CompilerConfiguration config = (CompilerConfiguration) targetsForConfig.elementAt(0).getConfiguration();
-      //
-      // prepare the list of source files
-      //
-
-      // BEGINFREEHEP
-      int noOfCores = Runtime.getRuntime().availableProcessors();
-      log("Found " + noOfCores + " processors available");
-      if (this.maxCores > 0) {
-        noOfCores = Math.min(this.maxCores, noOfCores);
-        log("Limited processors to " + noOfCores);
+  /**
+   * Starts a thread that computes the object cache keys of the targets to
+   * compile ahead of the cores and has the build cache backend look them up
+   * in batches, so that its round trips overlap with compiling.
+   */
+  private void prefetchObjects(final Map<String, TargetInfo> targets) {
+    if (this.buildCacheBackend == null) {
+      return;
+    }
+    final List<TargetInfo> rebuild = new ArrayList<TargetInfo>();
+    for (final TargetInfo target : targets.values()) {
+      if (target.getRebuild()) {
+        rebuild.add(target);
       }
-      final int noOfFiles = targetsForConfig.size();
-      if (noOfFiles < noOfCores) {
-        noOfCores = noOfFiles;
-        log("Limited used processors to " + noOfCores);
+    }
+    final ObjectCache cache = this.objectCache;
+    this.objectCachePrefetcher = new Thread("Build cache prefetch") {
+      @Override
+      public void run() {
+        CUtil.setCanonicalPathCache(CCTask.this.canonicalPaths);
+        final List<String> keys = new ArrayList<String>(PREFETCH_BATCH);
+        try {
+          for (final TargetInfo target : rebuild) {
+            if (isInterrupted()) {
+              return;
+            }
+            final String key = getObjectCacheKey(target);
+            if (key != null) {
+              keys.add(key);
+              if (keys.size() == PREFETCH_BATCH) {
+                cache.prefetch(keys);
+                keys.clear();
+              }
+            }
+          }
+          cache.prefetch(keys);
+        } catch (final BuildException ex) {
+          //
+          // the core compiling the target gets the same error
+          // computing its key and fails the build with it
+          //
+          log("Prefetch stopped: " + ex.getMessage(), Project.MSG_VERBOSE);
+        }
       }
-      if (this.ordered) {
-        noOfCores = 1;
-        log("Limited processors to 1 due to ordering of source files");
+    };
+    this.objectCachePrefetcher.setDaemon(true);
+    this.objectCachePrefetcher.start();
+  }
+
+  /**
+   * Removes an output which may be a hard link, into the object cache for
+   * example, so that the compiler or linker rebuilding it does not write
+   * through the link. Outputs known to have a single link are kept.
+   */
+  static void breakLink(final File output) {
+    try {
+      final Object links = Files.getAttribute(output.toPath(), "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+      if (links instanceof Integer && (Integer) links <= 1) {
+        return;
       }
+    } catch (final NoSuchFileException ex) {
+      return;
+    } catch (final IOException ex) {
+      // remove it to be safe
+    } catch (final UnsupportedOperationException ex) {
+      // no link count on this file system, remove it to be safe
+    } catch (final IllegalArgumentException ex) {
+      // no link count on this file system, remove it to be safe
+    }
+    output.delete();
+  }
 
-      final List<String>[] sourceFiles = new List[noOfCores];
-      for (int j = 0; j < sourceFiles.length; j++) {
-        sourceFiles[j] = new ArrayList<String>(noOfFiles / sourceFiles.length);
+  /**
+   * Restores an output from the object cache. If it is not there, any
+   * existing output is removed, as an output restored earlier may be a link
+   * into the cache, which the compiler or linker must not write through.
+   *
+   * @return true if the output was restored
+   */
+  private boolean restoreOutput(final String key, final File output) {
+    try {
+      if (this.objectCache.restore(key, output)) {
+        return true;
       }
-      final Enumeration<TargetInfo> targetsEnum = targetsForConfig.elements();
-      index = 0;
-      while (targetsEnum.hasMoreElements()) {
-        final TargetInfo targetInfo = targetsEnum.nextElement();
-        sourceFiles[index++].add(targetInfo.getSources()[0].toString());
-        index %= sourceFiles.length;
+    } catch (final IOException ex) {
+      log("Error restoring " + output.getName() + " from the object cache: " + ex.toString(), Project.MSG_VERBOSE);
+    }
+    output.delete();
+    return false;
+  }
+
+  /**
+   * Restores the object of a target from the object cache and records it in
+   * the history as if it had been compiled.
+   *
+   * @return true if the object was restored
+   */
+  boolean restoreObject(final String key, final TargetInfo target, final CCTaskProgressMonitor monitor) {
+    final AutoPrecompile autoPrecompile = this.autoPrecompiles.get(target.getConfiguration());
+    if (autoPrecompile != null) {
+      final File pch = autoPrecompile.getPch();
+      if (!restoreOutput(this.objectCacheKeys.get(pch), pch)) {
+        return false;
       }
+    }
+    if (!restoreOutput(key, target.getOutput())) {
+      return false;
+    }
+    log("Restored " + target.getOutput().getName() + " from the object cache", Project.MSG_VERBOSE);
+    final ProcessorConfiguration config = target.getConfiguration();
+    monitor.start(config);
+    monitor.progress(new String[] {
+      target.getSources()[0].toString()
+    });
+    monitor.finish(config, true);
+    return true;
+  }
 
-      // setup cores/cpus
-      final Core[] cores = new Core[noOfCores];
-      for (int j = 0; j < cores.length; j++) {
-        cores[j] = new Core(this, j, config, this._objDir, sourceFiles[j], this.relentless, monitor);
-        log("\nStarting Core " + j + " with " + sourceFiles[j].size() + " source files...");
+  /**
+   * Compiles the targets of all the given configurations with a single pool
+   * of cores, so that small configurations do not leave cores idle while
+   * larger ones wait their turn.
+   * 
+   * Sources named in the compiler order are compiled first, one position
+   * after the other, each position completing before the next starts. All
+   * other sources are then compiled in parallel.
+   */
+  private BuildException runTargetPool(final CCTaskProgressMonitor monitor, BuildException compileException,
+      final ArrayList<Vector<TargetInfo>> targetVectors) {
+    //
+    // prepare the list of targets across all configurations,
+    // split into the groups that have to be compiled in turn
+    //
+    final TreeMap<Integer, List<TargetInfo>> orderedTargets = new TreeMap<Integer, List<TargetInfo>>();
+    final List<TargetInfo> targets = new ArrayList<TargetInfo>();
+    int noOfFiles = 0;
+    for (final Vector<TargetInfo> targetsForConfig : targetVectors) {
+      for (final TargetInfo target : targetsForConfig) {
+        final int position = getOrderPosition(this.orderPositions, target.getOutput().getName());
+        if (position < 0) {
+          targets.add(target);
+        } else {
+          List<TargetInfo> group = orderedTargets.get(position);
+          if (group == null) {
+            group = new ArrayList<TargetInfo>();
+            orderedTargets.put(position, group);
+          }
+          group.add(target);
+        }
+        noOfFiles++;
       }
+    }
+    if (noOfFiles == 0) {
+      return compileException;
+    }
 
-      // starting cores
-      for (final Core core : cores) {
-        core.start();
+    // BEGINFREEHEP
+    int noOfCores = Runtime.getRuntime().availableProcessors();
+    log("Found " + noOfCores + " processors available");
+    if (this.maxCores > 0) {
+      noOfCores = Math.min(this.maxCores, noOfCores);
+      log("Limited processors to " + noOfCores);
+    }
+    if (noOfFiles < noOfCores) {
+      noOfCores = noOfFiles;
+      log("Limited used processors to " + noOfCores);
+    }
+    if (!orderedTargets.isEmpty()) {
+      log("Compiling " + (noOfFiles - targets.size()) + " ordered source files in " + orderedTargets.size()
+          + " steps before the others");
+    }
+    for (final List<TargetInfo> group : orderedTargets.values()) {
+      compileException = runCores(monitor, compileException, group, noOfCores, targetVectors.size());
+      if (compileException != null && !this.relentless) {
+        return compileException;
       }
+    }
+    if (!targets.isEmpty()) {
+      compileException = runCores(monitor, compileException, targets, noOfCores, targetVectors.size());
+    }
+    // ENDFREEHEP
+    return compileException;
+  }
 
-      // checking cores
-      boolean alive = false;
-      try {
-        do {
-          alive = false;
-          for (int j = 0; j < cores.length; j++) {
-            if (cores[j] != null) {
-              if (cores[j].isAlive()) {
-                alive = true;
-              } else {
-                final Exception exception = cores[j].getException();
-                if (exception != null) {
-                  if (compileException == null && exception instanceof BuildException) {
-                    compileException = (BuildException) exception;
-                  } else {
-                    log(cores[j].getName() + " " + exception + "                                  ", Project.MSG_ERR);
-                  }
-                  if (!this.relentless) {
-                    cores[j] = null;
-                    alive = false;
-                    break;
-                  }
-                }
-                cores[j] = null;
-              }
-            }
+  /**
+   * Compiles a group of targets with up to availableCores cores and waits
+   * until all of them are done.
+   */
+  private BuildException runCores(final CCTaskProgressMonitor monitor, BuildException compileException,
+      final List<TargetInfo> targets, final int availableCores, final int configurations) {
+    // BEGINFREEHEP
+    final int noOfFiles = targets.size();
+    final int noOfCores = Math.min(availableCores, noOfFiles);
+
+    //
+    // all cores take their work from one shared queue, largest
+    // sources first so that a big translation unit drawn late
+    // does not keep a single core busy after the others are done
+    //
+    Collections.sort(targets, new Comparator<TargetInfo>() {
+      @Override
+      public int compare(final TargetInfo t0, final TargetInfo t1) {
+        final long l0 = t0.getSources()[0].length();
+        final long l1 = t1.getSources()[0].length();
+        return l0 == l1 ? 0 : l0 > l1 ? -1 : +1;
+      }
+    });
+    final Queue<TargetInfo[]> queue = new ConcurrentLinkedQueue<TargetInfo[]>(getBatches(targets, noOfCores));
+    final AtomicBoolean cancelled = new AtomicBoolean(false);
+    final BlockingQueue<Core> completed = new LinkedBlockingQueue<Core>();
+
+    // setup cores/cpus
+    final Core[] cores = new Core[noOfCores];
+    for (int j = 0; j < cores.length; j++) {
+      cores[j] = new Core(this, j, this._objDir, queue, this.relentless, monitor, cancelled, completed);
+    }
+    log("\nStarting " + noOfCores + " cores sharing " + noOfFiles + " source files from " + configurations
+        + " configurations...");
+
+    // starting cores
+    for (final Core core : cores) {
+      core.start();
+    }
+
+    // waiting for cores, each one reports as soon as it stops
+    final Set<Core> stopped = new HashSet<Core>();
+    try {
+      for (int running = cores.length; running > 0; running--) {
+        final Core core = completed.take();
+        stopped.add(core);
+        final Exception exception = core.getException();
+        if (exception != null) {
+          if (compileException == null && exception instanceof BuildException) {
+            compileException = (BuildException) exception;
+          } else {
+            log(core.getName() + " " + exception + "                                  ", Project.MSG_ERR);
           }
-          if (alive) {
-            // wait for a maximum of 5 seconds or #files*2 seconds.
-            Thread.sleep(Math.min(5000, sourceFiles[0].size() * 2000));
+          if (!this.relentless) {
+            break;
           }
-        } while (alive);
-      } catch (final InterruptedException e) {
-        break;
+        }
       }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
 
-      // killing leftovers
-      for (final Core core : cores) {
-        if (core != null) {
-          core.interrupt();
-          log(core.getName() + " interrupted                                          ");
-        }
+    // killing leftovers
+    cancelled.set(true);
+    for (final Core core : cores) {
+      if (!stopped.contains(core)) {
+        core.interrupt();
+        log(core.getName() + " interrupted                                          ");
       }
+    }
 
-      if (!this.relentless && compileException != null) {
+    // the counters of a core are only safe to read once it has stopped
+    for (final Core core : cores) {
+      try {
+        core.join();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
         break;
       }
-      // ENDFREEHEP
-
-      /*
-       * OLD CODE
-       * String[] sourceFiles = new String[targetsForConfig.size()];
-       * Enumeration targetsEnum = targetsForConfig.elements();
-       * index = 0;
-       * while (targetsEnum.hasMoreElements()) {
-       * TargetInfo targetInfo = ((TargetInfo) targetsEnum
-       * .nextElement());
-       * sourceFiles[index++] = targetInfo.getSources()[0]
-       * .toString();
-       * }
-       * try {
-       * config.compile(this, _objDir, sourceFiles, relentless,
-       * monitor);
-       * } catch (BuildException ex) {
-       * if (compileException == null) {
-       * compileException = ex;
-       * }
-       * if (!relentless)
-       * break;
-       * }
-       */
     }
+
+    logCoreUtilization(cores);
+    // ENDFREEHEP
     return compileException;
   }
 
+  /**
+   * Splits targets into the batches the cores take from their queue. Each
+   * batch holds targets of the same configuration, at most
+   * compileBatchSize of them and few enough that all cores get work.
+   */
+  private List<TargetInfo[]> getBatches(final List<TargetInfo> targets, final int noOfCores) {
+    final List<TargetInfo[]> batches = new ArrayList<TargetInfo[]>(targets.size());
+    if (this.compileBatchSize <= 1) {
+      for (final TargetInfo target : targets) {
+        batches.add(new TargetInfo[] {
+          target
+        });
+      }
+      return batches;
+    }
+    final Map<ProcessorConfiguration, List<TargetInfo>> targetsByConfig =
+        new LinkedHashMap<ProcessorConfiguration, List<TargetInfo>>();
+    for (final TargetInfo target : targets) {
+      List<TargetInfo> targetsForConfig = targetsByConfig.get(target.getConfiguration());
+      if (targetsForConfig == null) {
+        targetsForConfig = new ArrayList<TargetInfo>();
+        targetsByConfig.put(target.getConfiguration(), targetsForConfig);
+      }
+      targetsForConfig.add(target);
+    }
+    for (final List<TargetInfo> targetsForConfig : targetsByConfig.values()) {
+      final int count = targetsForConfig.size();
+      final int batchSize = Math.max(1, Math.min(this.compileBatchSize, (count + noOfCores - 1) / noOfCores));
+      for (int i = 0; i < count; i += batchSize) {
+        final List<TargetInfo> batch = targetsForConfig.subList(i, Math.min(count, i + batchSize));
+        batches.add(batch.toArray(new TargetInfo[batch.size()]));
+      }
+    }
+    Collections.sort(batches, new Comparator<TargetInfo[]>() {
+      @Override
+      public int compare(final TargetInfo[] b0, final TargetInfo[] b1) {
+        final long l0 = getSourceLength(b0);
+        final long l1 = getSourceLength(b1);
+        return l0 == l1 ? 0 : l0 > l1 ? -1 : +1;
+      }
+    });
+    return batches;
+  }
+
+  private static long getSourceLength(final TargetInfo[] batch) {
+    long length = 0;
+    for (final TargetInfo target : batch) {
+      length += target.getSources()[0].length();
+    }
+    return length;
+  }
+
+  /**
+   * Logs how many files each core compiled successfully and the fraction of
+   * its lifetime it spent compiling. Cores still running are skipped, their
+   * counters are only visible once they have stopped.
+   */
+  private void logCoreUtilization(final Core[] cores) {
+    for (final Core core : cores) {
+      if (core.isAlive()) {
+        continue;
+      }
+      final long elapsed = core.getElapsedNanos();
+      final long busy = core.getBusyNanos();
+      final long percent = elapsed > 0 ? busy * 100 / elapsed : 100;
+      log(core.getName() + " compiled " + core.getCompiledFiles() + " files, busy "
+          + TimeUnit.NANOSECONDS.toMillis(busy) + " of " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms (" + percent
+          + "%)");
+    }
+  }
+
   // ENDFREEHEP
 
   /**
@@ -1069,6 +1751,10 @@ public class CCTask extends Task {
     return this.compilerDef.getDebug(null, 0);
   }
 
+  public boolean isCompilerDependencies() {
+    return this.compilerDependencies;
+  }
+
   /**
    * Gets the failonerror flag.
    * 
@@ -1078,7 +1764,109 @@ public class CCTask extends Task {
     return this.failOnError;
   }
 
+  /**
+   * Returns the dependencies of the sources in the object directory, loading
+   * them on first use.
+   */
+  public synchronized DependencyTable getDependencyTable() {
+    if (this.dependencyTable == null) {
+      this.dependencyTable = new DependencyTable(this._objDir);
+      this.dependencyTable.setContentHash(this.contentHash);
+      try {
+        this.dependencyTable.load();
+      } catch (final Exception ex) {
+        log("Problem reading dependencies: " + ex.toString());
+      }
+    }
+    return this.dependencyTable;
+  }
+
+  /**
+   * Returns the cache used to resolve includes during dependency analysis.
+   */
+  public synchronized IncludeCache getIncludeCache() {
+    if (this.includeCache == null) {
+      if (this.persistentIncludeCache) {
+        this.includeCache = new IncludeCache(this, new File(this._objDir, "includes.bin"));
+      } else {
+        this.includeCache = new IncludeCache();
+      }
+    }
+    return this.includeCache;
+  }
+
+  /**
+   * Computes the key of the object of a target in the object cache.
+   *
+   * @return key, null if objects are not cached or the key could not be
+   *         computed
+   */
+  String getObjectCacheKey(final TargetInfo target) {
+    final ObjectCache cache = this.objectCache;
+    if (cache == null) {
+      return null;
+    }
+    final AutoPrecompile autoPrecompile = this.autoPrecompiles.get(target.getConfiguration());
+    if (autoPrecompile == null && this.precompileConfigs.contains(target.getConfiguration())) {
+      return null;
+    }
+    final String key = this.objectCacheKeys.get(target.getOutput());
+    if (key != null) {
+      return key;
+    }
+    final CompilerConfiguration config = (CompilerConfiguration) target.getConfiguration();
+    final File source = target.getSources()[0];
+    try {
+      final String newKey;
+      if (autoPrecompile != null) {
+        //
+        // keyed by name, so that modules with the same
+        // flags and headers share the precompiled header
+        //
+        final List<File> inputs = autoPrecompile.getCacheInputs(this);
+        final File pch = autoPrecompile.getPch();
+        this.objectCacheKeys.put(pch, cache.getKey(config.getIdentifier(), pch.getName(), inputs));
+        newKey = cache.getKey(config.getIdentifier(), source.getName(), inputs);
+      } else {
+        final List<File> inputs = new ArrayList<File>();
+        inputs.add(source);
+        inputs.addAll(getDependencyTable().getIncludeFiles(this, config, source));
+        newKey = cache.getKey(config.getIdentifier(), source.getPath(), inputs);
+      }
+      this.objectCacheKeys.put(target.getOutput(), newKey);
+      return newKey;
+    } catch (final IOException ex) {
+      log("Not caching the object of " + source + ": " + ex.toString(), Project.MSG_VERBOSE);
+      return null;
+    }
+  }
+
+  /**
+   * Computes the key of the output of a link target in the object cache.
+   * Only executables and static libraries are cached, the other outputs may
+   * come with files the cache does not know about, like import libraries.
+   *
+   * @return key, null if the output is not cached
+   */
+  private String getLinkCacheKey(final TargetInfo linkTarget) {
+    final ObjectCache cache = this.objectCache;
+    if (cache == null || !(this.linkType.isExecutable() || this.linkType.isStaticLibrary())) {
+      return null;
+    }
+    final File output = linkTarget.getOutput();
+    try {
+      return cache.getKey(linkTarget.getConfiguration().getIdentifier(), output.getName(),
+          Arrays.asList(linkTarget.getSources()));
+    } catch (final IOException ex) {
+      log("Not caching " + output.getName() + ": " + ex.toString(), Project.MSG_VERBOSE);
+      return null;
+    }
+  }
+
   protected TargetHistoryTable getLinkHistory(final TargetHistoryTable objHistory) {
+    if (this.linkHistory != null) {
+      return this.linkHistory;
+    }
     final File outputFileDir = new File(this._outfile.getParent());
     //
     // if the output file is being produced in the link
@@ -1120,6 +1908,10 @@ public class CCTask extends Task {
     return new TargetInfo(linkerConfig, objectFileArray, sysObjectFileArray, outputFile, linkerConfig.getRebuild());
   }
 
+  public int getCompileBatchSize() {
+    return this.compileBatchSize;
+  }
+
   public int getMaxCores() {
     return this.maxCores;
   }
@@ -1128,6 +1920,16 @@ public class CCTask extends Task {
     return this._objDir;
   }
 
+  /**
+   * Gets the objects of the last execution the linker consumes, whether they
+   * were compiled or up to date.
+   *
+   * @return objects keyed by source, in the order of the targets
+   */
+  public Map<File, File> getObjectFiles() {
+    return Collections.unmodifiableMap(this.objectsBySource);
+  }
+
   public File getOutfile() {
     return this._outfile;
   }
@@ -1141,6 +1943,84 @@ public class CCTask extends Task {
     return this.linkType.getOutputType();
   }
 
+  /**
+   * Gets the link type the sources are compiled for, the link type of this
+   * task with the compile output type if one is set.
+   */
+  private LinkType getCompileLinkType() {
+    if (this.compileOuttype == null) {
+      return this.linkType;
+    }
+    final LinkType compileLinkType = new LinkType();
+    compileLinkType.setOutputType(this.compileOuttype);
+    final SubsystemEnum subsystem = new SubsystemEnum();
+    subsystem.setValue(this.linkType.getSubsystem());
+    compileLinkType.setSubsystem(subsystem);
+    compileLinkType.setStaticRuntime(this.linkType.isStaticRuntime());
+    compileLinkType.setLinkCPP(this.linkType.linkCPP());
+    compileLinkType.setLinkFortran(this.linkType.linkFortran());
+    compileLinkType.setLinkFortranMain(this.linkType.linkFortranMain());
+    return compileLinkType;
+  }
+
+  /**
+   * Tells whether the active compilers get the same arguments for the
+   * compile output type as for the output type, but for position independent
+   * code, so that objects compiled for one can be linked into the other.
+   * Some compilers differ in more, Compaq Visual Fortran for one adds /dll
+   * for shared libraries.
+   *
+   * @return true if no compile output type is set
+   */
+  public boolean isCompileOuttypeCompatible() {
+    if (this.compileOuttype == null) {
+      return true;
+    }
+    final LinkType compileLinkType = getCompileLinkType();
+    final TargetDef targetPlatform = getTargetPlatform();
+    if (this._compilers.size() == 0) {
+      return isCompatible(this.compilerDef.createConfiguration(this, this.linkType, null, targetPlatform, null),
+          this.compilerDef.createConfiguration(this, compileLinkType, null, targetPlatform, null));
+    }
+    for (final CompilerDef currentCompilerDef : this._compilers) {
+      if (currentCompilerDef.isActive()
+          && !isCompatible(currentCompilerDef.createConfiguration(this, this.linkType, this.compilerDef,
+              targetPlatform, null), currentCompilerDef.createConfiguration(this, compileLinkType, this.compilerDef,
+              targetPlatform, null))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Tells whether two configurations differ at most in the switches for
+   * position independent code.
+   */
+  private static boolean isCompatible(final ProcessorConfiguration config,
+      final ProcessorConfiguration compileConfig) {
+    if (!(config instanceof CommandLineCompilerConfiguration)
+        || !(compileConfig instanceof CommandLineCompilerConfiguration)) {
+      return config.getIdentifier().equals(compileConfig.getIdentifier());
+    }
+    final List<String> args = new ArrayList<String>(
+        Arrays.asList(((CommandLineCompilerConfiguration) config).getPreArguments()));
+    final List<String> compileArgs = new ArrayList<String>(
+        Arrays.asList(((CommandLineCompilerConfiguration) compileConfig).getPreArguments()));
+    args.removeAll(POSITION_INDEPENDENT_ARGS);
+    compileArgs.removeAll(POSITION_INDEPENDENT_ARGS);
+    return args.equals(compileArgs);
+  }
+
+  /**
+   * Gets the cores shared with tasks running concurrently.
+   *
+   * @return budget, null if unlimited
+   */
+  Semaphore getCoreBudget() {
+    return this.coreBudget;
+  }
+
   /**
    * Gets subsystem name.
    * 
@@ -1164,69 +2044,45 @@ public class CCTask extends Task {
   private Map<String, TargetInfo> getTargets(final LinkerConfiguration linkerConfig, final Vector<File> objectFiles,
       final VersionInfo versionInfo, final File outputFile) {
     // FREEHEP
-    final List<String> order = new ArrayList<String>();
+    final Map<String, Integer> positions = new HashMap<String, Integer>();
 
     final Map<String, TargetInfo> targets = new TreeMap<String, TargetInfo>(new Comparator<String>() {
       // Order according to "order" List followed by alphabetical order
       @Override
-      public int compare(String f0, String f1) {
-        if (order.isEmpty()) {
-          return f0.compareTo(f1);
-        }
-
-        // Trimming the path and trailing file extension to allow for order
-        // comparison
-        String compf0 = FilenameUtils.getBaseName(f0);
-        String compf1 = FilenameUtils.getBaseName(f1);
-
-        // remove the hash
-        // TODO: well we hope it's a hash
-        compf0 = FilenameUtils.removeExtension(compf0);
-        compf1 = FilenameUtils.removeExtension(compf1);
-
-        // order according to list or alphabetical
-        final int i0 = order.indexOf(compf0);
-        final int i1 = order.indexOf(compf1);
-
-        if (i0 < 0 && i1 < 0) {
-          // none in list
-          // compare original values
-          return f0.compareTo(f1);
-        } else {
-          // make sure we use only one core
-          CCTask.this.ordered = true;
-
-          if (i0 > 0 && i1 > 0) {
-            // both in list
-            return i0 == i1 ? 0 : i0 < i1 ? -1 : +1;
-          } else if (i1 < 0) {
-            // i0 in list
-            return -1;
-          } else {
-            // i1 in list
-            return +1;
-          }
+      public int compare(final String f0, final String f1) {
+        final int i0 = getOrderPosition(positions, f0);
+        final int i1 = getOrderPosition(positions, f1);
+        if (i0 != i1) {
+          // files in the list go first, in list order
+          return i0 < 0 ? +1 : i1 < 0 ? -1 : i0 < i1 ? -1 : +1;
         }
+        return f0.compareTo(f1);
       }
     });
 
     final TargetDef targetPlatform = getTargetPlatform();
 
     // BEGINFREEHEP
-    // a little trick here, the inner function needs the list to be final,
-    // so that the map order doesn't change after we start adding items,
-    // populate with all the ordered items from each compiler type
-    order.clear();
+    // populate the positions of the ordered items from each compiler type
+    // before any items are added, so that the map order doesn't change
     for (int i = 0; i < this._compilers.size(); i++) {
       final CompilerDef currentCompilerDef = this._compilers.elementAt(i);
       if (currentCompilerDef.isActive()) {
         final List<String> compilerFileOrder = currentCompilerDef.getOrder();
         if (compilerFileOrder != null) {
-          order.addAll(compilerFileOrder);
+          for (final String name : compilerFileOrder) {
+            if (!positions.containsKey(name)) {
+              positions.put(name, positions.size());
+            }
+          }
         }
       }
     }
+    this.orderPositions = positions;
     // ENDFREEHEP
+    this.unitySizes.clear();
+    this.precompileConfigs.clear();
+    this.autoPrecompiles.clear();
     //
     // find active (specialized) compilers
     //
@@ -1234,7 +2090,7 @@ public class CCTask extends Task {
     for (int i = 0; i < this._compilers.size(); i++) {
       final CompilerDef currentCompilerDef = this._compilers.elementAt(i);
       if (currentCompilerDef.isActive()) {
-        final ProcessorConfiguration config = currentCompilerDef.createConfiguration(this, this.linkType,
+        final ProcessorConfiguration config = currentCompilerDef.createConfiguration(this, getCompileLinkType(),
             this.compilerDef, targetPlatform, versionInfo);
         //
         // see if this processor had a precompile child element
@@ -1243,10 +2099,42 @@ public class CCTask extends Task {
         ProcessorConfiguration[] localConfigs = new ProcessorConfiguration[] {
           config
         };
-        //
-        // if it does then
-        //
-        if (precompileDef != null) {
+        if (precompileDef != null && precompileDef.isAuto()) {
+          //
+          // synthesize the precompiled header from the
+          // headers most sources of this compiler include
+          //
+          final List<File> sources = new ArrayList<File>();
+          if (currentCompilerDef.hasFileSets()) {
+            currentCompilerDef.visitFiles(new ProjectFileCollector(sources));
+          }
+          final Iterator<File> sourceIter = sources.iterator();
+          while (sourceIter.hasNext()) {
+            if (config.bid(sourceIter.next().getPath()) <= 1) {
+              sourceIter.remove();
+            }
+          }
+          final AutoPrecompile autoPrecompile = AutoPrecompile.create(this, (CompilerConfiguration) config, sources,
+              precompileDef.getExceptFiles(), precompileDef.getThreshold(), this._objDir);
+          if (autoPrecompile != null) {
+            final CompilerConfiguration generatingConfig = autoPrecompile.getGeneratingConfig();
+            final TargetMatcher matcher = new TargetMatcher(this, this._objDir, new ProcessorConfiguration[] {
+              generatingConfig
+            }, linkerConfig, objectFiles, targets, versionInfo);
+            final File prototype = autoPrecompile.getPrototype();
+            matcher.visit(prototype.getParentFile(), prototype.getName());
+            biddingProcessors.addElement(autoPrecompile.getUsingConfig());
+            this.precompileConfigs.add(generatingConfig);
+            this.precompileConfigs.add(autoPrecompile.getUsingConfig());
+            this.autoPrecompiles.put(generatingConfig, autoPrecompile);
+            localConfigs = new ProcessorConfiguration[] {
+              autoPrecompile.getUsingConfig(), config
+            };
+          }
+        } else if (precompileDef != null) {
+          //
+          // if it does then
+          //
           final File prototype = precompileDef.getPrototype();
           //
           // will throw exceptions if prototype doesn't exist, etc
@@ -1279,6 +2167,8 @@ public class CCTask extends Task {
             // only the configuration that uses the
             // precompiled header gets added to the bidding list
             biddingProcessors.addElement(configs[1]);
+            this.precompileConfigs.add(configs[0]);
+            this.precompileConfigs.add(configs[1]);
             localConfigs = new ProcessorConfiguration[2];
             localConfigs[0] = configs[1];
             localConfigs[1] = config;
@@ -1294,6 +2184,16 @@ public class CCTask extends Task {
               targets, versionInfo);
           currentCompilerDef.visitFiles(matcher);
         }
+        //
+        // sources compiled with a precompiled header
+        // are not combined into unity sources
+        //
+        final int unitySize = currentCompilerDef.getUnitySize(new CompilerDef[] {
+          this.compilerDef
+        }, 0);
+        if (unitySize > 1 && precompileDef == null) {
+          this.unitySizes.put(config, unitySize);
+        }
         biddingProcessors.addElement(config);
       }
     }
@@ -1301,7 +2201,7 @@ public class CCTask extends Task {
     // add fallback compiler at the end
     //
     if (this._compilers.size()==0) {
-      final ProcessorConfiguration config = this.compilerDef.createConfiguration(this, this.linkType, null,
+      final ProcessorConfiguration config = this.compilerDef.createConfiguration(this, getCompileLinkType(), null,
           targetPlatform, versionInfo);
       biddingProcessors.addElement(config);
       final ProcessorConfiguration[] bidders = new ProcessorConfiguration[biddingProcessors.size()];
@@ -1467,6 +2367,55 @@ public class CCTask extends Task {
 
   // ENDFREEHEP
 
+  /**
+   * Enables content hashing of sources and objects. A file whose time stamp
+   * changed but whose content did not, e.g. after a checkout or a
+   * regenerated header, then does not cause a rebuild or relink.
+   *
+   * @param contentHash
+   *          If true, touched files are compared by content.
+   */
+  public void setContentHash(final boolean contentHash) {
+    this.contentHash = contentHash;
+  }
+
+  /**
+   * Lets compilers that support it compile up to compileBatchSize sources of
+   * the same configuration with one process, e.g. gcc -c with several
+   * sources. A value of 1 compiles each source with its own process.
+   *
+   * @param compileBatchSize
+   *          Maximum number of sources per compiler process.
+   */
+  public void setCompileBatchSize(final int compileBatchSize) {
+    this.compileBatchSize = compileBatchSize;
+  }
+
+  /**
+   * Lets compilers that support it report the files each source depends on
+   * while compiling it, e.g. gcc with -MMD and msvc with /showIncludes. The
+   * reported files replace parsing the includes of that source in later
+   * builds.
+   *
+   * @param compilerDependencies
+   *          If true, dependencies are taken from the compiler.
+   */
+  public void setCompilerDependencies(final boolean compilerDependencies) {
+    this.compilerDependencies = compilerDependencies;
+  }
+
+  /**
+   * Keeps the resolutions of include names in the object directory, so that
+   * later builds only have to check the modification times of the include
+   * directories instead of searching them.
+   *
+   * @param persistentIncludeCache
+   *          If true, include resolutions are kept between builds.
+   */
+  public void setPersistentIncludeCache(final boolean persistentIncludeCache) {
+    this.persistentIncludeCache = persistentIncludeCache;
+  }
+
   // BEGINFREEHEP
   public void setMaxCores(final int maxCores) {
     this.maxCores = maxCores;
@@ -1613,6 +2562,54 @@ public class CCTask extends Task {
     this.linkerDef.setNewenvironment(newenv);
   }
 
+  /**
+   * Sets the history of the object directory, so that tasks run one after
+   * another or concurrently on the same directory share it instead of
+   * loading and writing it each.
+   *
+   * @param history
+   *          history of the object directory, null to load it
+   */
+  public void setObjectHistory(final TargetHistoryTable history) {
+    this.objectHistory = history;
+  }
+
+  /**
+   * Sets the history of the output directory, so that tasks linking into the
+   * same directory concurrently do not overwrite each other's records.
+   *
+   * @param history
+   *          history of the output directory, null to load it
+   */
+  public void setLinkHistory(final TargetHistoryTable history) {
+    this.linkHistory = history;
+  }
+
+  /**
+   * Sets the output type the sources are compiled for, so that tasks linking
+   * different output types can share the objects of one object directory.
+   * Static libraries and executables compiled for a shared library get
+   * position independent code for example.
+   *
+   * @param outputType
+   *          output type to compile for, null to compile for the outtype
+   */
+  public void setCompileOuttype(final OutputTypeEnum outputType) {
+    this.compileOuttype = outputType;
+  }
+
+  /**
+   * Sets the cores this task shares with tasks running concurrently. Every
+   * batch of sources is compiled holding a permit, so that the tasks together
+   * do not run more compilers than there are permits.
+   *
+   * @param budget
+   *          cores shared with other tasks, null to use maxCores alone
+   */
+  public void setCoreBudget(final Semaphore budget) {
+    this.coreBudget = budget;
+  }
+
   /**
    * Sets the destination directory for object files.
    * 
@@ -1629,6 +2626,50 @@ public class CCTask extends Task {
     this._objDir = dir;
   }
 
+  /**
+   * Sets the directory of an object cache, which may be shared by several
+   * builds. Compiled objects are stored there and later compiles of the same
+   * sources with the same configuration restore them instead of running the
+   * compiler.
+   *
+   * @param dir
+   *          object cache directory, null to not cache objects
+   */
+  public void setObjectCache(final File dir) {
+    this.objectCacheDir = dir;
+  }
+
+  /**
+   * Sets a shared store behind the object cache. Objects missing from the
+   * object cache are fetched from it and compiled ones are published to it.
+   * Without an object cache directory, the object cache is kept in the
+   * object directory.
+   */
+  public void setBuildCacheBackend(final BuildCacheBackend backend) {
+    this.buildCacheBackend = backend;
+  }
+
+  /**
+   * Sets a directory, typically on a network share, that is used as build
+   * cache backend.
+   *
+   * @param dir
+   *          shared build cache directory, null for none
+   */
+  public void setSharedBuildCache(final File dir) {
+    this.buildCacheBackend = dir != null ? new FileBuildCacheBackend(dir) : null;
+  }
+
+  /**
+   * Sets the size the object cache is trimmed to after each build.
+   *
+   * @param megabytes
+   *          maximum size in megabytes
+   */
+  public void setObjectCacheSize(final long megabytes) {
+    this.objectCacheSize = megabytes * 1024 * 1024;
+  }
+
   /**
    * Sets optimization.
    * 
@@ -1758,6 +2799,14 @@ public class CCTask extends Task {
     this.linkType.setSubsystem(subsystem);
   }
 
+  /**
+   * Sets the number of C and C++ sources combined into one generated unity
+   * source. 0 compiles each source on its own.
+   */
+  public void setUnitySize(final int unitySize) {
+    this.compilerDef.setUnitySize(unitySize);
+  }
+
   /**
    * Enumerated attribute with the values "none", "severe", "default",
    * "production", "diagnostic", and "aserror".
@@ -1766,4 +2815,51 @@ public class CCTask extends Task {
     this.compilerDef.setWarnings(level);
   }
 
+  /**
+   * Stores the object of a compiled target in the object cache, if the
+   * compile produced one.
+   */
+  void storeObject(final String key, final TargetInfo target) {
+    final AutoPrecompile autoPrecompile = this.autoPrecompiles.get(target.getConfiguration());
+    if (autoPrecompile != null) {
+      final File pch = autoPrecompile.getPch();
+      storeOutput(this.objectCacheKeys.get(pch), pch);
+    }
+    storeOutput(key, target.getOutput());
+  }
+
+  /**
+   * Stores an output in the object cache, if it was produced.
+   */
+  private void storeOutput(final String key, final File output) {
+    if (!output.isFile()) {
+      return;
+    }
+    try {
+      this.objectCache.store(key, output);
+    } catch (final IOException ex) {
+      log("Error storing " + output.getName() + " in the object cache: " + ex.toString(), Project.MSG_WARN);
+    }
+  }
+
+  /**
+   * Writes a generated source that includes the given files, unless it
+   * already has that content, so its modification time only changes with
+   * what it includes.
+   */
+  static void writeGeneratedSource(final File source, final String description, final Collection<String> includes) {
+    final StringBuilder content = new StringBuilder("/* generated " + description + ", do not edit */\n");
+    for (final String include : includes) {
+      content.append("#include \"").append(include).append("\"\n");
+    }
+    try {
+      if (source.exists() && FileUtils.readFileToString(source, "UTF-8").equals(content.toString())) {
+        return;
+      }
+      FileUtils.writeStringToFile(source, content.toString(), "UTF-8");
+    } catch (final IOException ex) {
+      throw new BuildException("Error writing " + source + ": " + ex.getMessage(), ex);
+    }
+  }
+
 }
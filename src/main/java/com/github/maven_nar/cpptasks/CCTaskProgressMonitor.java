@@ -24,8 +24,13 @@ import java.io.IOException;
 import com.github.maven_nar.cpptasks.compiler.ProcessorConfiguration;
 import com.github.maven_nar.cpptasks.compiler.ProgressMonitor;
 
+/**
+ * Records compile progress in the target history. Cores compiling different
+ * configurations share one monitor, so the configuration being compiled is
+ * tracked per thread.
+ */
 public class CCTaskProgressMonitor implements ProgressMonitor {
-  private ProcessorConfiguration config;
+  private final ThreadLocal<ProcessorConfiguration> config = new ThreadLocal<ProcessorConfiguration>();
   private final TargetHistoryTable history;
   private final VersionInfo versionInfo;
   private long lastCommit = -1;
@@ -35,8 +40,10 @@ public class CCTaskProgressMonitor implements ProgressMonitor {
     this.versionInfo = versionInfo;
   }
 
-  @Override
-  public void finish(final ProcessorConfiguration config, final boolean normal) {
+  /**
+   * Writes the history at most every two minutes.
+   */
+  private synchronized void commitIfDue() {
     final long current = System.currentTimeMillis();
     if (current - this.lastCommit > 120000) {
       try {
@@ -47,24 +54,22 @@ public class CCTaskProgressMonitor implements ProgressMonitor {
     }
   }
 
+  @Override
+  public void finish(final ProcessorConfiguration config, final boolean normal) {
+    commitIfDue();
+  }
+
   @Override
   public void progress(final String[] sources) {
-    this.history.update(this.config, sources, this.versionInfo);
-    final long current = System.currentTimeMillis();
-    if (current - this.lastCommit > 120000) {
-      try {
-        this.history.commit();
-        this.lastCommit = current;
-      } catch (final IOException ex) {
-      }
-    }
+    this.history.update(this.config.get(), sources, this.versionInfo);
+    commitIfDue();
   }
 
   @Override
-  public void start(final ProcessorConfiguration config) {
+  public synchronized void start(final ProcessorConfiguration config) {
     if (this.lastCommit < 0) {
       this.lastCommit = System.currentTimeMillis();
     }
-    this.config = config;
+    this.config.set(config);
   }
 }
@@ -21,19 +21,25 @@ package com.github.maven_nar.cpptasks;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.zip.CRC32;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.taskdefs.Execute;
-import org.apache.tools.ant.taskdefs.LogStreamHandler;
+import org.apache.tools.ant.taskdefs.ExecuteStreamHandler;
 import org.apache.tools.ant.types.Commandline;
 import org.apache.tools.ant.types.Environment;
 import org.apache.tools.ant.util.StringUtils;
 
+import com.github.maven_nar.cpptasks.compiler.PumpLogStreamHandler;
+
 /**
  * Some utilities used by the CC and Link tasks.
  *
@@ -82,6 +88,12 @@ public class CUtil {
     }
   }
 
+  /**
+   * Canonical paths of the task running on a thread, see
+   * {@link #getCanonicalPath(File)}.
+   */
+  private static final ThreadLocal<CanonicalPathCache> canonicalPathCache = new ThreadLocal<CanonicalPathCache>();
+
   /**
    * Checks a array of names for non existent or non directory entries and
    * nulls them out.
@@ -117,6 +129,35 @@ public class CUtil {
     return basename;
   }
 
+  /**
+   * Returns the canonical path of a file from the cache of the task running
+   * on this thread, resolving it with the file system if there is none.
+   */
+  public static String getCanonicalPath(final File file) throws IOException {
+    final CanonicalPathCache cache = canonicalPathCache.get();
+    if (cache == null) {
+      return file.getCanonicalPath();
+    }
+    return cache.getCanonicalPath(file);
+  }
+
+  /**
+   * Sets the cache getCanonicalPath uses on this thread.
+   *
+   * @param cache
+   *          cache of the task running on this thread, null for none
+   * @return the cache set before, null if there was none
+   */
+  public static CanonicalPathCache setCanonicalPathCache(final CanonicalPathCache cache) {
+    final CanonicalPathCache previous = canonicalPathCache.get();
+    if (cache == null) {
+      canonicalPathCache.remove();
+    } else {
+      canonicalPathCache.set(cache);
+    }
+    return previous;
+  }
+
   /**
    * Gets the parent directory for the executable file name using the current
    * directory and system executable path
@@ -142,6 +183,39 @@ public class CUtil {
     return null;
   }
 
+  /**
+   * Computes a hash of the content of a file, read through a memory
+   * mapping. The file length is kept in the upper 32 bits and a CRC32 of the
+   * content in the lower 32 bits.
+   *
+   * @return the hash, or 0 if the file is empty or can not be read
+   */
+  public static long getContentHash(final File file) {
+    try {
+      final RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        final FileChannel channel = raf.getChannel();
+        final long length = channel.size();
+        final CRC32 crc = new CRC32();
+        final byte[] chunk = new byte[64 * 1024];
+        for (long position = 0; position < length; position += Integer.MAX_VALUE) {
+          final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, position,
+              Math.min(Integer.MAX_VALUE, length - position));
+          while (buf.hasRemaining()) {
+            final int count = Math.min(chunk.length, buf.remaining());
+            buf.get(chunk, 0, count);
+            crc.update(chunk, 0, count);
+          }
+        }
+        return length << 32 | crc.getValue();
+      } finally {
+        raf.close();
+      }
+    } catch (final IOException ex) {
+      return 0;
+    }
+  }
+
   /**
    * Extracts the parent of a file
    */
@@ -213,7 +287,7 @@ public class CUtil {
       if (System.getProperty("os.name").equals("OS/400")) {
         canonicalTarget = targetFile.getPath();
       } else {
-        canonicalTarget = targetFile.getCanonicalPath();
+        canonicalTarget = getCanonicalPath(targetFile);
       }
       if (canonicalBase.startsWith(canonicalTarget + File.separatorChar)) {
         canonicalTarget = canonicalTarget + File.separator;
@@ -401,9 +475,20 @@ public class CUtil {
    */
   public static int runCommand(final CCTask task, final File workingDir, final String[] cmdline,
       final boolean newEnvironment, final Environment env) throws BuildException {
+    return runCommand(task, workingDir, cmdline, newEnvironment, env,
+        new PumpLogStreamHandler(task, Project.MSG_INFO, Project.MSG_ERR));
+  }
+
+  /**
+   * Runs a command like runCommand, sending its output to streamHandler
+   * instead of the log.
+   */
+  public static int runCommand(final CCTask task, final File workingDir, final String[] cmdline,
+      final boolean newEnvironment, final Environment env, final ExecuteStreamHandler streamHandler)
+      throws BuildException {
     try {
       task.log(Commandline.toString(cmdline), task.getCommandLogLevel());
-      final Execute exe = new Execute(new LogStreamHandler(task, Project.MSG_INFO, Project.MSG_ERR));
+      final Execute exe = new Execute(streamHandler);
       if (System.getProperty("os.name").equals("OS/390")) {
         exe.setVMLauncher(false);
       }
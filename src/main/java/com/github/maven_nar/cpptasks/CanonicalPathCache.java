@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the canonical paths of files for the duration of a task.
+ *
+ * <p>
+ * File.getCanonicalPath() resolves every element of a path with the file
+ * system, which is slow on network file systems. Sources, includes and
+ * history entries are canonicalized many times during dependency analysis,
+ * so each absolute path is resolved only once. Links created during the
+ * build are not noticed until the cache is cleared.
+ * </p>
+ *
+ * <p>
+ * Every CCTask has a cache of its own, which CUtil.getCanonicalPath uses on
+ * the threads the task sets it on, so that tasks running concurrently keep
+ * their own statistics.
+ * </p>
+ */
+public final class CanonicalPathCache {
+  private final ConcurrentHashMap<String, String> canonicalPaths = new ConcurrentHashMap<String, String>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong savedCalls = new AtomicLong();
+
+  /**
+   * Forgets all canonical paths and resets the counters.
+   */
+  public void clear() {
+    this.canonicalPaths.clear();
+    this.hits.set(0);
+    this.lookups.set(0);
+    this.savedCalls.set(0);
+  }
+
+  /**
+   * Returns the canonical path of a file, resolving it only if it was not
+   * resolved before. Failures are not remembered.
+   */
+  public String getCanonicalPath(final File file) throws IOException {
+    this.lookups.incrementAndGet();
+    final String absolutePath = file.getAbsolutePath();
+    String canonicalPath = this.canonicalPaths.get(absolutePath);
+    if (canonicalPath != null) {
+      this.hits.incrementAndGet();
+      this.savedCalls.addAndGet(getNameCount(absolutePath));
+      return canonicalPath;
+    }
+    canonicalPath = new File(absolutePath).getCanonicalPath();
+    this.canonicalPaths.putIfAbsent(absolutePath, canonicalPath);
+    return canonicalPath;
+  }
+
+  /**
+   * Returns the number of lookups answered without resolving the path.
+   */
+  public long getHits() {
+    return this.hits.get();
+  }
+
+  public long getLookups() {
+    return this.lookups.get();
+  }
+
+  /**
+   * Returns the number of file system calls the hits saved. Resolving a path
+   * looks up each of its names, so a hit saves one call per name.
+   */
+  public long getSavedCalls() {
+    return this.savedCalls.get();
+  }
+
+  private static int getNameCount(final String absolutePath) {
+    int count = 0;
+    for (int i = 0; i < absolutePath.length(); i++) {
+      if (absolutePath.charAt(i) == File.separatorChar && i + 1 < absolutePath.length()
+          && absolutePath.charAt(i + 1) != File.separatorChar) {
+        count++;
+      }
+    }
+    return Math.max(count, 1);
+  }
+
+  public int size() {
+    return this.canonicalPaths.size();
+  }
+}
@@ -58,6 +58,7 @@ public final class CompilerDef extends ProcessorDef {
   private OptimizationEnum optimization;
   private int warnings = -1;
   private List<String> order;
+  private int unitySize = -1;
   private String toolPath;
   private String compilerPrefix;
   private File workDir;
@@ -331,6 +332,23 @@ public final class CompilerDef extends ProcessorDef {
       return this.workDir;
   }
   
+  /**
+   * Gets the number of sources to combine into one unity source, 0 if
+   * sources are compiled on their own.
+   */
+  public int getUnitySize(final CompilerDef[] defaultProviders, final int index) {
+    if (isReference()) {
+      return ((CompilerDef) getCheckedRef(CompilerDef.class, "CompilerDef")).getUnitySize(defaultProviders, index);
+    }
+    if (this.unitySize == -1) {
+      if (defaultProviders != null && index < defaultProviders.length) {
+        return defaultProviders[index].getUnitySize(defaultProviders, index + 1);
+      }
+      return 0;
+    }
+    return this.unitySize;
+  }
+
   public int getWarnings(final CompilerDef[] defaultProviders, final int index) {
     if (isReference()) {
       return ((CompilerDef) getCheckedRef(CompilerDef.class, "CompilerDef")).getWarnings(defaultProviders, index);
@@ -569,6 +587,18 @@ public final class CompilerDef extends ProcessorDef {
     this.compilerPrefix = prefix;
   }
 
+  /**
+   * Sets the number of C and C++ sources combined into one generated unity
+   * source, which includes them and is compiled in their place. 0 compiles
+   * each source on its own.
+   */
+  public void setUnitySize(final int unitySize) {
+    if (isReference()) {
+      throw tooManyAttributes();
+    }
+    this.unitySize = unitySize;
+  }
+
   public void setWorkDir(final File workDir) {
       this.workDir = workDir;
   }
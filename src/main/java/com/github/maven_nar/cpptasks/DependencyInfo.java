@@ -37,6 +37,20 @@ public final class DependencyInfo {
   private final/* final */String[] includes;
   private final/* final */String source;
   private final/* final */long sourceLastModified;
+  /**
+   * Last modified time of the current content, earlier than
+   * sourceLastModified when the file was touched without being changed.
+   */
+  private final long contentLastModified;
+  /**
+   * Hash of the content, 0 if unknown.
+   */
+  private final long contentHash;
+  /**
+   * True if the includes were reported by the compiler and hold every file
+   * the source depends on, so they do not need to be walked.
+   */
+  private final boolean complete;
   private final/* final */String[] sysIncludes;
   // FREEHEP
   private Object tag = null;
@@ -51,6 +65,9 @@ public final class DependencyInfo {
     }
     this.source = source;
     this.sourceLastModified = sourceLastModified;
+    this.contentLastModified = sourceLastModified;
+    this.contentHash = 0;
+    this.complete = false;
     this.includePathIdentifier = includePathIdentifier;
     this.includes = new String[includes.size()];
     // BEGINFREEHEP
@@ -67,6 +84,73 @@ public final class DependencyInfo {
     sysIncludes.copyInto(this.sysIncludes);
   }
 
+  public DependencyInfo(final String includePathIdentifier, final String source, final long sourceLastModified,
+      final String[] includes, final String[] sysIncludes) {
+    this(includePathIdentifier, source, sourceLastModified, sourceLastModified, 0, includes, sysIncludes);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param contentLastModified
+   *          last modified time of the content, used for rebuild decisions
+   * @param contentHash
+   *          hash from {@link CUtil#getContentHash(java.io.File)}, 0 if
+   *          unknown
+   */
+  public DependencyInfo(final String includePathIdentifier, final String source, final long sourceLastModified,
+      final long contentLastModified, final long contentHash, final String[] includes, final String[] sysIncludes) {
+    this(includePathIdentifier, source, sourceLastModified, contentLastModified, contentHash, includes, sysIncludes,
+        false);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param complete
+   *          true if includes holds every file the source depends on, as
+   *          reported by the compiler
+   */
+  public DependencyInfo(final String includePathIdentifier, final String source, final long sourceLastModified,
+      final long contentLastModified, final long contentHash, final String[] includes, final String[] sysIncludes,
+      final boolean complete) {
+    if (source == null) {
+      throw new NullPointerException("source");
+    }
+    if (includePathIdentifier == null) {
+      throw new NullPointerException("includePathIdentifier");
+    }
+    this.source = source;
+    this.sourceLastModified = sourceLastModified;
+    this.contentLastModified = contentLastModified;
+    this.contentHash = contentHash;
+    this.complete = complete;
+    this.includePathIdentifier = includePathIdentifier;
+    this.includes = includes.clone();
+    this.sysIncludes = sysIncludes.clone();
+  }
+
+  /**
+   * Returns a copy of this info for a file that was touched without being
+   * changed, keeping the content time and hash.
+   */
+  public DependencyInfo touched(final long newSourceLastModified) {
+    return new DependencyInfo(this.includePathIdentifier, this.source, newSourceLastModified,
+        this.contentLastModified, this.contentHash, this.includes, this.sysIncludes, this.complete);
+  }
+
+  public long getContentHash() {
+    return this.contentHash;
+  }
+
+  public long getContentLastModified() {
+    return this.contentLastModified;
+  }
+
+  public boolean isComplete() {
+    return this.complete;
+  }
+
   // ENDFREEHEP
   public String getIncludePathIdentifier() {
     return this.includePathIdentifier;
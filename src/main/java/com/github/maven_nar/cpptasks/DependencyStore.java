@@ -0,0 +1,72 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary store for the DependencyInfo records of a DependencyTable.
+ *
+ * <p>
+ * Each entry holds the include path identifier, the source and its includes
+ * as interned strings, the source timestamps and content hash as fixed-width
+ * longs and whether the includes were reported by the compiler. Later
+ * entries replace earlier ones for the same source and include path
+ * identifier.
+ * </p>
+ */
+public final class DependencyStore extends AbstractBinaryStore<DependencyInfo> {
+  private static final int MAGIC = 0x4e415244; // "NARD"
+  private static final int VERSION = 3;
+
+  public DependencyStore(final File file) {
+    super(file, MAGIC, VERSION);
+  }
+
+  @Override
+  protected DependencyInfo readEntry(final ByteBuffer buf) {
+    final String includePathIdentifier = string(buf.getInt());
+    final String source = string(buf.getInt());
+    final long sourceLastModified = buf.getLong();
+    final long contentLastModified = buf.getLong();
+    final long contentHash = buf.getLong();
+    final boolean complete = buf.get() != 0;
+    final String[] includes = readStrings(buf);
+    final String[] sysIncludes = readStrings(buf);
+    return new DependencyInfo(includePathIdentifier, source, sourceLastModified, contentLastModified, contentHash,
+        includes, sysIncludes, complete);
+  }
+
+  @Override
+  protected void writeEntry(final DataOutputStream out, final DataOutputStream body, final DependencyInfo dependInfo)
+      throws IOException {
+    body.writeInt(intern(out, dependInfo.getIncludePathIdentifier()));
+    body.writeInt(intern(out, dependInfo.getSource()));
+    body.writeLong(dependInfo.getSourceLastModified());
+    body.writeLong(dependInfo.getContentLastModified());
+    body.writeLong(dependInfo.getContentHash());
+    body.writeBoolean(dependInfo.isComplete());
+    writeStrings(out, body, dependInfo.getIncludes());
+    writeStrings(out, body, dependInfo.getSysIncludes());
+  }
+}
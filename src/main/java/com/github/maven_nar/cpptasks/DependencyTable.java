@@ -25,9 +25,20 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -84,23 +95,10 @@ public final class DependencyTable {
       //
       if (qName.equals("source")) {
         if (this.source != null && this.includePath != null) {
-          final File existingFile = new File(this.baseDir, this.source);
-          //
-          // if the file exists and the time stamp is right
-          // preserve the dependency info
-          if (existingFile.exists()) {
-            //
-            // would have expected exact matches
-            // but was seeing some unexpected difference by
-            // a few tens of milliseconds, as long
-            // as the times are within a second
-            final long existingLastModified = existingFile.lastModified();
-            if (!CUtil.isSignificantlyAfter(existingLastModified, this.sourceLastModified)
-                && !CUtil.isSignificantlyBefore(existingLastModified, this.sourceLastModified)) {
-              final DependencyInfo dependInfo = new DependencyInfo(this.includePath, this.source,
-                  this.sourceLastModified, this.includes, this.sysIncludes);
-              this.dependencyTable.putDependencyInfo(this.source, dependInfo);
-            }
+          if (isCurrent(this.baseDir, this.source, this.sourceLastModified)) {
+            final DependencyInfo dependInfo = new DependencyInfo(this.includePath, this.source,
+                this.sourceLastModified, this.includes, this.sysIncludes);
+            this.dependencyTable.putDependencyInfo(this.source, dependInfo);
           }
           this.source = null;
           this.includes.setSize(0);
@@ -152,6 +150,22 @@ public final class DependencyTable {
   }
 
   public abstract class DependencyVisitor {
+    /**
+     * Dependency infos already walked by this visitor. Kept per visitor so
+     * that several visitors can walk the same table concurrently.
+     */
+    private final Set<DependencyInfo> visited = Collections
+        .newSetFromMap(new IdentityHashMap<DependencyInfo, Boolean>());
+
+    /**
+     * Marks a dependency info as walked.
+     *
+     * @return true if it had not been walked by this visitor before
+     */
+    boolean markVisited(final DependencyInfo dependInfo) {
+      return this.visited.add(dependInfo);
+    }
+
     /**
      * Previews all the children of this source file.
      *
@@ -236,7 +250,7 @@ public final class DependencyTable {
     @Override
     public boolean visit(final DependencyInfo dependInfo) {
       if (this.noNeedToRebuild) {
-        if (CUtil.isSignificantlyAfter(dependInfo.getSourceLastModified(), this.outputLastModified)) {
+        if (CUtil.isSignificantlyAfter(dependInfo.getContentLastModified(), this.outputLastModified)) {
           // FREEHEP
           // ||
           // CUtil.isSignificantlyAfter(dependInfo.getCompositeLastModified(),
@@ -255,16 +269,68 @@ public final class DependencyTable {
     }
   }
 
+  /**
+   * Once the binary store holds this many more entries than are live, it is
+   * rewritten instead of appended to.
+   */
+  private static final int COMPACTION_SLACK = 256;
+
+  /**
+   * Determines whether a recorded source still exists with the recorded
+   * modification time.
+   */
+  private static boolean isCurrent(final File baseDir, final String source, final long sourceLastModified) {
+    final File existingFile = new File(baseDir, source);
+    //
+    // if the file exists and the time stamp is right
+    // preserve the dependency info
+    if (existingFile.exists()) {
+      //
+      // would have expected exact matches
+      // but was seeing some unexpected difference by
+      // a few tens of milliseconds, as long
+      // as the times are within a second
+      final long existingLastModified = existingFile.lastModified();
+      return !CUtil.isSignificantlyAfter(existingLastModified, sourceLastModified)
+          && !CUtil.isSignificantlyBefore(existingLastModified, sourceLastModified);
+    }
+    return false;
+  }
+
   private final/* final */File baseDir;
   private String baseDirPath;
   /**
    * a hashtable of DependencyInfo[] keyed by output file name
    */
-  private final Hashtable dependencies = new Hashtable();
-  /** The file the cache was loaded from. */
+  private final ConcurrentHashMap<String, DependencyInfo[]> dependencies =
+      new ConcurrentHashMap<String, DependencyInfo[]>();
+  /**
+   * Parses in progress or done during this build keyed by include path
+   * identifier and relative source, so that concurrent dependency checks
+   * parse each file only once.
+   */
+  private final ConcurrentHashMap<String, FutureTask<DependencyInfo>> parses =
+      new ConcurrentHashMap<String, FutureTask<DependencyInfo>>();
+  /**
+   * Modification times of includes reported by the compiler, looked up once
+   * per build.
+   */
+  private final ConcurrentHashMap<String, Long> includeLastModified = new ConcurrentHashMap<String, Long>();
+  /** The XML file the cache was loaded from by earlier versions. */
   private final/* final */File dependenciesFile;
+  /** The binary store the cache is loaded from and committed to. */
+  private final DependencyStore store;
+  /** Entries added or replaced since the last load or commit. */
+  private final List<DependencyInfo> changed = new ArrayList<DependencyInfo>();
   /** Flag indicating whether the cache should be written back to file. */
   private boolean dirty;
+  /** Flag indicating the binary store has to be written from scratch. */
+  private boolean rewrite;
+  /**
+   * Flag indicating whether sources are hashed so that touched but unchanged
+   * files keep their dependency info and content time.
+   */
+  private boolean contentHash;
 
   /**
    * Creates a target history table from dependencies.xml in the prject
@@ -279,7 +345,7 @@ public final class DependencyTable {
     }
     this.baseDir = baseDir;
     try {
-      this.baseDirPath = baseDir.getCanonicalPath();
+      this.baseDirPath = CUtil.getCanonicalPath(baseDir);
     } catch (final IOException ex) {
       this.baseDirPath = baseDir.toString();
     }
@@ -287,53 +353,93 @@ public final class DependencyTable {
     //
     // load any existing dependencies from file
     this.dependenciesFile = new File(baseDir, "dependencies.xml");
+    this.store = new DependencyStore(new File(baseDir, "dependencies.bin"));
   }
 
-  public void commit(final CCTask task) {
+  /**
+   * Writes the changed entries to the binary store. The store is rewritten
+   * when it was migrated from dependencies.xml or holds too many superseded
+   * entries, otherwise the changed entries are appended. If the binary store
+   * can not be written, dependencies.xml is written instead.
+   */
+  public synchronized void commit(final CCTask task) {
     //
     // if not dirty, no need to update file
     //
     if (this.dirty) {
-      //
-      // walk through dependencies to get vector of include paths
-      // identifiers
-      //
-      final Vector includePaths = getIncludePaths();
-      //
-      //
-      // write dependency file
-      //
+      final List<DependencyInfo> live = new ArrayList<DependencyInfo>();
+      final Enumeration dependenciesEnum = this.dependencies.elements();
+      while (dependenciesEnum.hasMoreElements()) {
+        live.addAll(Arrays.asList((DependencyInfo[]) dependenciesEnum.nextElement()));
+      }
       try {
-        final FileOutputStream outStream = new FileOutputStream(this.dependenciesFile);
-        OutputStreamWriter streamWriter;
-        //
-        // Early VM's may not have UTF-8 support
-        // fallback to default code page which
-        // "should" be okay unless there are
-        // non ASCII file names
-        String encodingName = "UTF-8";
-        try {
-          streamWriter = new OutputStreamWriter(outStream, "UTF-8");
-        } catch (final UnsupportedEncodingException ex) {
-          streamWriter = new OutputStreamWriter(outStream);
-          encodingName = streamWriter.getEncoding();
-        }
-        final BufferedWriter writer = new BufferedWriter(streamWriter);
-        writer.write("<?xml version='1.0' encoding='");
-        writer.write(encodingName);
-        writer.write("'?>\n");
-        writer.write("<dependencies>\n");
-        final StringBuffer buf = new StringBuffer();
-        final Enumeration includePathEnum = includePaths.elements();
-        while (includePathEnum.hasMoreElements()) {
-          writeIncludePathDependencies((String) includePathEnum.nextElement(), writer, buf);
+        final int entries = this.store.getEntryCount() + this.changed.size();
+        if (this.rewrite || entries > live.size() * 2 + COMPACTION_SLACK) {
+          this.store.rewrite(live);
+        } else {
+          this.store.append(this.changed);
         }
-        writer.write("</dependencies>\n");
-        writer.close();
+        this.changed.clear();
         this.dirty = false;
+        if (this.rewrite) {
+          this.rewrite = false;
+          this.dependenciesFile.delete();
+        }
+        return;
       } catch (final IOException ex) {
-        task.log("Error writing " + this.dependenciesFile.toString() + ":" + ex.toString());
+        task.log("Error writing " + this.store.getFile().toString() + ":" + ex.toString(), Project.MSG_WARN);
+        this.store.getFile().delete();
       }
+      writeXml(task);
+    }
+  }
+
+  /**
+   * Writes all entries to dependencies.xml, used when the binary store can
+   * not be written.
+   */
+  private void writeXml(final CCTask task) {
+    //
+    // walk through dependencies to get vector of include paths
+    // identifiers
+    //
+    final Vector includePaths = getIncludePaths();
+    //
+    //
+    // write dependency file
+    //
+    try {
+      final FileOutputStream outStream = new FileOutputStream(this.dependenciesFile);
+      OutputStreamWriter streamWriter;
+      //
+      // Early VM's may not have UTF-8 support
+      // fallback to default code page which
+      // "should" be okay unless there are
+      // non ASCII file names
+      String encodingName = "UTF-8";
+      try {
+        streamWriter = new OutputStreamWriter(outStream, "UTF-8");
+      } catch (final UnsupportedEncodingException ex) {
+        streamWriter = new OutputStreamWriter(outStream);
+        encodingName = streamWriter.getEncoding();
+      }
+      final BufferedWriter writer = new BufferedWriter(streamWriter);
+      writer.write("<?xml version='1.0' encoding='");
+      writer.write(encodingName);
+      writer.write("'?>\n");
+      writer.write("<dependencies>\n");
+      final StringBuffer buf = new StringBuffer();
+      final Enumeration includePathEnum = includePaths.elements();
+      while (includePathEnum.hasMoreElements()) {
+        writeIncludePathDependencies((String) includePathEnum.nextElement(), writer, buf);
+      }
+      writer.write("</dependencies>\n");
+      writer.close();
+      this.changed.clear();
+      this.dirty = false;
+      this.rewrite = true;
+    } catch (final IOException ex) {
+      task.log("Error writing " + this.dependenciesFile.toString() + ":" + ex.toString());
     }
   }
 
@@ -363,6 +469,73 @@ public final class DependencyTable {
     return null;
   }
 
+  /**
+   * Collects the files a source includes, directly or through other
+   * includes, parsing the ones that have no dependency info yet. Unlike
+   * {@link #walkDependencies}, every include is followed. System includes
+   * are left out.
+   */
+  public SortedSet<File> getIncludeFiles(final CCTask task, final CompilerConfiguration compiler, final File source) {
+    final String includePathIdentifier = compiler.getIncludePathIdentifier();
+    final SortedSet<File> files = new TreeSet<File>();
+    DependencyInfo sourceInfo = getDependencyInfo(CUtil.getRelativePath(this.baseDirPath, source),
+        includePathIdentifier);
+    if (sourceInfo == null) {
+      sourceInfo = parseIncludes(task, compiler, source);
+    }
+    final List<DependencyInfo> pending = new ArrayList<DependencyInfo>();
+    pending.add(sourceInfo);
+    while (!pending.isEmpty()) {
+      final DependencyInfo dependInfo = pending.remove(pending.size() - 1);
+      for (final String include : dependInfo.getIncludes()) {
+        final File file = getFile(include);
+        //
+        // includes reported by the compiler are already complete
+        //
+        if (files.add(file) && !dependInfo.isComplete()) {
+          DependencyInfo includeInfo = getDependencyInfo(include, includePathIdentifier);
+          if (includeInfo == null) {
+            includeInfo = parseIncludes(task, compiler, file);
+          }
+          pending.add(includeInfo);
+        }
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Collects the files a source includes directly, system includes first.
+   * Sources whose includes were reported by the compiler are parsed again
+   * without recording the result, as the report does not tell which files
+   * are included directly.
+   */
+  public List<File> getDirectIncludeFiles(final CCTask task, final CompilerConfiguration compiler, final File source) {
+    DependencyInfo dependInfo = getDependencyInfo(CUtil.getRelativePath(this.baseDirPath, source),
+        compiler.getIncludePathIdentifier());
+    if (dependInfo == null) {
+      dependInfo = parseIncludes(task, compiler, source);
+    } else if (dependInfo.isComplete()) {
+      dependInfo = compiler.parseIncludes(task, this.baseDir, source);
+    }
+    final List<File> files = new ArrayList<File>();
+    for (final String include : dependInfo.getSysIncludes()) {
+      files.add(getFile(include));
+    }
+    for (final String include : dependInfo.getIncludes()) {
+      files.add(getFile(include));
+    }
+    return files;
+  }
+
+  private File getFile(final String include) {
+    final File file = new File(include);
+    if (file.isAbsolute()) {
+      return file;
+    }
+    return new File(this.baseDir, include);
+  }
+
   private Vector getIncludePaths() {
     final Vector includePaths = new Vector();
     DependencyInfo[] dependInfos;
@@ -387,17 +560,65 @@ public final class DependencyTable {
     return includePaths;
   }
 
+  /**
+   * Loads the binary store or, if there is none or it can not be read, an
+   * existing dependencies.xml. Entries read from dependencies.xml are
+   * migrated to the binary store on the next commit.
+   */
   public void load() throws IOException, ParserConfigurationException, SAXException {
     this.dependencies.clear();
+    this.parses.clear();
+    this.includeLastModified.clear();
+    this.changed.clear();
+    this.dirty = false;
+    this.rewrite = false;
+    if (this.store.exists()) {
+      try {
+        final List<DependencyInfo> touched = new ArrayList<DependencyInfo>();
+        for (final DependencyInfo dependInfo : this.store.load()) {
+          if (isCurrent(this.baseDir, dependInfo.getSource(), dependInfo.getSourceLastModified())) {
+            putDependencyInfo(dependInfo.getSource(), dependInfo);
+          } else if (this.contentHash && dependInfo.getContentHash() != 0) {
+            //
+            // only hash files whose time stamp changed
+            //
+            final File file = new File(this.baseDir, dependInfo.getSource());
+            if (file.exists() && CUtil.getContentHash(file) == dependInfo.getContentHash()) {
+              touched.add(dependInfo.touched(file.lastModified()));
+            }
+          }
+        }
+        this.changed.clear();
+        this.dirty = false;
+        for (final DependencyInfo dependInfo : touched) {
+          putDependencyInfo(dependInfo.getSource(), dependInfo);
+        }
+        return;
+      } catch (final IOException ex) {
+        this.dependencies.clear();
+        this.changed.clear();
+      }
+    }
+    this.rewrite = true;
+    this.dirty = true;
     if (this.dependenciesFile.exists()) {
       final SAXParserFactory factory = SAXParserFactory.newInstance();
       factory.setValidating(false);
       final SAXParser parser = factory.newSAXParser();
       parser.parse(this.dependenciesFile, new DependencyTableHandler(this, this.baseDir));
-      this.dirty = false;
     }
   }
 
+  /**
+   * Enables hashing of parsed sources. A source whose time stamp changed but
+   * whose content did not keeps its dependency info and the time of its last
+   * real change, so it does not cause a rebuild. Has to be set before
+   * {@link #load()}.
+   */
+  public void setContentHash(final boolean contentHash) {
+    this.contentHash = contentHash;
+  }
+
   /**
    * Determines if the specified target needs to be rebuilt.
    *
@@ -435,26 +656,116 @@ public final class DependencyTable {
         task.log("Parsing " + relative, Project.MSG_VERBOSE);
         dependInfo = parseIncludes(task, compiler, source);
       }
-      walkDependencies(task, dependInfo, compiler, stack, checker);
-      mustRebuild = checker.getMustRebuild();
+      if (dependInfo.isComplete()) {
+        mustRebuild = isOutOfDate(dependInfo, outputLastModified);
+      } else {
+        walkDependencies(task, dependInfo, compiler, stack, checker);
+        mustRebuild = checker.getMustRebuild();
+      }
     }
     return mustRebuild;
   }
 
+  /**
+   * Checks a source and the includes reported by the compiler against the
+   * output without parsing or walking them.
+   */
+  private boolean isOutOfDate(final DependencyInfo dependInfo, final long outputLastModified) {
+    if (CUtil.isSignificantlyAfter(dependInfo.getContentLastModified(), outputLastModified)) {
+      return true;
+    }
+    for (final String include : dependInfo.getIncludes()) {
+      Long lastModified = this.includeLastModified.get(include);
+      if (lastModified == null) {
+        File file = new File(include);
+        if (!file.isAbsolute()) {
+          file = new File(this.baseDir, include);
+        }
+        lastModified = file.lastModified();
+        this.includeLastModified.putIfAbsent(include, lastModified);
+      }
+      //
+      // a missing include will fail the compile or be found elsewhere
+      //
+      if (lastModified == 0 || CUtil.isSignificantlyAfter(lastModified, outputLastModified)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Parses a source file and records its dependency info. If another thread
+   * is already parsing the same source for the same include path identifier,
+   * waits for and returns that result instead.
+   */
   public DependencyInfo parseIncludes(final CCTask task, final CompilerConfiguration compiler, final File source) {
-    final DependencyInfo dependInfo = compiler.parseIncludes(task, this.baseDir, source);
     final String relativeSource = CUtil.getRelativePath(this.baseDirPath, source);
-    putDependencyInfo(relativeSource, dependInfo);
-    return dependInfo;
+    final String key = compiler.getIncludePathIdentifier() + '\0' + relativeSource;
+    final FutureTask<DependencyInfo> parse = new FutureTask<DependencyInfo>(new Callable<DependencyInfo>() {
+      @Override
+      public DependencyInfo call() {
+        DependencyInfo dependInfo = compiler.parseIncludes(task, DependencyTable.this.baseDir, source);
+        //
+        // no hash if the time was bumped for a missing include,
+        // so that the source keeps getting rebuilt
+        //
+        if (DependencyTable.this.contentHash && dependInfo.getSourceLastModified() == source.lastModified()) {
+          dependInfo = new DependencyInfo(dependInfo.getIncludePathIdentifier(), dependInfo.getSource(),
+              dependInfo.getSourceLastModified(), dependInfo.getSourceLastModified(), CUtil.getContentHash(source),
+              dependInfo.getIncludes(), dependInfo.getSysIncludes());
+        }
+        putDependencyInfo(relativeSource, dependInfo);
+        return dependInfo;
+      }
+    });
+    FutureTask<DependencyInfo> existing = this.parses.putIfAbsent(key, parse);
+    if (existing == null) {
+      existing = parse;
+      parse.run();
+    }
+    try {
+      return existing.get();
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new BuildException(ex);
+    } catch (final ExecutionException ex) {
+      //
+      // let the next caller try again
+      //
+      this.parses.remove(key, existing);
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw new BuildException(ex.getCause());
+    }
   }
 
-  private void putDependencyInfo(final String key, final DependencyInfo dependInfo) {
+  /**
+   * Records the files a source depends on as reported by the compiler after
+   * it was compiled successfully. Replaces any parsed dependency info, later
+   * rebuild checks use the reported files without parsing.
+   */
+  public void putCompilerDependencies(final String includePathIdentifier, final File source, final File[] includes) {
+    final String relativeSource = CUtil.getRelativePath(this.baseDirPath, source);
+    final String[] relativeIncludes = new String[includes.length];
+    for (int i = 0; i < includes.length; i++) {
+      relativeIncludes[i] = CUtil.getRelativePath(this.baseDirPath, includes[i]);
+    }
+    final long lastModified = source.lastModified();
+    final long hash = this.contentHash ? CUtil.getContentHash(source) : 0;
+    putDependencyInfo(relativeSource, new DependencyInfo(includePathIdentifier, relativeSource, lastModified,
+        lastModified, hash, relativeIncludes, new String[0], true));
+  }
+
+  private synchronized void putDependencyInfo(final String key, final DependencyInfo dependInfo) {
     //
     // optimistic, add new value
     //
     final DependencyInfo[] old = (DependencyInfo[]) this.dependencies.put(key, new DependencyInfo[] {
       dependInfo
     });
+    this.changed.add(dependInfo);
     this.dirty = true;
     //
     // something was already there
@@ -467,8 +778,12 @@ public final class DependencyTable {
       for (int i = 0; i < old.length; i++) {
         final DependencyInfo oldDepend = old[i];
         if (oldDepend.getIncludePathIdentifier().equals(includePathIdentifier)) {
-          old[i] = dependInfo;
-          this.dependencies.put(key, old);
+          //
+          // replace in a copy, readers may hold the old array
+          //
+          final DependencyInfo[] replaced = old.clone();
+          replaced[i] = dependInfo;
+          this.dependencies.put(key, replaced);
           return;
         }
       }
@@ -489,10 +804,9 @@ public final class DependencyTable {
       final CompilerConfiguration compiler, final DependencyInfo[] stack, final DependencyVisitor visitor)
       throws BuildException {
     // BEGINFREEHEP
-    if (dependInfo.hasTag(visitor)) {
+    if (!visitor.markVisited(dependInfo)) {
       return;
     }
-    dependInfo.setTag(visitor);
     // ENDFREEHEP
     //
     // visit this node
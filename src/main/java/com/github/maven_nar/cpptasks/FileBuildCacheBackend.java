@@ -0,0 +1,91 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Build cache backend in a directory, typically on a network share, with
+ * the same layout as the local object cache. Entries are copied in under a
+ * temporary name and then moved into place, so that other machines never
+ * see a partial entry.
+ */
+public final class FileBuildCacheBackend implements BuildCacheBackend {
+  private final File dir;
+
+  public FileBuildCacheBackend(final File dir) {
+    if (dir == null) {
+      throw new NullPointerException("dir");
+    }
+    this.dir = dir;
+  }
+
+  @Override
+  public Set<String> contains(final Collection<String> keys) {
+    final Set<String> found = new HashSet<String>();
+    for (final String key : keys) {
+      if (getEntry(key).isFile()) {
+        found.add(key);
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public boolean fetch(final String key, final File file) throws IOException {
+    final File entry = getEntry(key);
+    if (!entry.isFile()) {
+      return false;
+    }
+    try {
+      Files.copy(entry.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.COPY_ATTRIBUTES);
+    } catch (final NoSuchFileException ex) {
+      //
+      // removed in the meantime
+      //
+      return false;
+    }
+    return true;
+  }
+
+  public File getDir() {
+    return this.dir;
+  }
+
+  private File getEntry(final String key) {
+    return new File(new File(this.dir, key.substring(0, 2)), key.substring(2));
+  }
+
+  @Override
+  public void publish(final String key, final File file) throws IOException {
+    final File entry = getEntry(key);
+    if (!entry.exists()) {
+      ObjectCache.copyIntoPlace(file, entry);
+    }
+  }
+}
@@ -0,0 +1,321 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.tools.ant.Project;
+
+/**
+ * Resolves include names against include paths.
+ *
+ * <p>
+ * Each directory is listed once per build instead of probing every include
+ * path entry with File.exists() for every include. Optionally, the
+ * resolutions are also kept in a binary store between builds. A stored
+ * resolution is used as long as every directory that was searched for it
+ * still has the recorded modification time.
+ * </p>
+ */
+public final class IncludeCache {
+  /**
+   * Resolution of an include name against an include path.
+   */
+  public static final class Entry {
+    private final String includePathIdentifier;
+    private final String includeName;
+    private final int index;
+    private final String[] dirs;
+    private final long[] dirLastModified;
+
+    /**
+     * Constructor
+     *
+     * @param index
+     *          index of the include path entry the name resolved to, -1 if
+     *          it could not be resolved
+     * @param dirs
+     *          directories searched, in order
+     * @param dirLastModified
+     *          modification times of the searched directories
+     */
+    public Entry(final String includePathIdentifier, final String includeName, final int index, final String[] dirs,
+        final long[] dirLastModified) {
+      if (includePathIdentifier == null) {
+        throw new NullPointerException("includePathIdentifier");
+      }
+      if (includeName == null) {
+        throw new NullPointerException("includeName");
+      }
+      if (dirs.length != dirLastModified.length) {
+        throw new IllegalArgumentException("dirs and dirLastModified differ in length");
+      }
+      this.includePathIdentifier = includePathIdentifier;
+      this.includeName = includeName;
+      this.index = index;
+      this.dirs = dirs.clone();
+      this.dirLastModified = dirLastModified.clone();
+    }
+
+    public String[] getDirs() {
+      return this.dirs.clone();
+    }
+
+    public long[] getDirLastModified() {
+      return this.dirLastModified.clone();
+    }
+
+    public String getIncludeName() {
+      return this.includeName;
+    }
+
+    public String getIncludePathIdentifier() {
+      return this.includePathIdentifier;
+    }
+
+    public int getIndex() {
+      return this.index;
+    }
+  }
+
+  /**
+   * Once the binary store holds this many more entries than are live, it is
+   * rewritten instead of appended to.
+   */
+  private static final int COMPACTION_SLACK = 256;
+  /**
+   * Case insensitive file systems find includes that differ in case only.
+   */
+  private static final boolean IGNORE_CASE = File.separatorChar == '\\'
+      || System.getProperty("os.name", "").startsWith("Mac");
+
+  private static String key(final String includePathIdentifier, final String includeName) {
+    return includePathIdentifier + '\0' + includeName;
+  }
+
+  private static String normalize(final String name) {
+    return IGNORE_CASE ? name.toLowerCase(Locale.ENGLISH) : name;
+  }
+
+  /** names in each directory listed during this build */
+  private final ConcurrentHashMap<File, Set<String>> listings = new ConcurrentHashMap<File, Set<String>>();
+  /** modification times of directories looked at during this build */
+  private final ConcurrentHashMap<File, Long> lastModified = new ConcurrentHashMap<File, Long>();
+  /** resolutions keyed by include path identifier and include name */
+  private final ConcurrentHashMap<String, Entry> resolutions = new ConcurrentHashMap<String, Entry>();
+  /** resolutions added since the last commit */
+  private final List<Entry> changed = new ArrayList<Entry>();
+  /** binary store, null if resolutions are not kept between builds */
+  private final IncludeStore store;
+
+  /**
+   * Creates a cache that only lasts for this build.
+   */
+  public IncludeCache() {
+    this.store = null;
+  }
+
+  /**
+   * Creates a cache that is loaded from and committed to the given file.
+   *
+   * @param task
+   *          task used for logging load errors
+   */
+  public IncludeCache(final CCTask task, final File file) {
+    this.store = new IncludeStore(file);
+    if (this.store.exists()) {
+      try {
+        for (final Entry entry : this.store.load()) {
+          this.resolutions.put(key(entry.getIncludePathIdentifier(), entry.getIncludeName()), entry);
+        }
+      } catch (final IOException ex) {
+        this.resolutions.clear();
+        task.log("Error reading " + file.toString() + ":" + ex.toString(), Project.MSG_VERBOSE);
+      }
+    }
+  }
+
+  /**
+   * Writes the resolutions added during this build to the binary store, if
+   * any.
+   */
+  public synchronized void commit(final CCTask task) {
+    if (this.store == null || this.changed.isEmpty()) {
+      return;
+    }
+    try {
+      final int entries = this.store.getEntryCount() + this.changed.size();
+      if (entries > this.resolutions.size() * 2 + COMPACTION_SLACK) {
+        this.store.rewrite(new ArrayList<Entry>(this.resolutions.values()));
+      } else {
+        this.store.append(this.changed);
+      }
+      this.changed.clear();
+    } catch (final IOException ex) {
+      task.log("Error writing " + this.store.getFile().toString() + ":" + ex.toString(), Project.MSG_WARN);
+    }
+  }
+
+  /**
+   * Determines whether a file exists, using a listing of its directory that
+   * is made once per build.
+   */
+  public boolean exists(final File dir, final String includeName) {
+    final File file = new File(dir, includeName);
+    final String name = file.getName();
+    final File parent = file.getParentFile();
+    if (parent == null || name.length() == 0 || name.equals(".") || name.equals("..")) {
+      return file.exists();
+    }
+    return list(parent).contains(normalize(name));
+  }
+
+  private long getLastModified(final File dir) {
+    Long time = this.lastModified.get(dir);
+    if (time == null) {
+      time = dir.lastModified();
+      this.lastModified.putIfAbsent(dir, time);
+    }
+    return time;
+  }
+
+  private boolean isCurrent(final Entry entry, final File[] dirs, final int searched) {
+    final String[] recordedDirs = entry.getDirs();
+    if (recordedDirs.length != searched) {
+      return false;
+    }
+    final long[] recordedLastModified = entry.getDirLastModified();
+    for (int i = 0; i < searched; i++) {
+      if (!dirs[i].getPath().equals(recordedDirs[i]) || getLastModified(dirs[i]) != recordedLastModified[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Set<String> list(final File dir) {
+    Set<String> names = this.listings.get(dir);
+    if (names == null) {
+      names = new HashSet<String>();
+      try {
+        final DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath());
+        try {
+          for (final Path path : stream) {
+            names.add(normalize(path.getFileName().toString()));
+          }
+        } finally {
+          stream.close();
+        }
+      } catch (final IOException ex) {
+        //
+        // missing or unreadable directory has no includes
+        //
+        names = Collections.emptySet();
+      } catch (final InvalidPathException ex) {
+        names = Collections.emptySet();
+      }
+      final Set<String> existing = this.listings.putIfAbsent(dir, names);
+      if (existing != null) {
+        names = existing;
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Resolves an include name against an include path.
+   *
+   * @param includePathIdentifier
+   *          identifies the include path in the binary store
+   * @param includeName
+   *          name as it appears in the include directive
+   * @param includePath
+   *          directories to search, in order
+   * @return index of the first directory that contains the include, -1 if
+   *         none does
+   */
+  public int resolve(final String includePathIdentifier, final String includeName, final File[] includePath) {
+    //
+    // the directories that actually get searched, includes
+    // with a relative path are looked up in a subdirectory
+    //
+    final File[] dirs = new File[includePath.length];
+    for (int i = 0; i < includePath.length; i++) {
+      final File parent = new File(includePath[i], includeName).getParentFile();
+      dirs[i] = parent != null ? parent : includePath[i];
+    }
+    final String key = key(includePathIdentifier, includeName);
+    final Entry entry = this.resolutions.get(key);
+    if (entry != null) {
+      final int index = entry.getIndex();
+      if (index < includePath.length && isCurrent(entry, dirs, index < 0 ? includePath.length : index + 1)) {
+        return index;
+      }
+    }
+    int index = -1;
+    for (int i = 0; i < includePath.length; i++) {
+      if (exists(includePath[i], includeName)) {
+        index = i;
+        break;
+      }
+    }
+    if (this.store != null) {
+      record(key, includePathIdentifier, includeName, index, dirs);
+    }
+    return index;
+  }
+
+  private void record(final String key, final String includePathIdentifier, final String includeName,
+      final int index, final File[] dirs) {
+    final int searched = index < 0 ? dirs.length : index + 1;
+    final String[] recordedDirs = new String[searched];
+    final long[] recordedLastModified = new long[searched];
+    //
+    // a directory changed within the file time resolution
+    // could change again without a new modification time
+    //
+    final long recent = System.currentTimeMillis() - 2 * CUtil.FILETIME_EPSILON;
+    boolean stable = true;
+    for (int i = 0; i < searched; i++) {
+      recordedDirs[i] = dirs[i].getPath();
+      recordedLastModified[i] = getLastModified(dirs[i]);
+      stable &= recordedLastModified[i] < recent;
+    }
+    final Entry entry = new Entry(includePathIdentifier, includeName, index, recordedDirs, recordedLastModified);
+    this.resolutions.put(key, entry);
+    if (stable) {
+      synchronized (this) {
+        this.changed.add(entry);
+      }
+    }
+  }
+}
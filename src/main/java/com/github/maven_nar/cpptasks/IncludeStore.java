@@ -0,0 +1,78 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary store for the resolutions of an IncludeCache.
+ *
+ * <p>
+ * Each entry holds the include path identifier, the include name and the
+ * searched directories as interned strings, the index the name resolved to
+ * and the modification times of the searched directories. Later entries
+ * replace earlier ones for the same include path identifier and name.
+ * </p>
+ */
+public final class IncludeStore extends AbstractBinaryStore<IncludeCache.Entry> {
+  private static final int MAGIC = 0x4e415249; // "NARI"
+  private static final int VERSION = 1;
+
+  public IncludeStore(final File file) {
+    super(file, MAGIC, VERSION);
+  }
+
+  @Override
+  protected IncludeCache.Entry readEntry(final ByteBuffer buf) {
+    final String includePathIdentifier = string(buf.getInt());
+    final String includeName = string(buf.getInt());
+    final int index = buf.getInt();
+    final int count = buf.getInt();
+    if (count < 0 || count > buf.remaining() / 12) {
+      throw new BufferUnderflowException();
+    }
+    final String[] dirs = new String[count];
+    final long[] dirLastModified = new long[count];
+    for (int i = 0; i < count; i++) {
+      dirs[i] = string(buf.getInt());
+      dirLastModified[i] = buf.getLong();
+    }
+    return new IncludeCache.Entry(includePathIdentifier, includeName, index, dirs, dirLastModified);
+  }
+
+  @Override
+  protected void writeEntry(final DataOutputStream out, final DataOutputStream body, final IncludeCache.Entry entry)
+      throws IOException {
+    body.writeInt(intern(out, entry.getIncludePathIdentifier()));
+    body.writeInt(intern(out, entry.getIncludeName()));
+    body.writeInt(entry.getIndex());
+    final String[] dirs = entry.getDirs();
+    final long[] dirLastModified = entry.getDirLastModified();
+    body.writeInt(dirs.length);
+    for (int i = 0; i < dirs.length; i++) {
+      body.writeInt(intern(out, dirs[i]));
+      body.writeLong(dirLastModified[i]);
+    }
+  }
+}
@@ -0,0 +1,501 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content addressed store of object files shared between builds.
+ *
+ * <p>
+ * Objects are stored under a digest of everything that determines their
+ * content: the configuration identifier, which holds the compiler version
+ * and arguments, the path of the source and the contents of the source and
+ * the includes it depends on. Hits are restored by a hard link, or a copy
+ * where links are not possible. Once the store grows beyond its maximum
+ * size, the least recently used objects are removed.
+ * </p>
+ *
+ * <p>
+ * With a {@link BuildCacheBackend}, objects missing locally are fetched from
+ * the backend and new objects are published to it. Backend requests run on a
+ * few threads of their own, so that they overlap with compiling. Keys
+ * passed to {@link #prefetch(Collection)} are looked up in one request and
+ * their objects fetched before they are asked for.
+ * </p>
+ */
+public final class ObjectCache {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  /**
+   * Changes whenever the composition of the key changes.
+   */
+  private static final String KEY_VERSION = "2";
+  /**
+   * Number of concurrent backend requests.
+   */
+  private static final int BACKEND_THREADS = 4;
+
+  /**
+   * Copies a file under a temporary name next to its destination and then
+   * moves it into place, so that no reader ever sees a partial file.
+   */
+  static void copyIntoPlace(final File from, final File to) throws IOException {
+    final File toDir = to.getParentFile();
+    toDir.mkdirs();
+    final File temp = File.createTempFile("object", ".tmp", toDir);
+    try {
+      Files.copy(from.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.COPY_ATTRIBUTES);
+      moveIntoPlace(temp, to);
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (final NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static void moveIntoPlace(final File from, final File to) throws IOException {
+    try {
+      Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (final AtomicMoveNotSupportedException ex) {
+      Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static String toHex(final byte[] bytes) {
+    final char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX[bytes[i] >> 4 & 0xf];
+      chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+
+  private final File dir;
+  private final long maxSize;
+  /** digests of the files read during this build keyed by path */
+  private final ConcurrentHashMap<String, byte[]> digests = new ConcurrentHashMap<String, byte[]>();
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+  private final AtomicInteger stores = new AtomicInteger();
+  private final AtomicInteger backendFetches = new AtomicInteger();
+  private final AtomicInteger backendErrors = new AtomicInteger();
+  /** null if there is no backend */
+  private final BuildCacheBackend backend;
+  /** runs the backend requests, null if there is no backend */
+  private final ExecutorService executor;
+  /** fetches from the backend started during this build keyed by key */
+  private final ConcurrentHashMap<String, FutureTask<Boolean>> fetches =
+      new ConcurrentHashMap<String, FutureTask<Boolean>>();
+  /** publishes to the backend started during this build */
+  private final List<Future<?>> publishes = Collections.synchronizedList(new ArrayList<Future<?>>());
+
+  /**
+   * Constructor
+   *
+   * @param dir
+   *          directory of the store, may be shared by several builds
+   * @param maxSize
+   *          size in bytes the store is trimmed to
+   */
+  public ObjectCache(final File dir, final long maxSize) {
+    this(dir, maxSize, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param backend
+   *          shared store behind this cache, may be null
+   */
+  public ObjectCache(final File dir, final long maxSize, final BuildCacheBackend backend) {
+    if (dir == null) {
+      throw new NullPointerException("dir");
+    }
+    this.dir = dir;
+    this.maxSize = maxSize;
+    this.backend = backend;
+    if (backend != null) {
+      this.executor = Executors.newFixedThreadPool(BACKEND_THREADS, new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+          final Thread thread = new Thread(runnable, "Build cache");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    } else {
+      this.executor = null;
+    }
+  }
+
+  /**
+   * Waits for the objects stored during this build to be published and
+   * stops the backend threads.
+   */
+  public void close() {
+    if (this.executor == null) {
+      return;
+    }
+    final List<Future<?>> pending;
+    synchronized (this.publishes) {
+      pending = new ArrayList<Future<?>>(this.publishes);
+    }
+    try {
+      for (final Future<?> publish : pending) {
+        try {
+          publish.get();
+        } catch (final ExecutionException ex) {
+          this.backendErrors.incrementAndGet();
+        }
+      }
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } finally {
+      this.executor.shutdownNow();
+    }
+  }
+
+  private byte[] digest(final File file) throws IOException {
+    final String path = file.getPath();
+    byte[] digest = this.digests.get(path);
+    if (digest == null) {
+      final MessageDigest md = createDigest();
+      final byte[] buf = new byte[64 * 1024];
+      final InputStream in = new FileInputStream(file);
+      try {
+        int count;
+        while ((count = in.read(buf)) >= 0) {
+          md.update(buf, 0, count);
+        }
+      } finally {
+        in.close();
+      }
+      digest = md.digest();
+      this.digests.putIfAbsent(path, digest);
+    }
+    return digest;
+  }
+
+  /**
+   * Fetches the object of a key from the backend into this cache.
+   *
+   * @return true if the backend had the object
+   */
+  private boolean fetch(final String key) throws IOException {
+    final File entry = getEntry(key);
+    if (entry.isFile()) {
+      return true;
+    }
+    final File entryDir = entry.getParentFile();
+    entryDir.mkdirs();
+    final File temp = File.createTempFile("object", ".tmp", entryDir);
+    try {
+      if (!this.backend.fetch(key, temp)) {
+        return false;
+      }
+      moveIntoPlace(temp, entry);
+      this.backendFetches.incrementAndGet();
+      return true;
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+  }
+
+  /**
+   * Fetches the object of a key from the backend, or waits for a fetch
+   * that is already under way.
+   */
+  private boolean fetchFromBackend(final String key) {
+    if (this.executor == null) {
+      return false;
+    }
+    FutureTask<Boolean> fetch = this.fetches.get(key);
+    if (fetch == null) {
+      final FutureTask<Boolean> newFetch = new FutureTask<Boolean>(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws IOException {
+          return fetch(key);
+        }
+      });
+      fetch = this.fetches.putIfAbsent(key, newFetch);
+      if (fetch == null) {
+        fetch = newFetch;
+        fetch.run();
+      }
+    }
+    try {
+      return fetch.get();
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (final ExecutionException ex) {
+      this.backendErrors.incrementAndGet();
+      return false;
+    }
+  }
+
+  /**
+   * Number of failed backend requests.
+   */
+  public int getBackendErrors() {
+    return this.backendErrors.get();
+  }
+
+  /**
+   * Number of objects fetched from the backend.
+   */
+  public int getBackendFetches() {
+    return this.backendFetches.get();
+  }
+
+  public File getDir() {
+    return this.dir;
+  }
+
+  private File getEntry(final String key) {
+    return new File(new File(this.dir, key.substring(0, 2)), key.substring(2));
+  }
+
+  public int getHits() {
+    return this.hits.get();
+  }
+
+  /**
+   * Computes the key of an output.
+   *
+   * @param configIdentifier
+   *          identifier of the compiler or linker configuration
+   * @param path
+   *          path of the source or name of the output, sources paths end up
+   *          in debug information
+   * @param inputs
+   *          files the output is built from, in a stable order
+   * @return hex digest
+   */
+  public String getKey(final String configIdentifier, final String path, final Collection<File> inputs)
+      throws IOException {
+    final MessageDigest md = createDigest();
+    md.update(KEY_VERSION.getBytes(UTF8));
+    md.update((byte) 0);
+    md.update(configIdentifier.getBytes(UTF8));
+    md.update((byte) 0);
+    md.update(path.getBytes(UTF8));
+    for (final File input : inputs) {
+      md.update((byte) 0);
+      md.update(input.getPath().getBytes(UTF8));
+      md.update(digest(input));
+    }
+    return toHex(md.digest());
+  }
+
+  public int getMisses() {
+    return this.misses.get();
+  }
+
+  public int getStores() {
+    return this.stores.get();
+  }
+
+  /**
+   * Starts looking up keys in the backend and fetching the objects it has,
+   * so that they are available locally when they are restored.
+   */
+  public void prefetch(final Collection<String> keys) {
+    if (this.executor == null) {
+      return;
+    }
+    final List<String> missing = new ArrayList<String>(keys.size());
+    for (final String key : keys) {
+      if (!this.fetches.containsKey(key) && !getEntry(key).isFile()) {
+        missing.add(key);
+      }
+    }
+    if (missing.isEmpty()) {
+      return;
+    }
+    final Future<Set<String>> lookup = this.executor.submit(new Callable<Set<String>>() {
+      @Override
+      public Set<String> call() throws IOException {
+        return ObjectCache.this.backend.contains(missing);
+      }
+    });
+    for (final String key : missing) {
+      final FutureTask<Boolean> fetch = new FutureTask<Boolean>(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          return lookup.get().contains(key) && fetch(key);
+        }
+      });
+      if (this.fetches.putIfAbsent(key, fetch) == null) {
+        this.executor.execute(fetch);
+      }
+    }
+  }
+
+  /**
+   * Restores a stored object, fetching it from the backend if it is not
+   * stored locally.
+   *
+   * @return true if the object was found and restored to output
+   */
+  public boolean restore(final String key, final File output) throws IOException {
+    final File entry = getEntry(key);
+    if (!entry.isFile()) {
+      if (!fetchFromBackend(key)) {
+        this.misses.incrementAndGet();
+        return false;
+      }
+    }
+    Files.deleteIfExists(output.toPath());
+    try {
+      Files.createLink(output.toPath(), entry.toPath());
+    } catch (final NoSuchFileException ex) {
+      //
+      // removed by another build in the meantime
+      //
+      this.misses.incrementAndGet();
+      return false;
+    } catch (final IOException ex) {
+      Files.copy(entry.toPath(), output.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+    } catch (final UnsupportedOperationException ex) {
+      Files.copy(entry.toPath(), output.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+    }
+    //
+    // marks the entry as recently used and the object
+    // as newer than the history of the object directory
+    //
+    final long now = System.currentTimeMillis();
+    entry.setLastModified(now);
+    output.setLastModified(now);
+    this.hits.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Stores a copy of an object, unless one is already stored under the key,
+   * and publishes it to the backend in the background. The copy is moved
+   * into place, so that concurrent builds never see a partial object.
+   */
+  public void store(final String key, final File output) throws IOException {
+    final File entry = getEntry(key);
+    if (entry.exists()) {
+      return;
+    }
+    copyIntoPlace(output, entry);
+    this.stores.incrementAndGet();
+    if (this.executor != null) {
+      this.publishes.add(this.executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          ObjectCache.this.backend.publish(key, entry);
+          return null;
+        }
+      }));
+    }
+  }
+
+  /**
+   * Removes the least recently used objects once the store exceeds its
+   * maximum size, until it is a tenth below it, so that it is not trimmed by
+   * every build.
+   *
+   * @return number of objects removed
+   */
+  public int trim() {
+    final List<File> entries = new ArrayList<File>();
+    long size = 0;
+    final File[] entryDirs = this.dir.listFiles();
+    if (entryDirs == null) {
+      return 0;
+    }
+    for (final File entryDir : entryDirs) {
+      final File[] files = entryDir.listFiles();
+      if (files != null) {
+        for (final File file : files) {
+          if (file.isFile() && !file.getName().endsWith(".tmp")) {
+            entries.add(file);
+            size += file.length();
+          }
+        }
+      }
+    }
+    if (size <= this.maxSize) {
+      return 0;
+    }
+    final Map<File, Long> lastModified = new HashMap<File, Long>();
+    for (final File entry : entries) {
+      lastModified.put(entry, entry.lastModified());
+    }
+    Collections.sort(entries, new Comparator<File>() {
+      @Override
+      public int compare(final File f0, final File f1) {
+        return Long.compare(lastModified.get(f0), lastModified.get(f1));
+      }
+    });
+    final long target = this.maxSize - this.maxSize / 10;
+    int removed = 0;
+    for (final File entry : entries) {
+      if (size <= target) {
+        break;
+      }
+      final long length = entry.length();
+      if (entry.delete()) {
+        size -= length;
+        removed++;
+      }
+    }
+    return removed;
+  }
+}
@@ -23,6 +23,7 @@ import java.io.File;
 import java.util.Enumeration;
 import java.util.Vector;
 
+import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.types.DataType;
@@ -36,12 +37,18 @@ import com.github.maven_nar.cpptasks.types.ConditionalFileSet;
  * @author Curt Arnold
  */
 public final class PrecompileDef extends DataType {
+  private boolean auto;
   private final Vector exceptSets = new Vector();
   private String ifCond;
   /**
    * Directory of prototype file
    */
   private File prototype = new File("stdafx.cpp");
+  /**
+   * Percentage of the sources that must include a header for it to be
+   * precompiled in auto mode
+   */
+  private int threshold = 50;
   private String unlessCond;
 
   /**
@@ -124,6 +131,19 @@ public final class PrecompileDef extends DataType {
     return this.prototype;
   }
 
+  /**
+   * Gets the percentage of the sources that must include a header for it to
+   * be precompiled in auto mode
+   * 
+   */
+  public int getThreshold() {
+    final PrecompileDef ref = getRef();
+    if (ref != null) {
+      return ref.getThreshold();
+    }
+    return this.threshold;
+  }
+
   private PrecompileDef getRef() {
     if (isReference()) {
       return (PrecompileDef) getCheckedRef(PrecompileDef.class, "PrecompileDef");
@@ -131,6 +151,19 @@ public final class PrecompileDef extends DataType {
     return null;
   }
 
+  /**
+   * Gets whether the precompiled header is synthesized from the most widely
+   * included headers instead of the prototype
+   * 
+   */
+  public boolean isAuto() {
+    final PrecompileDef ref = getRef();
+    if (ref != null) {
+      return ref.isAuto();
+    }
+    return this.auto;
+  }
+
   public boolean isActive() {
     final boolean isActive = CUtil.isActive(getProject(), this.ifCond, this.unlessCond);
     if (!isActive) {
@@ -142,6 +175,24 @@ public final class PrecompileDef extends DataType {
     return isActive;
   }
 
+  /**
+   * Sets whether the precompiled header is synthesized.
+   * 
+   * If true, the headers included by at least threshold percent of the
+   * sources are collected into a generated header that is precompiled and
+   * forced into every source, the prototype is ignored. Only supported by
+   * compilers that can force an include. Default value is false.
+   * 
+   * @param auto
+   *          true to synthesize the precompiled header
+   */
+  public void setAuto(final boolean auto) {
+    if (isReference()) {
+      throw tooManyAttributes();
+    }
+    this.auto = auto;
+  }
+
   /**
    * Sets a description of the current data type.
    */
@@ -211,6 +262,23 @@ public final class PrecompileDef extends DataType {
     super.setRefid(ref);
   }
 
+  /**
+   * Sets the percentage of the sources that must include a header for it to
+   * be precompiled in auto mode. Default value is 50.
+   * 
+   * @param threshold
+   *          percentage between 1 and 100
+   */
+  public void setThreshold(final int threshold) {
+    if (isReference()) {
+      throw tooManyAttributes();
+    }
+    if (threshold < 1 || threshold > 100) {
+      throw new BuildException("threshold must be between 1 and 100");
+    }
+    this.threshold = threshold;
+  }
+
   /**
    * Set the 'unless' condition. If named property exists at execution time,
    * the processor will be ignored.
@@ -30,26 +30,42 @@ import java.io.IOException;
 public final class SourceHistory {
   private final/* final */long lastModified;
   private final/* final */String relativePath;
+  private final long contentHash;
 
   /**
    * Constructor
    */
   public SourceHistory(final String relativePath, final long lastModified) {
+    this(relativePath, lastModified, 0);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param contentHash
+   *          hash from {@link CUtil#getContentHash(File)}, 0 if unknown
+   */
+  public SourceHistory(final String relativePath, final long lastModified, final long contentHash) {
     if (relativePath == null) {
       throw new NullPointerException("relativePath");
     }
     this.relativePath = relativePath;
     this.lastModified = lastModified;
+    this.contentHash = contentHash;
   }
 
   public String getAbsolutePath(final File baseDir) {
     try {
-      return new File(baseDir, this.relativePath).getCanonicalPath();
+      return CUtil.getCanonicalPath(new File(baseDir, this.relativePath));
     } catch (final IOException ex) {
     }
     return this.relativePath;
   }
 
+  public long getContentHash() {
+    return this.contentHash;
+  }
+
   public long getLastModified() {
     return this.lastModified;
   }
@@ -0,0 +1,78 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary store for the TargetHistory records of a TargetHistoryTable.
+ *
+ * <p>
+ * Each entry holds the processor configuration, the output and the relative
+ * source paths as interned strings and all timestamps and content hashes as
+ * fixed-width longs.
+ * Later entries replace earlier ones for the same output.
+ * </p>
+ */
+public final class TargetHistoryStore extends AbstractBinaryStore<TargetHistory> {
+  private static final int MAGIC = 0x4e415248; // "NARH"
+  private static final int VERSION = 2;
+
+  public TargetHistoryStore(final File file) {
+    super(file, MAGIC, VERSION);
+  }
+
+  @Override
+  protected TargetHistory readEntry(final ByteBuffer buf) {
+    final String config = string(buf.getInt());
+    final String output = string(buf.getInt());
+    final long outputLastModified = buf.getLong();
+    final int count = buf.getInt();
+    if (count < 0 || count > buf.remaining() / 20) {
+      throw new BufferUnderflowException();
+    }
+    final SourceHistory[] sources = new SourceHistory[count];
+    for (int i = 0; i < count; i++) {
+      final String relativePath = string(buf.getInt());
+      final long lastModified = buf.getLong();
+      sources[i] = new SourceHistory(relativePath, lastModified, buf.getLong());
+    }
+    return new TargetHistory(config, output, outputLastModified, sources);
+  }
+
+  @Override
+  protected void writeEntry(final DataOutputStream out, final DataOutputStream body, final TargetHistory history)
+      throws IOException {
+    body.writeInt(intern(out, history.getProcessorConfiguration()));
+    body.writeInt(intern(out, history.getOutput()));
+    body.writeLong(history.getOutputLastModified());
+    final SourceHistory[] sources = history.getSources();
+    body.writeInt(sources.length);
+    for (final SourceHistory source : sources) {
+      body.writeInt(intern(out, source.getRelativePath()));
+      body.writeLong(source.getLastModified());
+      body.writeLong(source.getContentHash());
+    }
+  }
+}
@@ -19,16 +19,12 @@
  */
 package com.github.maven_nar.cpptasks;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
-import java.util.Enumeration;
+import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 
@@ -84,27 +80,12 @@ public final class TargetHistoryTable {
       //
       if (qName.equals("target")) {
         if (this.config != null && this.output != null) {
-          final File existingFile = new File(this.baseDir, this.output);
-          //
-          // if the corresponding files doesn't exist or has a
-          // different
-          // modification time, then discard this record
-          if (existingFile.exists()) {
-            //
-            // would have expected exact time stamps
-            // but have observed slight differences
-            // in return value for multiple evaluations of
-            // lastModified(). Check if times are within
-            // a second
-            final long existingLastModified = existingFile.lastModified();
-            if (!CUtil.isSignificantlyBefore(existingLastModified, this.outputLastModified)
-                && !CUtil.isSignificantlyAfter(existingLastModified, this.outputLastModified)) {
-              final SourceHistory[] sourcesArray = new SourceHistory[this.sources.size()];
-              this.sources.copyInto(sourcesArray);
-              final TargetHistory targetHistory = new TargetHistory(this.config, this.output, this.outputLastModified,
-                  sourcesArray);
-              this.history.put(this.output, targetHistory);
-            }
+          if (isCurrent(this.baseDir, this.output, this.outputLastModified)) {
+            final SourceHistory[] sourcesArray = new SourceHistory[this.sources.size()];
+            this.sources.copyInto(sourcesArray);
+            final TargetHistory targetHistory = new TargetHistory(this.config, this.output, this.outputLastModified,
+                sourcesArray);
+            this.history.put(this.output, targetHistory);
           }
         }
         this.output = null;
@@ -156,10 +137,53 @@ public final class TargetHistoryTable {
     }
   }
 
+  /**
+   * Once the binary store holds this many more entries than are live, it is
+   * rewritten instead of appended to.
+   */
+  private static final int COMPACTION_SLACK = 256;
+
+  /**
+   * Determines whether a recorded output still exists with the recorded
+   * modification time.
+   */
+  private static boolean isCurrent(final File baseDir, final String output, final long outputLastModified) {
+    final File existingFile = new File(baseDir, output);
+    //
+    // if the corresponding files doesn't exist or has a
+    // different
+    // modification time, then discard this record
+    if (existingFile.exists()) {
+      //
+      // would have expected exact time stamps
+      // but have observed slight differences
+      // in return value for multiple evaluations of
+      // lastModified(). Check if times are within
+      // a second
+      final long existingLastModified = existingFile.lastModified();
+      return !CUtil.isSignificantlyBefore(existingLastModified, outputLastModified)
+          && !CUtil.isSignificantlyAfter(existingLastModified, outputLastModified);
+    }
+    return false;
+  }
+
   /**
    * Flag indicating whether the cache should be written back to file.
    */
   private boolean dirty;
+  /**
+   * Flag indicating the binary store has to be written from scratch.
+   */
+  private boolean rewrite;
+  /**
+   * Histories added or replaced since the last commit.
+   */
+  private final List<TargetHistory> changed = new ArrayList<TargetHistory>();
+  /**
+   * Flag indicating whether sources whose modification time changed are
+   * compared by content before forcing a rebuild.
+   */
+  private boolean contentHash;
   /**
    * a hashtable of TargetHistory's keyed by output file name
    */
@@ -168,12 +192,18 @@ public final class TargetHistoryTable {
    * The file the cache was loaded from.
    */
   private final/* final */File historyFile;
+  /**
+   * The XML file the cache was loaded from by earlier versions.
+   */
+  private final File xmlHistoryFile;
+  private final TargetHistoryStore store;
   private final/* final */File outputDir;
   private String outputDirPath;
 
   /**
-   * Creates a target history table from history.xml in the output directory,
-   * if it exists. Otherwise, initializes the history table empty.
+   * Creates a target history table from history.bin in the output directory,
+   * or from history.xml written by earlier versions, if either exists.
+   * Otherwise, initializes the history table empty.
    *
    * @param task
    *          task used for logging history load errors
@@ -194,7 +224,7 @@ public final class TargetHistoryTable {
     }
     this.outputDir = outputDir;
     try {
-      this.outputDirPath = outputDir.getCanonicalPath();
+      this.outputDirPath = CUtil.getCanonicalPath(outputDir);
     } catch (final IOException ex) {
       this.outputDirPath = outputDir.toString();
     }
@@ -203,19 +233,49 @@ public final class TargetHistoryTable {
     // suppressing any records whose corresponding
     // file does not exist, is zero-length or
     // last modified dates differ
-    this.historyFile = new File(outputDir, "history.xml");
+    this.historyFile = new File(outputDir, "history.bin");
+    this.xmlHistoryFile = new File(outputDir, "history.xml");
+    this.store = new TargetHistoryStore(this.historyFile);
 
     if (this.historyFile.exists()) {
+      try {
+        for (final TargetHistory targetHistory : this.store.load()) {
+          if (isCurrent(outputDir, targetHistory.getOutput(), targetHistory.getOutputLastModified())) {
+            this.history.put(targetHistory.getOutput(), targetHistory);
+          } else {
+            this.history.remove(targetHistory.getOutput());
+          }
+        }
+        return;
+      } catch (final IOException ex) {
+        //
+        // a failure on loading this history is not critical
+        // but should be logged
+        this.history.clear();
+        if (task != null) {
+          task.log("Error reading history.bin: " + ex.toString());
+        }
+      }
+    }
+    //
+    // anything loaded from here on has to be
+    // written to a fresh store on commit
+    //
+    this.rewrite = true;
+    if (this.xmlHistoryFile.exists()) {
+      this.dirty = true;
       final SAXParserFactory factory = SAXParserFactory.newInstance();
       factory.setValidating(false);
       try {
         final SAXParser parser = factory.newSAXParser();
-        parser.parse(this.historyFile, new TargetHistoryTableHandler(this.history, outputDir));
+        parser.parse(this.xmlHistoryFile, new TargetHistoryTableHandler(this.history, outputDir));
       } catch (final Exception ex) {
         //
         // a failure on loading this history is not critical
         // but should be logged
-        task.log("Error reading history.xml: " + ex.toString());
+        if (task != null) {
+          task.log("Error reading history.xml: " + ex.toString());
+        }
       }
     } else {
       //
@@ -224,98 +284,41 @@ public final class TargetHistoryTable {
       // timestamp comperation (to compare with
       // System.currentTimeMillis() don't work on Unix, because it
       // maesure timestamps only in seconds).
-      // try {
-
       try {
-        final File temp = File.createTempFile("history.xml", Long.toString(System.nanoTime()), outputDir);
-        final FileWriter writer = new FileWriter(temp);
-        try {
-          writer.write("<history/>");
-        } finally {
-          writer.close();
-        }
-        if (!temp.renameTo(this.historyFile)) {
-          throw new IOException("Could not rename " + temp + " to " + this.historyFile);
-        }
+        this.store.rewrite(this.changed);
       } catch (final IOException ex) {
         throw new BuildException("Can't create history file", ex);
       }
     }
   }
 
-  public void commit() throws IOException {
+  /**
+   * Writes the histories changed since the last commit to history.bin. The
+   * store is rewritten when it was migrated from history.xml or holds too
+   * many superseded entries, otherwise the changed histories are appended.
+   */
+  public synchronized void commit() throws IOException {
     //
     // if not dirty, no need to update file
     //
     if (this.dirty) {
-      //
-      // build (small) hashtable of config id's in history
-      //
-      final Hashtable<String, String> configs = new Hashtable<String, String>(20);
-      Enumeration<TargetHistory> elements = this.history.elements();
-      while (elements.hasMoreElements()) {
-        final TargetHistory targetHistory = elements.nextElement();
-        final String configId = targetHistory.getProcessorConfiguration();
-        if (configs.get(configId) == null) {
-          configs.put(configId, configId);
-        }
-      }
-      final FileOutputStream outStream = new FileOutputStream(this.historyFile);
-      OutputStreamWriter outWriter;
-      //
-      // early VM's don't support UTF-8 encoding
-      // try and fallback to the default encoding
-      // otherwise
-      String encodingName = "UTF-8";
       try {
-        outWriter = new OutputStreamWriter(outStream, "UTF-8");
-      } catch (final UnsupportedEncodingException ex) {
-        outWriter = new OutputStreamWriter(outStream);
-        encodingName = outWriter.getEncoding();
-      }
-      final BufferedWriter writer = new BufferedWriter(outWriter);
-      writer.write("<?xml version='1.0' encoding='");
-      writer.write(encodingName);
-      writer.write("'?>\n");
-      writer.write("<history>\n");
-      final StringBuffer buf = new StringBuffer(200);
-      final Enumeration<String> configEnum = configs.elements();
-      while (configEnum.hasMoreElements()) {
-        final String configId = configEnum.nextElement();
-        buf.setLength(0);
-        buf.append("   <processor signature=\"");
-        buf.append(CUtil.xmlAttribEncode(configId));
-        buf.append("\">\n");
-        writer.write(buf.toString());
-        elements = this.history.elements();
-        while (elements.hasMoreElements()) {
-          final TargetHistory targetHistory = elements.nextElement();
-          if (targetHistory.getProcessorConfiguration().equals(configId)) {
-            buf.setLength(0);
-            buf.append("      <target file=\"");
-            buf.append(CUtil.xmlAttribEncode(targetHistory.getOutput()));
-            buf.append("\" lastModified=\"");
-            buf.append(Long.toHexString(targetHistory.getOutputLastModified()));
-            buf.append("\">\n");
-            writer.write(buf.toString());
-            final SourceHistory[] sourceHistories = targetHistory.getSources();
-            for (final SourceHistory sourceHistorie : sourceHistories) {
-              buf.setLength(0);
-              buf.append("         <source file=\"");
-              buf.append(CUtil.xmlAttribEncode(sourceHistorie.getRelativePath()));
-              buf.append("\" lastModified=\"");
-              buf.append(Long.toHexString(sourceHistorie.getLastModified()));
-              buf.append("\"/>\n");
-              writer.write(buf.toString());
-            }
-            writer.write("      </target>\n");
-          }
+        final int entries = this.store.getEntryCount() + this.changed.size();
+        if (this.rewrite || entries > this.history.size() * 2 + COMPACTION_SLACK) {
+          this.store.rewrite(this.history.values());
+        } else {
+          this.store.append(this.changed);
         }
-        writer.write("   </processor>\n");
+      } catch (final IOException ex) {
+        this.rewrite = true;
+        throw ex;
       }
-      writer.write("</history>\n");
-      writer.close();
+      this.changed.clear();
       this.dirty = false;
+      if (this.rewrite) {
+        this.rewrite = false;
+        this.xmlHistoryFile.delete();
+      }
     }
   }
 
@@ -358,36 +361,63 @@ public final class TargetHistoryTable {
           final Hashtable<String, File> sourceMap = new Hashtable<String, File>(sources.length);
           for (final File source : sources) {
             try {
-              sourceMap.put(source.getCanonicalPath(), source);
+              sourceMap.put(CUtil.getCanonicalPath(source), source);
             } catch (final IOException ex) {
               sourceMap.put(source.getAbsolutePath(), source);
             }
           }
-          for (final SourceHistory sourceHistorie : sourceHistories) {
+          SourceHistory[] touched = null;
+          for (int i = 0; i < sourceHistories.length; i++) {
+            final SourceHistory sourceHistorie = sourceHistories[i];
             //
             // relative file name, must absolutize it on output
             // directory
             //
             final String absPath = sourceHistorie.getAbsolutePath(this.outputDir);
-            File match = sourceMap.get(absPath);
-            if (match != null) {
-              try {
-                match = sourceMap.get(new File(absPath).getCanonicalPath());
-              } catch (final IOException ex) {
+            final File match = sourceMap.get(absPath);
+            if (match == null) {
+              targetInfo.mustRebuild();
+              break;
+            }
+            final long lastModified = match.lastModified();
+            if (lastModified != sourceHistorie.getLastModified()) {
+              //
+              // a touched but unchanged source does not need a rebuild,
+              // only the recorded time has to follow the file
+              //
+              final long hash = sourceHistorie.getContentHash();
+              if (!this.contentHash || hash == 0 || hash != CUtil.getContentHash(match)) {
                 targetInfo.mustRebuild();
                 break;
               }
-            }
-            if (match == null || match.lastModified() != sourceHistorie.getLastModified()) {
-              targetInfo.mustRebuild();
-              break;
+              if (touched == null) {
+                touched = sourceHistories.clone();
+              }
+              touched[i] = new SourceHistory(sourceHistorie.getRelativePath(), lastModified, hash);
             }
           }
+          if (touched != null && !targetInfo.getRebuild()) {
+            final TargetHistory newHistory = new TargetHistory(history.getProcessorConfiguration(),
+                history.getOutput(), history.getOutputLastModified(), touched);
+            this.history.put(newHistory.getOutput(), newHistory);
+            this.changed.add(newHistory);
+            this.dirty = true;
+          }
         }
       }
     }
   }
 
+  /**
+   * Enables comparing sources by content when their modification time
+   * differs from the recorded one, so that touched but unchanged sources do
+   * not cause a rebuild. Hashes are recorded for sources updated after this
+   * is enabled.
+   */
+  public void setContentHash(final boolean contentHash) {
+    this.contentHash = contentHash;
+  }
+
   public void update(final ProcessorConfiguration config, final String[] sources, final VersionInfo versionInfo) {
     final String configId = config.getIdentifier();
     final String[] onesource = new String[1];
@@ -417,11 +447,13 @@ public final class TargetHistoryTable {
         final File sourceFile = new File(sources[i]);
         final long lastModified = sourceFile.lastModified();
         final String relativePath = CUtil.getRelativePath(this.outputDirPath, sourceFile);
-        sourceHistories[i] = new SourceHistory(relativePath, lastModified);
+        final long hash = this.contentHash ? CUtil.getContentHash(sourceFile) : 0;
+        sourceHistories[i] = new SourceHistory(relativePath, lastModified, hash);
       }
       final TargetHistory newHistory = new TargetHistory(configId, outputName, outputFile.lastModified(),
           sourceHistories);
       this.history.put(outputName, newHistory);
+      this.changed.add(newHistory);
     }
   }
 
@@ -437,10 +469,11 @@ public final class TargetHistoryTable {
     if (outputFile.exists() && !CUtil.isSignificantlyBefore(outputFile.lastModified(), this.historyFile.lastModified())) {
       this.dirty = true;
       this.history.remove(outputName);
-      final SourceHistory[] sourceHistories = linkTarget.getSourceHistories(this.outputDirPath);
+      final SourceHistory[] sourceHistories = linkTarget.getSourceHistories(this.outputDirPath, this.contentHash);
       final TargetHistory newHistory = new TargetHistory(linkTarget.getConfiguration().getIdentifier(), outputName,
           outputFile.lastModified(), sourceHistories);
       this.history.put(outputName, newHistory);
+      this.changed.add(newHistory);
     }
   }
 }
@@ -103,11 +103,20 @@ public final class TargetInfo {
    * last modified time) for the source[s] of this target
    */
   public SourceHistory[] getSourceHistories(final String basePath) {
+    return getSourceHistories(basePath, false);
+  }
+
+  /**
+   * Returns the histories of the sources, including a hash of their content
+   * if contentHash is set.
+   */
+  public SourceHistory[] getSourceHistories(final String basePath, final boolean contentHash) {
     final SourceHistory[] histories = new SourceHistory[this.sources.length];
     for (int i = 0; i < this.sources.length; i++) {
       final String relativeName = CUtil.getRelativePath(basePath, this.sources[i]);
       final long lastModified = this.sources[i].lastModified();
-      histories[i] = new SourceHistory(relativeName, lastModified);
+      final long hash = contentHash ? CUtil.getContentHash(this.sources[i]) : 0;
+      histories[i] = new SourceHistory(relativeName, lastModified, hash);
     }
     return histories;
   }
@@ -33,7 +33,7 @@ import com.github.maven_nar.cpptasks.compiler.LinkType;
 import com.github.maven_nar.cpptasks.compiler.Linker;
 import com.github.maven_nar.cpptasks.compiler.Processor;
 import com.github.maven_nar.cpptasks.compiler.ProgressMonitor;
-import com.github.maven_nar.cpptasks.parser.CParser;
+import com.github.maven_nar.cpptasks.parser.IncludeScanner;
 import com.github.maven_nar.cpptasks.parser.Parser;
 
 /**
@@ -90,7 +90,7 @@ public class BorlandResourceCompiler extends CommandLineCompiler {
    */
   @Override
   protected Parser createParser(final File source) {
-    return new CParser();
+    return new IncludeScanner();
   }
 
   @Override
@@ -32,9 +32,11 @@ import com.github.maven_nar.cpptasks.CCTask;
 import com.github.maven_nar.cpptasks.CUtil;
 import com.github.maven_nar.cpptasks.CompilerDef;
 import com.github.maven_nar.cpptasks.DependencyInfo;
+import com.github.maven_nar.cpptasks.IncludeCache;
 import com.github.maven_nar.cpptasks.ProcessorDef;
 import com.github.maven_nar.cpptasks.TargetDef;
 import com.github.maven_nar.cpptasks.VersionInfo;
+import com.github.maven_nar.cpptasks.parser.IncludeScanner;
 import com.github.maven_nar.cpptasks.parser.Parser;
 
 /**
@@ -136,13 +138,22 @@ public abstract class AbstractCompiler extends AbstractProcessor implements Comp
     // change the sourceLastModified to Long.MAX_VALUE to
     // force recompilation of anything that depends on it
     long sourceLastModified = source.lastModified();
-    final File[] sourcePath = new File[1];
-    sourcePath[0] = new File(source.getParent());
+    final File sourceDir = new File(source.getParent());
+    final IncludeCache includeCache = task.getIncludeCache();
+    //
+    // search path after the directory of the source,
+    // entries before sysStart go on the include path
+    //
+    final int sysStart = includePath.length;
+    final File[] searchPath = new File[includePath.length + sysIncludePath.length + envIncludePath.length];
+    System.arraycopy(includePath, 0, searchPath, 0, includePath.length);
+    System.arraycopy(sysIncludePath, 0, searchPath, sysStart, sysIncludePath.length);
+    System.arraycopy(envIncludePath, 0, searchPath, sysStart + sysIncludePath.length, envIncludePath.length);
     final Vector onIncludePath = new Vector();
     final Vector onSysIncludePath = new Vector();
     String baseDirPath;
     try {
-      baseDirPath = baseDir.getCanonicalPath();
+      baseDirPath = CUtil.getCanonicalPath(baseDir);
     } catch (final IOException ex) {
       baseDirPath = baseDir.toString();
     }
@@ -151,8 +162,7 @@ public abstract class AbstractCompiler extends AbstractProcessor implements Comp
     if (canParse(source)) {
       final Parser parser = createParser(source);
       try {
-        final Reader reader = new BufferedReader(new FileReader(source));
-        parser.parse(reader);
+        parse(parser, source);
         includes = parser.getIncludes();
       } catch (final IOException ex) {
         task.log("Error parsing " + source.toString() + ":" + ex.toString());
@@ -161,17 +171,20 @@ public abstract class AbstractCompiler extends AbstractProcessor implements Comp
     }
     for (final String include : includes) {
       final String includeName = include;
-      if (!resolveInclude(includeName, sourcePath, onIncludePath)) {
-        if (!resolveInclude(includeName, includePath, onIncludePath)) {
-          if (!resolveInclude(includeName, sysIncludePath, onSysIncludePath)) {
-            if (!resolveInclude(includeName, envIncludePath, onSysIncludePath)) {
-              //
-              // this should be enough to require us to reparse
-              // the file with the missing include for dependency
-              // information without forcing a rebuild
-              sourceLastModified += 2 * CUtil.FILETIME_EPSILON;
-            }
-          }
+      if (includeCache.exists(sourceDir, includeName)) {
+        onIncludePath.addElement(new File(sourceDir, includeName));
+      } else {
+        final int index = includeCache.resolve(includePathIdentifier, includeName, searchPath);
+        if (index < 0) {
+          //
+          // this should be enough to require us to reparse
+          // the file with the missing include for dependency
+          // information without forcing a rebuild
+          sourceLastModified += 2 * CUtil.FILETIME_EPSILON;
+        } else if (index < sysStart) {
+          onIncludePath.addElement(new File(searchPath[index], includeName));
+        } else {
+          onSysIncludePath.addElement(new File(searchPath[index], includeName));
         }
       }
     }
@@ -187,15 +200,21 @@ public abstract class AbstractCompiler extends AbstractProcessor implements Comp
         onSysIncludePath);
   }
 
-  protected boolean resolveInclude(final String includeName, final File[] includePath, final Vector onThisPath) {
-    for (final File element : includePath) {
-      final File includeFile = new File(element, includeName);
-      if (includeFile.exists()) {
-        onThisPath.addElement(includeFile);
-        return true;
-      }
+  /**
+   * Parses a file, letting an IncludeScanner read the bytes of the file
+   * directly.
+   */
+  protected static void parse(final Parser parser, final File source) throws IOException {
+    if (parser instanceof IncludeScanner) {
+      ((IncludeScanner) parser).parse(source);
+      return;
+    }
+    final Reader reader = new BufferedReader(new FileReader(source));
+    try {
+      parser.parse(reader);
+    } finally {
+      reader.close();
     }
-    return false;
   }
 
   public final String getOutputSuffix() {
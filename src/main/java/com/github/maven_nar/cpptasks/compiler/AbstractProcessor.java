@@ -52,7 +52,7 @@ public abstract class AbstractProcessor implements Processor, Cloneable {
   protected static String getIdentifier(final String[] command, final String fallback) {
     String identifier = fallback;
     try {
-      final String[] cmdout = CaptureStreamHandler.run(command);
+      final String[] cmdout = ToolchainProbes.run(command);
       if (cmdout.length > 0) {
         identifier = cmdout[0];
       }
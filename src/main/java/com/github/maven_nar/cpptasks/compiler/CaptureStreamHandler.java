@@ -20,12 +20,10 @@
 // BEGINFREEHEP, fully replaced with a runner with threads
 package com.github.maven_nar.cpptasks.compiler;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.util.Vector;
+import java.util.concurrent.Future;
 
 import org.apache.tools.ant.taskdefs.Execute;
 import org.apache.tools.ant.taskdefs.ExecuteStreamHandler;
@@ -38,36 +36,11 @@ import org.apache.tools.ant.taskdefs.ExecuteStreamHandler;
  */
 public class CaptureStreamHandler implements ExecuteStreamHandler {
 
-  static class Copier extends Thread {
-    InputStream is;
-
-    Vector<String> lines;
-
-    Copier(final InputStream is) {
-      this.is = is;
-      this.lines = new Vector<String>(10);
-    }
-
-    public Vector<String> getLines() {
-      return this.lines;
-    }
-
-    @Override
-    public void run() {
-      try {
-        final BufferedReader reader = new BufferedReader(new InputStreamReader(this.is));
-        while (true) {
-          final String line = reader.readLine();
-          if (line == null) {
-            break;
-          }
-          this.lines.addElement(line);
-        }
-      } catch (final IOException e) {
-        // Ignore
-      }
-    }
-  }
+  /**
+   * Lines kept of each output, the rest of a longer output is dropped from
+   * the start.
+   */
+  static final int MAX_LINES = 10000;
 
   /**
    * Executes the given command, capturing the output using a newly allocated
@@ -87,7 +60,7 @@ public class CaptureStreamHandler implements ExecuteStreamHandler {
     final Execute exec = new Execute(handler);
     exec.setCommandline(cmdline);
     try {
-      final int status = exec.execute();
+      handler.exitValue = exec.execute();
     } catch (final IOException ex) {
     }
     return handler;
@@ -110,6 +83,8 @@ public class CaptureStreamHandler implements ExecuteStreamHandler {
 
   private String[] stdout;
 
+  private int exitValue = -1;
+
   private InputStream processErrorStream;
 
   private InputStream processOutputStream;
@@ -117,29 +92,47 @@ public class CaptureStreamHandler implements ExecuteStreamHandler {
   public CaptureStreamHandler() {
   }
 
+  /**
+   * Creates a handler holding the output of an earlier execution.
+   */
+  CaptureStreamHandler(final String[] stdout, final String[] stderr, final int exitValue) {
+    this.stdout = stdout;
+    this.stderr = stderr;
+    this.exitValue = exitValue;
+  }
+
   /**
    * Reads concurrently both the process standard output and standard error.
    * The standard error is copied to the stderr string array field.
-   * The standard output is copied to the stdout string array field.
+   * The standard output is copied to the stdout string array field, each
+   * keeping at most the last MAX_LINES lines.
    * Both fields are set to an empty array in case of any error.
    */
   public void gatherOutput() {
     try {
-      final Copier errorCopier = new Copier(this.processErrorStream);
-      final Copier outputCopier = new Copier(this.processOutputStream);
-      errorCopier.start();
-      outputCopier.start();
-      errorCopier.join();
-      outputCopier.join();
-      this.stderr = new String[errorCopier.getLines().size()];
-      errorCopier.getLines().copyInto(this.stderr);
-      this.stdout = new String[outputCopier.getLines().size()];
-      outputCopier.getLines().copyInto(this.stdout);
+      final OutputPump.Tail errorTail = new OutputPump.Tail(MAX_LINES);
+      final OutputPump.Tail outputTail = new OutputPump.Tail(MAX_LINES);
+      final Future<?> errorPump = OutputPump.start(this.processErrorStream, errorTail);
+      final Future<?> outputPump = OutputPump.start(this.processOutputStream, outputTail);
+      if (OutputPump.await(errorPump, 0) && OutputPump.await(outputPump, 0)) {
+        this.stderr = errorTail.getLines();
+        this.stdout = outputTail.getLines();
+      } else {
+        this.stderr = this.stdout = new String[0];
+      }
     } catch (final Exception e) {
       this.stderr = this.stdout = new String[0];
     }
   }
 
+  /**
+   * Gets the exit value of the execution, -1 if the command could not be
+   * run.
+   */
+  public int getExitValue() {
+    return this.exitValue;
+  }
+
   /**
    * Gets the output of the execution. If standard error is not empty,
    * it is returned; otherwise, standard output is returned.
@@ -21,12 +21,21 @@ package com.github.maven_nar.cpptasks.compiler;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import java.util.ArrayList;
 
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.taskdefs.ExecuteStreamHandler;
 import org.apache.tools.ant.types.Environment;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
 import com.github.maven_nar.NarUtil;
@@ -152,7 +161,7 @@ public abstract class CommandLineCompiler extends AbstractCompiler {
       final File standardisedFile = new File(inputFile);
       try {
         return new String[] {
-          baseName + FilenameUtils.EXTENSION_SEPARATOR + Integer.toHexString(standardisedFile.getCanonicalPath().hashCode()) + getOutputSuffix()
+          baseName + FilenameUtils.EXTENSION_SEPARATOR + Integer.toHexString(CUtil.getCanonicalPath(standardisedFile).hashCode()) + getOutputSuffix()
         };
       } catch (IOException e) {
         throw new BuildException("Source file not found", e);
@@ -161,6 +170,16 @@ public abstract class CommandLineCompiler extends AbstractCompiler {
     return new String[0];
   }
 
+  /**
+   * Determines whether the source can be compiled together with others by a
+   * single process that writes their objects to its working directory,
+   * named by {@link #getBatchOutputFileName(String)}. Default implementation
+   * returns false.
+   */
+  protected boolean canCompileInBatch(final String sourceFile) {
+    return false;
+  }
+
   /**
    * Compiles a source file.
    * 
@@ -197,7 +216,6 @@ public abstract class CommandLineCompiler extends AbstractCompiler {
     // typically either 1 or Integer.MAX_VALUE
     //
     final int maxInputFilesPerCommand = getMaximumInputFilesPerCommand();
-    final int argumentCountPerInputFile = getArgumentCountPerInputFile();
     for (int sourceIndex = 0; sourceIndex < sourceFiles.length;) {
       int cmdLength = baseLength;
       int firstFileNextExec;
@@ -222,21 +240,26 @@ public abstract class CommandLineCompiler extends AbstractCompiler {
       }
 
       int retval = 0;
+      //
+      // sources the compiler can take together share a process,
+      // the others are compiled one at a time
+      //
+      final List<String> batch = new ArrayList<String>();
       for (int j = sourceIndex; j < firstFileNextExec; j++) {
-        ArrayList<String> commandlineSuffix = new ArrayList<String>();
-
-        for (int k = 0; k < argumentCountPerInputFile; k++) {
-          commandlineSuffix.add(getInputFileArgument(outputDir, sourceFiles[j], k));
+        if (task.getCompileBatchSize() > 1 && canCompileInBatch(sourceFiles[j])) {
+          batch.add(sourceFiles[j]);
+        } else {
+          final int ret = compileSource(task, outputDir, sourceFiles[j], commandlinePrefix, endArgs, config);
+          if (ret != 0) {
+            retval = ret;
+          }
         }
-        for (final String endArg : endArgs) {
-          commandlineSuffix.add(endArg);
+      }
+      if (!batch.isEmpty()) {
+        final int ret = compileBatch(task, outputDir, batch, commandlinePrefix, endArgs, config);
+        if (ret != 0) {
+          retval = ret;
         }
-
-        ArrayList<String> commandline = new ArrayList<String>(commandlinePrefix);
-        commandline.addAll(commandlineSuffix);
-        final int ret = runCommand(task, workDir,
-            commandline.toArray(new String[commandline.size()]));
-        if (ret != 0) { retval = ret; }
       }
       if (monitor != null) {
         final String[] fileNames = new String[firstFileNextExec - sourceIndex];
@@ -273,6 +296,80 @@ public abstract class CommandLineCompiler extends AbstractCompiler {
     }
   }
 
+  /**
+   * Compiles several sources with one process, or with one process for each
+   * group of sources with distinct object names.
+   */
+  private int compileBatch(final CCTask task, final File outputDir, final List<String> sources,
+      final List<String> commandlinePrefix, final String[] endArgs, final CommandLineCompilerConfiguration config) {
+    //
+    // the compiler names the objects after the sources,
+    // sources that would share an object go into separate runs
+    //
+    final List<Map<String, String>> runs = new ArrayList<Map<String, String>>();
+    for (final String source : sources) {
+      final String batchOutputName = getBatchOutputFileName(source);
+      Map<String, String> run = null;
+      for (final Map<String, String> candidate : runs) {
+        if (!candidate.containsKey(batchOutputName)) {
+          run = candidate;
+          break;
+        }
+      }
+      if (run == null) {
+        run = new LinkedHashMap<String, String>();
+        runs.add(run);
+      }
+      run.put(batchOutputName, source);
+    }
+    int retval = 0;
+    for (final Map<String, String> run : runs) {
+      final int ret;
+      if (run.size() == 1) {
+        ret = compileSource(task, outputDir, run.values().iterator().next(), commandlinePrefix, endArgs, config);
+      } else {
+        ret = runBatch(task, outputDir, run, commandlinePrefix, endArgs, config);
+      }
+      if (ret != 0) {
+        retval = ret;
+      }
+    }
+    return retval;
+  }
+
+  /**
+   * Compiles a single source with its own process.
+   */
+  private int compileSource(final CCTask task, final File outputDir, final String sourceFile,
+      final List<String> commandlinePrefix, final String[] endArgs, final CommandLineCompilerConfiguration config) {
+    final List<String> commandline = new ArrayList<String>(commandlinePrefix);
+    final File dependencyFile = getDependencyFile(task, outputDir, sourceFile);
+    final String[] dependencyArgs = dependencyFile == null ? null
+        : getDependencyFileArguments(sourceFile, dependencyFile);
+    if (dependencyArgs != null) {
+      for (final String dependencyArg : dependencyArgs) {
+        commandline.add(dependencyArg);
+      }
+    }
+    final int argumentCountPerInputFile = getArgumentCountPerInputFile();
+    for (int k = 0; k < argumentCountPerInputFile; k++) {
+      commandline.add(getInputFileArgument(outputDir, sourceFile, k));
+    }
+    for (final String endArg : endArgs) {
+      commandline.add(endArg);
+    }
+    if (dependencyArgs == null) {
+      return runCommand(task, this.workDir, commandline.toArray(new String[commandline.size()]));
+    }
+    dependencyFile.delete();
+    final int ret = runCommand(task, this.workDir, commandline.toArray(new String[commandline.size()]),
+        dependencyFile);
+    if (ret == 0) {
+      readDependencyFile(task, config, new File(sourceFile), dependencyFile);
+    }
+    return ret;
+  }
+
   @Override
   protected CompilerConfiguration createConfiguration(final CCTask task, final LinkType linkType,
       final ProcessorDef[] baseDefs, final CompilerDef specificDef, final TargetDef targetPlatform,
@@ -371,7 +468,7 @@ public abstract class CommandLineCompiler extends AbstractCompiler {
     final File baseDir = specificDef.getProject().getBaseDir();
     String baseDirPath;
     try {
-      baseDirPath = baseDir.getCanonicalPath();
+      baseDirPath = CUtil.getCanonicalPath(baseDir);
     } catch (final IOException ex) {
       baseDirPath = baseDir.toString();
     }
@@ -433,6 +530,26 @@ public abstract class CommandLineCompiler extends AbstractCompiler {
     return 1;
   }
 
+  /**
+   * Returns the arguments that make the compiler write the dependencies of
+   * each source in a batch to the name of its batch object with a ".d"
+   * suffix in the working directory, see
+   * {@link #getDependencyFileArguments(String, File)}. Default implementation
+   * returns null, the compiler can not report dependencies in a batch.
+   */
+  protected String[] getBatchDependencyArguments() {
+    return null;
+  }
+
+  /**
+   * Returns the name of the object the compiler writes to the working
+   * directory for a source compiled in a batch. Default implementation
+   * replaces the extension of the source by the output suffix, like cc -c.
+   */
+  protected String getBatchOutputFileName(final String sourceFile) {
+    return FilenameUtils.getBaseName(sourceFile) + getOutputSuffix();
+  }
+
   protected final String getCommand() {
     if (this.prefix != null && (!this.prefix.isEmpty())) {
       return this.prefix + this.command;
@@ -506,6 +623,36 @@ public abstract class CommandLineCompiler extends AbstractCompiler {
     return filename;
   }
 
+  /**
+   * Returns the file the compiler reports the dependencies of a source to,
+   * or null if the task does not take dependencies from the compiler.
+   */
+  private File getDependencyFile(final CCTask task, final File outputDir, final String sourceFile) {
+    if (!task.isCompilerDependencies()) {
+      return null;
+    }
+    final String[] outputNames = getOutputFileNames(sourceFile, null);
+    if (outputNames.length == 0) {
+      return null;
+    }
+    return new File(outputDir, outputNames[0] + ".d");
+  }
+
+  /**
+   * Returns the arguments that make the compiler report the files a source
+   * depends on to dependencyFile while compiling it. Default implementation
+   * returns null, the compiler can not report dependencies.
+   *
+   * @param sourceFile
+   *          source to be compiled
+   * @param dependencyFile
+   *          file to report the dependencies to, parsed by
+   *          {@link #parseDependencyFile(File)}
+   */
+  protected String[] getDependencyFileArguments(final String sourceFile, final File dependencyFile) {
+    return null;
+  }
+
   protected final boolean getLibtool() {
     return this.libtool;
   }
@@ -538,6 +685,118 @@ public abstract class CommandLineCompiler extends AbstractCompiler {
 
   abstract protected void getUndefineSwitch(StringBuffer buffer, String define);
 
+  /**
+   * Options of the compiler that take a path, attached or as next argument.
+   */
+  private static final String[] PATH_OPTIONS = new String[] {
+      "-I", "-iquote", "-isystem", "-idirafter", "-include", "-imacros", "--sysroot="
+  };
+
+  /**
+   * Makes the paths in the arguments of a batch absolute. A batch runs in a
+   * scratch directory of its own, where relative paths the arguments give
+   * for the working directory would not be found. Include directories,
+   * forced includes, --sysroot and response files are recognized, paths in
+   * other options are passed as they are.
+   *
+   * @param baseDir
+   *          directory the compiler runs in outside of a batch
+   */
+  static List<String> getBatchArguments(final List<String> args, final File baseDir) {
+    final List<String> batchArgs = new ArrayList<String>(args.size());
+    boolean path = false;
+    for (final String arg : args) {
+      if (path) {
+        batchArgs.add(getAbsolutePath(baseDir, arg));
+        path = false;
+        continue;
+      }
+      String batchArg = arg;
+      if (arg.length() > 1 && arg.charAt(0) == '@') {
+        batchArg = "@" + getAbsolutePath(baseDir, arg.substring(1));
+      } else {
+        for (final String option : PATH_OPTIONS) {
+          if (arg.equals(option)) {
+            path = true;
+            break;
+          }
+          if (arg.startsWith(option) && arg.charAt(option.length()) != '-') {
+            batchArg = option + getAbsolutePath(baseDir, arg.substring(option.length()));
+            break;
+          }
+        }
+      }
+      batchArgs.add(batchArg);
+    }
+    return batchArgs;
+  }
+
+  private static String getAbsolutePath(final File baseDir, final String path) {
+    final File file = new File(path);
+    return file.isAbsolute() ? path : new File(baseDir, path).getPath();
+  }
+
+  /**
+   * Runs the compiler once for a batch of sources in a scratch directory
+   * and moves each object it wrote there to its place in outputDir. A
+   * source without an object failed to compile. Relative paths in the
+   * arguments are made absolute, see getBatchArguments.
+   *
+   * @param run
+   *          sources keyed by the name of their object in the batch
+   */
+  private int runBatch(final CCTask task, final File outputDir, final Map<String, String> run,
+      final List<String> commandlinePrefix, final String[] endArgs, final CommandLineCompilerConfiguration config) {
+    final File batchDir;
+    try {
+      batchDir = Files.createTempDirectory(outputDir.toPath(), "batch").toFile();
+    } catch (final IOException ex) {
+      throw new BuildException("Unable to create a batch directory in " + outputDir, ex);
+    }
+    try {
+      final String[] dependencyArgs = task.isCompilerDependencies() ? getBatchDependencyArguments() : null;
+      final File baseDir = this.workDir != null ? this.workDir : new File(System.getProperty("user.dir"));
+      final List<String> commandline = getBatchArguments(commandlinePrefix, baseDir);
+      if (dependencyArgs != null) {
+        for (final String dependencyArg : dependencyArgs) {
+          commandline.add(dependencyArg);
+        }
+      }
+      for (final String source : run.values()) {
+        commandline.add(getAbsolutePath(baseDir, source));
+      }
+      for (final String endArg : endArgs) {
+        commandline.add(endArg);
+      }
+      int ret = runCommand(task, batchDir, commandline.toArray(new String[commandline.size()]));
+      for (final Map.Entry<String, String> entry : run.entrySet()) {
+        final File source = new File(entry.getValue());
+        final File object = new File(batchDir, entry.getKey());
+        final File output = new File(outputDir, getOutputFileNames(entry.getValue(), null)[0]);
+        if (!object.exists()) {
+          task.log("Compilation of " + source + " failed", Project.MSG_ERR);
+          output.delete();
+          if (ret == 0) {
+            ret = 1;
+          }
+          continue;
+        }
+        try {
+          Files.move(object.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException ex) {
+          throw new BuildException("Unable to move " + object + " to " + output, ex);
+        }
+        if (dependencyArgs != null) {
+          final File dependencyFile = new File(batchDir, FilenameUtils.getBaseName(entry.getKey()) + ".d");
+          readDependencyFile(task, config, source, dependencyFile);
+        }
+      }
+      return ret;
+    } finally {
+      FileUtils.deleteQuietly(batchDir);
+    }
+  }
+
   /**
    * This method is exposed so test classes can overload and test the
    * arguments without actually spawning the compiler
@@ -546,6 +805,116 @@ public abstract class CommandLineCompiler extends AbstractCompiler {
     return CUtil.runCommand(task, workingDir, cmdline, this.newEnvironment, this.env);
   }
 
+  /**
+   * Parses a dependency file in make format, as written by gcc with -MMD -MF.
+   * The first prerequisite, the source itself, is skipped.
+   *
+   * @return the files the source depends on
+   */
+  protected File[] parseDependencyFile(final File dependencyFile) throws IOException {
+    final String content = new String(Files.readAllBytes(dependencyFile.toPath()), Charset.defaultCharset());
+    final List<File> includes = new ArrayList<File>();
+    final StringBuilder name = new StringBuilder();
+    boolean inTargets = true;
+    boolean source = true;
+    for (int i = 0; i <= content.length(); i++) {
+      final char ch = i < content.length() ? content.charAt(i) : '\n';
+      final char next = i + 1 < content.length() ? content.charAt(i + 1) : '\n';
+      if (ch == '\\' && (next == ' ' || next == '#')) {
+        name.append(next);
+        i++;
+        continue;
+      }
+      if (ch == '$' && next == '$') {
+        name.append(ch);
+        i++;
+        continue;
+      }
+      final boolean continuation = ch == '\\' && (next == '\n' || next == '\r');
+      if (continuation || ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n') {
+        if (name.length() > 0 && !inTargets) {
+          if (source) {
+            source = false;
+          } else {
+            includes.add(resolveDependency(name.toString()));
+          }
+        }
+        name.setLength(0);
+        if (continuation) {
+          i++;
+          if (next == '\r' && i + 1 < content.length() && content.charAt(i + 1) == '\n') {
+            i++;
+          }
+        } else if (ch == '\n' && !inTargets) {
+          //
+          // only the first rule, any others are phony targets
+          //
+          break;
+        }
+      } else if (ch == ':' && inTargets && (next == ' ' || next == '\t' || next == '\r' || next == '\n')) {
+        inTargets = false;
+        name.setLength(0);
+      } else {
+        name.append(ch);
+      }
+    }
+    return includes.toArray(new File[includes.size()]);
+  }
+
+  /**
+   * Reads and removes the dependency file written while compiling a source
+   * and records the dependencies in the task's dependency table. If the
+   * compiler reported no includes, which may as well mean that its output
+   * was not understood, the source is parsed instead, so that an entry
+   * recorded earlier does not hide changes to its includes.
+   */
+  private void readDependencyFile(final CCTask task, final CommandLineCompilerConfiguration config,
+      final File source, final File dependencyFile) {
+    try {
+      final File[] includes = dependencyFile.exists() ? parseDependencyFile(dependencyFile) : new File[0];
+      if (includes.length == 0) {
+        task.log("No includes reported for " + source + ", parsing it", Project.MSG_VERBOSE);
+        task.getDependencyTable().parseIncludes(task, config, source);
+        return;
+      }
+      task.getDependencyTable().putCompilerDependencies(config.getIncludePathIdentifier(), source, includes);
+    } catch (final IOException ex) {
+      task.log("Error reading " + dependencyFile.toString() + ":" + ex.toString(), Project.MSG_WARN);
+    } finally {
+      dependencyFile.delete();
+    }
+  }
+
+  /**
+   * Resolves a path reported by the compiler, relative to the directory the
+   * compiler ran in.
+   */
+  protected File resolveDependency(final String path) {
+    final File file = new File(path);
+    if (file.isAbsolute()) {
+      return file;
+    }
+    return this.workDir != null ? new File(this.workDir, path) : file.getAbsoluteFile();
+  }
+
+  /**
+   * Runs a compile that was given the arguments from
+   * getDependencyFileArguments. Compilers that report dependencies on their
+   * output instead of writing dependencyFile override this to write it.
+   */
+  protected int runCommand(final CCTask task, final File workingDir, final String[] cmdline,
+      final File dependencyFile) throws BuildException {
+    return runCommand(task, workingDir, cmdline);
+  }
+
+  /**
+   * Runs a command, sending its output to streamHandler instead of the log.
+   */
+  protected int runCommand(final CCTask task, final File workingDir, final String[] cmdline,
+      final ExecuteStreamHandler streamHandler) throws BuildException {
+    return CUtil.runCommand(task, workingDir, cmdline, this.newEnvironment, this.env, streamHandler);
+  }
+
   protected final void setCommand(final String command) {
     this.command = command;
   }
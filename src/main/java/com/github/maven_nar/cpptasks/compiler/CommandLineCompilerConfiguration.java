@@ -175,6 +175,16 @@ public final class CommandLineCompilerConfiguration implements CompilerConfigura
     }
   }
 
+  @Override
+  public CompilerConfiguration[] createForcedPrecompileConfigurations(final File header, final File pch,
+      final String[] nonPrecompiledFiles) {
+    if (this.compiler instanceof PrecompilingCompiler) {
+      return ((PrecompilingCompiler) this.compiler).createForcedPrecompileConfigurations(this, header, pch,
+          nonPrecompiledFiles);
+    }
+    return null;
+  }
+
   /**
    * 
    * This method may be used to get two distinct compiler configurations, one
@@ -57,6 +57,22 @@ public interface CompilerConfiguration extends ProcessorConfiguration {
    */
   CompilerConfiguration[] createPrecompileConfigurations(File prototype, String[] nonPrecompiledFiles);
 
+  /**
+   * Gets the configurations for a precompiled header that is synthesized
+   * instead of written by hand. The consuming configuration forces the
+   * header into every file, so the files need not include it.
+   * 
+   * @param header
+   *          header holding the includes to precompile, the prototype
+   *          includes only this header
+   * @param pch
+   *          precompiled header file
+   * @returns null if forcing a precompiled header is not supported or a two
+   *          element array containing the precompiled header generation
+   *          configuration and the consuming configuration
+   */
+  CompilerConfiguration[] createForcedPrecompileConfigurations(File header, File pch, String[] nonPrecompiledFiles);
+
   /**
    * Returns an digest for the include path for the configuration.
    * 
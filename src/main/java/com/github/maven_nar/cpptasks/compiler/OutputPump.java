@@ -0,0 +1,159 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks.compiler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reads the output of child processes line by line on a pool of threads
+ * shared by all processes, instead of starting threads for every process.
+ * Idle threads are kept for a minute, so that a build running thousands of
+ * short processes reuses a handful of threads.
+ */
+public final class OutputPump {
+  /**
+   * Receives the lines of an output, from a pump thread.
+   */
+  public interface LineHandler {
+    void line(String line);
+  }
+
+  /**
+   * Keeps the last lines of an output, for error reports.
+   */
+  public static final class Tail implements LineHandler {
+    private final String[] lines;
+    private int next;
+    private long count;
+
+    public Tail(final int maxLines) {
+      this.lines = new String[maxLines];
+    }
+
+    /**
+     * Gets the number of lines that were dropped to keep the tail bounded.
+     */
+    public synchronized long getDropped() {
+      return Math.max(0, this.count - this.lines.length);
+    }
+
+    /**
+     * Gets the kept lines, oldest first.
+     */
+    public synchronized String[] getLines() {
+      final int size = (int) Math.min(this.count, this.lines.length);
+      final String[] tail = new String[size];
+      final int start = size < this.lines.length ? 0 : this.next;
+      for (int i = 0; i < size; i++) {
+        tail[i] = this.lines[(start + i) % this.lines.length];
+      }
+      return tail;
+    }
+
+    @Override
+    public synchronized void line(final String line) {
+      this.lines[this.next] = line;
+      this.next = (this.next + 1) % this.lines.length;
+      this.count++;
+    }
+  }
+
+  /**
+   * Time to wait for the rest of the output once a process has exited. A
+   * process it started may keep the output open.
+   */
+  public static final long DRAIN_TIMEOUT = 5000;
+
+  private static final ExecutorService PUMPS = Executors.newCachedThreadPool(new ThreadFactory() {
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      final Thread thread = new Thread(runnable, "Output pump");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  /**
+   * Waits for a pump to reach the end of its output.
+   *
+   * @param timeout
+   *          milliseconds to wait, 0 to wait until the end
+   * @return false if the pump did not finish in time, it keeps running until
+   *         the output is closed
+   */
+  public static boolean await(final Future<?> pump, final long timeout) {
+    try {
+      if (timeout > 0) {
+        pump.get(timeout, TimeUnit.MILLISECONDS);
+      } else {
+        pump.get();
+      }
+      return true;
+    } catch (final TimeoutException ex) {
+      return false;
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (final ExecutionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw new IllegalStateException(ex.getCause());
+    }
+  }
+
+  /**
+   * Starts passing the lines of an output to a handler. A read error ends
+   * the output, like the end of the stream.
+   */
+  public static Future<?> start(final InputStream is, final LineHandler handler) {
+    return PUMPS.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          final BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+          try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+              handler.line(line);
+            }
+          } finally {
+            reader.close();
+          }
+        } catch (final IOException ex) {
+          // Ignore
+        }
+      }
+    });
+  }
+
+  private OutputPump() {
+  }
+}
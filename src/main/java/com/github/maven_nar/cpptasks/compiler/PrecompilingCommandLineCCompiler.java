@@ -23,7 +23,7 @@ import java.io.File;
 
 import org.apache.tools.ant.types.Environment;
 
-import com.github.maven_nar.cpptasks.parser.CParser;
+import com.github.maven_nar.cpptasks.parser.IncludeScanner;
 import com.github.maven_nar.cpptasks.parser.Parser;
 
 /**
@@ -42,6 +42,6 @@ public abstract class PrecompilingCommandLineCCompiler extends PrecompilingComma
 
   @Override
   protected Parser createParser(final File source) {
-    return new CParser();
+    return new IncludeScanner();
   }
 }
@@ -19,11 +19,8 @@
  */
 package com.github.maven_nar.cpptasks.compiler;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.types.Environment;
@@ -44,6 +41,16 @@ public abstract class PrecompilingCommandLineCompiler extends CommandLineCompile
         newEnvironment, env);
   }
 
+  /**
+   * Returns null, compilers that can force an include and use a precompiled
+   * header through it override this.
+   */
+  @Override
+  public CompilerConfiguration[] createForcedPrecompileConfigurations(final CompilerConfiguration config,
+      final File header, final File pch, final String[] exceptFiles) {
+    return null;
+  }
+
   /**
    * 
    * This method may be used to get two distinct compiler configurations, one
@@ -79,8 +86,7 @@ public abstract class PrecompilingCommandLineCompiler extends CommandLineCompile
     final Parser parser = createParser(prototype);
     String[] includes;
     try {
-      final Reader reader = new BufferedReader(new FileReader(prototype));
-      parser.parse(reader);
+      parse(parser, prototype);
       includes = parser.getIncludes();
     } catch (final IOException ex) {
       throw new BuildException("Error parsing precompiled header protoype: " + prototype.toString() + ":"
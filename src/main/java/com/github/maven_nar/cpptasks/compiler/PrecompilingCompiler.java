@@ -27,6 +27,25 @@ import java.io.File;
  * @author Curt Arnold
  */
 public interface PrecompilingCompiler {
+  /**
+   * Gets the configurations for a precompiled header that is synthesized
+   * instead of written by hand. The consuming configuration forces the
+   * header into every file, so the files need not include it.
+   * 
+   * @param config
+   *          base configuration
+   * @param header
+   *          header holding the includes to precompile, the prototype
+   *          includes only this header
+   * @param pch
+   *          precompiled header file
+   * @returns null if forcing a precompiled header is not supported or a two
+   *          element array containing the precompiled header generation
+   *          configuration and the consuming configuration
+   */
+  CompilerConfiguration[] createForcedPrecompileConfigurations(CompilerConfiguration config, File header, File pch,
+      String[] nonPrecompiledFiles);
+
   /**
    * 
    * This method may be used to get two distinct compiler configurations, one
@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks.compiler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Future;
+
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.taskdefs.ExecuteStreamHandler;
+
+/**
+ * Logs the output of an Execute line by line like Ant's LogStreamHandler,
+ * but reads it on the shared threads of {@link OutputPump} instead of two
+ * new threads per process.
+ */
+public final class PumpLogStreamHandler implements ExecuteStreamHandler {
+  private static final class LogHandler implements OutputPump.LineHandler {
+    private final Task task;
+    private final int level;
+
+    private LogHandler(final Task task, final int level) {
+      this.task = task;
+      this.level = level;
+    }
+
+    @Override
+    public void line(final String line) {
+      this.task.log(line, this.level);
+    }
+  }
+
+  private final Task task;
+  private final int outputLevel;
+  private final int errorLevel;
+  private InputStream processErrorStream;
+  private InputStream processOutputStream;
+  private Future<?> errorPump;
+  private Future<?> outputPump;
+
+  public PumpLogStreamHandler(final Task task, final int outputLevel, final int errorLevel) {
+    this.task = task;
+    this.outputLevel = outputLevel;
+    this.errorLevel = errorLevel;
+  }
+
+  @Override
+  public void setProcessErrorStream(final InputStream is) throws IOException {
+    this.processErrorStream = is;
+  }
+
+  @Override
+  public void setProcessInputStream(final OutputStream os) throws IOException {
+    os.close();
+  }
+
+  @Override
+  public void setProcessOutputStream(final InputStream is) throws IOException {
+    this.processOutputStream = is;
+  }
+
+  @Override
+  public void start() throws IOException {
+    this.errorPump = OutputPump.start(this.processErrorStream, new LogHandler(this.task, this.errorLevel));
+    this.outputPump = OutputPump.start(this.processOutputStream, new LogHandler(this.task, this.outputLevel));
+  }
+
+  /**
+   * Waits for the rest of the output after the process exited.
+   */
+  @Override
+  public void stop() {
+    if (this.errorPump != null) {
+      OutputPump.await(this.errorPump, OutputPump.DRAIN_TIMEOUT);
+      OutputPump.await(this.outputPump, OutputPump.DRAIN_TIMEOUT);
+    }
+  }
+}
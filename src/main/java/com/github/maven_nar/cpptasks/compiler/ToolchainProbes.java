@@ -0,0 +1,441 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks.compiler;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Pattern;
+
+import com.github.maven_nar.cpptasks.CUtil;
+
+/**
+ * Runs toolchain probes, commands like gcc -dumpversion or
+ * gcc -print-search-dirs whose output only depends on the installed
+ * toolchain, at most once.
+ *
+ * <p>
+ * Results are kept for the life of the JVM, so that the modules of a reactor
+ * build, also when built in parallel, share them, and in a directory, one
+ * file per probe, so that later builds share them. Both are keyed by the
+ * resolved path, size and modification time of the executable and of the
+ * compiler it runs, and the arguments, so that an upgraded toolchain is
+ * probed again. A wrapper like ccache resolves to itself, so the compiler
+ * of gcc and of known wrappers is found by asking the executable for the
+ * path of cc1, which is stored in the directory too. Probes of a wrapper
+ * that does not report one are kept for the JVM only. The directory is
+ * set by the system property {@value #CACHE_DIR_PROPERTY}, by default
+ * ~/.m2/nar/probes; an empty value keeps results for the JVM only. Only
+ * probes that succeed are stored in the directory.
+ * </p>
+ */
+public final class ToolchainProbes {
+  /**
+   * System property holding the directory probes are stored in.
+   */
+  public static final String CACHE_DIR_PROPERTY = "nar.probeCache";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  /**
+   * Changes whenever the composition of the key or the file format changes.
+   */
+  private static final String KEY_VERSION = "3";
+  /**
+   * Environment variables that change where gcc looks for its parts.
+   */
+  private static final String[] KEY_ENVIRONMENT = new String[] {
+      "COMPILER_PATH", "GCC_EXEC_PREFIX", "LIBRARY_PATH"
+  };
+  /**
+   * Executables that run a compiler found elsewhere.
+   */
+  private static final String[] WRAPPERS = new String[] {
+      "ccache", "distcc", "icecc", "sccache"
+  };
+
+  /**
+   * Names of the gcc drivers, also of cross compilers and versioned ones.
+   */
+  private static final Pattern GCC = Pattern.compile("(.+-)?(gcc|g\\+\\+|c\\+\\+|gfortran|g77)(-[0-9.]+)?");
+
+  /** compiler identities keyed by executable identity */
+  private static final ConcurrentHashMap<String, String> COMPILERS = new ConcurrentHashMap<String, String>();
+  /** probes run by this JVM keyed by key */
+  private static final ConcurrentHashMap<String, FutureTask<CaptureStreamHandler>> PROBES =
+      new ConcurrentHashMap<String, FutureTask<CaptureStreamHandler>>();
+
+  /**
+   * Forgets the probes run by this JVM.
+   */
+  static void clear() {
+    COMPILERS.clear();
+    PROBES.clear();
+  }
+
+  /**
+   * Runs a probe, or gets the result of an earlier run.
+   *
+   * @param cmdline
+   *          command line arguments
+   * @return the handler holding the output and exit value
+   * @see CaptureStreamHandler#execute(String[])
+   */
+  public static CaptureStreamHandler execute(final String[] cmdline) {
+    final File executable = findExecutable(cmdline[0]);
+    if (executable == null) {
+      return CaptureStreamHandler.execute(cmdline);
+    }
+    final String executableId = getFileId(executable);
+    final boolean wrapper = isWrapper(executable);
+    String compilerId = "";
+    if (wrapper || isGcc(executable, cmdline[0])) {
+      compilerId = getCompilerId(cmdline[0], executableId);
+    }
+    final boolean store = compilerId.length() > 0 || !wrapper;
+    final String key = getKey(executableId, compilerId, cmdline);
+    FutureTask<CaptureStreamHandler> probe = PROBES.get(key);
+    if (probe == null) {
+      final FutureTask<CaptureStreamHandler> newProbe = new FutureTask<CaptureStreamHandler>(
+          new Callable<CaptureStreamHandler>() {
+            @Override
+            public CaptureStreamHandler call() throws Exception {
+              return load(key, cmdline, store);
+            }
+          });
+      probe = PROBES.putIfAbsent(key, newProbe);
+      if (probe == null) {
+        probe = newProbe;
+        newProbe.run();
+      }
+    }
+    try {
+      return probe.get();
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return CaptureStreamHandler.execute(cmdline);
+    } catch (final ExecutionException ex) {
+      PROBES.remove(key, probe);
+      return CaptureStreamHandler.execute(cmdline);
+    }
+  }
+
+  /**
+   * Runs a probe, or gets the result of an earlier run, and returns its
+   * output.
+   *
+   * @param cmdline
+   *          command line arguments
+   * @return output of the probe
+   * @see CaptureStreamHandler#run(String[])
+   */
+  public static String[] run(final String[] cmdline) {
+    final CaptureStreamHandler handler = execute(cmdline);
+    return handler.getOutput() != null ? handler.getOutput() : new String[0];
+  }
+
+  /**
+   * Resolves an executable the way the process launcher does, through the
+   * path if it has no directory.
+   *
+   * @return null if the executable is not found
+   */
+  private static File findExecutable(final String command) {
+    final File file = new File(command);
+    if (file.getParentFile() != null) {
+      return file.isFile() ? file : null;
+    }
+    final boolean windows = File.pathSeparatorChar == ';';
+    for (final File dir : CUtil.getPathFromEnvironment("PATH", File.pathSeparator)) {
+      final File candidate = new File(dir, command);
+      if (candidate.isFile()) {
+        return candidate;
+      }
+      if (windows && new File(dir, command + ".exe").isFile()) {
+        return new File(dir, command + ".exe");
+      }
+    }
+    return null;
+  }
+
+  private static File getCacheDir() {
+    final String dir = System.getProperty(CACHE_DIR_PROPERTY);
+    if (dir == null) {
+      return new File(System.getProperty("user.home"), ".m2" + File.separator + "nar" + File.separator + "probes");
+    }
+    return dir.length() > 0 ? new File(dir) : null;
+  }
+
+  /**
+   * Gets the identity of the compiler an executable runs, the path, size
+   * and modification time of the cc1 it reports, for gcc and the wrappers
+   * in front of it.
+   *
+   * @return empty if the executable reports no cc1
+   */
+  private static String getCompilerId(final String command, final String executableId) {
+    String compilerId = COMPILERS.get(executableId);
+    if (compilerId == null) {
+      final File cc1 = findCc1(command, executableId);
+      compilerId = cc1 != null ? getFileId(cc1) : "";
+      COMPILERS.putIfAbsent(executableId, compilerId);
+    }
+    return compilerId;
+  }
+
+  /**
+   * Finds the cc1 an executable runs, through the path stored by an earlier
+   * build if that still exists, else by asking the executable. A wrapper
+   * finds the compiler through the path, so that is part of the key.
+   *
+   * @return null if the executable reports no cc1
+   */
+  private static File findCc1(final String command, final String executableId) {
+    final File cacheDir = getCacheDir();
+    final File file = cacheDir != null ? new File(cacheDir, "cc1-"
+        + digest(KEY_VERSION + '\0' + executableId + '\0' + System.getenv("PATH"))) : null;
+    if (file != null && file.isFile()) {
+      try {
+        final String[] stored = read(file).getStdout();
+        if (stored.length == 0) {
+          return null;
+        }
+        final File cc1 = new File(stored[0]);
+        if (cc1.isFile()) {
+          return cc1;
+        }
+      } catch (final IOException ex) {
+        // ask again
+      } catch (final NumberFormatException ex) {
+        // ask again
+      }
+    }
+    final CaptureStreamHandler handler = CaptureStreamHandler.execute(new String[] {
+        command, "-print-prog-name=cc1"
+    });
+    File cc1 = null;
+    final String[] stdout = handler.getStdout();
+    if (handler.getExitValue() == 0 && stdout != null && stdout.length > 0) {
+      cc1 = new File(stdout[0].trim());
+      if (!cc1.isAbsolute() || !cc1.isFile()) {
+        cc1 = null;
+      }
+    }
+    if (file != null) {
+      final String[] found = cc1 != null ? new String[] {
+        cc1.getPath()
+      } : new String[0];
+      try {
+        write(file, new CaptureStreamHandler(found, new String[0], 0));
+      } catch (final IOException ex) {
+        // asked again in the next build
+      }
+    }
+    return cc1;
+  }
+
+  private static String getFileId(final File file) {
+    final StringBuilder buf = new StringBuilder();
+    try {
+      buf.append(file.getCanonicalPath());
+    } catch (final IOException ex) {
+      buf.append(file.getAbsolutePath());
+    }
+    buf.append('\0').append(file.length());
+    buf.append('\0').append(file.lastModified());
+    return buf.toString();
+  }
+
+  private static String getKey(final String executableId, final String compilerId, final String[] cmdline) {
+    final StringBuilder buf = new StringBuilder(KEY_VERSION);
+    buf.append('\0').append(executableId);
+    buf.append('\0').append(compilerId);
+    for (int i = 1; i < cmdline.length; i++) {
+      buf.append('\0').append(cmdline[i]);
+    }
+    for (final String name : KEY_ENVIRONMENT) {
+      buf.append('\0').append(name).append('=').append(System.getenv(name));
+    }
+    return digest(buf.toString());
+  }
+
+  private static String digest(final String text) {
+    final MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-1");
+    } catch (final NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+    final byte[] bytes = md.digest(text.getBytes(UTF8));
+    final char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX[bytes[i] >> 4 & 0xf];
+      chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Gets the lower case name of an executable without .exe.
+   */
+  private static String getToolName(final File executable) {
+    final String name = executable.getName().toLowerCase();
+    return name.endsWith(".exe") ? name.substring(0, name.length() - 4) : name;
+  }
+
+  private static File getCanonicalFile(final File file) {
+    try {
+      return file.getCanonicalFile();
+    } catch (final IOException ex) {
+      return file;
+    }
+  }
+
+  /**
+   * Tells whether a command, or the executable it resolves to, is a gcc
+   * driver, the only compiler asked for its cc1.
+   */
+  private static boolean isGcc(final File executable, final String command) {
+    return GCC.matcher(getToolName(new File(command))).matches()
+        || GCC.matcher(getToolName(getCanonicalFile(executable))).matches();
+  }
+
+  private static boolean isWrapper(final File executable) {
+    final String name = getToolName(getCanonicalFile(executable));
+    for (final String wrapper : WRAPPERS) {
+      if (name.equals(wrapper)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Reads a stored probe, or runs and stores it.
+   *
+   * @param store
+   *          whether to use the probe directory
+   */
+  private static CaptureStreamHandler load(final String key, final String[] cmdline, final boolean store) {
+    final File cacheDir = store ? getCacheDir() : null;
+    final File file = cacheDir != null ? new File(cacheDir, key) : null;
+    if (file != null && file.isFile()) {
+      try {
+        return read(file);
+      } catch (final IOException ex) {
+        // run it again
+      } catch (final NumberFormatException ex) {
+        // run it again
+      }
+    }
+    final CaptureStreamHandler handler = CaptureStreamHandler.execute(cmdline);
+    if (file != null && handler.getExitValue() == 0 && handler.getStdout() != null && handler.getStderr() != null) {
+      try {
+        write(file, handler);
+      } catch (final IOException ex) {
+        // the probe runs again in the next build
+      }
+    }
+    return handler;
+  }
+
+  /**
+   * Reads a stored probe: the number of lines of standard output, the lines
+   * of standard output and the lines of standard error.
+   */
+  private static CaptureStreamHandler read(final File file) throws IOException {
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+    try {
+      final String count = reader.readLine();
+      if (count == null) {
+        throw new IOException("Empty probe " + file);
+      }
+      final String[] stdout = new String[Integer.parseInt(count)];
+      for (int i = 0; i < stdout.length; i++) {
+        stdout[i] = reader.readLine();
+        if (stdout[i] == null) {
+          throw new IOException("Truncated probe " + file);
+        }
+      }
+      final List<String> stderr = new ArrayList<String>();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        stderr.add(line);
+      }
+      return new CaptureStreamHandler(stdout, stderr.toArray(new String[stderr.size()]), 0);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Writes a probe under a temporary name and moves it into place, so that
+   * no reader ever sees a partial file.
+   */
+  private static void write(final File file, final CaptureStreamHandler handler) throws IOException {
+    final File dir = file.getParentFile();
+    dir.mkdirs();
+    final File temp = File.createTempFile("probe", ".tmp", dir);
+    try {
+      final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF8));
+      try {
+        writer.write(Integer.toString(handler.getStdout().length));
+        writer.write('\n');
+        for (final String line : handler.getStdout()) {
+          writer.write(line);
+          writer.write('\n');
+        }
+        for (final String line : handler.getStderr()) {
+          writer.write(line);
+          writer.write('\n');
+        }
+      } finally {
+        writer.close();
+      }
+      try {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (final AtomicMoveNotSupportedException ex) {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+  }
+
+  private ToolchainProbes() {
+  }
+}
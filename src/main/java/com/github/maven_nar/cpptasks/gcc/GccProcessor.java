@@ -26,7 +26,7 @@ import java.io.IOException;
 import java.util.Vector;
 
 import com.github.maven_nar.cpptasks.CUtil;
-import com.github.maven_nar.cpptasks.compiler.CaptureStreamHandler;
+import com.github.maven_nar.cpptasks.compiler.ToolchainProbes;
 
 /**
  * A add-in class for Gcc processors
@@ -97,7 +97,7 @@ public class GccProcessor {
       final String[] args = new String[] {
           "gcc", "-dumpmachine"
       };
-      final String[] cmdout = CaptureStreamHandler.run(args);
+      final String[] cmdout = ToolchainProbes.run(args);
       if (cmdout.length == 0) {
         machine = "nomachine";
       } else {
@@ -181,7 +181,7 @@ public class GccProcessor {
       final String[] args = new String[] {
           "gcc", "-dumpversion"
       };
-      final String[] cmdout = CaptureStreamHandler.run(args);
+      final String[] cmdout = ToolchainProbes.run(args);
       if (cmdout.length == 0) {
         version = "noversion";
       } else {
@@ -24,9 +24,9 @@ import java.util.Vector;
 
 import com.github.maven_nar.cpptasks.CCTask;
 import com.github.maven_nar.cpptasks.CUtil;
-import com.github.maven_nar.cpptasks.compiler.CaptureStreamHandler;
 import com.github.maven_nar.cpptasks.compiler.LinkType;
 import com.github.maven_nar.cpptasks.compiler.Linker;
+import com.github.maven_nar.cpptasks.compiler.ToolchainProbes;
 import com.github.maven_nar.cpptasks.types.LibrarySet;
 
 /**
@@ -103,7 +103,7 @@ public class GppLinker extends AbstractLdLinker {
         final String[] cmdin = new String[] {
             "gfortran", "-print-file-name=libgfortran.a"
         };
-        final String[] cmdout = CaptureStreamHandler.run(cmdin);
+        final String[] cmdout = ToolchainProbes.run(cmdin);
         if (cmdout.length > 0 && cmdout[0].indexOf('/') >= 0) {
           this.gfortranLibrary = cmdout[0];
         }
@@ -119,7 +119,7 @@ public class GppLinker extends AbstractLdLinker {
           final String[] cmdin = new String[] {
               "gfortran", "-print-file-name=libgfortranbegin.a"
           };
-          final String[] cmdout = CaptureStreamHandler.run(cmdin);
+          final String[] cmdout = ToolchainProbes.run(cmdin);
           if (cmdout.length > 0 && cmdout[0].indexOf('/') >= 0) {
             this.gfortranMainLibrary = cmdout[0];
           }
@@ -142,7 +142,7 @@ public class GppLinker extends AbstractLdLinker {
           final String[] cmdin = new String[] {
               "g++", "-print-file-name=libstdc++.a"
           };
-          final String[] cmdout = CaptureStreamHandler.run(cmdin);
+          final String[] cmdout = ToolchainProbes.run(cmdin);
           if (cmdout.length > 0 && cmdout[0].indexOf('/') >= 0) {
             this.runtimeLibrary = cmdout[0];
           }
@@ -257,7 +257,7 @@ public class GppLinker extends AbstractLdLinker {
       final String[] args = new String[] {
           "g++", "-print-search-dirs"
       };
-      final String[] cmdout = CaptureStreamHandler.run(args);
+      final String[] cmdout = ToolchainProbes.run(args);
       for (int i = 0; i < cmdout.length; ++i) {
         final int prefixIndex = cmdout[i].indexOf(libPrefix);
         if (prefixIndex >= 0) {
@@ -329,7 +329,7 @@ public class GppLinker extends AbstractLdLinker {
     final String[] cmd = {
         command, "--version"
     };
-    final String[] cmdout = CaptureStreamHandler.execute(cmd).getStdout();
+    final String[] cmdout = ToolchainProbes.execute(cmd).getStdout();
     return cmdout != null && cmdout.length > 0 && cmdout[0].contains("(clang-");
   }
 }
@@ -29,7 +29,7 @@ import com.github.maven_nar.cpptasks.compiler.CommandLineCompiler;
 import com.github.maven_nar.cpptasks.compiler.LinkType;
 import com.github.maven_nar.cpptasks.compiler.Linker;
 import com.github.maven_nar.cpptasks.compiler.Processor;
-import com.github.maven_nar.cpptasks.parser.CParser;
+import com.github.maven_nar.cpptasks.parser.IncludeScanner;
 import com.github.maven_nar.cpptasks.parser.Parser;
 
 /**
@@ -80,7 +80,7 @@ public final class WindresResourceCompiler extends CommandLineCompiler {
    */
   @Override
   protected Parser createParser(final File source) {
-    return new CParser();
+    return new IncludeScanner();
   }
 
   @Override
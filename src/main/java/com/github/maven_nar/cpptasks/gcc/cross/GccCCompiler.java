@@ -35,8 +35,8 @@ import com.github.maven_nar.cpptasks.compiler.Linker;
 import com.github.maven_nar.cpptasks.compiler.Processor;
 import com.github.maven_nar.cpptasks.compiler.ProgressMonitor;
 import com.github.maven_nar.cpptasks.gcc.GccCompatibleCCompiler;
-import com.github.maven_nar.cpptasks.parser.CParser;
 import com.github.maven_nar.cpptasks.parser.FortranParser;
+import com.github.maven_nar.cpptasks.parser.IncludeScanner;
 import com.github.maven_nar.cpptasks.parser.Parser;
 
 /**
@@ -123,6 +123,15 @@ public final class GccCCompiler extends GccCompatibleCCompiler {
     }
   }
 
+  /**
+   * gcc compiles several C or C++ sources given with -c, writing each object
+   * to the working directory. libtool takes a single source only.
+   */
+  @Override
+  protected boolean canCompileInBatch(final String sourceFile) {
+    return !getLibtool() && !(createParser(new File(sourceFile)) instanceof FortranParser);
+  }
+
   @Override
   public Processor changeEnvironment(final boolean newEnvironment, final Environment env) {
     if (newEnvironment || env != null) {
@@ -154,6 +163,27 @@ public final class GccCCompiler extends GccCompatibleCCompiler {
     }
   }
 
+  @Override
+  protected String[] getBatchDependencyArguments() {
+    return new String[] {
+        "-MMD"
+    };
+  }
+
+  /**
+   * Lets gcc write the user headers a C or C++ source depends on to
+   * dependencyFile in make format.
+   */
+  @Override
+  protected String[] getDependencyFileArguments(final String sourceFile, final File dependencyFile) {
+    if (createParser(new File(sourceFile)) instanceof FortranParser) {
+      return null;
+    }
+    return new String[] {
+        "-MMD", "-MF", dependencyFile.getAbsolutePath()
+    };
+  }
+
   /**
    * Create parser to determine dependencies.
    * 
@@ -172,7 +202,7 @@ public final class GccCCompiler extends GccCompatibleCCompiler {
         }
       }
     }
-    return new CParser();
+    return new IncludeScanner();
   }
 
   @Override
@@ -26,7 +26,7 @@ import java.io.IOException;
 import java.util.Vector;
 
 import com.github.maven_nar.cpptasks.CUtil;
-import com.github.maven_nar.cpptasks.compiler.CaptureStreamHandler;
+import com.github.maven_nar.cpptasks.compiler.ToolchainProbes;
 import com.github.maven_nar.cpptasks.types.LibraryTypeEnum;
 
 /**
@@ -98,7 +98,7 @@ public class GccProcessor {
       final String[] args = new String[] {
           GccCCompiler.CMD_PREFIX + "gcc", "-dumpmachine"
       };
-      final String[] cmdout = CaptureStreamHandler.run(args);
+      final String[] cmdout = ToolchainProbes.run(args);
       if (cmdout.length == 0) {
         machine = "nomachine";
       } else {
@@ -182,7 +182,7 @@ public class GccProcessor {
       final String[] args = new String[] {
           GccCCompiler.CMD_PREFIX + "gcc", "-dumpversion"
       };
-      final String[] cmdout = CaptureStreamHandler.run(args);
+      final String[] cmdout = ToolchainProbes.run(args);
       if (cmdout.length == 0) {
         version = "noversion";
       } else {
@@ -24,9 +24,9 @@ import java.util.Vector;
 
 import com.github.maven_nar.cpptasks.CCTask;
 import com.github.maven_nar.cpptasks.CUtil;
-import com.github.maven_nar.cpptasks.compiler.CaptureStreamHandler;
 import com.github.maven_nar.cpptasks.compiler.LinkType;
 import com.github.maven_nar.cpptasks.compiler.Linker;
+import com.github.maven_nar.cpptasks.compiler.ToolchainProbes;
 import com.github.maven_nar.cpptasks.gcc.AbstractLdLinker;
 import com.github.maven_nar.cpptasks.types.LibrarySet;
 
@@ -86,7 +86,7 @@ public class GppLinker extends AbstractLdLinker {
       final String[] cmdin = new String[] {
           GccCCompiler.CMD_PREFIX + "g++", "-print-file-name=libstdc++.a"
       };
-      final String[] cmdout = CaptureStreamHandler.run(cmdin);
+      final String[] cmdout = ToolchainProbes.run(cmdin);
       if (cmdout.length > 0) {
         this.runtimeLibrary = cmdout[0];
       } else {
@@ -168,7 +168,7 @@ public class GppLinker extends AbstractLdLinker {
       final String[] args = new String[] {
           GccCCompiler.CMD_PREFIX + "g++", "-print-search-dirs"
       };
-      final String[] cmdout = CaptureStreamHandler.run(args);
+      final String[] cmdout = ToolchainProbes.run(args);
       for (int i = 0; i < cmdout.length; ++i) {
         final int prefixIndex = cmdout[i].indexOf(libPrefix);
         if (prefixIndex >= 0) {
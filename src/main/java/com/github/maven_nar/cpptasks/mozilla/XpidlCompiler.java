@@ -36,7 +36,7 @@ import com.github.maven_nar.cpptasks.compiler.Linker;
 import com.github.maven_nar.cpptasks.compiler.Processor;
 import com.github.maven_nar.cpptasks.compiler.ProgressMonitor;
 import com.github.maven_nar.cpptasks.gcc.LdLinker;
-import com.github.maven_nar.cpptasks.parser.CParser;
+import com.github.maven_nar.cpptasks.parser.IncludeScanner;
 import com.github.maven_nar.cpptasks.parser.Parser;
 
 /**
@@ -261,7 +261,7 @@ public final class XpidlCompiler extends CommandLineCompiler {
    */
   @Override
   protected Parser createParser(final File source) {
-    return new CParser();
+    return new IncludeScanner();
   }
 
   /**
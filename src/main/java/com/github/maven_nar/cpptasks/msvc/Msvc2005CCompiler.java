@@ -19,6 +19,7 @@
  */
 package com.github.maven_nar.cpptasks.msvc;
 
+import java.io.File;
 import java.util.Vector;
 
 import org.apache.tools.ant.types.Environment;
@@ -62,6 +63,16 @@ public final class Msvc2005CCompiler extends MsvcCompatibleCCompiler {
     return this;
   }
 
+  /**
+   * Has the includes listed on the output by /showIncludes.
+   */
+  @Override
+  protected String[] getDependencyFileArguments(final String sourceFile, final File dependencyFile) {
+    return new String[] {
+        "/showIncludes"
+    };
+  }
+
   @Override
   public Linker getLinker(final LinkType type) {
     return MsvcLinker.getInstance().getLinker(type);
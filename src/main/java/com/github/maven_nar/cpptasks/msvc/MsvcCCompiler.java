@@ -19,6 +19,8 @@
  */
 package com.github.maven_nar.cpptasks.msvc;
 
+import java.io.File;
+
 import org.apache.tools.ant.types.Environment;
 
 import com.github.maven_nar.cpptasks.compiler.LinkType;
@@ -49,6 +51,16 @@ public final class MsvcCCompiler extends MsvcCompatibleCCompiler {
     return this;
   }
 
+  /**
+   * Has the includes listed on the output by /showIncludes.
+   */
+  @Override
+  protected String[] getDependencyFileArguments(final String sourceFile, final File dependencyFile) {
+    return new String[] {
+        "/showIncludes"
+    };
+  }
+
   @Override
   public Linker getLinker(final LinkType type) {
     return MsvcLinker.getInstance().getLinker(type);
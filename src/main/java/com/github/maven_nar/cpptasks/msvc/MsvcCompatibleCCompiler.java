@@ -20,11 +20,25 @@
 package com.github.maven_nar.cpptasks.msvc;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.taskdefs.LogOutputStream;
+import org.apache.tools.ant.taskdefs.PumpStreamHandler;
 import org.apache.tools.ant.types.Environment;
 
+import com.github.maven_nar.cpptasks.CCTask;
 import com.github.maven_nar.cpptasks.CUtil;
 import com.github.maven_nar.cpptasks.OptimizationEnum;
 import com.github.maven_nar.cpptasks.compiler.CommandLineCompilerConfiguration;
@@ -39,6 +53,22 @@ import com.github.maven_nar.cpptasks.compiler.PrecompilingCommandLineCCompiler;
  * @author Curt Arnold
  */
 public abstract class MsvcCompatibleCCompiler extends PrecompilingCommandLineCCompiler {
+  /**
+   * Prefix of the lines /showIncludes adds to the output of an English
+   * compiler, used if the prefix can not be detected.
+   */
+  private static final String SHOW_INCLUDES_PREFIX = "Note: including file:";
+  /**
+   * Name of the header the /showIncludes probe includes.
+   */
+  private static final String PROBE_HEADER = "nar-show-includes.h";
+  /**
+   * Prefixes of the lines /showIncludes adds, which are translated by
+   * localized compilers, keyed by compiler command.
+   */
+  private static final ConcurrentHashMap<String, String> showIncludesPrefixes =
+      new ConcurrentHashMap<String, String>();
+
   private static String[] mflags = new String[] {
       //
       // first four are single-threaded
@@ -115,6 +145,25 @@ public abstract class MsvcCompatibleCCompiler extends PrecompilingCommandLineCCo
     MsvcProcessor.addWarningSwitch(args, level);
   }
 
+  /**
+   * Creates the header with /Yc through its name and uses it with /FI and
+   * /Yu, which must name it the same way.
+   */
+  @Override
+  public CompilerConfiguration[] createForcedPrecompileConfigurations(final CompilerConfiguration config,
+      final File header, final File pch, final String[] exceptFiles) {
+    final CommandLineCompilerConfiguration baseConfig = (CommandLineCompilerConfiguration) config;
+    final String headerName = header.getName();
+    final CompilerConfiguration[] configs = new CompilerConfiguration[2];
+    configs[0] = new CommandLineCompilerConfiguration(baseConfig, new String[] {
+        "/Fp" + pch.getPath(), "/Yc" + headerName
+    }, null, true);
+    configs[1] = new CommandLineCompilerConfiguration(baseConfig, new String[] {
+        "/Fp" + pch.getPath(), "/I" + header.getParent(), "/FI" + headerName, "/Yu" + headerName
+    }, exceptFiles, false);
+    return configs;
+  }
+
   @Override
   protected CompilerConfiguration createPrecompileGeneratingConfig(final CommandLineCompilerConfiguration baseConfig,
       final File prototype, final String lastInclude) {
@@ -170,4 +219,152 @@ public abstract class MsvcCompatibleCCompiler extends PrecompilingCommandLineCCo
   protected void getUndefineSwitch(final StringBuffer buffer, final String define) {
     MsvcProcessor.getUndefineSwitch(buffer, define);
   }
+
+  /**
+   * Reads a dependency file written by
+   * {@link #runCommand(CCTask, File, String[], File)}, one include per line.
+   */
+  @Override
+  protected File[] parseDependencyFile(final File dependencyFile) throws IOException {
+    final List<File> includes = new ArrayList<File>();
+    for (final String line : Files.readAllLines(dependencyFile.toPath(), Charset.defaultCharset())) {
+      if (line.length() > 0) {
+        includes.add(resolveDependency(line));
+      }
+    }
+    return includes.toArray(new File[includes.size()]);
+  }
+
+  /**
+   * Runs a compile with /showIncludes, taking the includes it reports out
+   * of the log and writing them to dependencyFile.
+   */
+  @Override
+  protected int runCommand(final CCTask task, final File workingDir, final String[] cmdline,
+      final File dependencyFile) throws BuildException {
+    final String prefix = getShowIncludesPrefix(task, cmdline[0]);
+    final List<String> includes = new ArrayList<String>();
+    final LogOutputStream out = new LogOutputStream(task, Project.MSG_INFO) {
+      @Override
+      protected void processLine(final String line, final int level) {
+        if (line.startsWith(prefix)) {
+          includes.add(line.substring(prefix.length()).trim());
+        } else {
+          super.processLine(line, level);
+        }
+      }
+    };
+    final LogOutputStream err = new LogOutputStream(task, Project.MSG_ERR);
+    final int ret;
+    try {
+      ret = runCommand(task, workingDir, cmdline, new PumpStreamHandler(out, err));
+    } finally {
+      try {
+        out.close();
+        err.close();
+      } catch (final IOException ex) {
+        // nothing left to log
+      }
+    }
+    //
+    // no file if nothing was recognized, so that the includes
+    // are parsed instead of recording that there are none
+    //
+    if (includes.isEmpty()) {
+      return ret;
+    }
+    try {
+      final Writer writer = new OutputStreamWriter(Files.newOutputStream(dependencyFile.toPath()),
+          Charset.defaultCharset());
+      try {
+        for (final String include : includes) {
+          writer.write(include);
+          writer.write('\n');
+        }
+      } finally {
+        writer.close();
+      }
+    } catch (final IOException ex) {
+      task.log("Error writing " + dependencyFile.toString() + ":" + ex.toString(), Project.MSG_WARN);
+    }
+    return ret;
+  }
+
+  /**
+   * Extracts the prefix from a line /showIncludes printed for a header,
+   * everything up to the colon that precedes its path.
+   *
+   * @return the prefix, null if the line is not about the header
+   */
+  static String parseShowIncludesPrefix(final String line, final String header) {
+    final int path = line.toLowerCase(Locale.ENGLISH).lastIndexOf(header.toLowerCase(Locale.ENGLISH));
+    if (path < 0) {
+      return null;
+    }
+    final int colon = line.lastIndexOf(": ", path);
+    if (colon <= 0) {
+      return null;
+    }
+    return line.substring(0, colon + 1);
+  }
+
+  /**
+   * Gets the prefix of the lines /showIncludes adds to the output of a
+   * compiler. Localized compilers translate it, so it is detected once per
+   * command by compiling a source which includes a known header.
+   */
+  private String getShowIncludesPrefix(final CCTask task, final String command) {
+    String prefix = showIncludesPrefixes.get(command);
+    if (prefix != null) {
+      return prefix;
+    }
+    prefix = probeShowIncludesPrefix(task, command);
+    if (prefix == null) {
+      task.log("Unable to detect the /showIncludes prefix of " + command + ", using '" + SHOW_INCLUDES_PREFIX
+          + "'", Project.MSG_WARN);
+      prefix = SHOW_INCLUDES_PREFIX;
+    }
+    final String existing = showIncludesPrefixes.putIfAbsent(command, prefix);
+    return existing != null ? existing : prefix;
+  }
+
+  private String probeShowIncludesPrefix(final CCTask task, final String command) {
+    File probeDir = null;
+    try {
+      probeDir = Files.createTempDirectory("nar-probe").toFile();
+      final File header = new File(probeDir, PROBE_HEADER);
+      final File source = new File(probeDir, "nar-show-includes.c");
+      Files.write(header.toPath(), new byte[0]);
+      Files.write(source.toPath(), ("#include \"" + PROBE_HEADER + "\"\n").getBytes("US-ASCII"));
+      final List<String> prefixes = new ArrayList<String>();
+      final LogOutputStream out = new LogOutputStream(task, Project.MSG_VERBOSE) {
+        @Override
+        protected void processLine(final String line, final int level) {
+          final String prefix = parseShowIncludesPrefix(line, PROBE_HEADER);
+          if (prefix != null) {
+            prefixes.add(prefix);
+          }
+          super.processLine(line, level);
+        }
+      };
+      try {
+        runCommand(task, probeDir, new String[] {
+            command, "/nologo", "/showIncludes", "/Zs", source.getPath()
+        }, new PumpStreamHandler(out, out));
+      } finally {
+        out.close();
+      }
+      return prefixes.isEmpty() ? null : prefixes.get(0);
+    } catch (final IOException ex) {
+      task.log("/showIncludes probe failed: " + ex, Project.MSG_VERBOSE);
+      return null;
+    } catch (final BuildException ex) {
+      task.log("/showIncludes probe failed: " + ex.getMessage(), Project.MSG_VERBOSE);
+      return null;
+    } finally {
+      if (probeDir != null) {
+        FileUtils.deleteQuietly(probeDir);
+      }
+    }
+  }
 }
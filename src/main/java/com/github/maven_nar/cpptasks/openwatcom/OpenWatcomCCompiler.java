@@ -25,7 +25,7 @@ import org.apache.tools.ant.types.Environment;
 
 import com.github.maven_nar.cpptasks.compiler.LinkType;
 import com.github.maven_nar.cpptasks.compiler.Linker;
-import com.github.maven_nar.cpptasks.parser.CParser;
+import com.github.maven_nar.cpptasks.parser.IncludeScanner;
 import com.github.maven_nar.cpptasks.parser.Parser;
 
 /**
@@ -75,7 +75,7 @@ public final class OpenWatcomCCompiler extends OpenWatcomCompiler {
    */
   @Override
   public Parser createParser(final File source) {
-    return new CParser();
+    return new IncludeScanner();
   }
 
   /**
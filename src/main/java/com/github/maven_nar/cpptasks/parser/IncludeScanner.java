@@ -0,0 +1,283 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Extracts #include and #import statements from C and C++ sources.
+ *
+ * <p>
+ * Replaces the state machine of CParser by a single loop over the bytes of
+ * the file, which is read into a buffer that is reused by the thread.
+ * Directives inside block comments, line comments and string literals are
+ * ignored.
+ * </p>
+ */
+public final class IncludeScanner implements Parser {
+  /**
+   * Larger buffers are not kept for reuse.
+   */
+  private static final int MAX_POOLED_BUFFER = 4 * 1024 * 1024;
+  private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[64 * 1024];
+    }
+  };
+  private static final byte PLAIN = 0;
+  private static final byte BLANK = 1;
+  private static final byte NEWLINE = 2;
+  private static final byte SLASH = 3;
+  private static final byte QUOTE = 4;
+  private static final byte HASH = 5;
+  /**
+   * Kind of each byte value, only a few bytes are of interest.
+   */
+  private static final byte[] KIND = new byte[256];
+  static {
+    KIND[' '] = BLANK;
+    KIND['\t'] = BLANK;
+    KIND['\r'] = BLANK;
+    KIND['\f'] = BLANK;
+    KIND['\n'] = NEWLINE;
+    KIND['/'] = SLASH;
+    KIND['"'] = QUOTE;
+    KIND['\''] = QUOTE;
+    KIND['#'] = HASH;
+  }
+  private static final byte[] INCLUDE = {
+      'i', 'n', 'c', 'l', 'u', 'd', 'e'
+  };
+  private static final byte[] IMPORT = {
+      'i', 'm', 'p', 'o', 'r', 't'
+  };
+
+  private static boolean matches(final byte[] buf, final int pos, final int length, final byte[] keyword) {
+    if (pos + keyword.length > length) {
+      return false;
+    }
+    for (int i = 0; i < keyword.length; i++) {
+      if (buf[pos + i] != keyword[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int skipBlank(final byte[] buf, int pos, final int length) {
+    while (pos < length && (buf[pos] == ' ' || buf[pos] == '\t')) {
+      pos++;
+    }
+    return pos;
+  }
+
+  /**
+   * Returns the position after the end of a block comment, or length if it
+   * is not closed.
+   */
+  private static int skipBlockComment(final byte[] buf, int pos, final int length) {
+    for (pos++; pos < length; pos++) {
+      if (buf[pos] == '/' && buf[pos - 1] == '*') {
+        return pos + 1;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Returns the position after the end of a string or character literal, or
+   * of the newline that ends an unterminated one.
+   */
+  private static int skipLiteral(final byte[] buf, int pos, final int length, final byte quote) {
+    while (pos < length) {
+      final byte b = buf[pos++];
+      if (b == quote) {
+        return pos;
+      }
+      if (b == '\n') {
+        return pos - 1;
+      }
+      if (b == '\\') {
+        pos++;
+      }
+    }
+    return length;
+  }
+
+  private final Charset charset;
+  private String[] includes = new String[16];
+  private int includeCount;
+
+  /**
+   * Creates a scanner that decodes file names with the platform default
+   * charset, like FileReader.
+   */
+  public IncludeScanner() {
+    this(Charset.defaultCharset());
+  }
+
+  public IncludeScanner(final Charset charset) {
+    this.charset = charset;
+  }
+
+  private void addFilename(final byte[] buf, final int start, final int end) {
+    if (this.includeCount == this.includes.length) {
+      this.includes = Arrays.copyOf(this.includes, this.includeCount * 2);
+    }
+    this.includes[this.includeCount++] = new String(buf, start, end - start, this.charset);
+  }
+
+  /**
+   * Parses the rest of a directive after the '#'.
+   *
+   * @return the position after the directive
+   */
+  private int directive(final byte[] buf, int pos, final int length) {
+    pos = skipBlank(buf, pos, length);
+    if (matches(buf, pos, length, INCLUDE)) {
+      pos += INCLUDE.length;
+    } else if (matches(buf, pos, length, IMPORT)) {
+      pos += IMPORT.length;
+    } else {
+      return pos;
+    }
+    pos = skipBlank(buf, pos, length);
+    if (pos == length) {
+      return pos;
+    }
+    final byte terminator;
+    if (buf[pos] == '<') {
+      terminator = '>';
+    } else if (buf[pos] == '"') {
+      terminator = '"';
+    } else {
+      return pos;
+    }
+    final int start = ++pos;
+    for (; pos < length; pos++) {
+      final byte b = buf[pos];
+      if (b == terminator) {
+        addFilename(buf, start, pos);
+        return pos + 1;
+      }
+      if (b == '\n') {
+        break;
+      }
+    }
+    return pos;
+  }
+
+  @Override
+  public String[] getIncludes() {
+    return Arrays.copyOf(this.includes, this.includeCount);
+  }
+
+  /**
+   * Scans the first length bytes of buf.
+   */
+  public void parse(final byte[] buf, final int length) {
+    this.includeCount = 0;
+    boolean lineStart = true;
+    int pos = 0;
+    while (pos < length) {
+      final byte b = buf[pos];
+      final byte kind = KIND[b & 0xff];
+      if (kind == PLAIN) {
+        //
+        // skip the uninteresting rest of a line in one go
+        //
+        lineStart = false;
+        pos++;
+        while (pos < length && KIND[buf[pos] & 0xff] <= BLANK) {
+          pos++;
+        }
+      } else if (kind == BLANK) {
+        pos++;
+      } else if (kind == NEWLINE) {
+        lineStart = true;
+        pos++;
+      } else if (kind == SLASH && pos + 1 < length && buf[pos + 1] == '*') {
+        //
+        // a comment does not end the start of a line
+        //
+        pos = skipBlockComment(buf, pos + 2, length);
+      } else if (kind == SLASH && pos + 1 < length && buf[pos + 1] == '/') {
+        while (pos < length && buf[pos] != '\n') {
+          pos++;
+        }
+      } else if (kind == QUOTE) {
+        lineStart = false;
+        pos = skipLiteral(buf, pos + 1, length, b);
+      } else if (kind == HASH && lineStart) {
+        lineStart = false;
+        pos = directive(buf, pos + 1, length);
+      } else {
+        lineStart = false;
+        pos++;
+      }
+    }
+  }
+
+  /**
+   * Reads and scans a file.
+   */
+  public void parse(final File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final long length = raf.length();
+      if (length > Integer.MAX_VALUE - 8) {
+        throw new IOException(file + " is too large to parse");
+      }
+      byte[] buf = BUFFER.get();
+      if (buf.length < length) {
+        buf = new byte[(int) length];
+        if (length <= MAX_POOLED_BUFFER) {
+          BUFFER.set(buf);
+        }
+      }
+      raf.readFully(buf, 0, (int) length);
+      parse(buf, (int) length);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Reads and scans the content of reader, which is encoded with the charset
+   * of this scanner to be scanned as bytes.
+   */
+  @Override
+  public void parse(final Reader reader) throws IOException {
+    final StringBuilder content = new StringBuilder();
+    final char[] chars = new char[4096];
+    int charsRead;
+    while ((charsRead = reader.read(chars, 0, chars.length)) >= 0) {
+      content.append(chars, 0, charsRead);
+    }
+    final byte[] buf = content.toString().getBytes(this.charset);
+    parse(buf, buf.length);
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * AutoPrecompile tests
+ */
+public class TestAutoPrecompile extends TestCase {
+  private final File windows = new File("windows.h");
+  private final File vector = new File("vector");
+  private final File foo = new File("foo.h");
+  private final File bar = new File("bar.h");
+
+  public TestAutoPrecompile(final String testName) {
+    super(testName);
+  }
+
+  /**
+   * Tests that the longest list of headers that the given share of the
+   * sources starts with is selected.
+   */
+  public void testSelectHeaders() {
+    final List<List<File>> includes = Arrays.asList(Arrays.asList(this.windows, this.foo, this.vector),
+        Arrays.asList(this.vector, this.windows), Arrays.asList(this.windows, this.bar),
+        Arrays.asList(this.windows, this.foo, this.vector));
+    assertEquals(Arrays.asList(this.windows, this.foo, this.vector), AutoPrecompile.selectHeaders(includes, 25));
+    assertEquals(Arrays.asList(this.windows, this.foo, this.vector), AutoPrecompile.selectHeaders(includes, 50));
+    assertEquals(Arrays.asList(this.windows), AutoPrecompile.selectHeaders(includes, 75));
+    assertEquals(Collections.emptyList(), AutoPrecompile.selectHeaders(includes, 100));
+  }
+
+  /**
+   * Tests that a header that many sources include after different headers
+   * is not selected.
+   */
+  public void testSelectHeadersKeepsOrder() {
+    final List<List<File>> includes = Arrays.asList(Arrays.asList(this.foo, this.windows),
+        Arrays.asList(this.bar, this.windows), Arrays.asList(this.vector, this.windows));
+    assertEquals(Collections.emptyList(), AutoPrecompile.selectHeaders(includes, 50));
+    assertEquals(Arrays.asList(this.foo, this.windows), AutoPrecompile.selectHeaders(includes, 33));
+  }
+
+  /**
+   * Tests that the leading includes end at the first other directive or
+   * code and skip comments.
+   */
+  public void testGetLeadingIncludes() throws IOException {
+    final File source = File.createTempFile("source", ".c");
+    final File dir = source.getParentFile();
+    final File windowsFile = new File(dir, "windows.h");
+    final File fooFile = new File(new File(dir, "sub"), "foo.h");
+    final List<File> resolved = Arrays.asList(windowsFile, fooFile, new File(dir, "bar.h"));
+    try {
+      writeSource(source, "/* header", " * comment */", "#include <windows.h> // windows", "",
+          "  #  include \"sub/foo.h\"", "#define BAR", "#include \"bar.h\"");
+      assertEquals(Arrays.asList(windowsFile, fooFile), AutoPrecompile.getLeadingIncludes(source, resolved));
+
+      writeSource(source, "#define WIN32_LEAN_AND_MEAN", "#include <windows.h>");
+      assertEquals(Collections.emptyList(), AutoPrecompile.getLeadingIncludes(source, resolved));
+
+      writeSource(source, "#include <windows.h>", "#include <unresolved.h>", "#include \"bar.h\"");
+      assertEquals(Collections.singletonList(windowsFile), AutoPrecompile.getLeadingIncludes(source, resolved));
+    } finally {
+      source.delete();
+    }
+  }
+
+  private static void writeSource(final File source, final String... lines) throws IOException {
+    FileUtils.writeLines(source, "UTF-8", Arrays.asList(lines));
+  }
+
+  /**
+   * Tests that a header included twice by one source counts once.
+   */
+  public void testSelectHeadersCountsSourcesOnce() {
+    final List<List<File>> includes = Arrays.asList(Arrays.asList(this.foo, this.foo, this.bar),
+        Arrays.asList(this.foo, this.bar));
+    assertEquals(Arrays.asList(this.foo, this.bar), AutoPrecompile.selectHeaders(includes, 100));
+  }
+}
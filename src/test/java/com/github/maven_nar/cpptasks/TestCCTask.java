@@ -22,14 +22,19 @@ package com.github.maven_nar.cpptasks;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Vector;
 
 import junit.framework.TestCase;
 
+import org.apache.tools.ant.Project;
+
 import com.github.maven_nar.cpptasks.compiler.CommandLineCompilerConfiguration;
 import com.github.maven_nar.cpptasks.compiler.CompilerConfiguration;
+import com.github.maven_nar.cpptasks.compiler.ProcessorConfiguration;
 import com.github.maven_nar.cpptasks.gcc.GccCCompiler;
 
 /**
@@ -128,4 +133,103 @@ public final class TestCCTask extends TestCase {
     failOnError = task.getFailonerror();
     assertEquals(true, failOnError);
   }
+
+  /**
+   * Tests that an output linked to another file is removed before it is
+   * rebuilt and that an output of its own is kept.
+   */
+  public void testBreakLink() throws IOException {
+    final File entry = File.createTempFile("entry", ".o");
+    final File output = new File(entry.getParentFile(), entry.getName() + ".link");
+    try {
+      Files.write(entry.toPath(), new byte[] {
+        1
+      });
+      Files.createLink(output.toPath(), entry.toPath());
+      CCTask.breakLink(output);
+      assertFalse(output.exists());
+      assertTrue(entry.isFile());
+
+      Files.copy(entry.toPath(), output.toPath());
+      CCTask.breakLink(output);
+      if (!System.getProperty("os.name").startsWith("Windows")) {
+        assertTrue(output.isFile());
+      }
+      CCTask.breakLink(new File(entry.getParentFile(), entry.getName() + ".missing"));
+    } finally {
+      output.delete();
+      entry.delete();
+    }
+  }
+
+  /**
+   * Tests that the users of a synthesized precompiled header are rebuilt
+   * when the precompiled header is, and only then.
+   */
+  public void testMarkPrecompileUsersForRebuild() throws IOException {
+    final CommandLineCompilerConfiguration base = new CommandLineCompilerConfiguration(GccCCompiler.getInstance(),
+        "dummy", new File[0], new File[0], new File[0], "", new String[0], new ProcessorParam[0], false,
+        new String[0]);
+    final CompilerConfiguration generatingConfig = new CommandLineCompilerConfiguration(base, null, null, true);
+    final CompilerConfiguration usingConfig = new CommandLineCompilerConfiguration(base, null, null, false);
+    final AutoPrecompile autoPrecompile = new AutoPrecompile(generatingConfig, usingConfig,
+        Collections.singletonList(new File("foo.h")), new File("pch.c"), new File("pch.pch"));
+    final Map<ProcessorConfiguration, AutoPrecompile> autoPrecompiles = Collections
+        .<ProcessorConfiguration, AutoPrecompile> singletonMap(generatingConfig, autoPrecompile);
+    final File output = File.createTempFile("output", ".o");
+    try {
+      final TargetInfo user = new TargetInfo(usingConfig, new File[] {
+        new File("src/foo.c")
+      }, null, output, false);
+      final TargetInfo other = new TargetInfo(base, new File[] {
+        new File("src/bar.c")
+      }, null, output, false);
+      final Map<String, TargetInfo> targets = new HashMap<String, TargetInfo>();
+      targets.put("foo.o", user);
+      targets.put("bar.o", other);
+      targets.put("pch.obj", new TargetInfo(generatingConfig, new File[] {
+        new File("pch.c")
+      }, null, output, false));
+      CCTask.markPrecompileUsersForRebuild(autoPrecompiles, targets);
+      assertFalse(user.getRebuild());
+
+      targets.put("pch.obj", new TargetInfo(generatingConfig, new File[] {
+        new File("pch.c")
+      }, null, output, true));
+      CCTask.markPrecompileUsersForRebuild(autoPrecompiles, targets);
+      assertTrue(user.getRebuild());
+      assertFalse(other.getRebuild());
+    } finally {
+      output.delete();
+    }
+  }
+
+  private CCTask createTask(final String compiler, final String outputType, final String compileOutputType) {
+    final CCTask task = new CCTask();
+    task.setProject(new Project());
+    final CompilerDef compilerDef = new CompilerDef();
+    compilerDef.setProject(task.getProject());
+    final CompilerEnum compilerName = new CompilerEnum();
+    compilerName.setValue(compiler);
+    compilerDef.setName(compilerName);
+    task.addConfiguredCompiler(compilerDef);
+    final OutputTypeEnum outputTypeEnum = new OutputTypeEnum();
+    outputTypeEnum.setValue(outputType);
+    task.setOuttype(outputTypeEnum);
+    final OutputTypeEnum compileOutputTypeEnum = new OutputTypeEnum();
+    compileOutputTypeEnum.setValue(compileOutputType);
+    task.setCompileOuttype(compileOutputTypeEnum);
+    return task;
+  }
+
+  /**
+   * Tests that objects compiled for a shared library are compatible with a
+   * static library if the compiler only adds position independent code, and
+   * not if it adds more.
+   */
+  public void testIsCompileOuttypeCompatible() {
+    assertTrue(createTask("gcc", "static", "shared").isCompileOuttypeCompatible());
+    assertTrue(createTask("msvc", "executable", "shared").isCompileOuttypeCompatible());
+    assertFalse(createTask("df", "static", "shared").isCompileOuttypeCompatible());
+  }
 }
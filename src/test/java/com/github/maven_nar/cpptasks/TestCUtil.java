@@ -20,6 +20,7 @@
 package com.github.maven_nar.cpptasks;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 
 import junit.framework.TestCase;
@@ -32,6 +33,25 @@ public class TestCUtil extends TestCase {
     super(name);
   }
 
+  public void testGetContentHash() throws IOException {
+    final File file = File.createTempFile("hash", ".c");
+    try {
+      FileOutputStream stream = new FileOutputStream(file);
+      stream.write("int i;".getBytes("UTF-8"));
+      stream.close();
+      final long hash = CUtil.getContentHash(file);
+      assertEquals(6, hash >>> 32);
+      assertEquals(hash, CUtil.getContentHash(file));
+      stream = new FileOutputStream(file);
+      stream.write("int j;".getBytes("UTF-8"));
+      stream.close();
+      assertFalse(hash == CUtil.getContentHash(file));
+    } finally {
+      file.delete();
+    }
+    assertEquals(0, CUtil.getContentHash(file));
+  }
+
   public void testGetPathFromEnvironment() {
     final File[] files = CUtil.getPathFromEnvironment("LIB", ";");
     assertNotNull(files);
@@ -0,0 +1,91 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * CanonicalPathCache tests
+ */
+public class TestCanonicalPathCache extends TestCase {
+  public TestCanonicalPathCache(final String testName) {
+    super(testName);
+  }
+
+  public void testClear() throws IOException {
+    final CanonicalPathCache cache = new CanonicalPathCache();
+    cache.getCanonicalPath(new File("foo.c"));
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getLookups());
+    assertEquals(0, cache.getHits());
+  }
+
+  public void testGetCanonicalPath() throws IOException {
+    final CanonicalPathCache cache = new CanonicalPathCache();
+    final File file = new File(new File("src", ".."), "foo.c");
+    assertEquals(file.getCanonicalPath(), cache.getCanonicalPath(file));
+    assertEquals(0, cache.getHits());
+    assertEquals(file.getCanonicalPath(), cache.getCanonicalPath(file.getAbsoluteFile()));
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getLookups());
+    assertEquals(1, cache.size());
+  }
+
+  public void testSavedCalls() throws IOException {
+    final CanonicalPathCache cache = new CanonicalPathCache();
+    final File file = new File(new File(new File("src"), "main"), "foo.c").getAbsoluteFile();
+    cache.getCanonicalPath(file);
+    assertEquals(0, cache.getSavedCalls());
+    cache.getCanonicalPath(file);
+    assertEquals(file.getPath().split(Pattern.quote(File.separator)).length - 1, cache.getSavedCalls());
+  }
+
+  /**
+   * Tests that CUtil uses the cache set on the calling thread only.
+   */
+  public void testThreadCache() throws IOException, InterruptedException {
+    final CanonicalPathCache cache = new CanonicalPathCache();
+    final CanonicalPathCache previous = CUtil.setCanonicalPathCache(cache);
+    try {
+      CUtil.getCanonicalPath(new File("foo.c"));
+      final Thread other = new Thread() {
+        @Override
+        public void run() {
+          try {
+            CUtil.getCanonicalPath(new File("bar.c"));
+          } catch (final IOException ex) {
+            throw new RuntimeException(ex);
+          }
+        }
+      };
+      other.start();
+      other.join();
+    } finally {
+      assertSame(cache, CUtil.setCanonicalPathCache(previous));
+    }
+    CUtil.getCanonicalPath(new File("baz.c"));
+    assertEquals(1, cache.getLookups());
+  }
+}
@@ -343,6 +343,23 @@ public final class TestCompilerDef extends TestProcessorDef {
     assertSame(MsvcCCompiler.getInstance(), comp);
   }
 
+  /**
+   * Tests that the unity size of the task's compiler definition is used by
+   * nested compilers that do not set one.
+   */
+  public void testInheritsUnitySize() {
+    final CompilerDef baseCompiler = new CompilerDef();
+    final CompilerDef nestedCompiler = new CompilerDef();
+    final CompilerDef[] defaultProviders = new CompilerDef[] {
+      baseCompiler
+    };
+    assertEquals(0, nestedCompiler.getUnitySize(defaultProviders, 0));
+    baseCompiler.setUnitySize(8);
+    assertEquals(8, nestedCompiler.getUnitySize(defaultProviders, 0));
+    nestedCompiler.setUnitySize(0);
+    assertEquals(0, nestedCompiler.getUnitySize(defaultProviders, 0));
+  }
+
   /**
    * Tests that setting classname to an bogus class name results in a
    * BuildException.
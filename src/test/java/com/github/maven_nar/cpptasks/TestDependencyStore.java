@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * DependencyStore tests
+ */
+public class TestDependencyStore extends TestCase {
+  private static DependencyInfo info(final String source, final long lastModified, final String... includes) {
+    return new DependencyInfo("/Iinclude", source, lastModified, includes, new String[0]);
+  }
+
+  private File file;
+
+  public TestDependencyStore(final String testName) {
+    super(testName);
+  }
+
+  @Override
+  protected void setUp() throws IOException {
+    this.file = File.createTempFile("dependencies", ".bin");
+    this.file.delete();
+  }
+
+  @Override
+  protected void tearDown() {
+    this.file.delete();
+  }
+
+  /**
+   * Tests that appended entries follow the rewritten ones and reuse
+   * interned strings.
+   */
+  public void testAppend() throws IOException {
+    final DependencyStore store = new DependencyStore(this.file);
+    store.rewrite(Arrays.asList(info("a.c", 1, "a.h", "common.h")));
+    store.append(Arrays.asList(info("b.c", 2, "common.h")));
+
+    final List<DependencyInfo> loaded = new DependencyStore(this.file).load();
+    assertEquals(2, loaded.size());
+    assertEquals("a.c", loaded.get(0).getSource());
+    assertEquals(1, loaded.get(0).getSourceLastModified());
+    assertEquals("b.c", loaded.get(1).getSource());
+    assertEquals("common.h", loaded.get(1).getIncludes()[0]);
+  }
+
+  /**
+   * Tests that a truncated trailing record is ignored and replaced by the
+   * next append.
+   */
+  public void testTruncatedRecord() throws IOException {
+    DependencyStore store = new DependencyStore(this.file);
+    store.rewrite(Arrays.asList(info("a.c", 1, "a.h")));
+    final FileOutputStream out = new FileOutputStream(this.file, true);
+    out.write(new byte[] {
+        2, 0, 0
+    });
+    out.close();
+
+    store = new DependencyStore(this.file);
+    assertEquals(1, store.load().size());
+    store.append(Collections.singletonList(info("b.c", 2, "a.h")));
+
+    final List<DependencyInfo> loaded = new DependencyStore(this.file).load();
+    assertEquals(2, loaded.size());
+    assertEquals("b.c", loaded.get(1).getSource());
+  }
+
+  /**
+   * Tests that an append after a failed rewrite does not add records with
+   * the strings of the failed rewrite to the previous store.
+   */
+  public void testAppendAfterFailedRewrite() throws IOException {
+    final DependencyStore store = new DependencyStore(this.file);
+    store.rewrite(Arrays.asList(info("a.c", 1, "a.h", "common.h")));
+    final byte[] previous = Files.readAllBytes(this.file.toPath());
+
+    //
+    // a directory in its place makes the rewrite fail on the move
+    //
+    this.file.delete();
+    this.file.mkdir();
+    new File(this.file, "blocker").createNewFile();
+    try {
+      store.rewrite(Arrays.asList(info("x.c", 3, "x.h")));
+      fail("expected IOException");
+    } catch (final IOException ex) {
+    }
+    FileUtils.deleteDirectory(this.file);
+    Files.write(this.file.toPath(), previous);
+
+    store.append(Collections.singletonList(info("b.c", 2, "common.h")));
+    final List<DependencyInfo> loaded = new DependencyStore(this.file).load();
+    final DependencyInfo last = loaded.get(loaded.size() - 1);
+    assertEquals("b.c", last.getSource());
+    assertEquals("common.h", last.getIncludes()[0]);
+  }
+
+  /**
+   * Tests that a file that is not a store is rejected.
+   */
+  public void testNotAStore() throws IOException {
+    final FileOutputStream out = new FileOutputStream(this.file);
+    out.write("<dependencies/>".getBytes("UTF-8"));
+    out.close();
+    try {
+      new DependencyStore(this.file).load();
+      fail("expected IOException");
+    } catch (final IOException ex) {
+    }
+  }
+}
@@ -20,6 +20,7 @@
 package com.github.maven_nar.cpptasks;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -73,4 +74,85 @@ public class TestDependencyTable extends TestXMLConsumer {
       deleteTmpFile("dependencies.xml");
     }
   }
+
+  /**
+   * Tests that dependencies.xml is migrated to the binary store on commit
+   * and that the binary store is used on the next load.
+   */
+  public void testMigrateToBinaryStore() throws IOException, ParserConfigurationException, SAXException {
+    final File baseDir = File.createTempFile("dependencies", Long.toString(System.nanoTime()));
+    baseDir.delete();
+    baseDir.mkdir();
+    final File source = new File(baseDir, "foo.c");
+    final File xml = new File(baseDir, "dependencies.xml");
+    final File bin = new File(baseDir, "dependencies.bin");
+    try {
+      FileWriter writer = new FileWriter(source);
+      writer.write("#include \"foo.h\"\n");
+      writer.close();
+      writer = new FileWriter(xml);
+      writer.write("<dependencies><includePath signature=\"/Iinclude\">" + "<source file=\"foo.c\" lastModified=\""
+          + Long.toHexString(source.lastModified()) + "\"><include file=\"foo.h\"/>"
+          + "<sysinclude file=\"stdio.h\"/></source></includePath></dependencies>");
+      writer.close();
+
+      DependencyTable dependencies = new DependencyTable(baseDir);
+      dependencies.load();
+      assertNotNull(dependencies.getDependencyInfo("foo.c", "/Iinclude"));
+      dependencies.commit(new CCTask());
+      assertTrue(bin.exists());
+      assertFalse(xml.exists());
+
+      dependencies = new DependencyTable(baseDir);
+      dependencies.load();
+      final DependencyInfo dependInfo = dependencies.getDependencyInfo("foo.c", "/Iinclude");
+      assertNotNull(dependInfo);
+      assertEquals(source.lastModified(), dependInfo.getSourceLastModified());
+      assertEquals(1, dependInfo.getIncludes().length);
+      assertEquals("foo.h", dependInfo.getIncludes()[0]);
+      assertEquals("stdio.h", dependInfo.getSysIncludes()[0]);
+    } finally {
+      source.delete();
+      xml.delete();
+      bin.delete();
+      baseDir.delete();
+    }
+  }
+
+  /**
+   * Tests that dependencies reported by the compiler are stored as complete
+   * and kept relative to the base directory.
+   */
+  public void testPutCompilerDependencies() throws IOException, ParserConfigurationException, SAXException {
+    final File baseDir = File.createTempFile("dependencies", Long.toString(System.nanoTime()));
+    baseDir.delete();
+    baseDir.mkdir();
+    final File source = new File(baseDir, "foo.c");
+    final File include = new File(baseDir, "foo.h");
+    final File bin = new File(baseDir, "dependencies.bin");
+    try {
+      new FileWriter(source).close();
+      new FileWriter(include).close();
+
+      DependencyTable dependencies = new DependencyTable(baseDir);
+      dependencies.putCompilerDependencies("/Iinclude", source, new File[] {
+        include
+      });
+      dependencies.commit(new CCTask());
+
+      dependencies = new DependencyTable(baseDir);
+      dependencies.load();
+      final DependencyInfo dependInfo = dependencies.getDependencyInfo("foo.c", "/Iinclude");
+      assertNotNull(dependInfo);
+      assertTrue(dependInfo.isComplete());
+      assertEquals(1, dependInfo.getIncludes().length);
+      assertEquals("foo.h", dependInfo.getIncludes()[0]);
+      assertEquals(0, dependInfo.getSysIncludes().length);
+    } finally {
+      source.delete();
+      include.delete();
+      bin.delete();
+      baseDir.delete();
+    }
+  }
 }
@@ -0,0 +1,110 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * IncludeCache tests
+ */
+public class TestIncludeCache extends TestCase {
+  private File tempDir;
+  private File first;
+  private File second;
+
+  public TestIncludeCache(final String testName) {
+    super(testName);
+  }
+
+  private void create(final File file) throws IOException {
+    file.getParentFile().mkdirs();
+    new FileOutputStream(file).close();
+  }
+
+  @Override
+  protected void setUp() throws IOException {
+    this.tempDir = File.createTempFile("includes", Long.toString(System.nanoTime()));
+    this.tempDir.delete();
+    this.first = new File(this.tempDir, "first");
+    this.second = new File(this.tempDir, "second");
+    this.first.mkdirs();
+    create(new File(this.second, "foo.h"));
+    create(new File(this.second, "sys/bar.h"));
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    FileUtils.deleteDirectory(this.tempDir);
+  }
+
+  /**
+   * Tests resolving against the directory listings of one build.
+   */
+  public void testResolve() {
+    final IncludeCache cache = new IncludeCache();
+    final File[] includePath = new File[] {
+        this.first, this.second
+    };
+    assertEquals(1, cache.resolve("id", "foo.h", includePath));
+    assertEquals(1, cache.resolve("id", "sys/bar.h", includePath));
+    assertEquals(-1, cache.resolve("id", "missing.h", includePath));
+    assertTrue(cache.exists(this.second, "foo.h"));
+    assertFalse(cache.exists(this.first, "foo.h"));
+  }
+
+  /**
+   * Tests that stored resolutions are used while the searched directories
+   * are unchanged and discarded once one of them changes.
+   */
+  public void testPersistent() throws IOException {
+    final CCTask task = new CCTask();
+    final File file = new File(this.tempDir, "includes.bin");
+    final File[] includePath = new File[] {
+        this.first, this.second
+    };
+    final long past = System.currentTimeMillis() - 60000;
+    this.first.setLastModified(past);
+    this.second.setLastModified(past);
+
+    IncludeCache cache = new IncludeCache(task, file);
+    assertEquals(1, cache.resolve("id", "foo.h", includePath));
+    cache.commit(task);
+    assertTrue(file.exists());
+
+    //
+    // removal is not noticed while the directory time is unchanged,
+    // which shows the stored resolution is used
+    //
+    new File(this.second, "foo.h").delete();
+    this.second.setLastModified(past);
+    cache = new IncludeCache(task, file);
+    assertEquals(1, cache.resolve("id", "foo.h", includePath));
+
+    create(new File(this.first, "foo.h"));
+    cache = new IncludeCache(task, file);
+    assertEquals(0, cache.resolve("id", "foo.h", includePath));
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * ObjectCache tests
+ */
+public class TestObjectCache extends TestCase {
+  private File tempDir;
+  private File source;
+  private File header;
+
+  public TestObjectCache(final String testName) {
+    super(testName);
+  }
+
+  private List<File> inputs() {
+    return Arrays.asList(this.source, this.header);
+  }
+
+  @Override
+  protected void setUp() throws IOException {
+    this.tempDir = File.createTempFile("objects", Long.toString(System.nanoTime()));
+    this.tempDir.delete();
+    this.tempDir.mkdirs();
+    this.source = new File(this.tempDir, "foo.c");
+    this.header = new File(this.tempDir, "foo.h");
+    FileUtils.writeStringToFile(this.source, "#include \"foo.h\"\n", "UTF-8");
+    FileUtils.writeStringToFile(this.header, "int foo;\n", "UTF-8");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    FileUtils.deleteDirectory(this.tempDir);
+  }
+
+  /**
+   * Tests that objects missing locally are fetched from the backend and new
+   * objects are published to it.
+   */
+  public void testBackend() throws IOException {
+    final File shared = new File(this.tempDir, "shared");
+    final File object = new File(this.tempDir, "foo.o");
+    FileUtils.writeStringToFile(object, "object", "UTF-8");
+    ObjectCache cache = new ObjectCache(new File(this.tempDir, "first"), 1024, new FileBuildCacheBackend(shared));
+    final String key = cache.getKey("gcc", this.source.getPath(), inputs());
+    cache.store(key, object);
+    cache.close();
+    assertEquals(0, cache.getBackendErrors());
+
+    object.delete();
+    cache = new ObjectCache(new File(this.tempDir, "second"), 1024, new FileBuildCacheBackend(shared));
+    cache.prefetch(Arrays.asList(key, "0000"));
+    assertTrue(cache.restore(key, object));
+    assertEquals("object", FileUtils.readFileToString(object, "UTF-8"));
+    assertFalse(cache.restore("0000", new File(this.tempDir, "bar.o")));
+    cache.close();
+    assertEquals(1, cache.getBackendFetches());
+    assertEquals(0, cache.getBackendErrors());
+  }
+
+  /**
+   * Tests that the key changes with the configuration and the content of
+   * the includes.
+   */
+  public void testKey() throws IOException {
+    final String key = new ObjectCache(this.tempDir, 1024).getKey("gcc -O2", this.source.getPath(), inputs());
+    assertEquals(key, new ObjectCache(this.tempDir, 1024).getKey("gcc -O2", this.source.getPath(), inputs()));
+    assertFalse(key.equals(new ObjectCache(this.tempDir, 1024).getKey("gcc -O0", this.source.getPath(), inputs())));
+    FileUtils.writeStringToFile(this.header, "long foo;\n", "UTF-8");
+    assertFalse(key.equals(new ObjectCache(this.tempDir, 1024).getKey("gcc -O2", this.source.getPath(), inputs())));
+  }
+
+  /**
+   * Tests storing and restoring an object.
+   */
+  public void testRestore() throws IOException {
+    final ObjectCache cache = new ObjectCache(new File(this.tempDir, "cache"), 1024);
+    final String key = cache.getKey("gcc", this.source.getPath(), inputs());
+    final File object = new File(this.tempDir, "foo.o");
+    assertFalse(cache.restore(key, object));
+    FileUtils.writeStringToFile(object, "object", "UTF-8");
+    cache.store(key, object);
+    object.delete();
+    assertTrue(cache.restore(key, object));
+    assertEquals("object", FileUtils.readFileToString(object, "UTF-8"));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getStores());
+  }
+
+  /**
+   * Tests that trimming removes the least recently used objects.
+   */
+  public void testTrim() throws IOException {
+    final ObjectCache cache = new ObjectCache(new File(this.tempDir, "cache"), 150);
+    final File object = new File(this.tempDir, "foo.o");
+    FileUtils.writeStringToFile(object, new String(new char[100]), "UTF-8");
+    final String oldKey = cache.getKey("old", this.source.getPath(), inputs());
+    final String newKey = cache.getKey("new", this.source.getPath(), inputs());
+    cache.store(oldKey, object);
+    cache.store(newKey, object);
+    final File oldObject = new File(this.tempDir, "old.o");
+    assertTrue(cache.restore(oldKey, oldObject));
+    oldObject.delete();
+    //
+    // make the object restored last the oldest
+    //
+    final File entry = new File(new File(cache.getDir(), oldKey.substring(0, 2)), oldKey.substring(2));
+    entry.setLastModified(System.currentTimeMillis() - 60000);
+    assertEquals(1, cache.trim());
+    assertFalse(cache.restore(oldKey, oldObject));
+    assertTrue(cache.restore(newKey, oldObject));
+  }
+}
@@ -119,11 +119,12 @@ public class TestTargetHistoryTable extends TestXMLConsumer {
       // delete any history file that might exist
       // in the test output directory
       final String tempDir = System.getProperty("java.io.tmpdir");
-      File historyFile = new File(tempDir, "history.xml");
+      File historyFile = new File(tempDir, "history.bin");
       historyFile.deleteOnExit();
       if (historyFile.exists()) {
         historyFile.delete();
       }
+      new File(tempDir, "history.xml").delete();
       final TargetHistoryTable table = new TargetHistoryTable(null, new File(tempDir));
       //
       // create a dummy compiled unit
@@ -158,4 +159,102 @@ public class TestTargetHistoryTable extends TestXMLConsumer {
 
     }
   }
+
+  /**
+   * Tests that histories committed one after another are all found when the
+   * table is loaded again.
+   *
+   * @throws IOException
+   */
+  public void testIncrementalCommit() throws IOException {
+    final File tempDir = File.createTempFile("history", Long.toString(System.nanoTime()));
+    tempDir.delete();
+    tempDir.mkdir();
+    final File first = new File(tempDir, "first.o");
+    final File second = new File(tempDir, "second.o");
+    try {
+      TargetHistoryTable table = new TargetHistoryTable(null, tempDir);
+      new FileOutputStream(first).close();
+      table.update(new MockProcessorConfiguration(), new String[] {
+        "first.o"
+      }, null);
+      table.commit();
+      final long length = table.getHistoryFile().length();
+      new FileOutputStream(second).close();
+      table.update(new MockProcessorConfiguration(), new String[] {
+        "second.o"
+      }, null);
+      table.commit();
+      assertTrue("History was not appended to", table.getHistoryFile().length() > length);
+
+      table = new TargetHistoryTable(null, tempDir);
+      assertNotNull(table.get("Mock Configuration", "first.o"));
+      assertNotNull(table.get("Mock Configuration", "second.o"));
+    } finally {
+      first.delete();
+      second.delete();
+      new File(tempDir, "history.bin").delete();
+      tempDir.delete();
+    }
+  }
+
+  /**
+   * Tests that a touched but unchanged source does not need a rebuild when
+   * content hashing is enabled, while a changed one does.
+   *
+   * @throws IOException
+   */
+  public void testContentHash() throws IOException {
+    final File tempDir = File.createTempFile("history", Long.toString(System.nanoTime()));
+    tempDir.delete();
+    tempDir.mkdir();
+    final File source = new File(tempDir, "source.c");
+    final File output = new File(tempDir, "source.o");
+    final ProcessorConfiguration config = new MockProcessorConfiguration() {
+      @Override
+      public String[] getOutputFileNames(final String baseName, final VersionInfo versionInfo) {
+        return new String[] {
+          output.getName()
+        };
+      }
+
+      @Override
+      public String toString() {
+        return getIdentifier();
+      }
+    };
+    try {
+      final TargetHistoryTable table = new TargetHistoryTable(null, tempDir);
+      table.setContentHash(true);
+      FileOutputStream stream = new FileOutputStream(source);
+      stream.write("int main() { return 0; }".getBytes("UTF-8"));
+      stream.close();
+      new FileOutputStream(output).close();
+      table.update(config, new String[] {
+        source.getPath()
+      }, null);
+
+      source.setLastModified(source.lastModified() - 10000);
+      TargetInfo target = new TargetInfo(config, new File[] {
+        source
+      }, null, output, false);
+      table.markForRebuild(target);
+      assertFalse("Touched source caused a rebuild", target.getRebuild());
+
+      stream = new FileOutputStream(source);
+      stream.write("int main() { return 1; }".getBytes("UTF-8"));
+      stream.close();
+      source.setLastModified(source.lastModified() - 20000);
+      target = new TargetInfo(config, new File[] {
+        source
+      }, null, output, false);
+      table.markForRebuild(target);
+      assertTrue("Changed source did not cause a rebuild", target.getRebuild());
+    } finally {
+      source.delete();
+      output.delete();
+      new File(tempDir, "history.bin").delete();
+      tempDir.delete();
+    }
+  }
 }
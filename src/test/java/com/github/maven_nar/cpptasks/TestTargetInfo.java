@@ -47,6 +47,12 @@ public class TestTargetInfo extends TestCase {
       throw new BuildException("Not implemented");
     }
 
+    @Override
+    public CompilerConfiguration[] createForcedPrecompileConfigurations(final File header, final File pch,
+        final String[] exceptFiles) {
+      return null;
+    }
+
     @Override
     public CompilerConfiguration[] createPrecompileConfigurations(final File file, final String[] exceptFiles) {
       return null;
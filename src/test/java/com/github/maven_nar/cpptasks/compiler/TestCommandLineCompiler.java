@@ -0,0 +1,93 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks.compiler;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.github.maven_nar.cpptasks.gcc.GccCCompiler;
+
+/**
+ * Tests for CommandLineCompiler
+ */
+public class TestCommandLineCompiler extends TestCase {
+  public TestCommandLineCompiler(final String name) {
+    super(name);
+  }
+
+  private File[] parse(final String content) throws IOException {
+    final File file = File.createTempFile("depend", ".d");
+    try {
+      final FileWriter writer = new FileWriter(file);
+      try {
+        writer.write(content);
+      } finally {
+        writer.close();
+      }
+      return GccCCompiler.getInstance().parseDependencyFile(file);
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testGetBatchOutputFileName() {
+    assertEquals("foo.o", GccCCompiler.getInstance().getBatchOutputFileName("src" + File.separator + "foo.cpp"));
+  }
+
+  /**
+   * Tests parsing a make rule as written by gcc -MMD -MF.
+   */
+  public void testParseDependencyFile() throws IOException {
+    final File[] includes = parse("obj/foo.o: src/foo.c /usr/include/foo.h \\\n  include/my\\ bar.h \\\r\n"
+        + "  C:/include/baz$$.h\n\n/usr/include/foo.h:\n");
+    assertEquals(3, includes.length);
+    assertEquals(new File("/usr/include/foo.h").getAbsoluteFile(), includes[0].getAbsoluteFile());
+    assertEquals("my bar.h", includes[1].getName());
+    assertEquals("baz$.h", includes[2].getName());
+  }
+
+  /**
+   * Tests that a source without includes has no dependencies.
+   */
+  public void testParseDependencyFileNoIncludes() throws IOException {
+    assertEquals(0, parse("foo.o: foo.c\n").length);
+  }
+
+  /**
+   * Tests that the paths of include options and response files in the
+   * arguments of a batch are made absolute.
+   */
+  public void testGetBatchArguments() {
+    final File baseDir = new File("base").getAbsoluteFile();
+    final String absolute = new File("abs").getAbsolutePath();
+    final List<String> args = CommandLineCompiler.getBatchArguments(Arrays.asList("gcc", "-c", "-Iinclude", "-I",
+        "other", "-I" + absolute, "-I-", "-include", "config.h", "-DNAME=value", "@args.txt", "--sysroot=root",
+        "-O2"), baseDir);
+    assertEquals(Arrays.asList("gcc", "-c", "-I" + new File(baseDir, "include").getPath(), "-I",
+        new File(baseDir, "other").getPath(), "-I" + absolute, "-I-", "-include",
+        new File(baseDir, "config.h").getPath(), "-DNAME=value", "@" + new File(baseDir, "args.txt").getPath(),
+        "--sysroot=" + new File(baseDir, "root").getPath(), "-O2"), args);
+  }
+}
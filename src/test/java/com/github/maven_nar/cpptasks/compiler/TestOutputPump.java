@@ -0,0 +1,58 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for OutputPump
+ */
+public class TestOutputPump extends TestCase {
+  public TestOutputPump(final String name) {
+    super(name);
+  }
+
+  /**
+   * Tests that all lines of an output reach the handler.
+   */
+  public void testPump() {
+    final OutputPump.Tail tail = new OutputPump.Tail(10);
+    final ByteArrayInputStream output = new ByteArrayInputStream("one\ntwo\r\nthree".getBytes());
+    assertTrue(OutputPump.await(OutputPump.start(output, tail), 0));
+    assertEquals(Arrays.asList("one", "two", "three"), Arrays.asList(tail.getLines()));
+    assertEquals(0, tail.getDropped());
+  }
+
+  /**
+   * Tests that a tail keeps only the last lines.
+   */
+  public void testTail() {
+    final OutputPump.Tail tail = new OutputPump.Tail(3);
+    assertEquals(0, tail.getLines().length);
+    for (int i = 0; i < 5; i++) {
+      tail.line(Integer.toString(i));
+    }
+    assertEquals(Arrays.asList("2", "3", "4"), Arrays.asList(tail.getLines()));
+    assertEquals(2, tail.getDropped());
+  }
+}
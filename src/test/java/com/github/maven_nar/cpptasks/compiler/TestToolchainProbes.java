@@ -0,0 +1,212 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks.compiler;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests for ToolchainProbes
+ */
+public class TestToolchainProbes extends TestCase {
+  private File cacheDir;
+  private String oldCacheDir;
+
+  public TestToolchainProbes(final String name) {
+    super(name);
+  }
+
+  @Override
+  protected void setUp() throws IOException {
+    this.cacheDir = File.createTempFile("probes", "");
+    this.cacheDir.delete();
+    this.oldCacheDir = System.getProperty(ToolchainProbes.CACHE_DIR_PROPERTY);
+    System.setProperty(ToolchainProbes.CACHE_DIR_PROPERTY, this.cacheDir.getPath());
+    ToolchainProbes.clear();
+  }
+
+  @Override
+  protected void tearDown() {
+    ToolchainProbes.clear();
+    if (this.oldCacheDir == null) {
+      System.clearProperty(ToolchainProbes.CACHE_DIR_PROPERTY);
+    } else {
+      System.setProperty(ToolchainProbes.CACHE_DIR_PROPERTY, this.oldCacheDir);
+    }
+    final File[] files = this.cacheDir.listFiles();
+    if (files != null) {
+      for (final File file : files) {
+        file.delete();
+      }
+    }
+    this.cacheDir.delete();
+  }
+
+  private String[] getJava() {
+    final File java = new File(new File(System.getProperty("java.home"), "bin"), "java");
+    return new String[] {
+        java.getPath(), "-version"
+    };
+  }
+
+  /**
+   * Tests that a probe runs once and later builds read its stored output.
+   */
+  public void testProbeIsStored() throws IOException {
+    final CaptureStreamHandler first = ToolchainProbes.execute(getJava());
+    assertEquals(0, first.getExitValue());
+    assertSame(first, ToolchainProbes.execute(getJava()));
+    final File[] files = this.cacheDir.listFiles();
+    assertEquals(1, files.length);
+
+    final FileWriter writer = new FileWriter(files[0]);
+    try {
+      writer.write("1\nstored output\nstored error\n");
+    } finally {
+      writer.close();
+    }
+    ToolchainProbes.clear();
+    final CaptureStreamHandler stored = ToolchainProbes.execute(getJava());
+    assertEquals(0, stored.getExitValue());
+    assertEquals(Arrays.asList("stored output"), Arrays.asList(stored.getStdout()));
+    assertEquals(Arrays.asList("stored error"), Arrays.asList(stored.getStderr()));
+    assertEquals(Arrays.asList("stored error"), Arrays.asList(ToolchainProbes.run(getJava())));
+  }
+
+  /**
+   * Tests that failing probes are not stored.
+   */
+  public void testFailureIsNotStored() {
+    final File java = new File(getJava()[0]);
+    final CaptureStreamHandler failed = ToolchainProbes.execute(new String[] {
+        java.getPath(), "-no-such-option"
+    });
+    assertTrue(failed.getExitValue() != 0);
+    final File[] files = this.cacheDir.listFiles();
+    assertTrue(files == null || files.length == 0);
+  }
+
+  /**
+   * Creates a shell script that answers -print-prog-name=cc1 with the given
+   * line and logs these runs to the file cc1-runs and every other run to the
+   * file runs next to it.
+   */
+  private File createScript(final File dir, final String name, final String cc1) throws IOException {
+    final File script = new File(dir, name);
+    FileUtils.writeLines(script, "UTF-8", Arrays.asList("#!/bin/sh", "if [ \"$1\" = -print-prog-name=cc1 ]; then",
+        "  echo run >> " + new File(dir, "cc1-runs").getPath(), "  echo " + cc1, "else", "  echo run >> " + new File(dir, "runs").getPath(), "  echo 4.9", "fi"));
+    script.setExecutable(true);
+    return script;
+  }
+
+  private int getRuns(final File dir) throws IOException {
+    return getRuns(dir, "runs");
+  }
+
+  private int getRuns(final File dir, final String name) throws IOException {
+    final File runs = new File(dir, name);
+    return runs.isFile() ? FileUtils.readLines(runs, "UTF-8").size() : 0;
+  }
+
+  /**
+   * Tests that a stored probe is not used once the compiler the executable
+   * reports has changed, as it does when gcc is upgraded behind ccache.
+   */
+  public void testCompilerChangeIsProbedAgain() throws IOException {
+    if (File.pathSeparatorChar == ';') {
+      return;
+    }
+    final File dir = File.createTempFile("toolchain", "");
+    dir.delete();
+    dir.mkdirs();
+    try {
+      final File cc1 = new File(dir, "cc1");
+      FileUtils.touch(cc1);
+      final String[] cmdline = new String[] {
+          createScript(dir, "gcc", cc1.getPath()).getPath(), "-dumpversion"
+      };
+      assertEquals(Arrays.asList("4.9"), Arrays.asList(ToolchainProbes.run(cmdline)));
+      ToolchainProbes.clear();
+      ToolchainProbes.run(cmdline);
+      assertEquals(1, getRuns(dir));
+      assertEquals(1, getRuns(dir, "cc1-runs"));
+
+      cc1.setLastModified(cc1.lastModified() - 10000);
+      ToolchainProbes.clear();
+      ToolchainProbes.run(cmdline);
+      assertEquals(2, getRuns(dir));
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+
+  /**
+   * Tests that probes of a wrapper that reports no compiler are not stored.
+   */
+  public void testWrapperIsNotStored() throws IOException {
+    if (File.pathSeparatorChar == ';') {
+      return;
+    }
+    final File dir = File.createTempFile("toolchain", "");
+    dir.delete();
+    dir.mkdirs();
+    try {
+      final String[] cmdline = new String[] {
+          createScript(dir, "ccache", "cc1").getPath(), "-dumpversion"
+      };
+      assertEquals(Arrays.asList("4.9"), Arrays.asList(ToolchainProbes.run(cmdline)));
+      // only the answer of the wrapper to the question for cc1
+      final File[] files = this.cacheDir.listFiles();
+      assertEquals(1, files.length);
+      assertTrue(files[0].getName().startsWith("cc1-"));
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+
+  /**
+   * Tests that a tool that is neither gcc nor a wrapper is not asked for
+   * its cc1.
+   */
+  public void testOtherToolIsNotAsked() throws IOException {
+    if (File.pathSeparatorChar == ';') {
+      return;
+    }
+    final File dir = File.createTempFile("toolchain", "");
+    dir.delete();
+    dir.mkdirs();
+    try {
+      final String[] cmdline = new String[] {
+          createScript(dir, "xlC", "/no/cc1").getPath(), "-qversion"
+      };
+      assertEquals(Arrays.asList("4.9"), Arrays.asList(ToolchainProbes.run(cmdline)));
+      assertEquals(0, getRuns(dir, "cc1-runs"));
+      assertEquals(1, this.cacheDir.listFiles().length);
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+}
@@ -22,8 +22,8 @@ package com.github.maven_nar.cpptasks.gcc;
 import java.io.File;
 
 import com.github.maven_nar.cpptasks.compiler.AbstractProcessor;
-import com.github.maven_nar.cpptasks.parser.CParser;
 import com.github.maven_nar.cpptasks.parser.FortranParser;
+import com.github.maven_nar.cpptasks.parser.IncludeScanner;
 import com.github.maven_nar.cpptasks.parser.Parser;
 
 /**
@@ -60,19 +60,25 @@ public class TestGccCCompiler extends TestGccCompatibleCCompiler {
     assertEquals(AbstractProcessor.DEFAULT_PROCESS_BID, compiler.bid("foo.ii"));
   }
 
+  public void testCanCompileInBatch() {
+    assertTrue(GccCCompiler.getInstance().canCompileInBatch("foo.c"));
+    assertFalse(GccCCompiler.getInstance().canCompileInBatch("foo.f"));
+    assertFalse(((GccCCompiler) GccCCompiler.getInstance().getLibtoolCompiler()).canCompileInBatch("foo.c"));
+  }
+
   public void testCreateCParser1() {
     final Parser parser = GccCCompiler.getInstance().createParser(new File("foo.c"));
-    assertTrue(parser instanceof CParser);
+    assertTrue(parser instanceof IncludeScanner);
   }
 
   public void testCreateCParser2() {
     final Parser parser = GccCCompiler.getInstance().createParser(new File("foo."));
-    assertTrue(parser instanceof CParser);
+    assertTrue(parser instanceof IncludeScanner);
   }
 
   public void testCreateCParser3() {
     final Parser parser = GccCCompiler.getInstance().createParser(new File("foo"));
-    assertTrue(parser instanceof CParser);
+    assertTrue(parser instanceof IncludeScanner);
   }
 
   public void testCreateFortranParser1() {
@@ -19,10 +19,16 @@
  */
 package com.github.maven_nar.cpptasks.msvc;
 
+import java.io.File;
+import java.util.Arrays;
 import java.util.Vector;
 
 import junit.framework.TestCase;
 
+import com.github.maven_nar.cpptasks.ProcessorParam;
+import com.github.maven_nar.cpptasks.compiler.CommandLineCompilerConfiguration;
+import com.github.maven_nar.cpptasks.compiler.CompilerConfiguration;
+
 /**
  * Test Microsoft C/C++ compiler adapter
  * 
@@ -42,4 +48,43 @@ public class TestMsvcCCompiler extends TestCase {
     assertEquals("/RTC1", args.elementAt(2));
     assertEquals("/D_DEBUG", args.elementAt(3));
   }
+
+  /**
+   * Tests that the /showIncludes prefix is taken from English and localized
+   * lines about the probe header.
+   */
+  public void testParseShowIncludesPrefix() {
+    assertEquals("Note: including file:", MsvcCompatibleCCompiler.parseShowIncludesPrefix(
+        "Note: including file: C:\\Temp\\nar-probe\\nar-show-includes.h", "nar-show-includes.h"));
+    assertEquals("Hinweis: Einlesen der Datei:", MsvcCompatibleCCompiler.parseShowIncludesPrefix(
+        "Hinweis: Einlesen der Datei:  c:\\temp\\nar-probe\\NAR-SHOW-INCLUDES.H", "nar-show-includes.h"));
+    assertNull(MsvcCompatibleCCompiler.parseShowIncludesPrefix("nar-show-includes.c", "nar-show-includes.h"));
+    assertNull(MsvcCompatibleCCompiler.parseShowIncludesPrefix("C:\\Temp\\nar-show-includes.h", "nar-show-includes.h"));
+  }
+
+  /**
+   * Tests that the configuration generating a forced precompiled header
+   * creates it and that the using configuration forces it into every source
+   * but the excepted ones.
+   */
+  public void testCreateForcedPrecompileConfigurations() {
+    final CommandLineCompilerConfiguration base = new CommandLineCompilerConfiguration(MsvcCCompiler.getInstance(),
+        "dummy", new File[0], new File[0], new File[0], "", new String[0], new ProcessorParam[0], false,
+        new String[0]);
+    final File header = new File(new File("pch"), "pch-1.h");
+    final File pch = new File(new File("pch"), "pch-1.pch");
+    final CompilerConfiguration[] configs = base.createForcedPrecompileConfigurations(header, pch, new String[] {
+      "bar.c"
+    });
+    assertEquals(2, configs.length);
+    final CommandLineCompilerConfiguration generating = (CommandLineCompilerConfiguration) configs[0];
+    assertTrue(generating.isPrecompileGeneration());
+    assertEquals(Arrays.asList("/Fp" + pch.getPath(), "/Ycpch-1.h"), Arrays.asList(generating.getPreArguments()));
+    final CommandLineCompilerConfiguration using = (CommandLineCompilerConfiguration) configs[1];
+    assertFalse(using.isPrecompileGeneration());
+    assertEquals(Arrays.asList("/Fp" + pch.getPath(), "/I" + header.getParent(), "/FIpch-1.h", "/Yupch-1.h"),
+        Arrays.asList(using.getPreArguments()));
+    assertTrue(using.bid("foo.c") > 0);
+    assertEquals(0, using.bid("bar.c"));
+  }
 }
@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.cpptasks.parser;
+
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the IncludeScanner class.
+ */
+public final class TestIncludeScanner extends TestCase {
+  private static String[] scan(final String content) throws IOException {
+    final IncludeScanner scanner = new IncludeScanner();
+    scanner.parse(new CharArrayReader(content.toCharArray()));
+    return scanner.getIncludes();
+  }
+
+  public TestIncludeScanner(final String name) {
+    super(name);
+  }
+
+  /**
+   * Builds a source from the includes recorded in a dependencies.xml and
+   * checks that IncludeScanner and CParser agree on it.
+   */
+  private void checkCorpus(final String resourceName) throws IOException {
+    final InputStream in = getClass().getClassLoader().getResourceAsStream(resourceName);
+    assertNotNull("Could not locate resource " + resourceName, in);
+    final String xml;
+    try {
+      xml = IOUtils.toString(in, "UTF-8");
+    } finally {
+      in.close();
+    }
+    final StringBuilder source = new StringBuilder();
+    final Matcher matcher = Pattern.compile("<include file=\"([^\"]*)\"").matcher(xml);
+    int count = 0;
+    while (matcher.find()) {
+      if (count % 2 == 0) {
+        source.append("#include \"").append(matcher.group(1)).append("\"\n");
+      } else {
+        source.append("  #  import <").append(matcher.group(1)).append(">\n");
+      }
+      source.append("static const int value").append(count).append(" = 1 > 0;\n");
+      count++;
+    }
+    assertTrue(count > 0);
+
+    final CParser cparser = new CParser();
+    cparser.parse(new StringReader(source.toString()));
+    final File file = File.createTempFile("source", ".c");
+    try {
+      final FileOutputStream out = new FileOutputStream(file);
+      try {
+        out.write(source.toString().getBytes());
+      } finally {
+        out.close();
+      }
+      final IncludeScanner scanner = new IncludeScanner();
+      scanner.parse(file);
+      assertEquals(count, scanner.getIncludes().length);
+      assertTrue(Arrays.equals(cparser.getIncludes(), scanner.getIncludes()));
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testBlockComment() throws IOException {
+    final String[] includes = scan("/* #include \"foo.h\"\n#include \"bar.h\"\n*/\n#include \"baz.h\"\n");
+    assertEquals(1, includes.length);
+    assertEquals("baz.h", includes[0]);
+  }
+
+  public void testCommentBeforeDirective() throws IOException {
+    final String[] includes = scan("/* license */ #include <foo.h>\n");
+    assertEquals(1, includes.length);
+    assertEquals("foo.h", includes[0]);
+  }
+
+  public void testImmediateImportBracket() throws IOException {
+    final String[] includes = scan("#import <foo.h> nowhatever  ");
+    assertEquals(1, includes.length);
+    assertEquals("foo.h", includes[0]);
+  }
+
+  public void testImmediateIncludeQuote() throws IOException {
+    final String[] includes = scan("#include     \"foo.h\"   ");
+    assertEquals(1, includes.length);
+    assertEquals("foo.h", includes[0]);
+  }
+
+  public void testIncomplete() throws IOException {
+    assertEquals(0, scan("#include <foo.h   ").length);
+    assertEquals(0, scan("#include     \"foo.h    \n\"bar.h\"").length);
+    assertEquals(0, scan("#include foo.h  ").length);
+  }
+
+  public void testLeadingWhitespace() throws IOException {
+    final String[] includes = scan(" #include \"foo.h\"\r\n\t# include <bar.h>\r\n");
+    assertEquals(2, includes.length);
+    assertEquals("foo.h", includes[0]);
+    assertEquals("bar.h", includes[1]);
+  }
+
+  public void testLineComment() throws IOException {
+    assertEquals(0, scan("//#include \"foo.h\"").length);
+  }
+
+  public void testNotFirstOnLine() throws IOException {
+    assertEquals(0, scan("int i; #include \"foo.h\"\n").length);
+  }
+
+  public void testOpenshore() throws IOException {
+    checkCorpus("openshore/dependencies.xml");
+  }
+
+  public void testStringLiteral() throws IOException {
+    final String[] includes = scan("const char *s = \"/*\";\n#include \"foo.h\"\nchar c = '\"';\n#include <bar.h>\n");
+    assertEquals(2, includes.length);
+    assertEquals("foo.h", includes[0]);
+    assertEquals("bar.h", includes[1]);
+  }
+
+  public void testXerces() throws IOException {
+    checkCorpus("xerces-c/dependencies.xml");
+  }
+}
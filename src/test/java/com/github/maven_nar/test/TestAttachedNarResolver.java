@@ -0,0 +1,184 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+
+import com.github.maven_nar.AttachedNarResolver;
+import com.github.maven_nar.NarConstants;
+
+/**
+ * Tests for AttachedNarResolver, against a stand-in resolver which copies
+ * files from a directory into the local repository.
+ */
+public class TestAttachedNarResolver extends TestCase {
+  private final Log log = new SystemStreamLog();
+
+  private File remoteDir;
+
+  private File localDir;
+
+  private ArtifactRepository localRepository;
+
+  /** resolutions by the stand-in keyed by id */
+  private final ConcurrentHashMap<String, AtomicInteger> resolutions = new ConcurrentHashMap<String, AtomicInteger>();
+
+  private ArtifactResolver resolver;
+
+  public TestAttachedNarResolver(final String name) {
+    super(name);
+  }
+
+  @Override
+  protected void setUp() throws IOException {
+    this.remoteDir = File.createTempFile("remote", "");
+    this.remoteDir.delete();
+    this.remoteDir.mkdirs();
+    this.localDir = File.createTempFile("local", "");
+    this.localDir.delete();
+    this.localDir.mkdirs();
+    this.localRepository = (ArtifactRepository) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {
+      ArtifactRepository.class
+    }, new InvocationHandler() {
+      @Override
+      public Object invoke(final Object proxy, final Method method, final Object[] args) {
+        if (method.getName().equals("getBasedir")) {
+          return TestAttachedNarResolver.this.localDir.getPath();
+        }
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+    this.resolver = (ArtifactResolver) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {
+      ArtifactResolver.class
+    }, new InvocationHandler() {
+      @Override
+      public Object invoke(final Object proxy, final Method method, final Object[] args) throws Exception {
+        if (method.getName().equals("resolve") && args.length == 3) {
+          resolve((Artifact) args[0]);
+          return null;
+        }
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    FileUtils.deleteDirectory(this.remoteDir);
+    FileUtils.deleteDirectory(this.localDir);
+  }
+
+  private Artifact createArtifact(final String classifier) {
+    return new DefaultArtifact("com.github.maven_nar", "nar-test", VersionRange.createFromVersion("1.0"),
+        Artifact.SCOPE_COMPILE, NarConstants.NAR_TYPE, classifier, new DefaultArtifactHandler(NarConstants.NAR_TYPE));
+  }
+
+  private String getFileName(final Artifact artifact) {
+    return artifact.getArtifactId() + "-" + artifact.getVersion() + "-" + artifact.getClassifier() + ".nar";
+  }
+
+  private void resolve(final Artifact artifact) throws ArtifactNotFoundException, IOException {
+    AtomicInteger count = this.resolutions.putIfAbsent(artifact.getId(), new AtomicInteger(1));
+    if (count != null) {
+      count.incrementAndGet();
+    }
+    final File remote = new File(this.remoteDir, getFileName(artifact));
+    if (!remote.exists()) {
+      throw new ArtifactNotFoundException("not in " + this.remoteDir, artifact);
+    }
+    final File local = new File(this.localDir, getFileName(artifact));
+    FileUtils.copyFile(remote, local);
+    artifact.setFile(local);
+  }
+
+  private void publish(final String classifier) throws IOException {
+    FileUtils.fileWrite(new File(this.remoteDir, getFileName(createArtifact(classifier))).getPath(), classifier);
+  }
+
+  /**
+   * Tests that every NAR is resolved once, also when several modules ask for
+   * it.
+   */
+  public void testResolveOnce() throws IOException, MojoExecutionException {
+    final List<String> classifiers = Arrays.asList("amd64-Linux-gpp-shared", "amd64-Linux-gpp-static",
+        "x86-Windows-msvc-shared", "x86-Windows-msvc-static", "noarch");
+    for (final String classifier : classifiers) {
+      publish(classifier);
+    }
+    final AttachedNarResolver narResolver = AttachedNarResolver.getInstance(null);
+    for (int module = 0; module < 2; module++) {
+      final List<Artifact> dependencies = Arrays.asList(createArtifact(classifiers.get(0)),
+          createArtifact(classifiers.get(1)), createArtifact(classifiers.get(2)), createArtifact(classifiers.get(3)),
+          createArtifact(classifiers.get(4)), createArtifact(classifiers.get(0)));
+      narResolver.resolve(dependencies, this.resolver, Collections.emptyList(), this.localRepository, 3, this.log);
+      for (final Artifact dependency : dependencies) {
+        assertTrue(dependency.isResolved());
+        assertEquals(new File(this.localDir, getFileName(dependency)), dependency.getFile());
+      }
+    }
+    assertEquals(classifiers.size(), this.resolutions.size());
+    for (final AtomicInteger count : this.resolutions.values()) {
+      assertEquals(1, count.get());
+    }
+  }
+
+  /**
+   * Tests that a failed resolution is tried again by the next module.
+   */
+  public void testRetryAfterFailure() throws IOException, MojoExecutionException {
+    final AttachedNarResolver narResolver = AttachedNarResolver.getInstance(null);
+    final String classifier = "amd64-Linux-gpp-shared";
+    try {
+      narResolver.resolve(Collections.singletonList(createArtifact(classifier)), this.resolver,
+          Collections.emptyList(), this.localRepository, 3, this.log);
+      fail("resolved a missing NAR");
+    } catch (final MojoExecutionException e) {
+      assertTrue(e.getMessage().startsWith("nar not found"));
+    }
+    publish(classifier);
+    final Artifact dependency = createArtifact(classifier);
+    narResolver.resolve(Collections.singletonList(dependency), this.resolver, Collections.emptyList(),
+        this.localRepository, 3, this.log);
+    assertEquals(new File(this.localDir, getFileName(dependency)), dependency.getFile());
+  }
+}
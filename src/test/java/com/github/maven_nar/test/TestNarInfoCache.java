@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import com.github.maven_nar.NarConstants;
+import com.github.maven_nar.NarInfo;
+import com.github.maven_nar.NarInfoCache;
+
+/**
+ * Tests for NarInfoCache
+ */
+public class TestNarInfoCache extends TestCase {
+  private final Log log = new SystemStreamLog();
+
+  private Artifact artifact;
+
+  private File file;
+
+  public TestNarInfoCache(final String name) {
+    super(name);
+  }
+
+  @Override
+  protected void setUp() throws IOException {
+    this.artifact = new DefaultArtifact("com.github.maven_nar", "nar-test", VersionRange.createFromVersion("1.0"),
+        Artifact.SCOPE_COMPILE, NarConstants.NAR_TYPE, null, new DefaultArtifactHandler(NarConstants.NAR_TYPE));
+    this.file = File.createTempFile("nar-test", ".nar");
+    writeNar("libs.binding=shared\n");
+  }
+
+  @Override
+  protected void tearDown() {
+    this.file.delete();
+  }
+
+  private void writeNar(final String properties) throws IOException {
+    final JarOutputStream jar = new JarOutputStream(new FileOutputStream(this.file));
+    // stored, so that the size of the file only depends on the properties
+    jar.setLevel(Deflater.NO_COMPRESSION);
+    try {
+      jar.putNextEntry(new ZipEntry("META-INF/nar/com.github.maven_nar/nar-test/" + NarInfo.NAR_PROPERTIES));
+      jar.write(properties.getBytes("ISO-8859-1"));
+      jar.closeEntry();
+    } finally {
+      jar.close();
+    }
+  }
+
+  /**
+   * Tests that a NAR is read once until its file changes.
+   */
+  public void testReadOnce() throws IOException, MojoExecutionException {
+    final NarInfoCache cache = NarInfoCache.getInstance(null);
+    final NarInfo narInfo = cache.getNarInfo(this.artifact, this.file, this.log);
+    assertEquals("shared", narInfo.getBinding(null, null));
+
+    final long lastModified = this.file.lastModified();
+    final long length = this.file.length();
+    writeNar("libs.binding=static\n");
+    this.file.setLastModified(lastModified);
+    assertEquals(length, this.file.length());
+    assertEquals("shared", cache.getNarInfo(this.artifact, this.file, this.log).getBinding(null, null));
+
+    writeNar("libs.binding=static\n");
+    this.file.setLastModified(this.file.lastModified() + 2000);
+    assertEquals("static", cache.getNarInfo(this.artifact, this.file, this.log).getBinding(null, null));
+  }
+
+  /**
+   * Tests that every caller gets a NarInfo logging to its own log.
+   */
+  public void testLogOfCaller() throws MojoExecutionException {
+    final NarInfoCache cache = NarInfoCache.getInstance(null);
+    final List<CharSequence> first = new ArrayList<CharSequence>();
+    final List<CharSequence> second = new ArrayList<CharSequence>();
+    cache.getNarInfo(this.artifact, this.file, createLog(first)).getBinding(null, null);
+    cache.getNarInfo(this.artifact, this.file, createLog(second)).getBinding(null, null);
+    assertEquals(1, first.size());
+    assertEquals(1, second.size());
+  }
+
+  private static Log createLog(final List<CharSequence> messages) {
+    return new SystemStreamLog() {
+      @Override
+      public void debug(final CharSequence content) {
+        messages.add(content);
+      }
+    };
+  }
+
+  /**
+   * Tests that files without NarInfo of the artifact are skipped.
+   */
+  public void testNoNarInfo() throws IOException, MojoExecutionException {
+    final NarInfoCache cache = NarInfoCache.getInstance(null);
+    final FileOutputStream out = new FileOutputStream(this.file);
+    try {
+      out.write("not a zip file".getBytes("ISO-8859-1"));
+    } finally {
+      out.close();
+    }
+    assertNull(cache.getNarInfo(this.artifact, this.file, this.log));
+    assertNull(cache.getNarInfo(this.artifact, new File(this.file.getPath() + ".missing"), this.log));
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * Native ARchive plugin for Maven
+ * %%
+ * Copyright (C) 2002 - 2014 NAR Maven Plugin developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.github.maven_nar.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+
+import com.github.maven_nar.NarTestRunner;
+
+/**
+ * Tests for NarTestRunner, running the java executable as test.
+ */
+public class TestNarTestRunner extends TestCase {
+  /**
+   * Stands in for a test which hangs.
+   */
+  public static final class Sleep {
+    public static void main(final String[] args) throws InterruptedException {
+      Thread.sleep(60000);
+    }
+  }
+
+  private final Log log = new SystemStreamLog();
+
+  private File reportsDirectory;
+
+  public TestNarTestRunner(final String name) {
+    super(name);
+  }
+
+  @Override
+  protected void setUp() throws IOException {
+    this.reportsDirectory = File.createTempFile("reports", "");
+    this.reportsDirectory.delete();
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    FileUtils.deleteDirectory(this.reportsDirectory);
+  }
+
+  private File getJava() {
+    return new File(new File(System.getProperty("java.home"), "bin"), "java");
+  }
+
+  private String readReport(final NarTestRunner.Execution execution) throws IOException {
+    return FileUtils.fileRead(new File(this.reportsDirectory, "TEST-" + execution.getSuiteName() + ".xml"), "UTF-8");
+  }
+
+  /**
+   * Tests that the shards take turns and together hold every test once.
+   */
+  public void testShard() throws MojoFailureException {
+    final List<Integer> tests = Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+    assertEquals(Arrays.asList(1, 4, 7), NarTestRunner.shard(tests, 1, 3));
+    final List<Integer> all = new ArrayList<Integer>();
+    for (int shardIndex = 0; shardIndex < 3; shardIndex++) {
+      all.addAll(NarTestRunner.shard(tests, shardIndex, 3));
+    }
+    Collections.sort(all);
+    assertEquals(tests, all);
+    assertEquals(tests, NarTestRunner.shard(tests, 0, 1));
+    try {
+      NarTestRunner.shard(tests, 3, 3);
+      fail("accepted a shard index out of range");
+    } catch (final MojoFailureException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Tests that concurrent tests are reported with their outcome and output.
+   */
+  public void testReports() throws IOException, MojoExecutionException, MojoFailureException {
+    final NarTestRunner.Execution pass = new NarTestRunner.Execution("nar-test.pass", "pass", getJava(),
+        Arrays.asList("-version"), null, 0);
+    final NarTestRunner.Execution fail = new NarTestRunner.Execution("nar-test.fail", "fail", getJava(),
+        Arrays.asList("-no-such-option"), null, 0);
+    new NarTestRunner(null, this.reportsDirectory, this.log).run(Arrays.asList(pass, fail), 2);
+
+    assertNull(pass.getFailure());
+    assertTrue(readReport(pass).contains("<testsuite name=\"nar-test.pass\""));
+    assertFalse(readReport(pass).contains("<failure"));
+    assertTrue(FileUtils.fileRead(new File(this.reportsDirectory, "nar-test.pass-output.txt")).contains("version"));
+
+    assertTrue(fail.getExitValue() != 0);
+    assertTrue(fail.getFailure().startsWith("Test fail failed with exit code: "));
+    assertTrue(readReport(fail).contains("<failure"));
+    assertTrue(readReport(fail).contains("<system-err>"));
+  }
+
+  /**
+   * Tests that a test is killed when it runs out of time.
+   */
+  public void testTimeout() throws IOException, MojoExecutionException, MojoFailureException {
+    final NarTestRunner.Execution hang = new NarTestRunner.Execution("nar-test.hang", "hang", getJava(),
+        Arrays.asList("-cp", System.getProperty("java.class.path"), Sleep.class.getName()), null, 1);
+    new NarTestRunner(null, this.reportsDirectory, this.log).run(Collections.singletonList(hang), 1);
+
+    assertTrue(hang.isTimedOut());
+    assertTrue(hang.getTime() < 30000);
+    assertEquals("Test hang timed out after 1 s", hang.getFailure());
+    assertTrue(readReport(hang).contains("<error"));
+  }
+}